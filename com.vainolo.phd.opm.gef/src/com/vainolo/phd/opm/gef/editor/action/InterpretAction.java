@@ -5,9 +5,15 @@
  *******************************************************************************/
 package com.vainolo.phd.opm.gef.editor.action;
 
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiConsumer;
+
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.jface.action.Action;
+import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.PlatformUI;
@@ -15,6 +21,7 @@ import org.eclipse.ui.PlatformUI;
 import com.vainolo.phd.opm.gef.OPMGEFEditorPlugin;
 import com.vainolo.phd.opm.gef.editor.OPMGraphicalEditor;
 import com.vainolo.phd.opm.interpreter.OPMInterpreter;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
 
 public class InterpretAction extends Action {
   public static final String INTERPRET_ID = "Interpret";
@@ -34,11 +41,21 @@ public class InterpretAction extends Action {
     final String processName = ((OPMGraphicalEditor) activeEditor).getOPD().getName();
     final IContainer container = ((IFileEditorInput) activeEditor.getEditorInput()).getFile().getParent();
 
-    (new Thread(new Runnable() {
-      @Override
-      public void run() {
-        OPMInterpreter.INSTANCE.interpret(processName, container);
-      }
-    })).start();
+    OPMInterpreter.INSTANCE.interpretAsync(processName, container).whenComplete(
+        new BiConsumer<Map<String, OPMObjectInstance>, Throwable>() {
+          @Override
+          public void accept(Map<String, OPMObjectInstance> results, final Throwable error) {
+            if(error == null || error instanceof CancellationException) {
+              return;
+            }
+            Display.getDefault().asyncExec(new Runnable() {
+              @Override
+              public void run() {
+                MessageDialog.openError(activeEditor.getSite().getShell(), "Interpret", "Execution of " + processName
+                    + " failed: " + error.getMessage());
+              }
+            });
+          }
+        });
   }
 }
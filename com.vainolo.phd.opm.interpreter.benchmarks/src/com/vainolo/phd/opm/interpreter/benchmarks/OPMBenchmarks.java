@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Runs the interpreter benchmarks. Build the benchmarks with
+ * <code>mvn package -P benchmarks</code> and run them with
+ * <code>java -jar target/benchmarks.jar</code> from the benchmarks project.
+ * All the JMH command line options are accepted, for example
+ * <code>OPMExecutionBenchmark -p opdName=Power</code> runs only the execution
+ * of the <code>Power</code> OPD.
+ * </p>
+ *
+ * <p>
+ * The <code>compilation</code> parameter of {@link OPMExecutionBenchmark}
+ * executes every OPD once with the interpreter and once with in-zoomed process
+ * compilation enabled, so the default run already compares both. To compare
+ * them on a single OPD run, for example,
+ * <code>OPMExecutionBenchmark -p opdName=Multiply -p compilation=false,true</code>
+ * and compare the throughput and allocation of the two rows.
+ * </p>
+ *
+ * <p>
+ * Unless other profilers are given using <code>-prof</code>, the runs are
+ * profiled using the JMH GC profiler, which reports the allocation rate
+ * (<code>gc.alloc.rate</code>) and the bytes allocated by every operation
+ * (<code>gc.alloc.rate.norm</code>). The OPDs are loaded from the directory
+ * given in the <code>opm.models</code> system property, by default the
+ * <code>modeling</code> directory of the repository.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMBenchmarks {
+
+  public static final String MODELS_DIRECTORY_PROPERTY = "opm.models";
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+    if(commandLineOptions.getProfilers().isEmpty()) {
+      options.addProfiler(GCProfiler.class);
+    }
+    new Runner(options.build()).run();
+  }
+
+  /**
+   * Get the directory where the OPDs of the benchmarks are found.
+   */
+  static File getModelsDirectory() {
+    return new File(System.getProperty(MODELS_DIRECTORY_PROPERTY, "../modeling"));
+  }
+}
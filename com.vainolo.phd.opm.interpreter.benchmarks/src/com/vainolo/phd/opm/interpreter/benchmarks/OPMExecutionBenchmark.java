@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vainolo.phd.opm.interpreter.OPMDirectoryModelResolver;
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMInterpreter;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstanceFactory;
+import com.vainolo.phd.opm.model.OPMPackage;
+
+/**
+ * Executes the sample OPDs end to end: every operation creates an instance of
+ * the OPD using {@link OPMProcessInstanceFactory}, sets all its incoming
+ * parameters to <code>argument</code> and executes it. Models are loaded once
+ * and then taken from the model repository, like in the command line runner.
+ * The throughput is reported in operations per second and the latency
+ * percentiles in microseconds.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class OPMExecutionBenchmark {
+
+  @Param({ "Add", "Multiply", "Power" })
+  public String opdName;
+
+  @Param({ "3" })
+  public String argument;
+
+  @Param({ "false", "true" })
+  public boolean compilation;
+
+  private OPMExecutionContext context;
+  private BigDecimal argumentValue;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    OPMPackage.eINSTANCE.getClass();
+    OPMInterpreter.INSTANCE.setCompilationEnabled(compilation);
+    context = new OPMExecutionContext(new OPMDirectoryModelResolver(OPMBenchmarks.getModelsDirectory()));
+    argumentValue = new BigDecimal(argument);
+    if(OPMProcessInstanceFactory.createExecutableInstance(opdName, context) == null) {
+      throw new IllegalStateException("OPD " + opdName + " could not be loaded from "
+          + OPMBenchmarks.getModelsDirectory() + ".");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    OPMInterpreter.INSTANCE.shutdown();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public OPMProcessInstance throughput() throws Exception {
+    return execute();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public OPMProcessInstance latency() throws Exception {
+    return execute();
+  }
+
+  private OPMProcessInstance execute() throws Exception {
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opdName, context);
+    for(OPMParameter parameter : instance.getIncomingParameterNames()) {
+      instance.setArgument(parameter.getName(), OPMObjectInstance.createFromValue(argumentValue));
+    }
+    instance.call();
+    return instance;
+  }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMPackage;
+import com.vainolo.phd.opm.utilities.OPMFileUtils;
+
+/**
+ * Loads the sample OPDs from their files, without using the model repository.
+ * This is the cost paid by the first execution of an OPD and every time the
+ * file of the OPD changes. <code>Interpreter</code> is a structural model
+ * without an in-zoomed process, so it is only loaded and not executed by
+ * {@link OPMExecutionBenchmark}.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class OPMModelLoadingBenchmark {
+
+  @Param({ "Add", "Multiply", "Power", "Interpreter" })
+  public String opdName;
+
+  private String opdURI;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    OPMPackage.eINSTANCE.getClass();
+    opdURI = new File(OPMBenchmarks.getModelsDirectory(), opdName + ".opm").toURI().toString();
+    if(OPMFileUtils.INSTANCE.loadOPDFile(opdURI) == null) {
+      throw new IllegalStateException("OPD " + opdName + " could not be loaded from " + opdURI + ".");
+    }
+  }
+
+  @Benchmark
+  public OPMObjectProcessDiagram load() {
+    return OPMFileUtils.INSTANCE.loadOPDFile(opdURI);
+  }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMBatchExecutorTest {
+
+  private static final int BATCH_SIZE = 20;
+
+  private OPMObjectProcessDiagram opd;
+
+  private List<Map<String, OPMObjectInstance>> createBatch() {
+    List<Map<String, OPMObjectInstance>> batch = Lists.newArrayList();
+    for(int i = 0; i < BATCH_SIZE; i++) {
+      batch.add(ImmutableMap.of("a", OPMObjectInstance.createFromValue(new BigDecimal(i))));
+    }
+    return batch;
+  }
+
+  @Before
+  public void setUp() {
+    opd = createSequentialProcessesOPD("Batch", 2);
+  }
+
+  @After
+  public void tearDown() {
+    OPMInterpreter.INSTANCE.setCompilationEnabled(true);
+  }
+
+  @Test
+  public void test_execute_inputOrder() {
+    OPMBatchExecutor executor = new OPMBatchExecutor(opd);
+    executor.setParallelism(4);
+    executor.setResultOrder(OPMBatchResultOrder.INPUT);
+
+    Iterator<OPMBatchResult> results = executor.execute(createBatch());
+    for(int i = 0; i < BATCH_SIZE; i++) {
+      OPMBatchResult result = results.next();
+      assertTrue(result.isSuccessful());
+      assertEquals(i, result.getIndex());
+      assertEquals((i + 2) * 2, result.getResults().get("c").getNumericalValue().intValue());
+    }
+    assertFalse(results.hasNext());
+  }
+
+  @Test
+  public void test_execute_completionOrderInterpreted() {
+    OPMInterpreter.INSTANCE.setCompilationEnabled(false);
+    OPMBatchExecutor executor = new OPMBatchExecutor(opd);
+    executor.setParallelism(4);
+
+    Set<Long> indexes = Sets.newHashSet();
+    Iterator<OPMBatchResult> results = executor.execute(createBatch());
+    while(results.hasNext()) {
+      OPMBatchResult result = results.next();
+      assertTrue(result.isSuccessful());
+      int a = result.getArguments().get("a").getNumericalValue().intValue();
+      assertEquals((a + 2) * 2, result.getResults().get("c").getNumericalValue().intValue());
+      indexes.add(result.getIndex());
+    }
+    assertEquals(BATCH_SIZE, indexes.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_create_unfoldedOPD() {
+    opd.setKind(OPMObjectProcessDiagramKind.UNFOLDED);
+    new OPMBatchExecutor(opd);
+  }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.builtin.OPMBinaryMathOpProcessInstance;
+import com.vainolo.phd.opm.interpreter.builtin.OPMConceptualProcess;
+import com.vainolo.phd.opm.model.OPMFactory;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMProcessKind;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMBuiltInProcessRegistryTest {
+
+  private OPMBuiltInProcessRegistry registry;
+
+  private OPMProcess createProcess(String name) {
+    OPMProcess process = OPMFactory.eINSTANCE.createOPMProcess();
+    process.setKind(OPMProcessKind.BUILT_IN);
+    process.setName(name);
+    return process;
+  }
+
+  @Before
+  public void setUp() {
+    registry = new OPMBuiltInProcessRegistry();
+  }
+
+  @Test
+  public void test_createInstance_defaultProcess() {
+    OPMProcessInstance instance = registry.createInstance(createProcess("+"));
+    assertTrue(instance instanceof OPMBinaryMathOpProcessInstance);
+    assertEquals("Add", instance.getName());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_createInstance_unknownProcess() {
+    registry.createInstance(createProcess("Unknown"));
+  }
+
+  @Test
+  public void test_release_reusableInstance() {
+    OPMProcess process = createProcess("*");
+    OPMProcessInstance instance = registry.createInstance(process);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1)));
+    registry.release(process, instance);
+
+    OPMProcessInstance reused = registry.createInstance(process);
+    assertSame(instance, reused);
+    assertNull(reused.getArgument("a"));
+    assertNotSame(instance, registry.createInstance(process));
+  }
+
+  @Test
+  public void test_release_notReusableInstance() {
+    OPMProcess process = createProcess("Hello World");
+    OPMProcessInstance instance = registry.createInstance(process);
+    registry.release(process, instance);
+    assertNotSame(instance, registry.createInstance(process));
+  }
+
+  @Test
+  public void test_register_replacesProcess() {
+    registry.register("+", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMConceptualProcess(process);
+      }
+    });
+    assertTrue(registry.createInstance(createProcess("+")) instanceof OPMConceptualProcess);
+    registry.unregister("+");
+    assertFalse(registry.isRegistered("+"));
+  }
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.draw2d.geometry.Rectangle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMProceduralLinkKind;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMExecutionContextTest {
+
+  private static final String BLOCK_PROCESS = "Block";
+
+  private CountDownLatch blockStarted;
+  private final AtomicReference<Thread> loadingThread = new AtomicReference<Thread>();
+
+  private OPMObjectProcessDiagram createBlockingOPD() {
+    OPMObjectProcessDiagram blockingOPD = createOPD("Blocking");
+    ((OPMProcess) blockingOPD.getNodes().get(0)).getNodes().add(
+        createProcess(BLOCK_PROCESS, new Rectangle(0, 0, 50, 20)));
+    return blockingOPD;
+  }
+
+  /**
+   * Create an OPD that adds its argument <code>a</code> to itself and returns
+   * the sum in <code>c</code>.
+   */
+  private OPMObjectProcessDiagram createAddOPD() {
+    OPMObjectProcessDiagram addOPD = createOPD("Add");
+    OPMProcess addProcess = createProcess("+", new Rectangle(0, 0, 50, 20));
+    ((OPMProcess) addOPD.getNodes().get(0)).getNodes().add(addProcess);
+    OPMObject a = createObject("a");
+    addOPD.getNodes().add(a);
+    OPMObject c = createObject("c");
+    addOPD.getNodes().add(c);
+    addOPD.getLinks().add(createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, a, addProcess));
+    addOPD.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, a, addProcess));
+    addOPD.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, addProcess, c));
+    return addOPD;
+  }
+
+  /**
+   * Create a context whose model repository returns the given OPD for every
+   * name, and records the thread that loaded it in {@link #loadingThread}.
+   */
+  private OPMExecutionContext createContext(final OPMObjectProcessDiagram opd, ExecutorService executor) {
+    OPMModelRepository repository = new OPMModelRepository() {
+      @Override
+      public OPMObjectProcessDiagram getOPD(String path, long modificationStamp) {
+        loadingThread.set(Thread.currentThread());
+        return opd;
+      }
+    };
+    OPMModelResolver resolver = new OPMModelResolver() {
+      @Override
+      public String getLocation(String opdName) {
+        return opdName;
+      }
+
+      @Override
+      public long getModificationStamp(String opdName) {
+        return 0;
+      }
+    };
+    return new OPMExecutionContext(repository, resolver, executor);
+  }
+
+  private OPMProcessInstance createInstance(OPMObjectProcessDiagram opd, OPMExecutionContext context) {
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    return OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+  }
+
+  @Before
+  public void setUp() {
+    blockStarted = new CountDownLatch(1);
+    OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().register(BLOCK_PROCESS, new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMAbstractProcessInstance() {
+          @Override
+          protected void executing() throws Exception {
+            blockStarted.countDown();
+            new CountDownLatch(1).await();
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+        };
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().unregister(BLOCK_PROCESS);
+  }
+
+  @Test
+  public void test_cancel_runsListenersOnce() {
+    OPMExecutionContext context = new OPMExecutionContext();
+    final AtomicInteger calls = new AtomicInteger();
+    Runnable listener = new Runnable() {
+      @Override
+      public void run() {
+        calls.incrementAndGet();
+      }
+    };
+    context.addCancellationListener(listener);
+    assertFalse(context.isCancelled());
+    context.cancel();
+    context.cancel();
+    assertTrue(context.isCancelled());
+    assertEquals(1, calls.get());
+
+    context.addCancellationListener(listener);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void test_createExecutableInstance_attachesContext() {
+    OPMExecutionContext context = new OPMExecutionContext();
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(
+        createProcess("+", new Rectangle(0, 0, 50, 20)), context);
+    assertSame(context, ((OPMAbstractProcessInstance) instance).getExecutionContext());
+    assertEquals(1, context.getMetrics().getInstancesCreated());
+  }
+
+  @Test
+  public void test_cancel_stopsOnlyItsExecution() throws Exception {
+    OPMObjectProcessDiagram blockingOPD = createBlockingOPD();
+    OPMObjectProcessDiagram addOPD = createAddOPD();
+
+    ExecutorService blockingExecutor = Executors.newCachedThreadPool();
+    final OPMExecutionContext blockingContext = new OPMExecutionContext(null, null, blockingExecutor);
+    final OPMProcessInstance blockingInstance = createInstance(blockingOPD, blockingContext);
+    final AtomicReference<OPMProcessExecutionResultType> resultType =
+        new AtomicReference<OPMProcessExecutionResultType>();
+    Thread blockingThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          resultType.set(blockingInstance.call().getResultType());
+        } catch(Exception e) {
+          fail("Cancelled execution should not throw " + e);
+        }
+      }
+    });
+    blockingThread.start();
+    assertTrue(blockStarted.await(10, TimeUnit.SECONDS));
+
+    OPMExecutionContext addContext = new OPMExecutionContext();
+    OPMProcessInstance addInstance = createInstance(addOPD, addContext);
+    addInstance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(2)));
+    addInstance.call();
+    assertEquals(4, addInstance.getArgument("c").getNumericalValue().intValue());
+    assertEquals(1, addContext.getMetrics().getInstancesExecuted());
+
+    blockingContext.cancel();
+    blockingThread.join(10000);
+    assertFalse(blockingThread.isAlive());
+    assertEquals(OPMProcessExecutionResultType.ABORTED_BY_CALLER, resultType.get());
+    assertFalse(addContext.isCancelled());
+    blockingExecutor.shutdown();
+  }
+
+  @Test
+  public void test_deadline_stopsExecution() throws Exception {
+    ExecutorService blockingExecutor = Executors.newCachedThreadPool();
+    OPMExecutionContext context = new OPMExecutionContext(null, null, blockingExecutor);
+    context.setTimeout(100, TimeUnit.MILLISECONDS);
+    OPMProcessExecutionResult result = createInstance(createBlockingOPD(), context).call();
+    assertEquals(OPMProcessExecutionResultType.UNABLE_TO_FINISH, result.getResultType());
+    assertEquals(OPMProcessExecutionResultType.UNABLE_TO_FINISH, context.getCancellationResultType());
+    blockingExecutor.shutdown();
+    assertTrue(blockingExecutor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void test_deadline_clearedWhenExecutionFinishes() throws Exception {
+    OPMExecutionContext context = createContext(createAddOPD(), null);
+    context.setTimeout(10, TimeUnit.SECONDS);
+    OPMProcessExecutionResult result = OPMInterpreter.INSTANCE.interpret("Add", context);
+    assertEquals(OPMProcessExecutionResultType.FINISHED, result.getResultType());
+    assertEquals(0, context.getDeadline());
+    assertFalse(context.isCancelled());
+
+    OPMExecutionContext asyncContext = createContext(createAddOPD(), null);
+    asyncContext.setTimeout(10, TimeUnit.SECONDS);
+    Map<String, OPMObjectInstance> arguments = Collections.singletonMap("a",
+        OPMObjectInstance.createFromValue(new BigDecimal(2)));
+    assertEquals(4, OPMInterpreter.INSTANCE.interpretAsync("Add", arguments, asyncContext).get(10, TimeUnit.SECONDS)
+        .get("c").getNumericalValue().intValue());
+    assertEquals(0, asyncContext.getDeadline());
+    assertFalse(asyncContext.isCancelled());
+  }
+
+  @Test
+  public void test_setParallelism_keepsRunningExecutions() throws Exception {
+    final CountDownLatch gateStarted = new CountDownLatch(1);
+    final CountDownLatch gateOpened = new CountDownLatch(1);
+    OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().register("Gate", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMAbstractProcessInstance() {
+          @Override
+          protected void executing() throws Exception {
+            gateStarted.countDown();
+            gateOpened.await();
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+        };
+      }
+    });
+    int parallelism = OPMInterpreter.INSTANCE.getParallelism();
+    ExecutorService callerExecutor = Executors.newSingleThreadExecutor();
+    try {
+      // the gate holds the execution on the current executor, and the addition after it is submitted only after
+      // the executor was replaced.
+      OPMObjectProcessDiagram opd = createAddOPD();
+      ((OPMProcess) opd.getNodes().get(0)).getNodes().get(0).setConstraints(new Rectangle(0, 40, 50, 20));
+      ((OPMProcess) opd.getNodes().get(0)).getNodes().add(createProcess("Gate", new Rectangle(0, 0, 50, 20)));
+      final OPMProcessInstance instance = createInstance(opd, new OPMExecutionContext());
+      instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(2)));
+      Future<OPMProcessExecutionResult> result = callerExecutor.submit(new Callable<OPMProcessExecutionResult>() {
+        @Override
+        public OPMProcessExecutionResult call() throws Exception {
+          return instance.call();
+        }
+      });
+      assertTrue(gateStarted.await(10, TimeUnit.SECONDS));
+      OPMInterpreter.INSTANCE.setParallelism(parallelism + 1);
+      gateOpened.countDown();
+      assertEquals(OPMProcessExecutionResultType.FINISHED, result.get(10, TimeUnit.SECONDS).getResultType());
+      assertEquals(4, instance.getArgument("c").getNumericalValue().intValue());
+    } finally {
+      gateOpened.countDown();
+      callerExecutor.shutdown();
+      OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().unregister("Gate");
+      OPMInterpreter.INSTANCE.setParallelism(parallelism);
+    }
+  }
+
+  @Test
+  public void test_interpretAsync_loadsOnContextExecutor() throws Exception {
+    final AtomicReference<Thread> executorThread = new AtomicReference<Thread>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        executorThread.set(Thread.currentThread());
+      }
+    }).get();
+    OPMExecutionContext context = createContext(createAddOPD(), executor);
+    Map<String, OPMObjectInstance> arguments = Collections.singletonMap("a",
+        OPMObjectInstance.createFromValue(new BigDecimal(3)));
+    assertEquals(6, OPMInterpreter.INSTANCE.interpretAsync("Add", arguments, context).get(10, TimeUnit.SECONDS)
+        .get("c").getNumericalValue().intValue());
+    assertSame(executorThread.get(), loadingThread.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void test_sleep_wakesUpOnCancel() throws Exception {
+    final OPMExecutionContext context = new OPMExecutionContext();
+    assertTrue(context.sleep(1));
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        context.cancel();
+      }
+    }).start();
+    long start = System.currentTimeMillis();
+    assertFalse(context.sleep(10000));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+}
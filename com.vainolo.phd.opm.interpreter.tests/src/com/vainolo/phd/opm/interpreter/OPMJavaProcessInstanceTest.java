@@ -5,7 +5,16 @@
  *******************************************************************************/
 package com.vainolo.phd.opm.interpreter;
 
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
 import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.model.OPMFactory;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMProcessKind;
 
 /**
  * 
@@ -15,9 +24,105 @@ import org.junit.Before;
  */
 public class OPMJavaProcessInstanceTest extends OPMAbstractProcessInstanceTest {
 
+  private OPMProcess createJavaProcess(String name, String description) {
+    OPMProcess process = OPMFactory.eINSTANCE.createOPMProcess();
+    process.setKind(OPMProcessKind.JAVA);
+    process.setName(name);
+    process.setDescription(description);
+    return process;
+  }
+
   @Before
   public void setUp() {
     super.setUp();
   }
 
+  @Test
+  public void test_execute_staticMethod() throws Exception {
+    OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Max",
+        "java.lang.Math.max(int, int)"));
+    assertEquals(2, instance.getIncomingParameterNames().size());
+    assertEquals("result", instance.getOutgoingParameterNames().get(0).getName());
+
+    instance.setArgument("arg0", OPMObjectInstance.createFromValue(new BigDecimal(3)));
+    instance.setArgument("arg1", OPMObjectInstance.createFromValue(new BigDecimal(7)));
+    instance.call();
+    assertEquals(7, instance.getArgument("result").getNumericalValue().intValue());
+  }
+
+  @Test
+  public void test_execute_instanceMethod() throws Exception {
+    OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Concat",
+        "java.lang.String.concat(java.lang.String)"));
+    assertEquals("this", instance.getIncomingParameterNames().get(0).getName());
+
+    instance.setArgument("this", OPMObjectInstance.createFromValue("Hello "));
+    instance.setArgument("arg0", OPMObjectInstance.createFromValue("World"));
+    instance.call();
+    assertEquals("Hello World", instance.getArgument("result").getStringValue());
+  }
+
+  @Test
+  public void test_execute_booleanResult() throws Exception {
+    OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Is Empty",
+        "java.lang.String.isEmpty()"));
+    instance.setArgument("this", OPMObjectInstance.createFromValue(""));
+    instance.call();
+    assertEquals("true", instance.getArgument("result").getStringValue());
+  }
+
+  @Test
+  public void test_execute_argumentsAreNotNarrowed() throws Exception {
+    for(BigDecimal value : new BigDecimal[] { new BigDecimal("2.5"), new BigDecimal(1L << 40) }) {
+      OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Abs",
+          "java.lang.Math.abs(int)"));
+      instance.setArgument("arg0", OPMObjectInstance.createFromValue(value));
+      try {
+        instance.call();
+        fail("Argument " + value + " should not be converted to an int.");
+      } catch(OPMRuntimeException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+        assertTrue(e.getCause().getCause() instanceof ArithmeticException);
+      }
+    }
+
+    OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Abs",
+        "java.lang.Math.abs(long)"));
+    instance.setArgument("arg0", OPMObjectInstance.createFromValue(new BigDecimal("-3.0")));
+    instance.call();
+    assertEquals(3, instance.getArgument("result").getLongValue());
+  }
+
+  @Test
+  public void test_execute_doubleResult() throws Exception {
+    OPMProcessInstance instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Square Root",
+        "java.lang.Math.sqrt(double)"));
+    instance.setArgument("arg0", OPMObjectInstance.createFromValue(new BigDecimal("2.25")));
+    instance.call();
+    OPMObjectInstance result = instance.getArgument("result");
+    assertEquals(OPMObjectInstance.NumericalRepresentation.DOUBLE, result.getNumericalRepresentation());
+    assertEquals(new BigDecimal("1.5"), result.getNumericalValue());
+
+    instance = new OPMJavaProcessExecutableInstance(createJavaProcess("Square Root", "java.lang.Math.sqrt(double)"));
+    instance.setArgument("arg0", OPMObjectInstance.createFromValue(new BigDecimal(-1)));
+    try {
+      instance.call();
+      fail("The square root of -1 is not a number.");
+    } catch(OPMRuntimeException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void test_forDescription_linksOnce() {
+    OPMJavaMethod method = OPMJavaMethod.forDescription("java.lang.Math.abs(double)", "Abs");
+    assertSame(method, OPMJavaMethod.forDescription("java.lang.Math.abs(double)", "Other Abs"));
+    assertTrue(method.hasResult());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void test_forDescription_unknownMethod() {
+    OPMJavaMethod.forDescription("java.lang.Math.noSuchMethod(int)", "Missing");
+  }
+
 }
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMMetricsRegistryTest {
+
+  private OPMMetricsRegistry metrics;
+
+  @Before
+  public void setUp() {
+    metrics = new OPMMetricsRegistry();
+  }
+
+  @Test
+  public void test_histogram_percentiles() {
+    OPMHistogram histogram = new OPMHistogram();
+    assertEquals(0, histogram.getPercentile(50));
+    for(int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getMean());
+    assertEquals(100, histogram.getMax());
+    assertEquals(63, histogram.getPercentile(50));
+    assertEquals(100, histogram.getPercentile(99));
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+  }
+
+  @Test
+  public void test_execute_recordsMetricsOnlyWhenEnabled() throws Exception {
+    OPMObjectProcessDiagram opd = createSequentialProcessesOPD("Sum");
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    OPMExecutionContext context = new OPMExecutionContext();
+    context.setMetricsRegistry(metrics);
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(2)));
+    instance.call();
+    assertEquals(0, metrics.getSchedulerIterations());
+
+    metrics.setEnabled(true);
+    instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(2)));
+    instance.call();
+    assertEquals(6, instance.getArgument("c").getNumericalValue().intValue());
+
+    Map<String, Long> snapshot = metrics.getSnapshot();
+    assertEquals(1, snapshot.get("process.Sum.count").longValue());
+    assertEquals(1, snapshot.get("process.Add.count").longValue());
+    assertEquals(1, snapshot.get("process.Multiply.count").longValue());
+    assertEquals(2, snapshot.get("scheduler.iterations").longValue());
+    assertEquals(1, snapshot.get("scheduler.ready.max").longValue());
+    assertEquals(2, snapshot.get("arguments.load.count").longValue());
+    assertEquals(2, snapshot.get("results.extract.count").longValue());
+    assertTrue(snapshot.get("heap.sets") >= 3);
+    assertTrue(snapshot.containsKey("executor.queueDepth"));
+    assertEquals(0, OPMInterpreter.INSTANCE.getMetricsRegistry().getSchedulerIterations());
+  }
+
+  @Test
+  public void test_getMetricsRegistry_defaultsToInterpreterRegistry() {
+    OPMExecutionContext context = new OPMExecutionContext();
+    assertSame(OPMInterpreter.INSTANCE.getMetricsRegistry(), context.getMetricsRegistry());
+    context.setMetricsRegistry(metrics);
+    assertSame(metrics, context.getMetricsRegistry());
+    context.setMetricsRegistry(null);
+    assertSame(OPMInterpreter.INSTANCE.getMetricsRegistry(), context.getMetricsRegistry());
+  }
+
+  @Test
+  public void test_registerMBean_exposesMetrics() throws Exception {
+    metrics.registerMBean();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OPMMetricsRegistry.OBJECT_NAME);
+      assertTrue(server.isRegistered(name));
+      assertEquals(Boolean.FALSE, server.getAttribute(name, "Enabled"));
+      assertEquals(0L, server.getAttribute(name, "SchedulerIterations"));
+      assertNotNull(server.getAttribute(name, "Snapshot"));
+    } finally {
+      metrics.unregisterMBean();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName(OPMMetricsRegistry.OBJECT_NAME)));
+  }
+}
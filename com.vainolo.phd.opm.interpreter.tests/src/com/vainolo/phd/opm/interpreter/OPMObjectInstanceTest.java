@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance.InstanceType;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.NumericalRepresentation;
 
 import static org.junit.Assert.*;
 
@@ -59,8 +60,8 @@ public class OPMObjectInstanceTest {
   public void test_AddPartsToCompoundInstance() {
     instance1 = OPMObjectInstance.createFromValue(state1);
     instance2 = OPMObjectInstance.createFromValue(string1);
-    composite1.addCompositePart("part1", instance1);
-    composite1.addCompositePart("part2", instance2);
+    composite1 = composite1.withCompositePart("part1", instance1);
+    composite1 = composite1.withCompositePart("part2", instance2);
 
     assertEquals(InstanceType.COMPOSITE, composite1.type);
     assertEquals(composite1.getCompositeParts().size(), 2);
@@ -83,20 +84,20 @@ public class OPMObjectInstanceTest {
   public void test_AddPartToValueInstance_ExpectException() {
     instance1 = OPMObjectInstance.createFromValue(number1);
     instance2 = OPMObjectInstance.createFromValue(number1);
-    instance1.addCompositePart("name", instance2);
+    instance1 = instance1.withCompositePart("name", instance2);
   }
 
   @Test(expected = IllegalStateException.class)
   public void test_AddPartToStateInstance_ExpectException() {
     instance1 = OPMObjectInstance.createFromValue(state1);
     instance2 = OPMObjectInstance.createFromValue(number1);
-    instance1.addCompositePart("name", instance2);
+    instance1 = instance1.withCompositePart("name", instance2);
   }
 
   @Test
   public void test_CompoundInstanceToString() {
     instance1 = OPMObjectInstance.createFromValue(number1);
-    composite1.addCompositePart("part1", instance1);
+    composite1 = composite1.withCompositePart("part1", instance1);
     assertEquals("{part1:" + instance1.toString() + "}", composite1.toString());
 
   }
@@ -106,17 +107,89 @@ public class OPMObjectInstanceTest {
   public void test_CreateCollectionAddInstanceAndGetFirstElement() {
     instance1 = OPMObjectInstance.createCollectionInstace();
     instance2 = OPMObjectInstance.createFromValue(number1);
-    instance1.appendCollectionElement(instance2);
+    instance1 = instance1.withAppendedCollectionElement(instance2);
     assertEquals(instance2.getValue(), instance1.getCollectionFirstElement().getValue());
   }
 
   public void test_CreateCollectionAddInstanceAndGetLastElement() {
     instance1 = OPMObjectInstance.createCollectionInstace();
     instance2 = OPMObjectInstance.createFromValue(number1);
-    instance1.appendCollectionElement(instance2);
+    instance1 = instance1.withAppendedCollectionElement(instance2);
     assertEquals(instance2.getValue(), instance1.getLastCollectionElement().getValue());
   }
 
+  @Test
+  public void test_updatesDoNotChangeExistingInstances() {
+    collection1 = OPMObjectInstance.createCollectionInstace();
+    collection1 = collection1.withAppendedCollectionElement(OPMObjectInstance.createFromValue(number1));
+    collection2 = collection1.withCollectionElement("name", OPMObjectInstance.createFromValue(number2));
+    collection3 = collection2.withCollectionElementAtIndex(1, OPMObjectInstance.createFromValue(number3));
+    assertEquals(1, collection1.getCollectionAllElements().size());
+    assertEquals(number1, collection1.getCollectionElementAtIndex(1).getValue());
+    assertEquals(2, collection2.getCollectionAllElements().size());
+    assertEquals(number1, collection2.getCollectionElementAtIndex(1).getValue());
+    assertEquals(number2, collection2.getCollectionElement("name").getValue());
+    assertEquals(number3, collection3.getCollectionFirstElement().getValue());
+    assertEquals(number2, collection3.getLastCollectionElement().getValue());
+
+    collection3 = collection2.withCollectionElement("name", OPMObjectInstance.createFromValue(number3));
+    assertEquals(2, collection3.getCollectionAllElements().size());
+    assertEquals(number3, collection3.getCollectionElement("name").getValue());
+    assertEquals(number2, collection2.getCollectionElement("name").getValue());
+
+    composite2 = composite1.withCompositePart("part", collection1);
+    assertEquals(0, composite1.getCompositeParts().size());
+    assertSame(collection1, composite2.getCompositePart("part"));
+    assertSame(composite2, OPMObjectInstance.createFromExistingInstance(composite2));
+  }
+
+  @Test
+  public void test_numericalRepresentations() {
+    instance1 = OPMObjectInstance.createFromValue(new BigDecimal(42));
+    assertEquals(NumericalRepresentation.LONG, instance1.getNumericalRepresentation());
+    assertEquals(new BigDecimal(42), instance1.getValue());
+    assertTrue(instance1.structurallyEquals(OPMObjectInstance.createFromValue(42)));
+    assertTrue(instance1.structurallyEquals(OPMObjectInstance.createFromValue(42.0)));
+    assertEquals(instance1.structuralHashCode(), OPMObjectInstance.createFromValue(42).structuralHashCode());
+
+    instance2 = OPMObjectInstance.createFromValue(new BigDecimal("42.0"));
+    assertEquals(NumericalRepresentation.DECIMAL, instance2.getNumericalRepresentation());
+    assertEquals("42.0", instance2.toString());
+
+    instance3 = OPMObjectInstance.createFromValue(0.25);
+    assertEquals(NumericalRepresentation.DOUBLE, instance3.getNumericalRepresentation());
+    assertEquals(new BigDecimal("0.25"), instance3.getNumericalValue());
+    assertTrue(instance3.structurallyEquals(OPMObjectInstance.createFromValue(new BigDecimal("0.25"))));
+    assertEquals(instance3.structuralHashCode(),
+        OPMObjectInstance.createFromValue(new BigDecimal("0.25")).structuralHashCode());
+  }
+
+  @Test
+  public void test_structurallyEquals() {
+    instance1 = OPMObjectInstance.createCompositeInstance();
+    instance1 = instance1.withCompositePart("x", OPMObjectInstance.createFromValue(number1));
+    instance1 = instance1.withCompositePart("y", OPMObjectInstance.createFromValue(string1));
+    instance2 = OPMObjectInstance.createCompositeInstance();
+    instance2 = instance2.withCompositePart("y", OPMObjectInstance.createFromValue(string1));
+    instance2 = instance2.withCompositePart("x", OPMObjectInstance.createFromValue(number1));
+    assertTrue(instance1.structurallyEquals(instance2));
+    assertEquals(instance1.structuralHashCode(), instance2.structuralHashCode());
+    assertTrue(instance1.structurallyEquals(OPMObjectInstance.createFromExistingInstance(instance1)));
+
+    instance2 = instance2.withCompositePart("x", OPMObjectInstance.createFromValue(number1.add(BigDecimal.ONE)));
+    assertFalse(instance1.structurallyEquals(instance2));
+    assertFalse(OPMObjectInstance.createFromValue(BigDecimal.ONE).structurallyEquals(
+        OPMObjectInstance.createFromValue(new BigDecimal("1.0"))));
+    collection1 = OPMObjectInstance.createCollectionInstace().withAppendedCollectionElement(
+        OPMObjectInstance.createFromValue(number1));
+    collection2 = OPMObjectInstance.createCollectionInstace().withAppendedCollectionElement(
+        OPMObjectInstance.createFromValue(number1));
+    assertTrue(collection1.structurallyEquals(collection2));
+    assertFalse(collection1.structurallyEquals(collection2.withAppendedCollectionElement(instance2)));
+    assertFalse(OPMObjectInstance.createFromValue("1").structurallyEquals(
+        OPMObjectInstance.createFromValue(BigDecimal.ONE)));
+  }
+
   @Before
   public void setUp() {
     Random r = new Random();
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.draw2d.geometry.Rectangle;
+
+import com.vainolo.phd.opm.model.OPMFactory;
+import com.vainolo.phd.opm.model.OPMNode;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
+import com.vainolo.phd.opm.model.OPMProceduralLink;
+import com.vainolo.phd.opm.model.OPMProceduralLinkKind;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMProcessKind;
+
+/**
+ * Creates the OPD model elements used by the interpreter tests. Every element
+ * gets a unique id, so the elements can also be found in execution traces.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public final class OPMTestModels {
+
+  private static final AtomicLong nextId = new AtomicLong(1);
+
+  private OPMTestModels() {
+  }
+
+  public static OPMProcess createProcess(String name, OPMProcessKind kind) {
+    OPMProcess process = OPMFactory.eINSTANCE.createOPMProcess();
+    process.setId(nextId.getAndIncrement());
+    process.setKind(kind);
+    process.setName(name);
+    return process;
+  }
+
+  /**
+   * Create a built-in process. Processes in an in-zoomed process are executed
+   * from top to bottom, so the constraints set their execution order.
+   */
+  public static OPMProcess createProcess(String name, Rectangle constraints) {
+    OPMProcess process = createProcess(name, OPMProcessKind.BUILT_IN);
+    process.setConstraints(constraints);
+    return process;
+  }
+
+  public static OPMObject createObject(String name) {
+    OPMObject object = OPMFactory.eINSTANCE.createOPMObject();
+    object.setId(nextId.getAndIncrement());
+    object.setName(name);
+    return object;
+  }
+
+  public static OPMProceduralLink createProceduralLink(String centerDecoration, OPMProceduralLinkKind kind,
+      OPMNode source, OPMNode target) {
+    OPMProceduralLink link = OPMFactory.eINSTANCE.createOPMProceduralLink();
+    link.setId(nextId.getAndIncrement());
+    link.setCenterDecoration(centerDecoration);
+    link.setKind(kind);
+    link.setSource(source);
+    link.setTarget(target);
+    return link;
+  }
+
+  /**
+   * Create an empty in-zoomed OPD. Its first node is the in-zoomed process,
+   * which has the same name as the OPD.
+   */
+  public static OPMObjectProcessDiagram createOPD(String name) {
+    OPMObjectProcessDiagram opd = OPMFactory.eINSTANCE.createOPMObjectProcessDiagram();
+    opd.setId(nextId.getAndIncrement());
+    opd.setKind(OPMObjectProcessDiagramKind.COMPOUND);
+    opd.setName(name);
+    opd.getNodes().add(createProcess(name, OPMProcessKind.COMPOUND));
+    return opd;
+  }
+
+  /**
+   * Create an OPD that calculates <code>c = (a + b) * b</code>, where
+   * <code>a</code> and <code>b</code> are incoming parameters. The nodes of
+   * the OPD are the in-zoomed process, <code>a</code>, <code>b</code> and
+   * <code>c</code>, and the nodes of the in-zoomed process are the
+   * <code>+</code> process, the <code>*</code> process and the local object
+   * <code>sum</code>.
+   */
+  public static OPMObjectProcessDiagram createSequentialProcessesOPD(String name) {
+    return createSequentialProcessesOPD(name, createObject("b"), true);
+  }
+
+  /**
+   * Create an OPD that calculates <code>c = (a + b) * b</code> like
+   * {@link #createSequentialProcessesOPD(String)}, where <code>b</code> is a
+   * literal. The literal object is the last node of the in-zoomed process.
+   */
+  public static OPMObjectProcessDiagram createSequentialProcessesOPD(String name, int b) {
+    return createSequentialProcessesOPD(name, createObject(Integer.toString(b)), false);
+  }
+
+  private static OPMObjectProcessDiagram createSequentialProcessesOPD(String name, OPMObject b, boolean parameter) {
+    OPMObjectProcessDiagram opd = createOPD(name);
+    OPMProcess inZoomedProcess = (OPMProcess) opd.getNodes().get(0);
+    OPMProcess addProcess = createProcess("+", new Rectangle(0, 0, 50, 20));
+    inZoomedProcess.getNodes().add(addProcess);
+    OPMProcess multProcess = createProcess("*", new Rectangle(0, 40, 50, 20));
+    inZoomedProcess.getNodes().add(multProcess);
+    OPMObject a = createObject("a");
+    opd.getNodes().add(a);
+    if(parameter) {
+      opd.getNodes().add(b);
+    }
+    OPMObject sum = createObject("sum");
+    inZoomedProcess.getNodes().add(sum);
+    if(!parameter) {
+      inZoomedProcess.getNodes().add(b);
+    }
+    OPMObject c = createObject("c");
+    opd.getNodes().add(c);
+
+    opd.getLinks().add(createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, a, addProcess));
+    opd.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, b, addProcess));
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, addProcess, sum));
+    opd.getLinks().add(createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, sum, multProcess));
+    opd.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, b, multProcess));
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, multProcess, c));
+    return opd;
+  }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.builtin;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.NumericalRepresentation;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMBinaryMathOpProcessInstanceTest {
+
+  private OPMObjectInstance calculate(BinaryMathOpType opType, OPMObjectInstance a, OPMObjectInstance b) {
+    return OPMBinaryMathOpProcessInstance.calculate(opType, a, b);
+  }
+
+  @Test
+  public void test_calculate_longs() {
+    OPMObjectInstance c = calculate(BinaryMathOpType.ADD, OPMObjectInstance.createFromValue(2),
+        OPMObjectInstance.createFromValue(3));
+    assertEquals(NumericalRepresentation.LONG, c.getNumericalRepresentation());
+    assertEquals(5, c.getLongValue());
+    c = calculate(BinaryMathOpType.POW, OPMObjectInstance.createFromValue(3), OPMObjectInstance.createFromValue(4));
+    assertEquals(81, c.getLongValue());
+    c = calculate(BinaryMathOpType.DIV, OPMObjectInstance.createFromValue(12), OPMObjectInstance.createFromValue(4));
+    assertEquals(NumericalRepresentation.LONG, c.getNumericalRepresentation());
+    assertEquals(3, c.getLongValue());
+  }
+
+  @Test
+  public void test_calculate_promotesToBigDecimal() {
+    OPMObjectInstance c = calculate(BinaryMathOpType.MULT, OPMObjectInstance.createFromValue(Long.MAX_VALUE),
+        OPMObjectInstance.createFromValue(2));
+    assertEquals(NumericalRepresentation.DECIMAL, c.getNumericalRepresentation());
+    assertEquals(BigDecimal.valueOf(Long.MAX_VALUE).multiply(new BigDecimal(2)), c.getNumericalValue());
+    c = calculate(BinaryMathOpType.DIV, OPMObjectInstance.createFromValue(1), OPMObjectInstance.createFromValue(4));
+    assertEquals(new BigDecimal("0.25"), c.getNumericalValue());
+    c = calculate(BinaryMathOpType.ADD, OPMObjectInstance.createFromValue(new BigDecimal("1.5")),
+        OPMObjectInstance.createFromValue("2"));
+    assertEquals(new BigDecimal("3.5"), c.getNumericalValue());
+  }
+
+  @Test
+  public void test_calculate_doubles() {
+    OPMObjectInstance c = calculate(BinaryMathOpType.MULT, OPMObjectInstance.createFromValue(0.5),
+        OPMObjectInstance.createFromValue(3));
+    assertEquals(NumericalRepresentation.DOUBLE, c.getNumericalRepresentation());
+    assertEquals(1.5, c.getDoubleValue(), 0);
+    c = calculate(BinaryMathOpType.ADD, c, OPMObjectInstance.createFromValue(0.5));
+    assertEquals(NumericalRepresentation.LONG, c.getNumericalRepresentation());
+    assertEquals(2, c.getLongValue());
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void test_calculate_divideByZero_ExpectException() {
+    calculate(BinaryMathOpType.DIV, OPMObjectInstance.createFromValue(0.5), OPMObjectInstance.createFromValue(0));
+  }
+
+  @Test
+  public void test_compare_mixedRepresentations() {
+    assertTrue(OPMCompareProcessInstance.compare(OPMObjectInstance.createFromValue(2),
+        OPMObjectInstance.createFromValue(10)) < 0);
+    assertTrue(OPMCompareProcessInstance.compare(OPMObjectInstance.createFromValue(2.5),
+        OPMObjectInstance.createFromValue(2)) > 0);
+    assertEquals(0, OPMCompareProcessInstance.compare(OPMObjectInstance.createFromValue(new BigDecimal("2.0")),
+        OPMObjectInstance.createFromValue(2)));
+  }
+}
@@ -7,9 +7,12 @@ package com.vainolo.phd.opm.interpreter.builtin;
 
 import static org.junit.Assert.*;
 
+import java.math.BigDecimal;
+
 import org.junit.Test;
 
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.NumericalRepresentation;
 
 /**
  * 
@@ -37,6 +40,30 @@ public class OPMReadJSONObjectProcessInstanceTest {
     assertEquals(5.43, instance.getCompositePart("a").getNumericalValue().doubleValue(), 0.0001);
   }
 
+  @Test
+  public void test_execute_numberArithmeticIsExact() throws Exception {
+    OPMObjectInstance instance = readJson("{\"a\":0.1,\"b\":0.2,\"c\":3}");
+    OPMObjectInstance a = instance.getCompositePart("a");
+    OPMObjectInstance b = instance.getCompositePart("b");
+    assertEquals(NumericalRepresentation.DECIMAL, a.getNumericalRepresentation());
+    assertEquals(new BigDecimal(0.1), a.getNumericalValue());
+
+    OPMObjectInstance sum = OPMBinaryMathOpProcessInstance.calculate(BinaryMathOpType.ADD, a, b);
+    assertEquals(new BigDecimal(0.1).add(new BigDecimal(0.2)), sum.getNumericalValue());
+    assertEquals(NumericalRepresentation.DECIMAL, sum.getNumericalRepresentation());
+
+    OPMObjectInstance product = OPMBinaryMathOpProcessInstance.calculate(BinaryMathOpType.MULT, a,
+        instance.getCompositePart("c"));
+    assertEquals(new BigDecimal(0.1).multiply(new BigDecimal(3)), product.getNumericalValue());
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void test_execute_numberDivisionIsExact() throws Exception {
+    OPMObjectInstance instance = readJson("{\"a\":1,\"b\":3}");
+    OPMBinaryMathOpProcessInstance.calculate(BinaryMathOpType.DIV, instance.getCompositePart("a"),
+        instance.getCompositePart("b"));
+  }
+
   @Test
   public void test_execute_stringElement() throws Exception {
     OPMObjectInstance instance = readJson("{\"a\":\"hello\"}");
@@ -31,7 +31,7 @@ public class OPMWriteOPMObjectInstanceToJSONProcessInstanceTest {
   @Test
   public void test_execute_intElement() throws Exception {
     OPMObjectInstance opmObject = OPMObjectInstance.createCompositeInstance();
-    opmObject.addCompositePart("int", OPMObjectInstance.createFromValue(new BigDecimal(3)));
+    opmObject = opmObject.withCompositePart("int", OPMObjectInstance.createFromValue(new BigDecimal(3)));
     OPMObjectInstance result = writeJson(opmObject);
     JsonObject jsonObject = JsonObject.readFrom(result.getStringValue());
     assertEquals(3, jsonObject.get("int").asInt());
@@ -40,7 +40,7 @@ public class OPMWriteOPMObjectInstanceToJSONProcessInstanceTest {
   @Test
   public void test_execute_doubleElement() throws Exception {
     OPMObjectInstance opmObject = OPMObjectInstance.createCompositeInstance();
-    opmObject.addCompositePart("double", OPMObjectInstance.createFromValue(new BigDecimal(5.47)));
+    opmObject = opmObject.withCompositePart("double", OPMObjectInstance.createFromValue(new BigDecimal(5.47)));
     OPMObjectInstance result = writeJson(opmObject);
     JsonObject jsonObject = JsonObject.readFrom(result.getStringValue());
     assertEquals(5.47, jsonObject.get("double").asDouble(), 0.00001);
@@ -49,7 +49,7 @@ public class OPMWriteOPMObjectInstanceToJSONProcessInstanceTest {
   @Test
   public void test_execute_stringElement() throws Exception {
     OPMObjectInstance opmObject = OPMObjectInstance.createCompositeInstance();
-    opmObject.addCompositePart("name", OPMObjectInstance.createFromValue("hello"));
+    opmObject = opmObject.withCompositePart("name", OPMObjectInstance.createFromValue("hello"));
     OPMObjectInstance result = writeJson(opmObject);
     JsonObject jsonObject = JsonObject.readFrom(result.getStringValue());
     assertEquals("hello", jsonObject.get("name").asString());
@@ -58,7 +58,7 @@ public class OPMWriteOPMObjectInstanceToJSONProcessInstanceTest {
   @Test
   public void test_execute_stateElement() throws Exception {
     OPMObjectInstance opmObject = OPMObjectInstance.createCompositeInstance();
-    opmObject.addCompositePart("bool", OPMObjectInstance.createFromValue("true"));
+    opmObject = opmObject.withCompositePart("bool", OPMObjectInstance.createFromValue("true"));
     OPMObjectInstance result = writeJson(opmObject);
     JsonObject jsonObject = JsonObject.readFrom(result.getStringValue());
     assertEquals("true", jsonObject.get("bool").asString());
@@ -67,12 +67,12 @@ public class OPMWriteOPMObjectInstanceToJSONProcessInstanceTest {
   @Test
   public void text_execute_multipleElements() throws Exception {
     OPMObjectInstance opmObject = OPMObjectInstance.createCompositeInstance();
-    opmObject.addCompositePart("a", OPMObjectInstance.createFromValue(new BigDecimal(5)));
+    opmObject = opmObject.withCompositePart("a", OPMObjectInstance.createFromValue(new BigDecimal(5)));
     OPMObjectInstance part = OPMObjectInstance.createCompositeInstance();
-    part.addCompositePart("b1", OPMObjectInstance.createFromValue("hello"));
-    part.addCompositePart("b2", OPMObjectInstance.createFromValue(new BigDecimal(5.43)));
-    opmObject.addCompositePart("b", part);
-    opmObject.addCompositePart("c", OPMObjectInstance.createFromValue("one"));
+    part = part.withCompositePart("b1", OPMObjectInstance.createFromValue("hello"));
+    part = part.withCompositePart("b2", OPMObjectInstance.createFromValue(new BigDecimal(5.43)));
+    opmObject = opmObject.withCompositePart("b", part);
+    opmObject = opmObject.withCompositePart("c", OPMObjectInstance.createFromValue("one"));
     OPMObjectInstance result = writeJson(opmObject);
     JsonObject json = JsonObject.readFrom(result.getStringValue());
     assertEquals(5, json.get("a").asInt());
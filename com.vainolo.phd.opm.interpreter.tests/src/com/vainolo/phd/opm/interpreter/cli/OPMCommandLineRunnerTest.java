@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.cli;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.OPMDirectoryModelResolver;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMCommandLineRunnerTest {
+
+  private OPMCommandLineRunner runner;
+  private File directory;
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+  @Before
+  public void setUp() throws IOException {
+    runner = new OPMCommandLineRunner();
+    directory = Files.createTempDirectory("opm").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    for(File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /**
+   * Write the OPD <code>Sum</code>, which calculates <code>c = (a + b) *
+   * b</code>, to the model directory.
+   */
+  private void writeSumOPD() throws IOException {
+    ResourceSet resourceSet = new ResourceSetImpl();
+    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
+        .put(Resource.Factory.Registry.DEFAULT_EXTENSION, new XMIResourceFactoryImpl());
+    Resource resource = resourceSet.createResource(URI.createFileURI(new File(directory, "Sum.opm")
+        .getAbsolutePath()));
+    resource.getContents().add(createSequentialProcessesOPD("Sum"));
+    resource.save(null);
+  }
+
+  private File writeArguments(String json) throws IOException {
+    File arguments = new File(directory, "arguments.json");
+    Files.write(arguments.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    return arguments;
+  }
+
+  private int run(String... args) throws Exception {
+    runner.parseCommandLine(args);
+    return runner.run(System.nanoTime(), new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+  }
+
+  @Test
+  public void test_parseCommandLine_optionsAndArguments() {
+    runner.parseCommandLine(new String[] { "-d", "models", "-r", "10", "-t", "Add", "a=1", "b='text'" });
+    assertEquals("Add", runner.getOPDName());
+    assertEquals(10, runner.getRepeat());
+    assertEquals("1", runner.getCommandLineArguments().get("a"));
+    assertEquals("'text'", runner.getCommandLineArguments().get("b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parseCommandLine_missingOPDName() {
+    runner.parseCommandLine(new String[] { "-t" });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parseCommandLine_invalidArgument() {
+    runner.parseCommandLine(new String[] { "Add", "a" });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parseCommandLine_invalidRepeat() {
+    runner.parseCommandLine(new String[] { "-r", "0", "Add" });
+  }
+
+  @Test
+  public void test_run_printsOutgoingParameters() throws Exception {
+    writeSumOPD();
+    File arguments = writeArguments("{\"a\": 1, \"b\": 3}");
+    assertEquals(0, run("-d", directory.getPath(), "-a", arguments.getPath(), "Sum", "b=2"));
+    assertEquals("c = 6" + System.lineSeparator(), out.toString("UTF-8"));
+    assertEquals("", err.toString("UTF-8"));
+  }
+
+  @Test
+  public void test_run_failsWhenOPDCannotExecute() throws Exception {
+    writeSumOPD();
+    File arguments = writeArguments("{\"a\": 1}");
+    assertEquals(1, run("-d", directory.getPath(), "-a", arguments.getPath(), "Sum"));
+    assertEquals("", out.toString("UTF-8"));
+    assertTrue(err.toString("UTF-8").startsWith("OPD Sum cannot be executed"));
+  }
+
+  @Test
+  public void test_directoryModelResolver_location() {
+    File directory = new File("models");
+    OPMDirectoryModelResolver resolver = new OPMDirectoryModelResolver(directory);
+    assertEquals(new File(directory, "Add.opm").toURI().toString(), resolver.getLocation("Add"));
+    assertEquals(-1, resolver.getModificationStamp("Add"));
+  }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.eclipse.draw2d.geometry.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMProceduralLinkKind;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMProcessKind;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMInZoomedProcessCompilerTest {
+
+  private OPMObjectProcessDiagram opd;
+  private OPMProcess inZoomedProcess;
+  private OPMProcess multProcess;
+
+  @Before
+  public void setUp() {
+    opd = createSequentialProcessesOPD("Compiled", 2);
+    inZoomedProcess = (OPMProcess) opd.getNodes().get(0);
+    multProcess = (OPMProcess) inZoomedProcess.getNodes().get(1);
+  }
+
+  @Test
+  public void test_compile_mathProcesses() throws Exception {
+    OPMCompiledInZoomedProcess compiledProcess = OPMInZoomedProcessCompiler.compile(OPMInZoomedProcessExecutionPlan
+        .create(opd, new OPDAnalyzer()));
+    assertNotNull(compiledProcess);
+    assertEquals(2, compiledProcess.getStepCount());
+
+    OPMProcessInstance instance = new OPMCompiledInZoomedProcessInstance(compiledProcess);
+    assertFalse(instance.isReady());
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1.0)));
+    assertTrue(instance.isReady());
+    instance.call();
+    assertEquals(6.0, BigDecimal.class.cast(instance.getArgument("c").getValue()).doubleValue(), 0.01);
+  }
+
+  @Test
+  public void test_compile_sameResultAsInterpreter() throws Exception {
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    OPMProcessInstance compiled = new OPMCompiledInZoomedProcessInstance(OPMInZoomedProcessCompiler.compile(plan));
+    OPMProcessInstance interpreted = new OPMInZoomedProcessExecutableInstance(opd, new OPDAnalyzer(), plan);
+    for(OPMProcessInstance instance : new OPMProcessInstance[] { compiled, interpreted }) {
+      instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(4)));
+      instance.call();
+    }
+    assertEquals(compiled.getArgument("c").getValue(), interpreted.getArgument("c").getValue());
+    assertEquals(compiled.getOutgoingParameterNames().size(), interpreted.getOutgoingParameterNames().size());
+  }
+
+  /**
+   * Create an OPD that invokes the compound process <code>Compiled</code>
+   * with the argument <code>x</code> and stores its result in <code>y</code>.
+   */
+  private OPMObjectProcessDiagram createCallerOPD() {
+    OPMObjectProcessDiagram callerOPD = createOPD("Caller");
+    OPMProcess callerProcess = (OPMProcess) callerOPD.getNodes().get(0);
+    OPMProcess compoundProcess = createProcess("Compiled", new Rectangle(0, 0, 50, 20));
+    compoundProcess.setKind(OPMProcessKind.COMPOUND);
+    callerProcess.getNodes().add(compoundProcess);
+    OPMObject x = createObject("x");
+    callerOPD.getNodes().add(x);
+    OPMObject y = createObject("y");
+    callerOPD.getNodes().add(y);
+    callerOPD.getLinks().add(createProceduralLink(null, OPMProceduralLinkKind.CONSUMPTION, x, compoundProcess));
+    callerOPD.getLinks().add(createProceduralLink(null, OPMProceduralLinkKind.RESULT, compoundProcess, y));
+    return callerOPD;
+  }
+
+  private OPMInZoomedProcessPlanLoader createPlanLoader(final OPMObjectProcessDiagram loadedOPD) {
+    return new OPMInZoomedProcessPlanLoader() {
+      @Override
+      public OPMInZoomedProcessExecutionPlan loadExecutionPlan(String opdName) {
+        return OPMInZoomedProcessExecutionPlan.create(loadedOPD, new OPDAnalyzer());
+      }
+    };
+  }
+
+  @Test
+  public void test_compile_inlinesCompoundProcess() throws Exception {
+    OPMInZoomedProcessExecutionPlan callerPlan = OPMInZoomedProcessExecutionPlan.create(createCallerOPD(),
+        new OPDAnalyzer());
+    assertNull(OPMInZoomedProcessCompiler.compile(callerPlan));
+
+    OPMCompiledInZoomedProcess compiledProcess = OPMInZoomedProcessCompiler.compile(callerPlan,
+        createPlanLoader(opd));
+    assertNotNull(compiledProcess);
+    assertEquals(4, compiledProcess.getStepCount());
+
+    OPMProcessInstance instance = new OPMCompiledInZoomedProcessInstance(compiledProcess);
+    instance.setArgument("x", OPMObjectInstance.createFromValue(new BigDecimal(1.0)));
+    instance.call();
+    assertEquals(6.0, BigDecimal.class.cast(instance.getArgument("y").getValue()).doubleValue(), 0.01);
+  }
+
+  @Test
+  public void test_compile_recursiveProcessIsNotInlined() {
+    OPMObjectProcessDiagram callerOPD = createCallerOPD();
+    callerOPD.setName("Compiled");
+    OPMInZoomedProcessExecutionPlan callerPlan = OPMInZoomedProcessExecutionPlan.create(callerOPD,
+        new OPDAnalyzer());
+    assertNull(OPMInZoomedProcessCompiler.compile(callerPlan, createPlanLoader(callerOPD)));
+  }
+
+  @Test
+  public void test_compile_unsupportedProcess() {
+    OPMProcess sleepProcess = createProcess("Sleep", new Rectangle(0, 80, 50, 20));
+    inZoomedProcess.getNodes().add(sleepProcess);
+    opd.getLinks().add(createProceduralLink(null, OPMProceduralLinkKind.INSTRUMENT, multProcess, sleepProcess));
+
+    assertNull(OPMInZoomedProcessCompiler.compile(OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer())));
+  }
+}
@@ -8,11 +8,25 @@ package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.draw2d.geometry.Rectangle;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMBuiltInProcessFactory;
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMInterpreter;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMProcessCallCache;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstanceFactory;
 import com.vainolo.phd.opm.model.OPMFactory;
@@ -24,6 +38,9 @@ import com.vainolo.phd.opm.model.OPMProceduralLink;
 import com.vainolo.phd.opm.model.OPMProceduralLinkKind;
 import com.vainolo.phd.opm.model.OPMProcess;
 import com.vainolo.phd.opm.model.OPMProcessKind;
+import com.vainolo.phd.opm.model.OPMState;
+import com.vainolo.phd.opm.utilities.OPMConstants;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
 
 /**
  * 
@@ -131,8 +148,254 @@ public class OPMInZoomedProcessExecutableInstanceTest {
 
   }
 
+  private OPMObjectProcessDiagram createSequentialProcessesOPD(String secondOperation) {
+    OPMObjectProcessDiagram opd = createInZoomedOPD("Sequential Processes");
+    OPMProcess inZoomedProcess = createProcess("Sequential Processes", OPMProcessKind.COMPOUND);
+    opd.getNodes().add(inZoomedProcess);
+    OPMProcess addProcess = createProcess("+", OPMProcessKind.BUILT_IN);
+    addProcess.setConstraints(new Rectangle(0, 0, 50, 20));
+    inZoomedProcess.getNodes().add(addProcess);
+    OPMProcess multProcess = createProcess(secondOperation, OPMProcessKind.BUILT_IN);
+    multProcess.setConstraints(new Rectangle(0, 40, 50, 20));
+    inZoomedProcess.getNodes().add(multProcess);
+    OPMObject a = createObject("a");
+    opd.getNodes().add(a);
+    OPMObject b = createObject("b");
+    opd.getNodes().add(b);
+    OPMObject sum = createObject("sum");
+    inZoomedProcess.getNodes().add(sum);
+    OPMObject c = createObject("c");
+    opd.getNodes().add(c);
+
+    opd.getLinks().add(createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, a, addProcess));
+    opd.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, b, addProcess));
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, addProcess, sum));
+    opd.getLinks().add(createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, sum, multProcess));
+    opd.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, b, multProcess));
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, multProcess, c));
+    return opd;
+  }
+
+  @Test
+  public void test_execute_sequentialProcesses() throws Exception {
+    OPMObjectProcessDiagram opd = createSequentialProcessesOPD("*");
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1.0)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(2.0)));
+    instance.call();
+    assertEquals(6.0, BigDecimal.class.cast(instance.getArgument("c").getValue()).doubleValue(), 0.01);
+  }
+
+  /**
+   * Create an OPD that adds 1 to <code>i</code> while it is smaller than 10,
+   * using an event link from a state of <code>i</code> to the adding process.
+   */
+  private OPMObjectProcessDiagram createCountingLoopOPD() {
+    OPMObjectProcessDiagram opd = createInZoomedOPD("Counting Loop");
+    OPMProcess inZoomedProcess = createProcess("Counting Loop", OPMProcessKind.COMPOUND);
+    opd.getNodes().add(inZoomedProcess);
+    OPMProcess addProcess = createProcess("+", OPMProcessKind.BUILT_IN);
+    inZoomedProcess.getNodes().add(addProcess);
+    OPMObject a = createObject("a");
+    opd.getNodes().add(a);
+    OPMObject c = createObject("c");
+    opd.getNodes().add(c);
+    OPMObject i = createObject("i");
+    inZoomedProcess.getNodes().add(i);
+    OPMState smallerThanTen = OPMFactory.eINSTANCE.createOPMState();
+    smallerThanTen.setName("x < 10");
+    i.getNodes().add(smallerThanTen);
+    OPMObject one = createObject("1");
+    inZoomedProcess.getNodes().add(one);
+
+    opd.getLinks().add(createProceduralLink(null, OPMProceduralLinkKind.CONSUMPTION, a, i));
+    OPMProceduralLink eventLink = createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, smallerThanTen,
+        addProcess);
+    eventLink.getSubKinds().add(OPMConstants.OPM_EVENT_LINK_SUBKIND);
+    opd.getLinks().add(eventLink);
+    opd.getLinks().add(createProceduralLink("b", OPMProceduralLinkKind.CONSUMPTION, one, addProcess));
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, addProcess, i));
+    opd.getLinks().add(createProceduralLink(null, OPMProceduralLinkKind.CONSUMPTION, i, c));
+    return opd;
+  }
+
+  @Test
+  public void test_execute_eventLoop() throws Exception {
+    OPMObjectProcessDiagram opd = createCountingLoopOPD();
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    assertEquals(1, plan.getProcessCount());
+    assertTrue(plan.isLoopProcess(0));
+
+    OPMExecutionContext context = new OPMExecutionContext();
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(3)));
+    instance.call();
+    assertEquals(10, instance.getArgument("c").getNumericalValue().intValue());
+    assertEquals(7, context.getMetrics().getInstancesExecuted());
+  }
+
+  @Test
+  public void test_execute_memoizedPureProcesses() throws Exception {
+    OPMObjectProcessDiagram opd = createCountingLoopOPD();
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    assertFalse(plan.isPure());
+    OPMProcessCallCache cache = new OPMProcessCallCache(100);
+
+    OPMExecutionContext context = new OPMExecutionContext();
+    context.setProcessCallCache(cache);
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(3)));
+    instance.call();
+    assertEquals(10, instance.getArgument("c").getNumericalValue().intValue());
+    assertEquals(7, cache.getMissCount());
+    assertEquals(7, cache.size());
+
+    context = new OPMExecutionContext();
+    context.setProcessCallCache(cache);
+    instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(5)));
+    instance.call();
+    assertEquals(10, instance.getArgument("c").getNumericalValue().intValue());
+    assertEquals(5, cache.getHitCount());
+    assertEquals(0, context.getMetrics().getInstancesExecuted());
+  }
+
+  @Test
+  public void test_createPlan_pureOPD() {
+    OPMObjectProcessDiagram opd = createCountingLoopOPD();
+    OPMProcess inZoomedProcess = (OPMProcess) opd.getNodes().get(0);
+    inZoomedProcess.setDescription("Counts to ten.\n" + OPMInZoomedProcessExecutionPlan.PURE_MARKER);
+    assertTrue(OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer()).isPure());
+    inZoomedProcess.setDescription("Not @purely a test.");
+    assertFalse(OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer()).isPure());
+  }
+
+  @Test
+  public void test_callAsync_sequentialProcesses() throws Exception {
+    OPMObjectProcessDiagram opd = createSequentialProcessesOPD("*");
+    OPMInZoomedProcessExecutableInstance instance = (OPMInZoomedProcessExecutableInstance) OPMProcessInstanceFactory
+        .createExecutableInstance(opd);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1.0)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(2.0)));
+    OPMProcessInstance result = instance.callAsync().get(10, TimeUnit.SECONDS);
+    assertSame(instance, result);
+    assertEquals(6.0, BigDecimal.class.cast(instance.getArgument("c").getValue()).doubleValue(), 0.01);
+  }
+
+  @Test
+  public void test_callAsync_failedSubprocess() throws Exception {
+    OPMObjectProcessDiagram opd = createSequentialProcessesOPD("/");
+    OPMInZoomedProcessExecutableInstance instance = (OPMInZoomedProcessExecutableInstance) OPMProcessInstanceFactory
+        .createExecutableInstance(opd);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1.0)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(0.0)));
+    try {
+      instance.callAsync().get(10, TimeUnit.SECONDS);
+      fail("Division by zero should fail the execution.");
+    } catch(ExecutionException e) {
+      assertNotNull(e.getCause());
+    }
+  }
+
+  /**
+   * Create an OPD where a process waits until a following process, guarded by
+   * a conditional link, signals it. The OPD can only finish if the second
+   * process is executed speculatively.
+   */
+  private OPMObjectProcessDiagram createSpeculationOPD() {
+    OPMObjectProcessDiagram opd = createInZoomedOPD("Speculation");
+    OPMProcess inZoomedProcess = createProcess("Speculation", OPMProcessKind.COMPOUND);
+    opd.getNodes().add(inZoomedProcess);
+    OPMProcess waitProcess = createProcess("Wait", OPMProcessKind.BUILT_IN);
+    waitProcess.setConstraints(new Rectangle(0, 0, 50, 20));
+    inZoomedProcess.getNodes().add(waitProcess);
+    OPMProcess signalProcess = createProcess("Signal", OPMProcessKind.BUILT_IN);
+    signalProcess.setConstraints(new Rectangle(0, 40, 50, 20));
+    inZoomedProcess.getNodes().add(signalProcess);
+    OPMObject x = createObject("x");
+    opd.getNodes().add(x);
+    OPMState positive = OPMFactory.eINSTANCE.createOPMState();
+    positive.setName("x > 0");
+    x.getNodes().add(positive);
+    OPMObject c = createObject("c");
+    opd.getNodes().add(c);
+
+    OPMProceduralLink conditionalLink = createProceduralLink("a", OPMProceduralLinkKind.CONSUMPTION, positive,
+        signalProcess);
+    conditionalLink.getSubKinds().add(OPMConstants.OPM_CONDITIONAL_LINK_SUBKIND);
+    opd.getLinks().add(conditionalLink);
+    opd.getLinks().add(createProceduralLink("c", OPMProceduralLinkKind.RESULT, signalProcess, c));
+    return opd;
+  }
+
+  @Test
+  public void test_execute_speculativeProcess() throws Exception {
+    final CountDownLatch signal = new CountDownLatch(1);
+    OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().register("Wait", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMAbstractProcessInstance() {
+          @Override
+          protected void executing() throws Exception {
+            if(!signal.await(10, TimeUnit.SECONDS)) {
+              throw new IllegalStateException("Wait process was not signalled.");
+            }
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+        };
+      }
+    });
+    OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().register("Signal", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMAbstractProcessInstance() {
+          @Override
+          protected void executing() throws Exception {
+            signal.countDown();
+            setArgument("c", getArgument("a"));
+          }
+
+          @Override
+          public boolean isReady() {
+            return getArgument("a") != null;
+          }
+
+          @Override
+          public List<OPMParameter> getIncomingParameterNames() {
+            return Lists.newArrayList(new OPMParameter("a", false));
+          }
+
+          @Override
+          public List<OPMParameter> getOutgoingParameterNames() {
+            return Lists.newArrayList(new OPMParameter("c", false));
+          }
+        };
+      }
+    }, false, true);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      OPMObjectProcessDiagram opd = createSpeculationOPD();
+      OPMExecutionContext context = new OPMExecutionContext(null, null, executor);
+      context.setSpeculativeExecution(true);
+      OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd,
+          OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer()), null, context);
+      instance.setArgument("x", OPMObjectInstance.createFromValue(new BigDecimal(7)));
+      instance.call();
+      assertEquals(7, instance.getArgument("c").getNumericalValue().intValue());
+      assertEquals(2, context.getMetrics().getInstancesExecuted());
+    } finally {
+      OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().unregister("Wait");
+      OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().unregister("Signal");
+      executor.shutdown();
+    }
+  }
+
   @Before
   public void setUp() {
 
   }
-}
\ No newline at end of file
+}
\ No newline at end of file
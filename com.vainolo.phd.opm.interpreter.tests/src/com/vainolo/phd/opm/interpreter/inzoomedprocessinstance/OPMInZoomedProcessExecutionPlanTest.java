@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMInZoomedProcessExecutionPlanTest {
+
+  private OPMObjectProcessDiagram opd;
+  private OPMProcess addProcess;
+  private OPMProcess multProcess;
+  private OPMObject two;
+
+  @Before
+  public void setUp() {
+    opd = createSequentialProcessesOPD("Plan", 2);
+    OPMProcess inZoomedProcess = (OPMProcess) opd.getNodes().get(0);
+    addProcess = (OPMProcess) inZoomedProcess.getNodes().get(0);
+    multProcess = (OPMProcess) inZoomedProcess.getNodes().get(1);
+    two = (OPMObject) inZoomedProcess.getNodes().get(3);
+  }
+
+  @Test
+  public void test_create_processOrder() {
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+
+    assertEquals(2, plan.getProcessCount());
+    int addIndex = plan.getProcessIndex(addProcess);
+    int multIndex = plan.getProcessIndex(multProcess);
+    assertArrayEquals(new int[] { addIndex }, plan.getInitialProcesses());
+    assertArrayEquals(new int[] { multIndex }, plan.getSuccessors(addIndex));
+    assertArrayEquals(new int[] { addIndex }, plan.getPredecessors(multIndex));
+    assertEquals(0, plan.getSuccessors(multIndex).length);
+    assertEquals(2, plan.getIncomingLinks(multIndex).size());
+    assertFalse(plan.isLoopProcess(addIndex));
+    assertFalse(plan.isLoopProcess(multIndex));
+  }
+
+  @Test
+  public void test_create_parametersAndLiterals() {
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+
+    assertEquals(2, plan.getParameters().size());
+    assertEquals(1, plan.getIncomingParameters().size());
+    assertEquals(1, plan.getOutgoingParameters().size());
+    assertEquals(2, plan.getLocalObjects().size());
+    assertEquals(1, plan.getLiteralValues().size());
+    assertEquals(2.0, BigDecimal.class.cast(plan.getLiteralValues().get(two).getValue()).doubleValue(), 0.01);
+  }
+
+  @Test
+  public void test_create_objectIds() {
+    OPMInZoomedProcessExecutionPlan plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+
+    assertEquals(4, plan.getObjectCount());
+    int twoId = plan.getObjectId(two);
+    assertTrue(twoId >= 0);
+    assertSame(two, plan.getObject(twoId));
+    assertEquals(twoId, plan.getRootObject(twoId));
+    assertEquals(-1, plan.getParentObject(twoId));
+    assertFalse(plan.isComposite(twoId));
+    assertFalse(plan.isCollection(twoId));
+    assertEquals(-1, plan.getObjectId(createObject("other")));
+  }
+}
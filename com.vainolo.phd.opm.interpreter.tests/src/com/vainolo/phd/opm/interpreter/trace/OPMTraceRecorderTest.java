@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.trace;
+
+import static com.vainolo.phd.opm.interpreter.OPMTestModels.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstanceFactory;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMTraceRecorderTest {
+
+  private OPMTraceRecord findRecord(List<OPMTraceRecord> records, OPMTraceRecordType type, long elementId) {
+    for(OPMTraceRecord record : records) {
+      if(record.getType() == type && record.getElementId() == elementId) {
+        return record;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void test_record_overwritesOldestRecords() {
+    OPMTraceRecorder recorder = new OPMTraceRecorder(3);
+    assertEquals(4, recorder.getCapacity());
+    for(int i = 0; i < 6; i++) {
+      recorder.record(OPMTraceRecordType.PROCESS_STARTED, 0, i, 0, null);
+    }
+    List<OPMTraceRecord> records = new OPMTraceReader(recorder).getRecords();
+    assertEquals(6, recorder.getRecordCount());
+    assertEquals(4, records.size());
+    for(int i = 0; i < 4; i++) {
+      assertEquals(i + 2, records.get(i).getSequence());
+      assertEquals(i + 2, records.get(i).getElementId());
+      assertEquals(Thread.currentThread().getId(), records.get(i).getThreadId());
+    }
+
+    recorder.clear();
+    assertTrue(new OPMTraceReader(recorder).getRecords().isEmpty());
+  }
+
+  @Test
+  public void test_record_concurrentWritersDoNotTearRecords() throws Exception {
+    final OPMTraceRecorder recorder = new OPMTraceRecorder(4);
+    final int recordsPerWriter = 20000;
+    Thread[] writers = new Thread[4];
+    for(int w = 0; w < writers.length; w++) {
+      final int writer = w + 1;
+      writers[w] = new Thread() {
+        @Override
+        public void run() {
+          for(int i = 0; i < recordsPerWriter; i++) {
+            recorder.record(OPMTraceRecordType.PROCESS_STARTED, writer, i, i, null);
+          }
+        }
+      };
+      writers[w].start();
+    }
+    for(int w = 0; w < writers.length; w++) {
+      while(writers[w].isAlive()) {
+        for(OPMTraceRecord record : new OPMTraceReader(recorder).getRecords()) {
+          assertEquals(record.getElementId(), record.getSecondaryElementId());
+        }
+      }
+      writers[w].join();
+    }
+
+    assertEquals(writers.length * recordsPerWriter, recorder.getRecordCount());
+    List<OPMTraceRecord> records = new OPMTraceReader(recorder).getRecords();
+    assertEquals(4, records.size());
+    for(OPMTraceRecord record : records) {
+      assertEquals(record.getElementId(), record.getSecondaryElementId());
+      assertEquals(writers[record.getInstanceId() - 1].getId(), record.getThreadId());
+    }
+  }
+
+  @Test
+  public void test_execute_recordsTraceAndReconstructsHeap() throws Exception {
+    OPMObjectProcessDiagram opd = createSequentialProcessesOPD("Sequential Processes");
+    OPMProcess inZoomedProcess = (OPMProcess) opd.getNodes().get(0);
+    OPMProcess addProcess = (OPMProcess) inZoomedProcess.getNodes().get(0);
+    OPMProcess multProcess = (OPMProcess) inZoomedProcess.getNodes().get(1);
+    OPMObject sum = (OPMObject) inZoomedProcess.getNodes().get(2);
+    OPMObject c = (OPMObject) opd.getNodes().get(3);
+
+    OPMTraceRecorder recorder = new OPMTraceRecorder(1024);
+    OPMExecutionContext context = new OPMExecutionContext();
+    context.setTraceRecorder(recorder);
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd,
+        OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer()), null, context);
+    instance.setArgument("a", OPMObjectInstance.createFromValue(new BigDecimal(1)));
+    instance.setArgument("b", OPMObjectInstance.createFromValue(new BigDecimal(2)));
+    instance.call();
+    assertEquals(6, instance.getArgument("c").getNumericalValue().intValue());
+
+    OPMTraceReader reader = new OPMTraceReader(recorder);
+    List<OPMTraceRecord> records = reader.getRecords();
+    OPMTraceRecord rootStarted = records.get(0);
+    assertEquals(OPMTraceRecordType.PROCESS_STARTED, rootStarted.getType());
+    int instanceId = rootStarted.getInstanceId();
+    assertTrue(instanceId > 0);
+    assertEquals(OPMTraceRecordType.PROCESS_FINISHED, records.get(records.size() - 1).getType());
+
+    OPMTraceRecord addScheduled = findRecord(records, OPMTraceRecordType.PROCESS_SCHEDULED, addProcess.getId());
+    OPMTraceRecord addStarted = findRecord(records, OPMTraceRecordType.PROCESS_STARTED, addProcess.getId());
+    OPMTraceRecord addFinished = findRecord(records, OPMTraceRecordType.PROCESS_FINISHED, addProcess.getId());
+    OPMTraceRecord multScheduled = findRecord(records, OPMTraceRecordType.PROCESS_SCHEDULED, multProcess.getId());
+    assertNotNull(addScheduled);
+    assertEquals(instanceId, addScheduled.getInstanceId());
+    assertTrue(addScheduled.getSequence() < addStarted.getSequence());
+    assertTrue(addStarted.getSequence() < addFinished.getSequence());
+    assertTrue(addFinished.getSequence() < multScheduled.getSequence());
+    OPMTraceRecord argumentBound = findRecord(records, OPMTraceRecordType.ARGUMENT_BOUND, multProcess.getId());
+    assertNotNull(argumentBound);
+    assertSame(multProcess, reader.findElement(opd, argumentBound.getElementId()));
+
+    Map<OPMObject, OPMObjectInstance> heap = reader.reconstructHeap(opd, instanceId, multScheduled.getSequence());
+    assertEquals(3, heap.get(sum).getNumericalValue().intValue());
+    assertFalse(heap.containsKey(c));
+    heap = reader.reconstructHeap(opd, instanceId, Long.MAX_VALUE);
+    assertEquals(6, heap.get(c).getNumericalValue().intValue());
+  }
+}
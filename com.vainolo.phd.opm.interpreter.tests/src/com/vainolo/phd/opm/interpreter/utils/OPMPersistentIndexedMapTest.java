@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMPersistentIndexedMapTest {
+
+  @Test
+  public void test_appendAndReplace_keepsMapDense() {
+    OPMPersistentIndexedMap<String> map = OPMPersistentIndexedMap.empty();
+    map = map.append("a").append("b").put(3, "c").put(1, "d");
+    assertTrue(map.isDense());
+    assertEquals(ImmutableMap.of(1, "d", 2, "b", 3, "c"), map.asMap());
+    assertEquals(1, map.firstKey());
+    assertEquals(3, map.lastKey());
+    map = map.remove(3);
+    assertTrue(map.isDense());
+    assertEquals(Lists.newArrayList("d", "b"), Lists.newArrayList(map.values()));
+    assertNull(map.get(0));
+    assertNull(map.get(3));
+  }
+
+  @Test
+  public void test_gaps_changeMapToSparse() {
+    OPMPersistentIndexedMap<String> dense = OPMPersistentIndexedMap.<String> empty().append("a").append("b")
+        .append("c");
+    OPMPersistentIndexedMap<String> sparse = dense.remove(2);
+    assertFalse(sparse.isDense());
+    assertTrue(dense.isDense());
+    assertEquals(ImmutableMap.of(1, "a", 3, "c"), sparse.asMap());
+    sparse = sparse.append("d");
+    assertEquals(4, sparse.lastKey());
+
+    sparse = dense.put(10, "e");
+    assertFalse(sparse.isDense());
+    assertEquals(ImmutableMap.of(1, "a", 2, "b", 3, "c", 10, "e"), sparse.asMap());
+    assertEquals(Lists.newArrayList("a", "b", "c", "e"), Lists.newArrayList(sparse.values()));
+  }
+}
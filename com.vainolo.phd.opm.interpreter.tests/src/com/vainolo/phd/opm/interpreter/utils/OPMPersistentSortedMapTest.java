@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMPersistentSortedMapTest {
+
+  @Test
+  public void test_putAndRemove_matchTreeMap() {
+    Random random = new Random(0);
+    Map<Integer, String> expected = Maps.newTreeMap();
+    OPMPersistentSortedMap<Integer, String> map = OPMPersistentSortedMap.empty();
+    for(int i = 0; i < 5000; i++) {
+      Integer key = random.nextInt(1000);
+      if(random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.remove(key);
+      } else {
+        expected.put(key, "v" + i);
+        map = map.put(key, "v" + i);
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected, map.asMap());
+    assertEquals(Lists.newArrayList(expected.keySet()), Lists.newArrayList(map.asMap().keySet()));
+    assertEquals(Lists.newArrayList(expected.keySet()).get(0), map.firstKey());
+    assertEquals(Lists.newArrayList(expected.keySet()).get(expected.size() - 1), map.lastKey());
+  }
+
+  @Test
+  public void test_updates_doNotChangeExistingMap() {
+    OPMPersistentSortedMap<String, String> map1 = OPMPersistentSortedMap.<String, String> empty().put("a", "1")
+        .put("b", "2");
+    OPMPersistentSortedMap<String, String> map2 = map1.put("a", "3").remove("b").put("c", "4");
+    assertEquals(2, map1.size());
+    assertEquals("1", map1.get("a"));
+    assertEquals("2", map1.get("b"));
+    assertNull(map1.get("c"));
+    assertEquals(2, map2.size());
+    assertEquals("3", map2.get("a"));
+    assertNull(map2.get("b"));
+    assertEquals("4", map2.get("c"));
+    assertSame(map1, map1.remove("z"));
+    assertTrue(map1.isSameAs(map1.put("a", map1.get("a"))));
+  }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMPersistentVectorTest {
+
+  @Test
+  public void test_appendSetAndRemoveLast_matchArrayList() {
+    List<Integer> expected = Lists.newArrayList();
+    OPMPersistentVector<Integer> vector = OPMPersistentVector.empty();
+    for(int i = 0; i < 40000; i++) {
+      expected.add(i);
+      vector = vector.append(i);
+    }
+    assertEquals(expected, vector.asList());
+    for(int i = 0; i < 40000; i += 7) {
+      expected.set(i, -i);
+      vector = vector.set(i, -i);
+    }
+    assertEquals(expected, vector.asList());
+    while(!expected.isEmpty()) {
+      assertEquals(expected.get(expected.size() - 1), vector.get(vector.size() - 1));
+      expected.remove(expected.size() - 1);
+      vector = vector.removeLast();
+      if(expected.size() % 1000 == 0) {
+        assertEquals(expected, vector.asList());
+      }
+    }
+    assertTrue(vector.isEmpty());
+  }
+
+  @Test
+  public void test_updates_doNotChangeExistingVector() {
+    OPMPersistentVector<String> vector1 = OPMPersistentVector.<String> empty().append("a").append("b");
+    OPMPersistentVector<String> vector2 = vector1.set(0, "c").append("d");
+    assertEquals(Lists.newArrayList("a", "b"), vector1.asList());
+    assertEquals(Lists.newArrayList("c", "b", "d"), vector2.asList());
+    assertEquals(Lists.newArrayList("c", "b"), vector2.removeLast().asList());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void test_get_outOfBounds_ExpectException() {
+    OPMPersistentVector.<String> empty().append("a").get(1);
+  }
+}
@@ -8,9 +8,13 @@ package com.vainolo.phd.opm.interpreter;
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.Lists;
 import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecordType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
+import com.vainolo.phd.opm.model.OPMElementWithID;
 
 /**
  * Default implementation of {@link OPMProcessInstance} interface to be used by
@@ -24,11 +28,50 @@ public abstract class OPMAbstractProcessInstance implements OPMProcessInstance {
   protected final OPMProcessInstanceHeap heap = new OPMProcessInstanceHeap();
   private String name;
   private OPMProcessExecutionResult result;
+  private OPMExecutionContext executionContext;
+  private long elementId = 0;
+  private long executionStartTime = 0;
 
   protected OPMProcessInstanceHeap getHeap() {
     return heap;
   }
 
+  /**
+   * Set the context of the execution this instance is part of. The context is
+   * set by the {@link OPMProcessInstanceFactory} when the instance is created.
+   */
+  public void setExecutionContext(OPMExecutionContext executionContext) {
+    this.executionContext = executionContext;
+  }
+
+  /**
+   * Get the context of the execution this instance is part of. If no context
+   * was set, a new context with the interpreter defaults is used.
+   */
+  public OPMExecutionContext getExecutionContext() {
+    if(executionContext == null) {
+      executionContext = new OPMExecutionContext();
+    }
+    return executionContext;
+  }
+
+  /**
+   * Set the id of the model element executed by this instance, used to identify
+   * the instance in execution traces. The id is set by the
+   * {@link OPMProcessInstanceFactory} when the instance is created for a
+   * process.
+   *
+   * @param elementId
+   *          the {@link OPMElementWithID} id of the process.
+   */
+  public void setElementId(long elementId) {
+    this.elementId = elementId;
+  }
+
+  public long getElementId() {
+    return elementId;
+  }
+
   /**
    * Get the name of this instance;
    */
@@ -57,6 +100,8 @@ public abstract class OPMAbstractProcessInstance implements OPMProcessInstance {
    */
   protected void preExecution() {
     logInfo("Started executing process " + getName());
+    recordTrace(OPMTraceRecordType.PROCESS_STARTED);
+    executionStartTime = getExecutionContext().getMetricsRegistry().isEnabled() ? System.nanoTime() : 0;
   }
 
   /**
@@ -64,6 +109,30 @@ public abstract class OPMAbstractProcessInstance implements OPMProcessInstance {
    */
   protected void postExecution() {
     logInfo("Finished executing process " + getName());
+    recordTrace(OPMTraceRecordType.PROCESS_FINISHED);
+    if(executionStartTime != 0) {
+      getExecutionContext().getMetricsRegistry().processExecuted(getName(), System.nanoTime() - executionStartTime);
+      executionStartTime = 0;
+    }
+  }
+
+  /**
+   * Write a record for this instance in the trace of the execution, if the
+   * execution is traced.
+   */
+  protected void recordTrace(OPMTraceRecordType type) {
+    OPMTraceRecorder recorder = getExecutionContext().getTraceRecorder();
+    if(recorder != null) {
+      recorder.record(type, getTraceInstanceId(), elementId, 0, null);
+    }
+  }
+
+  /**
+   * @return the id of this instance in the trace of the execution. Only
+   *         in-zoomed instances have an id, other instances return 0.
+   */
+  protected int getTraceInstanceId() {
+    return 0;
   }
 
   @Override
@@ -80,6 +149,26 @@ public abstract class OPMAbstractProcessInstance implements OPMProcessInstance {
     return getHeap().getArgument(name.toLowerCase());
   }
 
+  /**
+   * @return an unmodifiable view of all the arguments of this instance, by
+   *         name.
+   */
+  public Map<String, OPMObjectInstance> getArguments() {
+    return getHeap().getArguments();
+  }
+
+  /**
+   * Get the object that identifies the process executed by this instance in
+   * an {@link OPMProcessCallCache}. Only instances of processes declared as
+   * pure have one.
+   * 
+   * @return the identity of the process, or <code>null</code> if the calls
+   *         to the process cannot be memoized.
+   */
+  public Object getMemoizationIdentity() {
+    return null;
+  }
+
   @Override
   public List<OPMParameter> getIncomingParameterNames() {
     return Lists.newArrayList();
@@ -90,14 +179,30 @@ public abstract class OPMAbstractProcessInstance implements OPMProcessInstance {
     return Lists.newArrayList();
   }
 
+  /**
+   * Execute this instance. If the execution context of the instance is
+   * cancelled before or during the execution, the returned result has the
+   * type given by {@link OPMExecutionContext#getCancellationResultType()}
+   * instead of {@link OPMProcessExecutionResultType#FINISHED}.
+   */
   @Override
   public OPMProcessExecutionResult call() throws Exception {
+    OPMExecutionContext context = getExecutionContext();
+    if(context.isCancelled()) {
+      result = new OPMProcessExecutionResult(this, context.getCancellationResultType());
+      return result;
+    }
     result = new OPMProcessExecutionResult(this, OPMProcessExecutionResultType.FINISHED);
     try {
       preExecution();
       executing();
       postExecution();
     } catch(Exception e) {
+      if(context.isCancelled()) {
+        logInfo("Execution of process {0} was stopped: {1}.", getName(), context.getCancellationResultType());
+        result = new OPMProcessExecutionResult(this, context.getCancellationResultType());
+        return result;
+      }
       throw new OPMRuntimeException(e);
     }
     return result;
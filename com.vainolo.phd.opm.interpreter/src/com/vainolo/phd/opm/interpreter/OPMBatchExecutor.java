@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.core.resources.IContainer;
+
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessCompiler;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * <p>
+ * Executes one in-zoomed OPD over many sets of arguments. The OPD is loaded,
+ * analyzed and (if possible) compiled once when the executor is created, and
+ * the same model and execution plan are used by all the executions of all the
+ * batches run by the executor.
+ * </p>
+ *
+ * <p>
+ * Executions run concurrently on the executor of the execution context (or on
+ * the executor set with {@link #setExecutorService(ExecutorService)}), with at
+ * most {@link #getParallelism()} executions in flight. All the executions share
+ * the same {@link OPMExecutionContext}, so cancelling it stops the batch.
+ * Arguments are read lazily from the batch and results are returned through an
+ * iterator, so batches can be larger than the available memory.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMBatchExecutor {
+
+  private final OPMObjectProcessDiagram opd;
+  private final OPMInZoomedProcessExecutionPlan plan;
+  private final OPMCompiledInZoomedProcess compiledProcess;
+  private final OPMExecutionContext context;
+  private int parallelism = OPMInterpreter.INSTANCE.getParallelism();
+  private OPMBatchResultOrder order = OPMBatchResultOrder.COMPLETION;
+  private ExecutorService executorService = null;
+
+  /**
+   * Create an executor for an OPD stored in a container. Compound processes
+   * invoked by the OPD are also loaded from the container.
+   *
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param container
+   *          the container where the OPDs are stored.
+   */
+  public OPMBatchExecutor(String opdName, IContainer container) {
+    this(opdName, new OPMWorkspaceModelResolver(container));
+  }
+
+  /**
+   * Create an executor for an OPD found by a model resolver. Compound
+   * processes invoked by the OPD are also found using the resolver.
+   *
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param resolver
+   *          the resolver used to find the OPDs.
+   */
+  public OPMBatchExecutor(String opdName, OPMModelResolver resolver) {
+    this(opdName, new OPMExecutionContext(resolver));
+  }
+
+  /**
+   * Create an executor for an OPD that runs all its executions in the given
+   * context. The OPD and the compound processes it invokes are found using the
+   * model resolver of the context.
+   *
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param context
+   *          the context of the executions.
+   */
+  public OPMBatchExecutor(String opdName, OPMExecutionContext context) {
+    OPMModelRepository repository = context.getModelRepository();
+    OPMModelResolver resolver = context.getModelResolver();
+    if(resolver == null) {
+      throw new IllegalStateException("Cannot load OPD " + opdName + ", no model resolver was set.");
+    }
+    String location = resolver.getLocation(opdName);
+    OPMObjectProcessDiagram loadedOPD = repository.getOPD(location, resolver.getModificationStamp(opdName));
+    checkInZoomedOPD(loadedOPD, opdName);
+    this.opd = loadedOPD;
+    this.plan = repository.getExecutionPlan(location, opd);
+    this.compiledProcess = OPMInterpreter.INSTANCE.isCompilationEnabled() ? repository.getCompiledProcess(location,
+        opd, resolver) : null;
+    this.context = context;
+  }
+
+  /**
+   * Create an executor for an OPD that is already loaded.
+   *
+   * @param opd
+   *          an in-zoomed OPD.
+   */
+  public OPMBatchExecutor(OPMObjectProcessDiagram opd) {
+    checkInZoomedOPD(opd, opd == null ? null : opd.getName());
+    this.opd = opd;
+    this.plan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    this.compiledProcess = OPMInterpreter.INSTANCE.isCompilationEnabled() ? OPMInZoomedProcessCompiler.compile(plan)
+        : null;
+    this.context = new OPMExecutionContext();
+  }
+
+  private static void checkInZoomedOPD(OPMObjectProcessDiagram opd, String opdName) {
+    if(opd == null) {
+      throw new IllegalArgumentException("OPD " + opdName + " could not be loaded.");
+    }
+    if(opd.getKind() != OPMObjectProcessDiagramKind.COMPOUND) {
+      throw new IllegalArgumentException("Only in-zoomed OPDs can be executed in batches, " + opdName + " is "
+          + opd.getKind() + ".");
+    }
+  }
+
+  public OPMExecutionContext getExecutionContext() {
+    return context;
+  }
+
+  /**
+   * Set the maximal number of executions that run at the same time.
+   *
+   * @param parallelism
+   *          the number of concurrent executions, must be positive.
+   */
+  public void setParallelism(int parallelism) {
+    if(parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Set the order in which results are returned. The default is
+   * {@link OPMBatchResultOrder#COMPLETION}.
+   */
+  public void setResultOrder(OPMBatchResultOrder order) {
+    this.order = order;
+  }
+
+  public OPMBatchResultOrder getResultOrder() {
+    return order;
+  }
+
+  /**
+   * Set the executor where the executions run. When not set (or set to
+   * <code>null</code>), the executor of the execution context is used.
+   */
+  public void setExecutorService(ExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  /**
+   * Execute the OPD once for every set of arguments in the batch. Executions
+   * start when the returned iterator is first used, and new executions are
+   * started as results are consumed. An execution that fails does not stop
+   * the batch; its result contains the thrown exception.
+   *
+   * @param arguments
+   *          the arguments of every execution, by parameter name.
+   * @return an iterator over the results of the executions.
+   */
+  public Iterator<OPMBatchResult> execute(Iterable<? extends Map<String, OPMObjectInstance>> arguments) {
+    return new OPMBatchIterator(arguments.iterator());
+  }
+
+  private void executeTask(Runnable task) {
+    if(executorService != null) {
+      executorService.execute(task);
+    } else {
+      context.execute(task);
+    }
+  }
+
+  private OPMBatchResult executeOnce(long index, Map<String, OPMObjectInstance> arguments) {
+    try {
+      OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opd, plan, compiledProcess,
+          context);
+      for(Map.Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+        instance.setArgument(argument.getKey(), argument.getValue());
+      }
+      instance.call();
+      return new OPMBatchResult(index, arguments, OPMInterpreter.getOutgoingArguments(instance), null);
+    } catch(Exception e) {
+      logWarning("Execution {0} of batch for {1} failed: {2}", index, opd.getName(), e);
+      return new OPMBatchResult(index, arguments, null, e);
+    }
+  }
+
+  private class OPMBatchIterator implements Iterator<OPMBatchResult> {
+    private final Iterator<? extends Map<String, OPMObjectInstance>> arguments;
+    private final Deque<Future<OPMBatchResult>> submitted = new ArrayDeque<Future<OPMBatchResult>>();
+    private final BlockingQueue<Future<OPMBatchResult>> completed = new LinkedBlockingQueue<Future<OPMBatchResult>>();
+    private final int batchParallelism = parallelism;
+    private final OPMBatchResultOrder batchOrder = order;
+    private long nextIndex = 0;
+
+    OPMBatchIterator(Iterator<? extends Map<String, OPMObjectInstance>> arguments) {
+      this.arguments = arguments;
+    }
+
+    private void submitPending() {
+      while(submitted.size() < batchParallelism && !context.isCancelled() && arguments.hasNext()) {
+        final long index = nextIndex++;
+        final Map<String, OPMObjectInstance> executionArguments = arguments.next();
+        Callable<OPMBatchResult> task = new Callable<OPMBatchResult>() {
+          @Override
+          public OPMBatchResult call() {
+            return executeOnce(index, executionArguments);
+          }
+        };
+        FutureTask<OPMBatchResult> future = new FutureTask<OPMBatchResult>(task) {
+          @Override
+          protected void done() {
+            if(batchOrder == OPMBatchResultOrder.COMPLETION) {
+              completed.add(this);
+            }
+          }
+        };
+        executeTask(future);
+        submitted.add(future);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      submitPending();
+      if(submitted.isEmpty()) {
+        // the batch finished, so its deadline must not cancel the context later.
+        context.clearDeadline();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public OPMBatchResult next() {
+      if(!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      try {
+        Future<OPMBatchResult> future;
+        if(batchOrder == OPMBatchResultOrder.COMPLETION) {
+          future = completed.take();
+          submitted.remove(future);
+        } else {
+          future = submitted.removeFirst();
+        }
+        return future.get();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel();
+        throw new OPMRuntimeException(e);
+      } catch(ExecutionException e) {
+        throw new OPMRuntimeException(e.getCause());
+      }
+    }
+
+    private void cancel() {
+      for(Future<OPMBatchResult> future : submitted) {
+        future.cancel(true);
+      }
+      submitted.clear();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.Map;
+
+/**
+ * The result of one execution of a batch run by an {@link OPMBatchExecutor}.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMBatchResult {
+
+  private final long index;
+  private final Map<String, OPMObjectInstance> arguments;
+  private final Map<String, OPMObjectInstance> results;
+  private final Throwable error;
+
+  OPMBatchResult(long index, Map<String, OPMObjectInstance> arguments, Map<String, OPMObjectInstance> results,
+      Throwable error) {
+    this.index = index;
+    this.arguments = arguments;
+    this.results = results;
+    this.error = error;
+  }
+
+  /**
+   * Get the position of the arguments of this execution in the batch,
+   * starting from 0.
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * Get the arguments of this execution.
+   */
+  public Map<String, OPMObjectInstance> getArguments() {
+    return arguments;
+  }
+
+  /**
+   * Get the values of the outgoing parameters of the OPD after this execution,
+   * by parameter name. Parameters that received no value are not included.
+   * 
+   * @return the results, or <code>null</code> if the execution failed.
+   */
+  public Map<String, OPMObjectInstance> getResults() {
+    return results;
+  }
+
+  /**
+   * Get the exception thrown by this execution.
+   * 
+   * @return the exception, or <code>null</code> if the execution succeeded.
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  public boolean isSuccessful() {
+    return error == null;
+  }
+}
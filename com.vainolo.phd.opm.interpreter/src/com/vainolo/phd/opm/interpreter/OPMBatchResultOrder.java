@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+/**
+ * The order in which an {@link OPMBatchExecutor} returns the results of a
+ * batch.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public enum OPMBatchResultOrder {
+  /**
+   * Results are returned as soon as their execution finishes.
+   */
+  COMPLETION,
+  /**
+   * Results are returned in the order of their arguments in the batch. A
+   * result is held until all the results before it are returned.
+   */
+  INPUT;
+}
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import com.vainolo.phd.opm.model.OPMProcess;
+
+/**
+ * Factory of the instances of a built-in process, registered in the
+ * {@link OPMBuiltInProcessRegistry} under the name of the process.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public interface OPMBuiltInProcessFactory {
+
+  /**
+   * Create a new instance of the built-in process.
+   * 
+   * @param process
+   *          the process in the OPD that invokes the built-in process.
+   * @return a new instance of the built-in process.
+   */
+  OPMProcessInstance createInstance(OPMProcess process);
+}
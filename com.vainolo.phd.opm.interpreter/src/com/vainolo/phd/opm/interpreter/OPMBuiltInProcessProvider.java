@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.ServiceLoader;
+
+/**
+ * Service provider interface used to add built-in processes to the
+ * interpreter. Providers are found using {@link ServiceLoader}, by listing the
+ * implementing class in a
+ * <code>META-INF/services/com.vainolo.phd.opm.interpreter.OPMBuiltInProcessProvider</code>
+ * file. Bundles that are not visible to the interpreter can register their
+ * built-in processes directly in the {@link OPMBuiltInProcessRegistry} of the
+ * interpreter, for example when they are activated.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public interface OPMBuiltInProcessProvider {
+
+  /**
+   * Register the built-in processes of this provider.
+   * 
+   * @param registry
+   *          the registry where the processes are registered.
+   */
+  void registerBuiltInProcesses(OPMBuiltInProcessRegistry registry);
+}
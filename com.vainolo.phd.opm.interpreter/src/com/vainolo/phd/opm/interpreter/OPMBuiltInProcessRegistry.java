@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.builtin.OPMDefaultBuiltInProcessProvider;
+import com.vainolo.phd.opm.model.OPMProcess;
+
+/**
+ * <p>
+ * Registry of the built-in processes of the interpreter, indexed by process
+ * name. The registry contains the default built-in processes and the processes
+ * of all the {@link OPMBuiltInProcessProvider}s found by the
+ * {@link ServiceLoader}. Processes registered later replace processes with the
+ * same name.
+ * </p>
+ *
+ * <p>
+ * Built-in processes can be registered as reusable, in which case their
+ * instances must be {@link OPMReusableProcessInstance}s. Released instances of
+ * reusable processes are kept by the registry and returned by later calls to
+ * {@link #createInstance(OPMProcess)}.
+ * </p>
+ *
+ * <p>
+ * Built-in processes can also be registered as pure: their results depend only
+ * on their arguments and they have no side effects, so they can be executed
+ * speculatively and their results discarded (see
+ * {@link OPMExecutionContext#setSpeculativeExecution(boolean)}).
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMBuiltInProcessRegistry {
+
+  private final Map<String, OPMBuiltInProcessRegistration> registrations = Maps.newConcurrentMap();
+
+  /**
+   * Create a registry containing only the default built-in processes.
+   */
+  public OPMBuiltInProcessRegistry() {
+    new OPMDefaultBuiltInProcessProvider().registerBuiltInProcesses(this);
+  }
+
+  /**
+   * Create a registry containing the default built-in processes and the
+   * processes of all the providers found by the {@link ServiceLoader}.
+   *
+   * @return a new registry.
+   */
+  public static OPMBuiltInProcessRegistry createWithProviders() {
+    OPMBuiltInProcessRegistry registry = new OPMBuiltInProcessRegistry();
+    try {
+      for(OPMBuiltInProcessProvider provider : ServiceLoader.load(OPMBuiltInProcessProvider.class,
+          OPMBuiltInProcessRegistry.class.getClassLoader())) {
+        logInfo("Registering built-in processes of provider {0}.", provider.getClass().getName());
+        provider.registerBuiltInProcesses(registry);
+      }
+    } catch(ServiceConfigurationError e) {
+      logWarning("Could not load built-in process providers: {0}", e.getMessage());
+    }
+    return registry;
+  }
+
+  /**
+   * Register a built-in process whose instances are created for every
+   * invocation.
+   *
+   * @param name
+   *          the name of the process.
+   * @param factory
+   *          the factory of the process instances.
+   */
+  public void register(String name, OPMBuiltInProcessFactory factory) {
+    register(name, factory, false);
+  }
+
+  /**
+   * Register a built-in process.
+   *
+   * @param name
+   *          the name of the process.
+   * @param factory
+   *          the factory of the process instances.
+   * @param reusable
+   *          <code>true</code> if the factory creates
+   *          {@link OPMReusableProcessInstance}s that can be reused after they
+   *          are released.
+   */
+  public void register(String name, OPMBuiltInProcessFactory factory, boolean reusable) {
+    register(name, factory, reusable, false);
+  }
+
+  /**
+   * Register a built-in process.
+   *
+   * @param name
+   *          the name of the process.
+   * @param factory
+   *          the factory of the process instances.
+   * @param reusable
+   *          <code>true</code> if the factory creates
+   *          {@link OPMReusableProcessInstance}s that can be reused after they
+   *          are released.
+   * @param pure
+   *          <code>true</code> if the results of the process depend only on
+   *          its arguments and executing it has no side effects.
+   */
+  public void register(String name, OPMBuiltInProcessFactory factory, boolean reusable, boolean pure) {
+    if(name == null || factory == null) {
+      throw new IllegalArgumentException("Built-in process name and factory cannot be null.");
+    }
+    registrations.put(name, new OPMBuiltInProcessRegistration(factory, reusable, pure));
+  }
+
+  /**
+   * Remove a built-in process from the registry.
+   *
+   * @param name
+   *          the name of the process.
+   */
+  public void unregister(String name) {
+    registrations.remove(name);
+  }
+
+  public boolean isRegistered(String name) {
+    return registrations.containsKey(name);
+  }
+
+  /**
+   * @return <code>true</code> if there is a built-in process with the given
+   *         name and it was registered as pure.
+   */
+  public boolean isPure(String name) {
+    OPMBuiltInProcessRegistration registration = registrations.get(name);
+    return registration != null && registration.pure;
+  }
+
+  /**
+   * Get an instance of a built-in process. For reusable processes, a released
+   * instance is returned if one is available.
+   *
+   * @param process
+   *          the process in the OPD that invokes the built-in process.
+   * @return an instance of the built-in process.
+   * @throws IllegalStateException
+   *           if there is no built-in process with the name of the process.
+   */
+  public OPMProcessInstance createInstance(OPMProcess process) {
+    OPMBuiltInProcessRegistration registration = registrations.get(process.getName());
+    if(registration == null) {
+      throw new IllegalStateException("Tried to create unexistent build-in process " + process.getName());
+    }
+    if(registration.reusable) {
+      OPMProcessInstance instance = registration.releasedInstances.poll();
+      if(instance != null) {
+        return instance;
+      }
+    }
+    return registration.factory.createInstance(process);
+  }
+
+  /**
+   * Release an instance that was returned by
+   * {@link #createInstance(OPMProcess)} and that is no longer used. Instances
+   * of reusable processes are reset and kept for reuse, other instances are
+   * ignored.
+   *
+   * @param process
+   *          the process used to create the instance.
+   * @param instance
+   *          the released instance.
+   */
+  public void release(OPMProcess process, OPMProcessInstance instance) {
+    OPMBuiltInProcessRegistration registration = registrations.get(process.getName());
+    if(registration != null && registration.reusable && instance instanceof OPMReusableProcessInstance) {
+      ((OPMReusableProcessInstance) instance).reset();
+      registration.releasedInstances.offer(instance);
+    }
+  }
+
+  private static class OPMBuiltInProcessRegistration {
+    private final OPMBuiltInProcessFactory factory;
+    private final boolean reusable;
+    private final boolean pure;
+    private final Queue<OPMProcessInstance> releasedInstances = new ConcurrentLinkedQueue<OPMProcessInstance>();
+
+    OPMBuiltInProcessRegistration(OPMBuiltInProcessFactory factory, boolean reusable, boolean pure) {
+      this.factory = factory;
+      this.reusable = reusable;
+      this.pure = pure;
+    }
+  }
+}
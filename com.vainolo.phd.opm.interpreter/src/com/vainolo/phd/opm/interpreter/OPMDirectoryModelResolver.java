@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.io.File;
+
+import org.eclipse.core.resources.IResource;
+
+/**
+ * Resolves OPDs stored as <code>.opm</code> files in a directory of the file
+ * system. Does not need the Eclipse workspace, so it can be used to run the
+ * interpreter in a plain JVM.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMDirectoryModelResolver implements OPMModelResolver {
+
+  private final File directory;
+
+  public OPMDirectoryModelResolver(File directory) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public String getLocation(String opdName) {
+    return getFile(opdName).toURI().toString();
+  }
+
+  @Override
+  public long getModificationStamp(String opdName) {
+    File file = getFile(opdName);
+    return file.exists() ? file.lastModified() : IResource.NULL_STAMP;
+  }
+
+  private File getFile(String opdName) {
+    return new File(directory, opdName + ".opm");
+  }
+}
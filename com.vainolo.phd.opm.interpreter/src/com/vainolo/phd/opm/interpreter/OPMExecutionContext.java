@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
+
+/**
+ * <p>
+ * The state of one execution of an OPD: where OPDs are loaded from, where the
+ * process instances run, the logging level, the cancellation status and the
+ * execution metrics. The context is passed by the
+ * {@link OPMProcessInstanceFactory} to every instance it creates, so all the
+ * instances of an execution (including nested compound processes) share the
+ * same context, and independent executions can run side by side in the same
+ * JVM.
+ * </p>
+ *
+ * <p>
+ * Values that are not given when the context is created are taken from the
+ * {@link OPMInterpreter}: its model repository, its model resolver, its
+ * shared executor and its metrics registry.
+ * </p>
+ *
+ * <p>
+ * An execution is stopped when its context is cancelled, either by the caller
+ * ({@link #cancel()}) or because its deadline passed
+ * ({@link #setDeadline(long)}). Running process instances are interrupted,
+ * sleeping built-in processes wake up, and the instances of the execution
+ * return {@link OPMProcessExecutionResultType#ABORTED_BY_CALLER} or
+ * {@link OPMProcessExecutionResultType#UNABLE_TO_FINISH} respectively.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMExecutionContext {
+
+  private static final ScheduledThreadPoolExecutor deadlineTimer = createDeadlineTimer();
+
+  private final OPMModelRepository modelRepository;
+  private final OPMModelResolver modelResolver;
+  private final ExecutorService executorService;
+  private final OPMExecutionMetrics metrics = new OPMExecutionMetrics();
+  private final List<Runnable> cancellationListeners = new CopyOnWriteArrayList<Runnable>();
+  private final AtomicReference<OPMProcessExecutionResultType> cancellation =
+      new AtomicReference<OPMProcessExecutionResultType>();
+  private final CountDownLatch cancellationLatch = new CountDownLatch(1);
+  private volatile Level logLevel = null;
+  private volatile long deadline = 0;
+  private volatile boolean speculativeExecution = false;
+  private volatile OPMTraceRecorder traceRecorder = null;
+  private volatile OPMProcessCallCache processCallCache = null;
+  private volatile OPMMetricsRegistry metricsRegistry = null;
+  private ScheduledFuture<?> deadlineTask = null;
+
+  /**
+   * Create a context that uses the interpreter repository, resolver and
+   * executor.
+   */
+  public OPMExecutionContext() {
+    this(null, null, null);
+  }
+
+  /**
+   * Create a context that finds OPDs using the given resolver.
+   *
+   * @param modelResolver
+   *          the resolver used to find the OPDs of this execution.
+   */
+  public OPMExecutionContext(OPMModelResolver modelResolver) {
+    this(null, modelResolver, null);
+  }
+
+  /**
+   * Create a new context.
+   *
+   * @param modelRepository
+   *          the repository used to load OPDs, or <code>null</code> to use
+   *          the interpreter repository.
+   * @param modelResolver
+   *          the resolver used to find OPDs, or <code>null</code> to use the
+   *          interpreter resolver.
+   * @param executorService
+   *          the executor where process instances run, or <code>null</code>
+   *          to use the interpreter executor.
+   */
+  public OPMExecutionContext(OPMModelRepository modelRepository, OPMModelResolver modelResolver,
+      ExecutorService executorService) {
+    this.modelRepository = modelRepository;
+    this.modelResolver = modelResolver;
+    this.executorService = executorService;
+  }
+
+  public OPMModelRepository getModelRepository() {
+    if(modelRepository != null) {
+      return modelRepository;
+    }
+    return OPMInterpreter.INSTANCE.getModelRepository();
+  }
+
+  public OPMModelResolver getModelResolver() {
+    if(modelResolver != null) {
+      return modelResolver;
+    }
+    return OPMInterpreter.INSTANCE.getModelResolver();
+  }
+
+  public ExecutorService getExecutorService() {
+    if(executorService != null) {
+      return executorService;
+    }
+    return OPMInterpreter.INSTANCE.getExecutorService();
+  }
+
+  /**
+   * Execute a task on the executor of this context. When the context uses the
+   * shared executor of the interpreter and the executor is replaced (see
+   * {@link OPMInterpreter#setParallelism(int)}) between looking it up and
+   * submitting the task, the task is executed on the new executor.
+   *
+   * @param task
+   *          the task to execute.
+   * @throws RejectedExecutionException
+   *           if the executor of the context does not accept the task.
+   */
+  public void execute(Runnable task) {
+    ExecutorService executor = getExecutorService();
+    try {
+      executor.execute(task);
+    } catch(RejectedExecutionException e) {
+      ExecutorService current = getExecutorService();
+      if(current == executor) {
+        throw e;
+      }
+      current.execute(task);
+    }
+  }
+
+  /**
+   * Set the level of the interpreter log for this execution. The log is shared
+   * by the whole JVM, so the level is applied when the execution starts and
+   * affects all running executions. When not set (the default), the log level
+   * is not changed.
+   *
+   * @param logLevel
+   *          the log level, or <code>null</code> to leave it unchanged.
+   */
+  public void setLogLevel(Level logLevel) {
+    this.logLevel = logLevel;
+  }
+
+  public Level getLogLevel() {
+    return logLevel;
+  }
+
+  public OPMExecutionMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Record the metrics of the process instances of this execution in the given
+   * registry. When not set (the default), they are recorded in the interpreter
+   * registry, which aggregates all the executions of the JVM.
+   *
+   * @param metricsRegistry
+   *          the registry, which can be shared with other contexts, or
+   *          <code>null</code> to use the interpreter registry.
+   */
+  public void setMetricsRegistry(OPMMetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
+  public OPMMetricsRegistry getMetricsRegistry() {
+    OPMMetricsRegistry registry = metricsRegistry;
+    if(registry != null) {
+      return registry;
+    }
+    return OPMInterpreter.INSTANCE.getMetricsRegistry();
+  }
+
+  /**
+   * Enable or disable speculative execution (disabled by default). When
+   * enabled, pure built-in processes that are guarded by conditional links
+   * start executing as soon as their arguments are available, without waiting
+   * for the processes that precede them. The result of a speculative execution
+   * is used only if the process is later found to be executed and its
+   * arguments did not change in the meantime; otherwise it is discarded and
+   * the process is executed again.
+   *
+   * @param speculativeExecution
+   *          <code>true</code> to enable speculative execution.
+   * @see OPMBuiltInProcessRegistry#register(String, OPMBuiltInProcessFactory,
+   *      boolean, boolean)
+   */
+  public void setSpeculativeExecution(boolean speculativeExecution) {
+    this.speculativeExecution = speculativeExecution;
+  }
+
+  public boolean isSpeculativeExecution() {
+    return speculativeExecution;
+  }
+
+  /**
+   * Memoize the calls to pure processes in the given cache. When not set (the
+   * default), pure processes are executed on every call. Calls are memoized
+   * only when the process is called by an in-zoomed process, and only the
+   * results of calls that finish are kept.
+   *
+   * @param processCallCache
+   *          the cache of the calls, which can be shared with other contexts,
+   *          or <code>null</code> to stop memoizing calls.
+   */
+  public void setProcessCallCache(OPMProcessCallCache processCallCache) {
+    this.processCallCache = processCallCache;
+  }
+
+  public OPMProcessCallCache getProcessCallCache() {
+    return processCallCache;
+  }
+
+  /**
+   * Record a binary trace of the execution. When not set (the default), no
+   * trace is recorded.
+   *
+   * @param traceRecorder
+   *          the recorder where the instances of the execution write their
+   *          records, or <code>null</code> to stop recording.
+   */
+  public void setTraceRecorder(OPMTraceRecorder traceRecorder) {
+    this.traceRecorder = traceRecorder;
+  }
+
+  public OPMTraceRecorder getTraceRecorder() {
+    return traceRecorder;
+  }
+
+  private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+        .setNameFormat("opm-deadline-%d").setDaemon(true).build());
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+
+  /**
+   * Cancel the execution. Process instances that are running are interrupted
+   * and no new instances are started. Other executions are not affected.
+   */
+  public void cancel() {
+    cancel(OPMProcessExecutionResultType.ABORTED_BY_CALLER);
+  }
+
+  private void cancel(OPMProcessExecutionResultType resultType) {
+    if(!cancellation.compareAndSet(null, resultType)) {
+      return;
+    }
+    logInfo("Execution cancelled, result is {0}.", resultType);
+    cancellationLatch.countDown();
+    clearDeadline();
+    for(Runnable listener : cancellationListeners) {
+      listener.run();
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancellation.get() != null;
+  }
+
+  /**
+   * Get the result of the instances of a cancelled execution.
+   *
+   * @return {@link OPMProcessExecutionResultType#ABORTED_BY_CALLER} if the
+   *         execution was cancelled by the caller,
+   *         {@link OPMProcessExecutionResultType#UNABLE_TO_FINISH} if its
+   *         deadline passed, or <code>null</code> if the execution was not
+   *         cancelled.
+   */
+  public OPMProcessExecutionResultType getCancellationResultType() {
+    return cancellation.get();
+  }
+
+  /**
+   * Set a wall-clock deadline for the execution. When the deadline passes the
+   * execution is cancelled, and its instances return
+   * {@link OPMProcessExecutionResultType#UNABLE_TO_FINISH}. A previous
+   * deadline is replaced. The deadline is removed when an execution started by
+   * the {@link OPMInterpreter} or by an {@link OPMBatchExecutor} finishes, so
+   * it does not cancel the context after the execution (which would also keep
+   * the context reachable until the deadline). Callers that call process
+   * instances directly should call {@link #clearDeadline()} when they finish.
+   *
+   * @param deadline
+   *          the deadline, in milliseconds since the epoch.
+   */
+  public synchronized void setDeadline(long deadline) {
+    clearDeadline();
+    this.deadline = deadline;
+    deadlineTask = deadlineTimer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        cancel(OPMProcessExecutionResultType.UNABLE_TO_FINISH);
+      }
+    }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Set the deadline of the execution relative to the current time.
+   *
+   * @param timeout
+   *          the maximal duration of the execution.
+   * @param unit
+   *          the unit of the timeout.
+   * @see #setDeadline(long)
+   */
+  public void setTimeout(long timeout, TimeUnit unit) {
+    setDeadline(System.currentTimeMillis() + unit.toMillis(timeout));
+  }
+
+  /**
+   * @return the deadline of the execution in milliseconds since the epoch,
+   *         or 0 if there is no deadline.
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Remove the deadline of the execution, if there is one.
+   */
+  public synchronized void clearDeadline() {
+    if(deadlineTask != null) {
+      deadlineTask.cancel(false);
+      deadlineTask = null;
+    }
+    deadline = 0;
+  }
+
+  /**
+   * Wait for the given time or until the execution is cancelled, whichever
+   * comes first. Used by built-in processes that wait, so that they stop
+   * waiting as soon as the execution is cancelled.
+   *
+   * @param millis
+   *          the time to wait, in milliseconds.
+   * @return <code>true</code> if the whole time elapsed, <code>false</code>
+   *         if the execution was cancelled.
+   * @throws InterruptedException
+   *           if the waiting thread was interrupted.
+   */
+  public boolean sleep(long millis) throws InterruptedException {
+    return !cancellationLatch.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Add a listener that is run when the execution is cancelled. If the
+   * execution was already cancelled, the listener is run immediately.
+   *
+   * @param listener
+   *          the listener to run on cancellation.
+   */
+  public void addCancellationListener(Runnable listener) {
+    cancellationListeners.add(listener);
+    if(isCancelled()) {
+      listener.run();
+    }
+  }
+
+  public void removeCancellationListener(Runnable listener) {
+    cancellationListeners.remove(listener);
+  }
+}
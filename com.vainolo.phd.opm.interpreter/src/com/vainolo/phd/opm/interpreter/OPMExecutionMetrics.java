@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one {@link OPMExecutionContext}. The counters are updated by the
+ * instances of the execution and can be read while the execution runs.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMExecutionMetrics {
+
+  private final AtomicLong instancesCreated = new AtomicLong();
+  private final AtomicLong instancesExecuted = new AtomicLong();
+  private final AtomicLong executions = new AtomicLong();
+  private final AtomicLong executionTime = new AtomicLong();
+
+  void instanceCreated() {
+    instancesCreated.incrementAndGet();
+  }
+
+  /**
+   * Record that a process instance submitted to the executor has finished.
+   */
+  public void instanceExecuted() {
+    instancesExecuted.incrementAndGet();
+  }
+
+  /**
+   * Record a finished execution of an OPD.
+   *
+   * @param nanos
+   *          the time the execution took, in nanoseconds.
+   */
+  void executionFinished(long nanos) {
+    executions.incrementAndGet();
+    executionTime.addAndGet(nanos);
+  }
+
+  /**
+   * @return the number of process instances created by the
+   *         {@link OPMProcessInstanceFactory} for the execution.
+   */
+  public long getInstancesCreated() {
+    return instancesCreated.get();
+  }
+
+  /**
+   * @return the number of process instances that finished running on the
+   *         executor.
+   */
+  public long getInstancesExecuted() {
+    return instancesExecuted.get();
+  }
+
+  /**
+   * @return the number of OPD executions that finished using the context.
+   */
+  public long getExecutions() {
+    return executions.get();
+  }
+
+  /**
+   * @return the total time of the finished executions, in nanoseconds.
+   */
+  public long getExecutionTime() {
+    return executionTime.get();
+  }
+}
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+/**
+ * The way process instances are executed during an interpretation.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public enum OPMExecutionMode {
+  /**
+   * Process instances are executed on the interpreter-wide
+   * {@link java.util.concurrent.ForkJoinPool}.
+   */
+  SHARED_POOL,
+  /**
+   * Every process instance is executed on its own virtual thread, so blocking
+   * processes (sleep, input, compound sub-processes) do not hold a platform
+   * thread. Requires a JVM that supports virtual threads, otherwise a cached
+   * thread pool is used.
+   */
+  VIRTUAL_THREADS;
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (latencies in nanoseconds, set
+ * sizes). Values are counted in power-of-two buckets, so recording a value
+ * costs a few atomic increments and percentiles are accurate up to a factor of
+ * two.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMHistogram {
+
+  private static final int BUCKETS = 65;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if(value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+    count.increment();
+    sum.add(value);
+    long currentMax = max.get();
+    while(value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long currentCount = getCount();
+    return currentCount == 0 ? 0 : getSum() / currentCount;
+  }
+
+  /**
+   * Get an upper bound of a percentile of the recorded values.
+   *
+   * @param percentile
+   *          the percentile, between 0 and 100.
+   * @return the upper bound of the bucket that contains the percentile, or the
+   *         maximal value if it is smaller. 0 if no value was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    long[] counts = new long[BUCKETS];
+    for(int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if(total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if(seen >= rank && counts[i] > 0) {
+        long upperBound = i == 0 ? 0 : (i == 64 ? Long.MAX_VALUE : (1L << i) - 1);
+        return Math.min(upperBound, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Remove all the recorded values. Values recorded while resetting may be
+   * partially kept.
+   */
+  public void reset() {
+    for(int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+}
@@ -7,12 +7,30 @@ package com.vainolo.phd.opm.interpreter;
 
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
 
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.logging.Level;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.eclipse.core.resources.IContainer;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutableInstance;
 import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
 import com.vainolo.phd.opm.utilities.OPMLogger;
 
@@ -25,12 +43,129 @@ import com.vainolo.phd.opm.utilities.OPMLogger;
 public enum OPMInterpreter {
   INSTANCE;
 
-  public static IContainer container = null;
+  private ExecutorService executorService = null;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private final Set<ExecutorService> interpretationExecutors = Sets.newHashSet();
+  private final Set<OPMExecutionContext> activeContexts = Sets.newHashSet();
+  private final OPMModelRepository modelRepository = new OPMModelRepository();
+  private final OPMBuiltInProcessRegistry builtInProcessRegistry = OPMBuiltInProcessRegistry.createWithProviders();
+  private final OPMMetricsRegistry metricsRegistry = new OPMMetricsRegistry();
+  private volatile boolean compilationEnabled = true;
+  private volatile OPMModelResolver modelResolver = null;
 
-  public final ExecutorService executorService;
+  /**
+   * Get the repository used to load the OPDs executed by the interpreter.
+   * 
+   * @return the interpreter model repository.
+   */
+  public OPMModelRepository getModelRepository() {
+    return modelRepository;
+  }
+
+  /**
+   * Get the registry of the built-in processes that can be executed by the
+   * interpreter.
+   * 
+   * @return the interpreter built-in process registry.
+   */
+  public OPMBuiltInProcessRegistry getBuiltInProcessRegistry() {
+    return builtInProcessRegistry;
+  }
+
+  /**
+   * Get the metrics of all the executions of the interpreter.
+   * 
+   * @return the interpreter metrics registry.
+   */
+  public OPMMetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
 
-  private OPMInterpreter() {
-    executorService = Executors.newCachedThreadPool();
+  /**
+   * Set the default resolver used to find the OPDs executed by the
+   * interpreter, including the compound processes invoked by other OPDs. The
+   * resolver is used by execution contexts that were created without one.
+   * 
+   * @param modelResolver
+   *          the model resolver.
+   */
+  public void setModelResolver(OPMModelResolver modelResolver) {
+    this.modelResolver = modelResolver;
+  }
+
+  public OPMModelResolver getModelResolver() {
+    return modelResolver;
+  }
+
+  /**
+   * Enable or disable the execution of compiled OPDs. When enabled, in-zoomed
+   * OPDs that can be compiled are executed using their compiled form instead
+   * of being interpreted.
+   * 
+   * @param compilationEnabled
+   *          <code>true</code> to execute compiled OPDs, <code>false</code> to
+   *          always interpret them.
+   */
+  public void setCompilationEnabled(boolean compilationEnabled) {
+    this.compilationEnabled = compilationEnabled;
+  }
+
+  public boolean isCompilationEnabled() {
+    return compilationEnabled;
+  }
+
+  /**
+   * Get the executor shared by all the process instances of the interpreter.
+   * The executor is a {@link ForkJoinPool} in asynchronous mode, so that
+   * nested instances submit into the same bounded set of threads instead of
+   * creating their own. A new executor is created if the previous one was shut
+   * down.
+   * 
+   * @return the executor used to execute process instances.
+   */
+  public synchronized ExecutorService getExecutorService() {
+    if(executorService == null || executorService.isShutdown()) {
+      executorService = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+    return executorService;
+  }
+
+  /**
+   * Get the number of tasks waiting to be executed by the interpreter
+   * executor. A new executor is not created if there is none.
+   * 
+   * @return the number of queued tasks, or 0 if there is no executor.
+   */
+  public synchronized long getExecutorQueueDepth() {
+    if(executorService instanceof ForkJoinPool) {
+      ForkJoinPool pool = (ForkJoinPool) executorService;
+      return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    } else if(executorService instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executorService).getQueue().size();
+    }
+    return 0;
+  }
+
+  /**
+   * Set the number of threads used by the interpreter executor. The current
+   * executor (if any) is replaced by a new executor with the given number of
+   * threads. The replaced executor finishes the tasks already submitted to it
+   * and is then shut down; executions that are running submit their next
+   * process instances to the new executor, so they are not affected.
+   * 
+   * @param parallelism
+   *          the number of threads, must be positive.
+   */
+  public synchronized void setParallelism(int parallelism) {
+    if(parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    this.parallelism = parallelism;
+    shutdown();
+  }
+
+  public synchronized int getParallelism() {
+    return parallelism;
   }
 
   /**
@@ -43,22 +178,285 @@ public enum OPMInterpreter {
    * @param container
    */
   public void interpret(String opdName, final IContainer _container) {
-    OPMLogger.setLevel(Level.FINEST);
-    container = _container;
-    logInfo("Interpreting OPD {0}.", opdName);
-    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opdName);
+    interpret(opdName, _container, OPMExecutionMode.SHARED_POOL);
+  }
+
+  /**
+   * Execute an Object Process Diagram (OPD) using the given execution mode.
+   * The interpretation runs in its own {@link OPMExecutionContext}, without
+   * changing the log level.
+   * 
+   * @param opdName
+   * @param container
+   * @param mode
+   *          how the process instances of this interpretation are executed.
+   */
+  public void interpret(String opdName, final IContainer _container, OPMExecutionMode mode) {
+    ExecutorService interpretationExecutor = null;
+    if(mode == OPMExecutionMode.VIRTUAL_THREADS) {
+      interpretationExecutor = createVirtualThreadExecutor();
+    }
+    OPMExecutionContext context = new OPMExecutionContext(null, new OPMWorkspaceModelResolver(_container),
+        interpretationExecutor);
+    logInfo("Interpreting OPD {0} in mode {1}.", opdName, mode);
 
     try {
-      instance.call();
+      interpret(opdName, context);
     } catch(Exception e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      logSevere("Interpretation of {0} failed: {1}", opdName, e);
+    } finally {
+      if(interpretationExecutor != null) {
+        synchronized(this) {
+          interpretationExecutors.remove(interpretationExecutor);
+        }
+        interpretationExecutor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Execute an OPD in the given execution context. Executions in different
+   * contexts are independent: each one loads OPDs using its own resolver, runs
+   * on its own executor and can be cancelled without affecting the others.
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param context
+   *          the context of the execution.
+   * @return the result of the execution. Its instance contains the values of
+   *         the outgoing parameters. If the context was cancelled, the result
+   *         type is {@link OPMExecutionContext#getCancellationResultType()}.
+   * @throws Exception
+   *           if the execution failed.
+   */
+  public OPMProcessExecutionResult interpret(String opdName, OPMExecutionContext context) throws Exception {
+    if(context.getLogLevel() != null) {
+      OPMLogger.setLevel(context.getLogLevel());
+    }
+    synchronized(this) {
+      activeContexts.add(context);
+    }
+    long startTime = System.nanoTime();
+    try {
+      OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opdName, context);
+      if(instance == null) {
+        throw new IllegalArgumentException("OPD " + opdName + " could not be loaded.");
+      }
+      OPMProcessExecutionResult result = instance.call();
+      if(result.getResultType() == OPMProcessExecutionResultType.FINISHED) {
+        context.getMetrics().executionFinished(System.nanoTime() - startTime);
+      }
+      logInfo("Finished interpreting {0}, result is {1}.", opdName, result.getResultType());
+      return result;
+    } finally {
+      context.clearDeadline();
+      synchronized(this) {
+        activeContexts.remove(context);
+      }
+    }
+  }
+
+  /**
+   * Execute an OPD stored in a container without blocking the calling thread.
+   * The interpretation runs in its own {@link OPMExecutionContext}, without
+   * changing the log level.
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param container
+   *          the container where the OPDs are stored.
+   * @return a future of the values of the outgoing parameters of the OPD.
+   * @see #interpretAsync(String, Map, OPMExecutionContext)
+   */
+  public CompletableFuture<Map<String, OPMObjectInstance>> interpretAsync(String opdName, IContainer container) {
+    OPMExecutionContext context = new OPMExecutionContext(new OPMWorkspaceModelResolver(container));
+    return interpretAsync(opdName, Collections.<String, OPMObjectInstance> emptyMap(), context);
+  }
+
+  /**
+   * <p>
+   * Execute an OPD in the given execution context without blocking the
+   * calling thread. The OPD is loaded, planned and compiled on the executor of
+   * the context, and then its processes are executed there too, so the calling
+   * thread (for example the UI thread) only submits the execution. In-zoomed
+   * OPDs are executed without dedicating a thread to wait for them, so many
+   * executions can be composed without running out of threads.
+   * </p>
+   * 
+   * <p>
+   * The returned future is completed by the thread that finishes the
+   * execution, so callbacks attached without an executor run on the executor
+   * of the context and should not block. If loading or executing the OPD
+   * fails, the future is completed exceptionally with the error, and if the
+   * context is cancelled or its deadline passes, with a
+   * {@link CancellationException}.
+   * </p>
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param arguments
+   *          the values of the incoming parameters of the OPD, by name.
+   * @param context
+   *          the context of the execution.
+   * @return a future of the values of the outgoing parameters of the OPD, by
+   *         name. Parameters that received no value are not included.
+   */
+  public CompletableFuture<Map<String, OPMObjectInstance>> interpretAsync(final String opdName,
+      final Map<String, OPMObjectInstance> arguments, final OPMExecutionContext context) {
+    final CompletableFuture<Map<String, OPMObjectInstance>> result =
+        new CompletableFuture<Map<String, OPMObjectInstance>>();
+    if(context.getLogLevel() != null) {
+      OPMLogger.setLevel(context.getLogLevel());
+    }
+
+    synchronized(this) {
+      activeContexts.add(context);
+    }
+    final long startTime = System.nanoTime();
+    final String name = opdName;
+    CompletableFuture<OPMProcessInstance> execution;
+    try {
+      execution = CompletableFuture.supplyAsync(new Supplier<OPMProcessInstance>() {
+        @Override
+        public OPMProcessInstance get() {
+          OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(name, context);
+          if(instance == null) {
+            throw new IllegalArgumentException("OPD " + name + " could not be loaded.");
+          }
+          for(Map.Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+            instance.setArgument(argument.getKey(), argument.getValue());
+          }
+          return instance;
+        }
+      }, context.getExecutorService()).thenCompose(
+          new Function<OPMProcessInstance, CompletionStage<OPMProcessInstance>>() {
+            @Override
+            public CompletionStage<OPMProcessInstance> apply(OPMProcessInstance instance) {
+              return callAsync(instance, context);
+            }
+          });
+    } catch(Throwable e) {
+      execution = new CompletableFuture<OPMProcessInstance>();
+      execution.completeExceptionally(e);
     }
-    logInfo("Finished interpreting {0}.", opdName);
+    execution.whenComplete(new BiConsumer<OPMProcessInstance, Throwable>() {
+      @Override
+      public void accept(OPMProcessInstance executedInstance, Throwable error) {
+        context.clearDeadline();
+        synchronized(OPMInterpreter.this) {
+          activeContexts.remove(context);
+        }
+        if(error instanceof CompletionException && error.getCause() != null) {
+          // errors of the loading stage reach here wrapped by the composition.
+          error = error.getCause();
+        }
+        if(error != null) {
+          logWarning("Interpretation of {0} failed: {1}", name, error);
+          result.completeExceptionally(error);
+          return;
+        }
+        context.getMetrics().executionFinished(System.nanoTime() - startTime);
+        logInfo("Finished interpreting {0}.", name);
+        result.complete(getOutgoingArguments(executedInstance));
+      }
+    });
+    return result;
   }
 
+  private static CompletableFuture<OPMProcessInstance> callAsync(final OPMProcessInstance instance,
+      OPMExecutionContext context) {
+    if(instance instanceof OPMInZoomedProcessExecutableInstance) {
+      return ((OPMInZoomedProcessExecutableInstance) instance).callAsync();
+    }
+    final CompletableFuture<OPMProcessInstance> result = new CompletableFuture<OPMProcessInstance>();
+    try {
+      context.getExecutorService().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            OPMProcessExecutionResultType resultType = instance.call().getResultType();
+            if(resultType != OPMProcessExecutionResultType.FINISHED) {
+              throw new CancellationException("Execution of " + instance.getName() + " was cancelled, result is "
+                  + resultType + ".");
+            }
+            result.complete(instance);
+          } catch(Throwable e) {
+            result.completeExceptionally(e);
+          }
+        }
+      });
+    } catch(Throwable e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Get the values of the outgoing parameters of an executed instance.
+   * 
+   * @return the values by parameter name. Parameters that received no value
+   *         are not included.
+   */
+  static Map<String, OPMObjectInstance> getOutgoingArguments(OPMProcessInstance instance) {
+    Map<String, OPMObjectInstance> results = Maps.newHashMap();
+    for(OPMParameter parameter : instance.getOutgoingParameterNames()) {
+      OPMObjectInstance value = instance.getArgument(parameter.getName());
+      if(value != null) {
+        results.put(parameter.getName(), value);
+      }
+    }
+    return Collections.unmodifiableMap(results);
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task. The
+   * interpreter is compiled for Java 8, so the factory method is looked up
+   * reflectively. When virtual threads are not available, a cached thread pool
+   * is used instead.
+   * 
+   * @return an executor owned by a single interpretation.
+   */
+  private synchronized ExecutorService createVirtualThreadExecutor() {
+    ExecutorService executor;
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      executor = (ExecutorService) factory.invoke(null);
+    } catch(ReflectiveOperationException e) {
+      logWarning("Virtual threads are not supported by this JVM, using a cached thread pool.");
+      executor = Executors.newCachedThreadPool();
+    }
+    interpretationExecutors.add(executor);
+    return executor;
+  }
+
+  /**
+   * Stop all the running interpretations by cancelling their execution
+   * contexts. The shared executor is not shut down, so interpretations started
+   * later are not affected. To stop only one interpretation, cancel its
+   * context with {@link OPMExecutionContext#cancel()}.
+   */
   public void stopExecution() {
-    // instance.stop();
-    executorService.shutdownNow();
+    List<OPMExecutionContext> contexts;
+    synchronized(this) {
+      contexts = Lists.newArrayList(activeContexts);
+      for(ExecutorService interpretationExecutor : interpretationExecutors) {
+        interpretationExecutor.shutdownNow();
+      }
+      interpretationExecutors.clear();
+    }
+    for(OPMExecutionContext context : contexts) {
+      context.cancel();
+    }
+  }
+
+  /**
+   * Shut down the interpreter executor after all submitted process instances
+   * have finished.
+   */
+  public synchronized void shutdown() {
+    if(executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
   }
 }
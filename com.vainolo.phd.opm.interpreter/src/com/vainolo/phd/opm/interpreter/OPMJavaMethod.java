@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * A Java method invoked by a {@link OPMJavaProcessExecutableInstance}. The
+ * method is described as <code>package.Class.method(type, type, ...)</code>.
+ * The description is parsed and the method is linked once, and the result is
+ * cached by description, so all the processes with the same description share
+ * the same {@link MethodHandle}.
+ * </p>
+ *
+ * <p>
+ * The arguments of the method are read from the <code>arg0</code>,
+ * <code>arg1</code>, ... parameters (and the target of instance methods from
+ * the <code>this</code> parameter), and the returned value is written to the
+ * <code>result</code> parameter. The conversion of every argument and of the
+ * returned value is chosen when the method is linked, according to its type:
+ * numbers are converted from and to {@link BigDecimal}, booleans are the
+ * strings <code>true</code> and <code>false</code>, {@link OPMObjectInstance}s
+ * are passed as they are, and other values are converted to strings.
+ * </p>
+ *
+ * <p>
+ * Numbers are never rounded or truncated when they are passed to the method:
+ * an argument that is not an integer, or that is out of the range of an
+ * integral parameter, fails the process instead. Returned <code>double</code>
+ * and <code>float</code> values are kept in the <code>double</code>
+ * representation of {@link OPMObjectInstance#createFromValue(double)}, and
+ * returning a value that is not finite fails the process.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+class OPMJavaMethod {
+
+  static final String TARGET_PARAMETER = "this";
+  static final String ARGUMENT_PARAMETER_PREFIX = "arg";
+  static final String RESULT_PARAMETER = "result";
+
+  private static final Pattern classAndMethodAndParametersPattern = Pattern.compile("(.*)\\.([^\\.]*)\\((.*)\\)");
+  private static final ConcurrentMap<String, OPMJavaMethod> methods = Maps.newConcurrentMap();
+
+  private final String description;
+  private final MethodHandle invoker;
+  private final List<String> parameterNames;
+  private final OPMArgumentConverter[] argumentConverters;
+  private final OPMResultConverter resultConverter;
+
+  private OPMJavaMethod(String description, Method method) throws IllegalAccessException {
+    this.description = description;
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    int arity = parameterTypes.length + (isStatic ? 0 : 1);
+
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    argumentConverters = new OPMArgumentConverter[arity];
+    int index = 0;
+    if(!isStatic) {
+      names.add(TARGET_PARAMETER);
+      argumentConverters[index++] = createArgumentConverter(method.getDeclaringClass());
+    }
+    for(int i = 0; i < parameterTypes.length; i++) {
+      names.add(ARGUMENT_PARAMETER_PREFIX + i);
+      argumentConverters[index++] = createArgumentConverter(parameterTypes[i]);
+    }
+    parameterNames = names.build();
+    resultConverter = createResultConverter(method.getReturnType());
+
+    MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+    invoker = handle.asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, arity);
+  }
+
+  /**
+   * Get the method with the given description, parsing and linking it if it
+   * was not used before.
+   *
+   * @param description
+   *          the description of the method.
+   * @param processName
+   *          the name of the process that invokes the method, used for error
+   *          messages.
+   * @return the linked method.
+   */
+  static OPMJavaMethod forDescription(String description, String processName) {
+    OPMJavaMethod method = methods.get(description);
+    if(method == null) {
+      method = link(description, processName);
+      OPMJavaMethod existing = methods.putIfAbsent(description, method);
+      if(existing != null) {
+        method = existing;
+      }
+    }
+    return method;
+  }
+
+  private static OPMJavaMethod link(String description, String processName) {
+    final Matcher classAndMethodAndParametersMatcher = classAndMethodAndParametersPattern.matcher(description);
+    if(!classAndMethodAndParametersMatcher.find()) {
+      logInfo("Could not parse method definition " + description + " for process " + processName);
+      throw new RuntimeException("Could not parse method definition " + description + " for process "
+          + processName);
+    }
+
+    String className = classAndMethodAndParametersMatcher.group(1);
+    String methodName = classAndMethodAndParametersMatcher.group(2);
+    String methodParameters = classAndMethodAndParametersMatcher.group(3).replaceAll("\\s*", "");
+    String[] parameters = methodParameters.isEmpty() ? new String[0] : methodParameters.split(",");
+
+    try {
+      Class<?> cls = getClass(className);
+      Class<?>[] parameterClasses = new Class[parameters.length];
+      for(int i = 0; i < parameters.length; i++) {
+        parameterClasses[i] = getClass(parameters[i]);
+      }
+      logFine("Linking method {0} for process {1}.", description, processName);
+      return new OPMJavaMethod(description, cls.getMethod(methodName, parameterClasses));
+    } catch(ClassNotFoundException e) {
+      logInfo("Could not load class " + className + " for process " + processName
+          + ". Check that the class is in the classpath.");
+      throw new RuntimeException(e);
+    } catch(NoSuchMethodException e) {
+      logInfo("Could not find methdod " + methodName + " in class " + className
+          + ". Please check that you have given the correct parameters and try again.");
+      throw new RuntimeException(e);
+    } catch(IllegalAccessException e) {
+      logInfo("Method " + methodName + " in class " + className + " is not accessible.");
+      throw new RuntimeException(e);
+    } catch(SecurityException e) {
+      logInfo("Some security exception happened. Don't know what this means :-)");
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Class<?> getClass(String name) throws ClassNotFoundException {
+    if(byte.class.getName().equals(name))
+      return byte.class;
+    if(short.class.getName().equals(name))
+      return short.class;
+    if(int.class.getName().equals(name))
+      return int.class;
+    if(long.class.getName().equals(name))
+      return long.class;
+    if(float.class.getName().equals(name))
+      return float.class;
+    if(double.class.getName().equals(name))
+      return double.class;
+    if(boolean.class.getName().equals(name))
+      return boolean.class;
+    if(char.class.getName().equals(name))
+      return char.class;
+
+    if(name.charAt(0) == '[')
+      throw new UnsupportedOperationException("Array parameters are not supported yet.");
+
+    return Class.forName(name);
+  }
+
+  /**
+   * Get the names of the incoming parameters of the method, in invocation
+   * order: <code>this</code> for instance methods, followed by
+   * <code>arg0</code>, <code>arg1</code>, ...
+   */
+  List<String> getParameterNames() {
+    return parameterNames;
+  }
+
+  boolean hasResult() {
+    return resultConverter != null;
+  }
+
+  /**
+   * Invoke the method.
+   *
+   * @param arguments
+   *          the arguments of the method, in the order of
+   *          {@link #getParameterNames()}.
+   * @return the returned value, or <code>null</code> if the method is
+   *         <code>void</code> or returned <code>null</code>.
+   */
+  OPMObjectInstance invoke(OPMObjectInstance[] arguments) throws Exception {
+    Object[] javaArguments = new Object[argumentConverters.length];
+    for(int i = 0; i < javaArguments.length; i++) {
+      if(arguments[i] == null) {
+        throw new IllegalArgumentException("Missing argument " + parameterNames.get(i) + " for method "
+            + description + ".");
+      }
+      try {
+        javaArguments[i] = argumentConverters[i].convert(arguments[i]);
+      } catch(ArithmeticException e) {
+        throw new IllegalArgumentException("Argument " + parameterNames.get(i) + " = " + arguments[i]
+            + " of method " + description + " cannot be converted to its parameter type without changing it.", e);
+      }
+    }
+    Object result;
+    try {
+      result = (Object) invoker.invokeExact(javaArguments);
+    } catch(Exception e) {
+      throw e;
+    } catch(Error e) {
+      throw e;
+    } catch(Throwable e) {
+      throw new OPMRuntimeException(e);
+    }
+    if(resultConverter == null || result == null) {
+      return null;
+    }
+    try {
+      return resultConverter.convert(result);
+    } catch(ArithmeticException e) {
+      throw new IllegalStateException("Method " + description + " returned " + result
+          + ", which is not a finite number.", e);
+    }
+  }
+
+  /**
+   * Get the value of an instance as a <code>long</code>, failing with an
+   * {@link ArithmeticException} if the value is not an integer or is out of
+   * the range of a <code>long</code>.
+   */
+  private static long getLongValueExact(OPMObjectInstance value) {
+    if(value.getValue() instanceof Long) {
+      return value.getLongValue();
+    }
+    return value.getNumericalValue().longValueExact();
+  }
+
+  private static OPMArgumentConverter createArgumentConverter(Class<?> type) {
+    if(type == OPMObjectInstance.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value;
+        }
+      };
+    }
+    if(type == int.class || type == Integer.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return Math.toIntExact(getLongValueExact(value));
+        }
+      };
+    }
+    if(type == long.class || type == Long.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return getLongValueExact(value);
+        }
+      };
+    }
+    if(type == double.class || type == Double.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getDoubleValue();
+        }
+      };
+    }
+    if(type == float.class || type == Float.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getNumericalValue().floatValue();
+        }
+      };
+    }
+    if(type == short.class || type == Short.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getNumericalValue().shortValueExact();
+        }
+      };
+    }
+    if(type == byte.class || type == Byte.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getNumericalValue().byteValueExact();
+        }
+      };
+    }
+    if(type == BigInteger.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getNumericalValue().toBigIntegerExact();
+        }
+      };
+    }
+    if(type == BigDecimal.class || type == Number.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getNumericalValue();
+        }
+      };
+    }
+    if(type == boolean.class || type == Boolean.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return Boolean.parseBoolean(value.getStringValue());
+        }
+      };
+    }
+    if(type == char.class || type == Character.class) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.getStringValue().charAt(0);
+        }
+      };
+    }
+    if(type.isAssignableFrom(String.class)) {
+      return new OPMArgumentConverter() {
+        @Override
+        public Object convert(OPMObjectInstance value) {
+          return value.isValue() ? value.getStringValue() : value;
+        }
+      };
+    }
+    throw new UnsupportedOperationException("Parameters of type " + type.getName() + " are not supported yet.");
+  }
+
+  private static OPMResultConverter createResultConverter(Class<?> type) {
+    if(type == void.class) {
+      return null;
+    }
+    if(type == OPMObjectInstance.class) {
+      return new OPMResultConverter() {
+        @Override
+        public OPMObjectInstance convert(Object value) {
+          return (OPMObjectInstance) value;
+        }
+      };
+    }
+    if(type == BigDecimal.class) {
+      return new OPMResultConverter() {
+        @Override
+        public OPMObjectInstance convert(Object value) {
+          return OPMObjectInstance.createFromValue((BigDecimal) value);
+        }
+      };
+    }
+    if(type == int.class || type == long.class || type == short.class || type == byte.class
+        || type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+      return new OPMResultConverter() {
+        @Override
+        public OPMObjectInstance convert(Object value) {
+          return OPMObjectInstance.createFromValue(((Number) value).longValue());
+        }
+      };
+    }
+    if(type == double.class || type == float.class || type == Double.class || type == Float.class) {
+      return new OPMResultConverter() {
+        @Override
+        public OPMObjectInstance convert(Object value) {
+          double doubleValue = ((Number) value).doubleValue();
+          if(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+            throw new ArithmeticException(value + " is not a finite number.");
+          }
+          return OPMObjectInstance.createFromValue(doubleValue);
+        }
+      };
+    }
+    if(type == BigInteger.class) {
+      return new OPMResultConverter() {
+        @Override
+        public OPMObjectInstance convert(Object value) {
+          return OPMObjectInstance.createFromValue(new BigDecimal((BigInteger) value));
+        }
+      };
+    }
+    return new OPMResultConverter() {
+      @Override
+      public OPMObjectInstance convert(Object value) {
+        if(value instanceof OPMObjectInstance) {
+          return (OPMObjectInstance) value;
+        }
+        if(value instanceof BigDecimal) {
+          return OPMObjectInstance.createFromValue((BigDecimal) value);
+        }
+        return OPMObjectInstance.createFromValue(value.toString());
+      }
+    };
+  }
+
+  private interface OPMArgumentConverter {
+    Object convert(OPMObjectInstance value);
+  }
+
+  private interface OPMResultConverter {
+    OPMObjectInstance convert(Object value);
+  }
+}
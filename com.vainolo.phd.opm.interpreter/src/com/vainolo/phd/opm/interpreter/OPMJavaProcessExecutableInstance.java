@@ -5,28 +5,23 @@
  *******************************************************************************/
 package com.vainolo.phd.opm.interpreter;
 
-import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+import java.util.List;
 
-import java.lang.reflect.Method;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.vainolo.phd.opm.model.OPMFactory;
-import com.vainolo.phd.opm.model.OPMObject;
+import com.google.common.collect.Lists;
 import com.vainolo.phd.opm.model.OPMProcess;
 
+/**
+ * Executable instance of a process that invokes a Java method. The method is
+ * given in the description of the process, and is linked once for all the
+ * processes with the same description (see {@link OPMJavaMethod}).
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
 public class OPMJavaProcessExecutableInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
 
-  private final Pattern classAndMethodAndParametersPattern = Pattern.compile("(.*)\\.([^\\.]*)\\((.*)\\)");
-
-  private String className = null;
-  private String methodName = null;
-  private String[] parameters = new String[0];
-  private Method method;
-  private Object[] arguments;
-  // private Object target = null;
-
   private OPMProcess process;
+  private OPMJavaMethod method = null;
 
   public OPMJavaProcessExecutableInstance(OPMProcess process) {
     this.process = process;
@@ -38,114 +33,42 @@ public class OPMJavaProcessExecutableInstance extends OPMAbstractProcessInstance
   }
 
   @Override
-  protected void executing() {
-    loadMethod();
-    for(String parameter : parameters) {
-      OPMObject object = OPMFactory.eINSTANCE.createOPMObject();
-      object.setName(parameter);
+  protected void executing() throws Exception {
+    OPMJavaMethod method = getMethod();
+    List<String> parameterNames = method.getParameterNames();
+    OPMObjectInstance[] arguments = new OPMObjectInstance[parameterNames.size()];
+    for(int i = 0; i < arguments.length; i++) {
+      arguments[i] = getArgument(parameterNames.get(i));
     }
 
-    arguments = new Object[parameters.length];
-    for(int i = 0; i < parameters.length; i++) {
-      arguments[i] = getArgument("arg" + i);
-    }
-
-    // if(!Modifier.isStatic(method.getModifiers()))
-    // target = getArgument("this");
-
-    // final Object result = callMethod(method);
-    OPMObjectInstance instance = null; // OPMObjectInstance.createFromValue(result);
-    if(!method.getReturnType().equals(Void.TYPE)) {
-      setArgument("result", instance);
+    OPMObjectInstance result = method.invoke(arguments);
+    if(result != null) {
+      setArgument(OPMJavaMethod.RESULT_PARAMETER, result);
     }
   }
 
-  // private Object callMethod(Method method) {
-  // Preconditions.checkNotNull(method);
-  //
-  // Object result = null;
-  // try {
-  // result = method.invoke(target, arguments);
-  // } catch(ReflectiveOperationException e) {
-  // logger.info("Method " + methodName +
-  // " could not be called. See log for details.");
-  // throw new RuntimeException(e);
-  // }
-  // return result;
-  // }
-
-  private Method loadMethod() {
-    final Matcher classAndMethodAndParametersMatcher = classAndMethodAndParametersPattern.matcher(process
-        .getDescription());
-
-    if(!classAndMethodAndParametersMatcher.find()) {
-      logInfo("Could not parse method definition " + process.getDescription() + " for process " + process.getName());
-      throw new RuntimeException("Could not parse method definition " + process.getDescription() + " for process "
-          + process.getName());
-    }
-
-    className = classAndMethodAndParametersMatcher.group(1);
-    methodName = classAndMethodAndParametersMatcher.group(2);
-    String methodParameters = classAndMethodAndParametersMatcher.group(3);
-
-    if(!methodParameters.isEmpty()) {
-      methodParameters = methodParameters.replaceAll("\\s*", "");
-      parameters = methodParameters.split(",");
+  private OPMJavaMethod getMethod() {
+    if(method == null) {
+      method = OPMJavaMethod.forDescription(process.getDescription(), process.getName());
     }
-
-    Method method = null;
-    try {
-
-      Class<?> cls = null;
-      Class<?>[] parameterClasses = null;
-      cls = getClass(className);
-
-      if(parameters.length != 0) {
-        parameterClasses = new Class[parameters.length];
-        for(int i = 0; i < parameters.length; i++) {
-          parameterClasses[i] = getClass(parameters[i]);
-        }
-      }
-      method = cls.getMethod(methodName, parameterClasses);
-
-    } catch(ClassNotFoundException e) {
-      logInfo("Could not load class " + className + " for process " + process.getName()
-          + ". Check that the class is in the classpath.");
-      throw new RuntimeException(e);
-    } catch(NoSuchMethodException e) {
-      logInfo("Could not find methdod " + methodName + " in class " + className
-          + ". Please check that you have given the correct parameters and try again.");
-      throw new RuntimeException(e);
-    } catch(SecurityException e) {
-      logInfo("Some security exception happened. Don't know what this means :-)");
-      throw new RuntimeException(e);
-    }
-
     return method;
   }
 
-  private Class<?> getClass(String name) throws ClassNotFoundException {
-    if(byte.class.getName().equals(name))
-      return byte.class;
-    if(short.class.getName().equals(name))
-      return short.class;
-    if(int.class.getName().equals(name))
-      return int.class;
-    if(long.class.getName().equals(name))
-      return long.class;
-    if(float.class.getName().equals(name))
-      return float.class;
-    if(double.class.getName().equals(name))
-      return double.class;
-    if(boolean.class.getName().equals(name))
-      return boolean.class;
-    if(char.class.getName().equals(name))
-      return char.class;
-
-    if(name.charAt(0) == '[')
-      throw new UnsupportedOperationException("Array parameters are not supported yet.");
+  @Override
+  public List<OPMParameter> getIncomingParameterNames() {
+    List<OPMParameter> incomingParameters = Lists.newArrayList();
+    for(String parameterName : getMethod().getParameterNames()) {
+      incomingParameters.add(new OPMParameter(parameterName, false));
+    }
+    return incomingParameters;
+  }
 
-    return Class.forName(name);
+  @Override
+  public List<OPMParameter> getOutgoingParameterNames() {
+    if(getMethod().hasResult()) {
+      return Lists.newArrayList(new OPMParameter(OPMJavaMethod.RESULT_PARAMETER, false));
+    }
+    return Lists.newArrayList();
   }
 
   @Override
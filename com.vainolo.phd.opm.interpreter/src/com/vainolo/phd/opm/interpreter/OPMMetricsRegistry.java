@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * Interpreter-wide metrics: the latency of every process by name, the
+ * iterations of the in-zoomed process schedulers and the sizes of their
+ * waiting, ready and executing sets, the time spent loading arguments and
+ * extracting results, the number of heap variables set and the depth of the
+ * queue of the interpreter executor. Unlike {@link OPMExecutionMetrics}, which
+ * counts the instances of one execution, these metrics aggregate all the
+ * executions that record in the registry: the executions of the interpreter by
+ * default, or the executions whose context was given this registry using
+ * {@link OPMExecutionContext#setMetricsRegistry(OPMMetricsRegistry)}.
+ * </p>
+ *
+ * <p>
+ * Recording is disabled by default. When enabled, values are recorded using
+ * lock-free counters and {@link OPMHistogram}s, so the cost of recording is a
+ * few atomic increments and two calls to {@link System#nanoTime()} per timed
+ * operation. The metrics can be read using {@link #getSnapshot()} or through
+ * JMX after calling {@link #registerMBean()}.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMMetricsRegistry implements OPMMetricsRegistryMXBean {
+
+  public static final String OBJECT_NAME = "com.vainolo.phd.opm.interpreter:type=Metrics";
+
+  private volatile boolean enabled = false;
+  private final ConcurrentMap<String, OPMHistogram> processLatencies = Maps.newConcurrentMap();
+  private final LongAdder schedulerIterations = new LongAdder();
+  private final OPMHistogram waitingProcesses = new OPMHistogram();
+  private final OPMHistogram readyProcesses = new OPMHistogram();
+  private final OPMHistogram executingProcesses = new OPMHistogram();
+  private final OPMHistogram argumentLoading = new OPMHistogram();
+  private final OPMHistogram resultExtraction = new OPMHistogram();
+  private final LongAdder heapVariableSets = new LongAdder();
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enable or disable recording. Values recorded before recording was disabled
+   * are kept.
+   */
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Record the execution of a process instance.
+   *
+   * @param processName
+   *          the name of the process.
+   * @param nanos
+   *          the time the execution took, in nanoseconds.
+   */
+  public void processExecuted(String processName, long nanos) {
+    if(!enabled) {
+      return;
+    }
+    getProcessLatency(processName).record(nanos);
+  }
+
+  /**
+   * Record an iteration of the loop of an in-zoomed process scheduler.
+   *
+   * @param waiting
+   *          the number of waiting processes.
+   * @param ready
+   *          the number of ready processes.
+   * @param executing
+   *          the number of executing processes.
+   */
+  public void schedulerIteration(int waiting, int ready, int executing) {
+    if(!enabled) {
+      return;
+    }
+    schedulerIterations.increment();
+    waitingProcesses.record(waiting);
+    readyProcesses.record(ready);
+    executingProcesses.record(executing);
+  }
+
+  /**
+   * Record the time spent loading the arguments of a process instance.
+   */
+  public void argumentsLoaded(long nanos) {
+    if(enabled) {
+      argumentLoading.record(nanos);
+    }
+  }
+
+  /**
+   * Record the time spent storing the results of a process instance in the
+   * heap.
+   */
+  public void resultsExtracted(long nanos) {
+    if(enabled) {
+      resultExtraction.record(nanos);
+    }
+  }
+
+  /**
+   * Record that a variable was set in the heap of an in-zoomed process.
+   */
+  public void heapVariableSet() {
+    if(enabled) {
+      heapVariableSets.increment();
+    }
+  }
+
+  /**
+   * Get the latency histogram of a process, creating it if needed.
+   *
+   * @param processName
+   *          the name of the process.
+   * @return the histogram of the execution times of the process, in
+   *         nanoseconds.
+   */
+  public OPMHistogram getProcessLatency(String processName) {
+    OPMHistogram histogram = processLatencies.get(processName);
+    if(histogram == null) {
+      histogram = new OPMHistogram();
+      OPMHistogram existing = processLatencies.putIfAbsent(processName, histogram);
+      if(existing != null) {
+        histogram = existing;
+      }
+    }
+    return histogram;
+  }
+
+  @Override
+  public long getSchedulerIterations() {
+    return schedulerIterations.sum();
+  }
+
+  @Override
+  public long getHeapVariableSets() {
+    return heapVariableSets.sum();
+  }
+
+  @Override
+  public long getExecutorQueueDepth() {
+    return OPMInterpreter.INSTANCE.getExecutorQueueDepth();
+  }
+
+  /**
+   * Get the current values of all the metrics, sorted by name. Times are in
+   * nanoseconds. Every histogram is reported by its count, mean, 50th and 99th
+   * percentiles and maximum (for example <code>process.Add.p99</code>).
+   *
+   * @return the values of the metrics by name.
+   */
+  @Override
+  public Map<String, Long> getSnapshot() {
+    Map<String, Long> snapshot = Maps.newTreeMap();
+    snapshot.put("scheduler.iterations", getSchedulerIterations());
+    addHistogram(snapshot, "scheduler.waiting", waitingProcesses);
+    addHistogram(snapshot, "scheduler.ready", readyProcesses);
+    addHistogram(snapshot, "scheduler.executing", executingProcesses);
+    addHistogram(snapshot, "arguments.load", argumentLoading);
+    addHistogram(snapshot, "results.extract", resultExtraction);
+    snapshot.put("heap.sets", getHeapVariableSets());
+    snapshot.put("executor.queueDepth", getExecutorQueueDepth());
+    for(Entry<String, OPMHistogram> process : processLatencies.entrySet()) {
+      addHistogram(snapshot, "process." + process.getKey(), process.getValue());
+    }
+    return snapshot;
+  }
+
+  private static void addHistogram(Map<String, Long> snapshot, String name, OPMHistogram histogram) {
+    snapshot.put(name + ".count", histogram.getCount());
+    snapshot.put(name + ".mean", histogram.getMean());
+    snapshot.put(name + ".p50", histogram.getPercentile(50));
+    snapshot.put(name + ".p99", histogram.getPercentile(99));
+    snapshot.put(name + ".max", histogram.getMax());
+  }
+
+  /**
+   * Write the snapshot of the metrics, one <code>name = value</code> line per
+   * metric.
+   */
+  public void dump(PrintStream out) {
+    for(Entry<String, Long> metric : getSnapshot().entrySet()) {
+      out.println(metric.getKey() + " = " + metric.getValue());
+    }
+  }
+
+  /**
+   * Remove all the recorded values.
+   */
+  @Override
+  public void reset() {
+    processLatencies.clear();
+    schedulerIterations.reset();
+    waitingProcesses.reset();
+    readyProcesses.reset();
+    executingProcesses.reset();
+    argumentLoading.reset();
+    resultExtraction.reset();
+    heapVariableSets.reset();
+  }
+
+  /**
+   * Register the registry in the platform MBean server under
+   * {@value #OBJECT_NAME}. Registering it more than once has no effect.
+   */
+  public synchronized void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch(JMException e) {
+      throw new OPMRuntimeException(e);
+    }
+  }
+
+  public synchronized void unregisterMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch(JMException e) {
+      throw new OPMRuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.Map;
+
+/**
+ * JMX interface of the {@link OPMMetricsRegistry}.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public interface OPMMetricsRegistryMXBean {
+
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  long getSchedulerIterations();
+
+  long getHeapVariableSets();
+
+  long getExecutorQueueDepth();
+
+  Map<String, Long> getSnapshot();
+
+  void reset();
+}
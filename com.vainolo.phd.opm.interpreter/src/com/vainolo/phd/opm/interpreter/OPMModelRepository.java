@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessCompiler;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessPlanLoader;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
+import com.vainolo.phd.opm.utilities.OPMFileUtils;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * <p>
+ * Repository of the {@link OPMObjectProcessDiagram}s loaded by the
+ * interpreter. An OPD file is parsed only once and the parsed model is shared
+ * by all the invocations of the OPD, until the modification stamp of the file
+ * changes. The execution plan of an OPD and its compiled form (if the OPD can
+ * be compiled) are cached with it. A compiled form that inlines compound
+ * sub-processes is also discarded when one of the inlined OPDs changes.
+ * Entries are softly referenced, so they can be evicted when memory is low.
+ * </p>
+ * 
+ * <p>
+ * The returned models are shared between concurrent executions and must be
+ * treated as read-only.
+ * </p>
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMModelRepository {
+
+  private final Cache<String, OPMModelRepositoryEntry> cache = CacheBuilder.newBuilder().softValues().build();
+
+  /**
+   * Get the OPD stored in the given file, loading it if it is not in the
+   * repository or if the file was modified since it was loaded.
+   * 
+   * @param file
+   *          the file containing the OPD.
+   * @return the OPD stored in the file, or <code>null</code> if the file could
+   *         not be loaded.
+   */
+  public OPMObjectProcessDiagram getOPD(IFile file) {
+    return getOPD(file.getFullPath().toString(), file.getModificationStamp());
+  }
+
+  /**
+   * Get the OPD stored in the given location, loading it if it is not in the
+   * repository or if its modification stamp changed since it was loaded.
+   * 
+   * @param path
+   *          the location of the OPD file.
+   * @param modificationStamp
+   *          the current modification stamp of the file, or
+   *          {@link IResource#NULL_STAMP} if it is not known, in which case the
+   *          OPD is loaded and not cached.
+   * @return the OPD stored in the file, or <code>null</code> if the file could
+   *         not be loaded.
+   */
+  public OPMObjectProcessDiagram getOPD(String path, long modificationStamp) {
+    if(modificationStamp == IResource.NULL_STAMP) {
+      logFine("File {0} has no modification stamp, loading it without caching.", path);
+      return OPMFileUtils.INSTANCE.loadOPDFile(path);
+    }
+
+    OPMModelRepositoryEntry entry = cache.getIfPresent(path);
+    if(entry == null || entry.getModificationStamp() != modificationStamp) {
+      logFine("Loading OPD file {0}.", path);
+      OPMObjectProcessDiagram opd = OPMFileUtils.INSTANCE.loadOPDFile(path);
+      if(opd == null) {
+        cache.invalidate(path);
+        return null;
+      }
+      entry = new OPMModelRepositoryEntry(opd, modificationStamp);
+      cache.put(path, entry);
+    }
+    return entry.getOPD();
+  }
+
+  /**
+   * Get the execution plan of an in-zoomed OPD that was loaded from the given
+   * file. The plan is created the first time it is requested and is cached
+   * together with the OPD, so it is discarded when the file changes. If the
+   * given OPD is not the one currently cached for the file, a new plan is
+   * created and not cached.
+   * 
+   * @param file
+   *          the file containing the OPD.
+   * @param opd
+   *          the OPD returned by {@link #getOPD(IFile)} for the file.
+   * @return the execution plan of the OPD.
+   */
+  public OPMInZoomedProcessExecutionPlan getExecutionPlan(IFile file, OPMObjectProcessDiagram opd) {
+    return getExecutionPlan(file.getFullPath().toString(), opd);
+  }
+
+  /**
+   * Get the execution plan of an in-zoomed OPD that was loaded from the given
+   * location.
+   * 
+   * @see #getExecutionPlan(IFile, OPMObjectProcessDiagram)
+   */
+  public OPMInZoomedProcessExecutionPlan getExecutionPlan(String path, OPMObjectProcessDiagram opd) {
+    OPMModelRepositoryEntry entry = cache.getIfPresent(path);
+    if(entry == null || entry.getOPD() != opd) {
+      return OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+    }
+    return entry.getExecutionPlan();
+  }
+
+  /**
+   * Get the compiled form of an in-zoomed OPD that was loaded from the given
+   * file. The OPD is compiled the first time it is requested and the result
+   * is cached together with the OPD. OPDs that are not the one currently
+   * cached for the file are not compiled.
+   * 
+   * @param file
+   *          the file containing the OPD.
+   * @param opd
+   *          the OPD returned by {@link #getOPD(IFile)} for the file.
+   * @return the compiled OPD, or <code>null</code> if the OPD cannot be
+   *         compiled.
+   */
+  public OPMCompiledInZoomedProcess getCompiledProcess(IFile file, OPMObjectProcessDiagram opd) {
+    return getCompiledProcess(file.getFullPath().toString(), opd);
+  }
+
+  /**
+   * Get the compiled form of an in-zoomed OPD that was loaded from the given
+   * location.
+   * 
+   * @see #getCompiledProcess(IFile, OPMObjectProcessDiagram)
+   */
+  public OPMCompiledInZoomedProcess getCompiledProcess(String path, OPMObjectProcessDiagram opd) {
+    return getCompiledProcess(path, opd, null);
+  }
+
+  /**
+   * Get the compiled form of an in-zoomed OPD that was loaded from the given
+   * location, inlining the compound sub-processes that it invokes. The OPDs of
+   * the sub-processes are found using the given resolver, and the compiled
+   * form is compiled again when one of them changes.
+   * 
+   * @param path
+   *          the location of the OPD file.
+   * @param opd
+   *          the OPD returned by {@link #getOPD(String, long)} for the path.
+   * @param resolver
+   *          the resolver used to find the OPDs of compound sub-processes, or
+   *          <code>null</code> to compile the OPD without inlining.
+   * @return the compiled OPD, or <code>null</code> if the OPD cannot be
+   *         compiled.
+   * @see OPMInZoomedProcessCompiler#compile(OPMInZoomedProcessExecutionPlan,
+   *      OPMInZoomedProcessPlanLoader)
+   */
+  public OPMCompiledInZoomedProcess getCompiledProcess(String path, OPMObjectProcessDiagram opd,
+      OPMModelResolver resolver) {
+    OPMModelRepositoryEntry entry = cache.getIfPresent(path);
+    if(entry == null || entry.getOPD() != opd) {
+      return null;
+    }
+    return entry.getCompiledProcess(this, resolver);
+  }
+
+  /**
+   * Create a loader of the plans of inlined sub-processes. The modification
+   * stamps of the loaded OPDs are stored in the given map. OPDs with no
+   * modification stamp are not inlined, since their changes cannot be
+   * detected.
+   */
+  private OPMInZoomedProcessPlanLoader createPlanLoader(final OPMModelResolver resolver,
+      final Map<String, Long> modificationStamps) {
+    return new OPMInZoomedProcessPlanLoader() {
+      @Override
+      public OPMInZoomedProcessExecutionPlan loadExecutionPlan(String opdName) {
+        long modificationStamp = resolver.getModificationStamp(opdName);
+        if(modificationStamp == IResource.NULL_STAMP) {
+          return null;
+        }
+        String location = resolver.getLocation(opdName);
+        OPMObjectProcessDiagram opd = getOPD(location, modificationStamp);
+        if(opd == null || opd.getKind() != OPMObjectProcessDiagramKind.COMPOUND) {
+          return null;
+        }
+        modificationStamps.put(opdName, modificationStamp);
+        return getExecutionPlan(location, opd);
+      }
+    };
+  }
+
+  /**
+   * Remove the OPD stored in the given path from the repository.
+   * 
+   * @param path
+   *          full path of the OPD file.
+   */
+  public void invalidate(String path) {
+    cache.invalidate(path);
+  }
+
+  /**
+   * Remove all the OPDs from the repository.
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  private static class OPMModelRepositoryEntry {
+    private final OPMObjectProcessDiagram opd;
+    private final long modificationStamp;
+    private final Object planLock = new Object();
+    private OPMInZoomedProcessExecutionPlan executionPlan = null;
+    private OPMCompiledInZoomedProcess compiledProcess = null;
+    private boolean compiled = false;
+    private boolean inlined = false;
+    private Map<String, Long> inlinedModificationStamps = Collections.emptyMap();
+
+    OPMModelRepositoryEntry(OPMObjectProcessDiagram opd, long modificationStamp) {
+      this.opd = opd;
+      this.modificationStamp = modificationStamp;
+    }
+
+    OPMObjectProcessDiagram getOPD() {
+      return opd;
+    }
+
+    long getModificationStamp() {
+      return modificationStamp;
+    }
+
+    /**
+     * Get the execution plan of the OPD. Uses its own lock, since the plans
+     * of other entries are requested while an entry is being compiled.
+     */
+    OPMInZoomedProcessExecutionPlan getExecutionPlan() {
+      synchronized(planLock) {
+        if(executionPlan == null) {
+          executionPlan = OPMInZoomedProcessExecutionPlan.create(opd, new OPDAnalyzer());
+        }
+        return executionPlan;
+      }
+    }
+
+    synchronized OPMCompiledInZoomedProcess getCompiledProcess(OPMModelRepository repository,
+        OPMModelResolver resolver) {
+      if(!compiled || (resolver != null && (!inlined || !areInlinedProcessesCurrent(resolver)))) {
+        if(resolver == null) {
+          compiledProcess = OPMInZoomedProcessCompiler.compile(getExecutionPlan());
+          inlinedModificationStamps = Collections.emptyMap();
+        } else {
+          Map<String, Long> modificationStamps = Maps.newHashMap();
+          compiledProcess = OPMInZoomedProcessCompiler.compile(getExecutionPlan(), repository.createPlanLoader(
+              resolver, modificationStamps));
+          inlinedModificationStamps = modificationStamps;
+        }
+        compiled = true;
+        inlined = resolver != null;
+      }
+      return compiledProcess;
+    }
+
+    private boolean areInlinedProcessesCurrent(OPMModelResolver resolver) {
+      for(Map.Entry<String, Long> inlinedProcess : inlinedModificationStamps.entrySet()) {
+        if(resolver.getModificationStamp(inlinedProcess.getKey()) != inlinedProcess.getValue()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
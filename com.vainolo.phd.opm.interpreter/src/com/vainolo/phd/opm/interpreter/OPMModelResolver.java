@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import org.eclipse.core.resources.IResource;
+
+/**
+ * Finds the files where OPDs are stored, so that the
+ * {@link OPMModelRepository} can load them by name.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public interface OPMModelResolver {
+
+  /**
+   * Get the location of the file containing an OPD. The location is used to
+   * load the OPD and to identify it in the {@link OPMModelRepository}.
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @return the URI of the OPD file.
+   */
+  String getLocation(String opdName);
+
+  /**
+   * Get the modification stamp of the file containing an OPD. The stamp must
+   * change whenever the file changes.
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @return the modification stamp, or {@link IResource#NULL_STAMP} if it is
+   *         not known.
+   */
+  long getModificationStamp(String opdName);
+}
@@ -10,37 +10,75 @@ import static com.google.common.base.Preconditions.*;
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.UUID;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.utils.OPMPersistentIndexedMap;
+import com.vainolo.phd.opm.interpreter.utils.OPMPersistentSortedMap;
 
 /**
+ * <p>
  * And instance of an OPM Object. An OPM object can have two primary constructs:
  * it either has a value or is composite. Values can be {@link String},
  * {@link BigDecimal}, or a state, which is treated pretty similarly to a
  * string.
+ * </p>
+ * 
+ * <p>
+ * Numerical values are stored as a <code>long</code> when they are integers
+ * that fit in one, as a <code>double</code> when they were explicitly created
+ * from a fractional <code>double</code> using
+ * {@link #createFromValue(double)}, and as a {@link BigDecimal} otherwise (see
+ * {@link NumericalRepresentation}). Values read from models and from JSON are
+ * created from {@link BigDecimal}s, so their arithmetic stays exact. The
+ * representation is not visible in the value of the instance, which is always
+ * a {@link BigDecimal}, but lets the arithmetic built-in processes avoid
+ * arbitrary precision math.
+ * </p>
+ * 
+ * <p>
+ * Instances are immutable. Adding a part or an element to an instance returns
+ * a new instance that shares all its other parts or elements with the original
+ * instance (see {@link OPMPersistentSortedMap}), so instances can be passed
+ * between processes and variables without being copied. The elements of a
+ * collection are stored in an array-backed {@link OPMPersistentIndexedMap},
+ * and only the elements that are put using a name have a name.
+ * </p>
  * 
  * @author Arieh 'Vainolo' Bibliowicz
  * 
  */
 public class OPMObjectInstance {
 
-  private Object value = null;
-  private Map<String, OPMObjectInstance> parts = Maps.newHashMap();
-  // private List<OPMObjectInstance> collectionValues = Lists.newArrayList();
-  private SortedMap<Integer, OPMObjectInstance> collectionValues = Maps.newTreeMap();
-  private BiMap<String, Integer> collectionNameToIndexMapping = HashBiMap.create();
+  // a String, or for numerical instances a Long, Double or BigDecimal
+  private final Object value;
+  private final OPMPersistentSortedMap<String, OPMObjectInstance> parts;
+  private final OPMPersistentIndexedMap<OPMObjectInstance> collectionValues;
+  // only elements that were put using a name are in the name mappings
+  private final OPMPersistentSortedMap<String, Integer> collectionNameToIndexMapping;
+  private final OPMPersistentSortedMap<Integer, String> collectionIndexToNameMapping;
   public final InstanceType type;
 
   private OPMObjectInstance(InstanceType type) {
+    this(type, null, OPMPersistentSortedMap.<String, OPMObjectInstance> empty());
+  }
+
+  private OPMObjectInstance(InstanceType type, Object value, OPMPersistentSortedMap<String, OPMObjectInstance> parts) {
+    this(type, value, parts, OPMPersistentIndexedMap.<OPMObjectInstance> empty(),
+        OPMPersistentSortedMap.<String, Integer> empty(), OPMPersistentSortedMap.<Integer, String> empty());
+  }
+
+  private OPMObjectInstance(InstanceType type, Object value, OPMPersistentSortedMap<String, OPMObjectInstance> parts,
+      OPMPersistentIndexedMap<OPMObjectInstance> collectionValues,
+      OPMPersistentSortedMap<String, Integer> collectionNameToIndexMapping,
+      OPMPersistentSortedMap<Integer, String> collectionIndexToNameMapping) {
     this.type = type;
+    this.value = value;
+    this.parts = parts;
+    this.collectionValues = collectionValues;
+    this.collectionNameToIndexMapping = collectionNameToIndexMapping;
+    this.collectionIndexToNameMapping = collectionIndexToNameMapping;
   }
 
   // Creation
@@ -54,56 +92,67 @@ public class OPMObjectInstance {
 
   public static OPMObjectInstance createFromValue(BigDecimal decimalValue) {
     Preconditions.checkNotNull(decimalValue, "Value cannot be null.");
-    OPMObjectInstance instance = new OPMObjectInstance(InstanceType.NUMERICAL);
-    instance.setValue(decimalValue);
-    return instance;
+    if(decimalValue.scale() == 0
+        && (decimalValue.precision() < 19 || decimalValue.unscaledValue().bitLength() < Long.SIZE)) {
+      return createFromValue(decimalValue.longValue());
+    }
+    return new OPMObjectInstance(InstanceType.NUMERICAL, decimalValue,
+        OPMPersistentSortedMap.<String, OPMObjectInstance> empty());
+  }
+
+  public static OPMObjectInstance createFromValue(long longValue) {
+    return new OPMObjectInstance(InstanceType.NUMERICAL, Long.valueOf(longValue),
+        OPMPersistentSortedMap.<String, OPMObjectInstance> empty());
+  }
+
+  /**
+   * Create a numerical instance that does its arithmetic using
+   * <code>double</code>s. The value of the instance is the exact value of the
+   * <code>double</code>. Integer values are stored as <code>long</code>s.
+   * Double arithmetic is not exact, so this is an opt-in for callers that
+   * already work with <code>double</code>s; values that must keep the exact
+   * {@link BigDecimal} semantics should use
+   * {@link #createFromValue(BigDecimal)}.
+   * 
+   * @param doubleValue
+   *          a finite value.
+   */
+  public static OPMObjectInstance createFromValue(double doubleValue) {
+    checkArgument(!Double.isNaN(doubleValue) && !Double.isInfinite(doubleValue), "Value must be finite.");
+    if(doubleValue == Math.rint(doubleValue) && Math.abs(doubleValue) < 0x1p63) {
+      return createFromValue((long) doubleValue);
+    }
+    return new OPMObjectInstance(InstanceType.NUMERICAL, Double.valueOf(doubleValue),
+        OPMPersistentSortedMap.<String, OPMObjectInstance> empty());
   }
 
   public static OPMObjectInstance createFromValue(String stringValue) {
     Preconditions.checkNotNull(stringValue, "Value cannot be null.");
-    OPMObjectInstance instance = new OPMObjectInstance(InstanceType.STRING);
-    instance.setValue(stringValue);
-    return instance;
+    return new OPMObjectInstance(InstanceType.STRING, stringValue,
+        OPMPersistentSortedMap.<String, OPMObjectInstance> empty());
   }
 
+  /**
+   * Get a copy of an existing instance. Since instances are immutable, the
+   * existing instance is returned.
+   * 
+   * @param existingInstance
+   *          the instance to copy.
+   * @return the existing instance.
+   */
   public static OPMObjectInstance createFromExistingInstance(OPMObjectInstance existingInstance) {
     Preconditions.checkNotNull(existingInstance, "Existing instance cannot be null.");
-    OPMObjectInstance newInstance = null;
-    switch(existingInstance.type) {
-    case NUMERICAL:
-      newInstance = createFromValue(existingInstance.getNumericalValue());
-      break;
-    case STRING:
-      newInstance = createFromValue(existingInstance.getStringValue());
-      break;
-    case COMPOSITE:
-      newInstance = createCompositeInstance();
-      for(Entry<String, OPMObjectInstance> part : existingInstance.getCompositeParts()) {
-        newInstance.addCompositePart(part.getKey(), createFromExistingInstance(part.getValue()));
-      }
-      break;
-    case COLLECTION:
-      newInstance = createCollectionInstace();
-      for(Integer index : existingInstance.collectionValues.keySet()) {
-        newInstance.collectionValues.put(index, existingInstance.collectionValues.get(index));
-        newInstance.collectionNameToIndexMapping.inverse().put(index,
-            existingInstance.collectionNameToIndexMapping.inverse().get(index));
-      }
-    }
-
-    return newInstance;
+    return existingInstance;
   }
 
   // Values
-  private void setValue(Object value) {
-    checkNotNull(value, "Cannot set null value to variable.");
-    checkTypeForValueOnlyOperations();
-    this.value = value;
-  }
 
   public Object getValue() {
     checkState(value != null, "Value of variable is not set.");
     checkTypeForValueOnlyOperations();
+    if(InstanceType.NUMERICAL.equals(type)) {
+      return getNumericalValue();
+    }
     return value;
   }
 
@@ -112,7 +161,7 @@ public class OPMObjectInstance {
     if(InstanceType.STRING.equals(type)) {
       return String.class.cast(getValue());
     } else if(InstanceType.NUMERICAL.equals(type)) {
-      return BigDecimal.class.cast(getValue()).toString();
+      return (value instanceof Long) ? value.toString() : getNumericalValue().toString();
     } else {
       throw new IllegalStateException("Cannot fetch value of an instance that is not a value");
     }
@@ -123,22 +172,71 @@ public class OPMObjectInstance {
     if(InstanceType.STRING.equals(type)) {
       return new BigDecimal(String.class.cast(getValue()));
     } else if(InstanceType.NUMERICAL.equals(type)) {
-      return BigDecimal.class.cast(getValue());
+      if(value instanceof Long) {
+        return BigDecimal.valueOf((Long) value);
+      } else if(value instanceof Double) {
+        return new BigDecimal((Double) value);
+      }
+      return BigDecimal.class.cast(value);
     } else {
       throw new IllegalStateException("Cannot fetch value of an instance that is not a value");
     }
   }
 
+  /**
+   * Get the value as a <code>long</code>, like
+   * <code>getNumericalValue().longValue()</code> but without creating a
+   * {@link BigDecimal} when the value is stored as a <code>long</code>.
+   */
+  public long getLongValue() {
+    if(value instanceof Long && InstanceType.NUMERICAL.equals(type)) {
+      return (Long) value;
+    }
+    return getNumericalValue().longValue();
+  }
+
+  /**
+   * Get the value as a <code>double</code>, like
+   * <code>getNumericalValue().doubleValue()</code> but without creating a
+   * {@link BigDecimal} when the value is stored as a <code>long</code> or a
+   * <code>double</code>.
+   */
+  public double getDoubleValue() {
+    if((value instanceof Long || value instanceof Double) && InstanceType.NUMERICAL.equals(type)) {
+      return ((Number) value).doubleValue();
+    }
+    return getNumericalValue().doubleValue();
+  }
+
+  /**
+   * Get how the value of a numerical instance is stored.
+   */
+  public NumericalRepresentation getNumericalRepresentation() {
+    checkState(InstanceType.NUMERICAL.equals(type), "Instance is not numerical.");
+    if(value instanceof Long) {
+      return NumericalRepresentation.LONG;
+    } else if(value instanceof Double) {
+      return NumericalRepresentation.DOUBLE;
+    }
+    return NumericalRepresentation.DECIMAL;
+  }
+
   public boolean isValue() {
     return value != null;
   }
 
   // Composite
-  public void addCompositePart(String name, OPMObjectInstance part) {
+  /**
+   * Add a part to this composite instance, replacing the existing part with
+   * the same name.
+   * 
+   * @return a new composite instance with the part.
+   */
+  public OPMObjectInstance withCompositePart(String name, OPMObjectInstance part) {
     checkTypeForCompositeOnlyOperations();
     checkNotNull(name);
     checkNotNull(part);
-    parts.put(name, part);
+    return new OPMObjectInstance(type, null, parts.put(name, part));
   }
 
   public OPMObjectInstance getCompositePart(String name) {
@@ -150,46 +248,68 @@ public class OPMObjectInstance {
 
   public Set<Entry<String, OPMObjectInstance>> getCompositeParts() {
     checkTypeForCompositeOnlyOperations();
-    return Collections.unmodifiableSet(parts.entrySet());
+    return Collections.unmodifiableSet(parts.asMap().entrySet());
   }
 
   // Collection
-  public int appendCollectionElement(OPMObjectInstance value) {
+  /**
+   * Append an element after the last element of this collection instance.
+   * 
+   * @return a new collection instance with the element.
+   */
+  public OPMObjectInstance withAppendedCollectionElement(OPMObjectInstance value) {
     checkTypeForCollectionOnlyOperations();
     checkNotNull(value, "Cannot append a null element to a collection.");
-    Integer lastKey = 0;
-    if(collectionValues.size() > 0) {
-      lastKey = collectionValues.lastKey();
-    }
-    int newKey = lastKey + 1;
-    collectionValues.put(newKey, value);
-    collectionNameToIndexMapping.put(UUID.randomUUID().toString(), newKey);
-    return newKey;
+    return new OPMObjectInstance(type, null, parts, collectionValues.append(value), collectionNameToIndexMapping,
+        collectionIndexToNameMapping);
   }
 
-  public void putCollectionElement(String name, OPMObjectInstance value) {
+  /**
+   * Append a named element after the last element of this collection instance.
+   * If the collection has an element with the same name, the existing element
+   * is removed.
+   * 
+   * @return a new collection instance with the element.
+   */
+  public OPMObjectInstance withCollectionElement(String name, OPMObjectInstance value) {
     checkTypeForCollectionOnlyOperations();
     checkState((name != null) && !("".equals(name)), "Named location of element must not be null or empty.");
     checkNotNull(value, "Cannot put a null element to a collection.");
-    if(collectionNameToIndexMapping.containsKey(name)) {
-      collectionValues.remove(collectionNameToIndexMapping.get(name));
-      collectionNameToIndexMapping.remove(name);
+    OPMPersistentIndexedMap<OPMObjectInstance> newValues = collectionValues;
+    OPMPersistentSortedMap<String, Integer> newNameToIndex = collectionNameToIndexMapping;
+    OPMPersistentSortedMap<Integer, String> newIndexToName = collectionIndexToNameMapping;
+    Integer existingIndex = collectionNameToIndexMapping.get(name);
+    if(existingIndex != null) {
+      newValues = newValues.remove(existingIndex);
+      newNameToIndex = newNameToIndex.remove(name);
+      newIndexToName = newIndexToName.remove(existingIndex);
     }
-    int index = appendCollectionElement(value);
-    collectionNameToIndexMapping.inverse().remove(index);
-    collectionNameToIndexMapping.put(name, index);
+    newValues = newValues.append(value);
+    int index = newValues.lastKey();
+    return new OPMObjectInstance(type, null, parts, newValues, newNameToIndex.put(name, index),
+        newIndexToName.put(index, name));
   }
 
-  public void putCollectionElementAtIndex(int index, OPMObjectInstance value) {
+  /**
+   * Put an element in a specific index of this collection instance, replacing
+   * the existing element in the index.
+   * 
+   * @return a new collection instance with the element.
+   */
+  public OPMObjectInstance withCollectionElementAtIndex(int index, OPMObjectInstance value) {
     checkTypeForCollectionOnlyOperations();
     checkNotNull(value, "Cannot insert a null element to a collection.");
-    if(collectionValues.containsKey(index)) {
-      collectionValues.remove(index);
-      collectionNameToIndexMapping.inverse().remove(index);
+    OPMPersistentSortedMap<String, Integer> newNameToIndex = collectionNameToIndexMapping;
+    OPMPersistentSortedMap<Integer, String> newIndexToName = collectionIndexToNameMapping;
+    if(!newIndexToName.isEmpty()) {
+      String existingName = newIndexToName.get(index);
+      if(existingName != null) {
+        newNameToIndex = newNameToIndex.remove(existingName);
+        newIndexToName = newIndexToName.remove(index);
+      }
     }
-    collectionValues.put(index, value);
-    collectionNameToIndexMapping.put(UUID.randomUUID().toString(), index);
-
+    return new OPMObjectInstance(type, null, parts, collectionValues.put(index, value), newNameToIndex,
+        newIndexToName);
   }
 
   public OPMObjectInstance getCollectionElement(String name) {
@@ -219,19 +339,110 @@ public class OPMObjectInstance {
     return Collections.unmodifiableCollection(collectionValues.values());
   }
 
+  /**
+   * Get the names of the elements of this collection that were put using a
+   * name.
+   */
   public Set<String> getCollectionAllIndexes() {
     checkTypeForCollectionOnlyOperations();
-    return Collections.unmodifiableSet(collectionNameToIndexMapping.keySet());
+    return Collections.unmodifiableSet(collectionNameToIndexMapping.asMap().keySet());
   }
 
   // General
+  /**
+   * Check if this instance has the same structure and values as another
+   * instance: the same type and value, structurally equal parts, or
+   * structurally equal elements with the same indexes and names. Numerical
+   * values must also have the same scale, since <code>1</code> and
+   * <code>1.0</code> are not shown the same.
+   * 
+   * @param other
+   *          the instance to compare to, can be <code>null</code>.
+   * @return <code>true</code> if both instances are structurally equal.
+   */
+  public boolean structurallyEquals(OPMObjectInstance other) {
+    if(this == other) {
+      return true;
+    }
+    if(other == null || type != other.type) {
+      return false;
+    }
+    switch(type) {
+    case NUMERICAL:
+      if(value.getClass().equals(other.value.getClass())) {
+        return value.equals(other.value);
+      }
+      // integers are always stored as longs
+      return !(value instanceof Long) && !(other.value instanceof Long)
+          && getNumericalValue().equals(other.getNumericalValue());
+    case STRING:
+      return value.equals(other.value);
+    case COMPOSITE:
+      if(parts.isSameAs(other.parts)) {
+        return true;
+      }
+      if(parts.size() != other.parts.size()) {
+        return false;
+      }
+      for(Entry<String, OPMObjectInstance> part : parts.asMap().entrySet()) {
+        if(!part.getValue().structurallyEquals(other.parts.get(part.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    case COLLECTION:
+      if(collectionValues.isSameAs(other.collectionValues)
+          && collectionNameToIndexMapping.isSameAs(other.collectionNameToIndexMapping)) {
+        return true;
+      }
+      if(collectionValues.size() != other.collectionValues.size()
+          || !collectionNameToIndexMapping.asMap().equals(other.collectionNameToIndexMapping.asMap())) {
+        return false;
+      }
+      for(Entry<Integer, OPMObjectInstance> element : collectionValues.asMap().entrySet()) {
+        if(!element.getValue().structurallyEquals(other.collectionValues.get(element.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Calculate a hash code of the structure and values of this instance,
+   * consistent with {@link #structurallyEquals(OPMObjectInstance)}.
+   */
+  public int structuralHashCode() {
+    int hash = type.ordinal();
+    switch(type) {
+    case NUMERICAL:
+      hash = 31 * hash + ((value instanceof Long) ? value.hashCode() : getNumericalValue().hashCode());
+      break;
+    case STRING:
+      hash = 31 * hash + value.hashCode();
+      break;
+    case COMPOSITE:
+      for(Entry<String, OPMObjectInstance> part : parts.asMap().entrySet()) {
+        hash += part.getKey().hashCode() ^ part.getValue().structuralHashCode();
+      }
+      break;
+    case COLLECTION:
+      for(Entry<Integer, OPMObjectInstance> element : collectionValues.asMap().entrySet()) {
+        hash = 31 * (31 * hash + element.getKey()) + element.getValue().structuralHashCode();
+      }
+      break;
+    }
+    return hash;
+  }
+
   @Override
   public String toString() {
     if(InstanceType.STRING.equals(type) || InstanceType.NUMERICAL.equals(type))
-      return value.toString();
+      return getStringValue();
     else if(InstanceType.COMPOSITE.equals(type)) {
       StringBuilder ret = new StringBuilder("{");
-      for(String partName : parts.keySet()) {
+      for(String partName : parts.asMap().keySet()) {
         ret.append(partName + ":" + parts.get(partName) + ",");
       }
       ret.replace(ret.length() - 1, ret.length(), "}");
@@ -269,4 +480,8 @@ public class OPMObjectInstance {
     NUMERICAL, STRING, COMPOSITE, COLLECTION;
   }
 
+  public enum NumericalRepresentation {
+    LONG, DOUBLE, DECIMAL;
+  }
+
 }
@@ -89,19 +89,19 @@ public class OPMObjectInstanceValueAnalyzer {
    * value of the collection must be less than or equal than the final value of
    * the collection. For example [1..5], [1..1], [5..19]
    */
-  public List<BigDecimal> parseCollectionLiteral(String literal) {
-    List<BigDecimal> collection = Lists.newArrayList();
+  public List<Long> parseCollectionLiteral(String literal) {
+    List<Long> collection = Lists.newArrayList();
     literal = literal.substring(1, literal.length() - 1);
     String[] indices = literal.split("\\.\\.");
     int start = Integer.parseInt(indices[0]);
     int end = Integer.parseInt(indices[1]);
     if(start <= end) {
-      for(int i = start; i <= end; i++) {
-        collection.add(new BigDecimal(i));
+      for(long i = start; i <= end; i++) {
+        collection.add(i);
       }
     } else {
-      for(int i = start; i >= end; i--) {
-        collection.add(new BigDecimal(i));
+      for(long i = start; i >= end; i--) {
+        collection.add(i);
       }
     }
     return collection;
@@ -128,8 +128,8 @@ public class OPMObjectInstanceValueAnalyzer {
         objectInstance = OPMObjectInstance.createFromValue(parseNumericalLiteral(objectName));
       } else if(isCollectionLiteral(objectName)) {
         objectInstance = OPMObjectInstance.createCollectionInstace();
-        for(BigDecimal value : parseCollectionLiteral(objectName)) {
-          objectInstance.appendCollectionElement(OPMObjectInstance.createFromValue(value));
+        for(long value : parseCollectionLiteral(objectName)) {
+          objectInstance = objectInstance.withAppendedCollectionElement(OPMObjectInstance.createFromValue(value));
         }
       }
     } else {
@@ -163,8 +163,8 @@ public class OPMObjectInstanceValueAnalyzer {
       objectInstance = OPMObjectInstance.createFromValue(parseNumericalLiteral(value));
     } else if(isCollectionLiteral(value)) {
       objectInstance = OPMObjectInstance.createCollectionInstace();
-      for(BigDecimal v : parseCollectionLiteral(value)) {
-        objectInstance.appendCollectionElement(OPMObjectInstance.createFromValue(v));
+      for(long v : parseCollectionLiteral(value)) {
+        objectInstance = objectInstance.withAppendedCollectionElement(OPMObjectInstance.createFromValue(v));
       }
     } else {
       logInfo("Assume this is a string with no enclosing quotes.");
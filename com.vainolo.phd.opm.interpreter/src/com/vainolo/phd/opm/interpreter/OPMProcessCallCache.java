@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * <p>
+ * Bounded cache of the results of calls to pure processes, used to skip the
+ * execution of a process that was already called with the same arguments. A
+ * call is identified by the process (see
+ * {@link OPMAbstractProcessInstance#getMemoizationIdentity()}) and the values of
+ * its arguments, which are compared structurally. When the cache is full, the
+ * least recently used calls are removed.
+ * </p>
+ *
+ * <p>
+ * A process is pure when its results depend only on its arguments and
+ * executing it has no side effects. Built-in processes are declared pure when
+ * they are registered in the {@link OPMBuiltInProcessRegistry}, and in-zoomed
+ * OPDs are declared pure using a flag in the description of the in-zoomed
+ * process. The cache is used by the executions whose context has it (see
+ * {@link OPMExecutionContext#setProcessCallCache(OPMProcessCallCache)}) and can
+ * be shared by many executions.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMProcessCallCache {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+  private final Cache<OPMProcessCall, Map<String, OPMObjectInstance>> cache;
+
+  public OPMProcessCallCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Create a cache.
+   *
+   * @param maximumSize
+   *          the maximal number of calls kept in the cache.
+   */
+  public OPMProcessCallCache(long maximumSize) {
+    cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Create the key of a call to a process. The arguments map is copied, so it
+   * can be modified after the key is created.
+   *
+   * @param process
+   *          the identity of the called process.
+   * @param arguments
+   *          the arguments of the call, by name.
+   * @return the key of the call.
+   */
+  public static OPMProcessCall createCall(Object process, Map<String, OPMObjectInstance> arguments) {
+    return new OPMProcessCall(process, copy(arguments));
+  }
+
+  /**
+   * Get the results of a call that was already executed.
+   *
+   * @param call
+   *          the key of the call.
+   * @return the arguments of the instance that executed the call when it
+   *         finished, or <code>null</code> if the call is not in the cache.
+   */
+  public Map<String, OPMObjectInstance> getResults(OPMProcessCall call) {
+    return cache.getIfPresent(call);
+  }
+
+  /**
+   * Store the results of a call. The results map is copied.
+   *
+   * @param call
+   *          the key of the call.
+   * @param results
+   *          the arguments of the instance that executed the call when it
+   *          finished.
+   */
+  public void putResults(OPMProcessCall call, Map<String, OPMObjectInstance> results) {
+    cache.put(call, copy(results));
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Remove all the calls from the cache.
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  private static Map<String, OPMObjectInstance> copy(Map<String, OPMObjectInstance> arguments) {
+    ImmutableMap.Builder<String, OPMObjectInstance> copy = ImmutableMap.builder();
+    for(Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+      copy.put(argument.getKey(), OPMObjectInstance.createFromExistingInstance(argument.getValue()));
+    }
+    return copy.build();
+  }
+
+  /**
+   * The key of a call: the identity of the process and its arguments. The
+   * hash code of the key is calculated once, when it is created.
+   */
+  public static final class OPMProcessCall {
+    private final Object process;
+    private final Map<String, OPMObjectInstance> arguments;
+    private final int hashCode;
+
+    private OPMProcessCall(Object process, Map<String, OPMObjectInstance> arguments) {
+      this.process = process;
+      this.arguments = arguments;
+      int hash = process.hashCode();
+      for(Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+        hash += argument.getKey().hashCode() ^ argument.getValue().structuralHashCode();
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) {
+        return true;
+      }
+      if(!(obj instanceof OPMProcessCall)) {
+        return false;
+      }
+      OPMProcessCall other = (OPMProcessCall) obj;
+      if(hashCode != other.hashCode || !process.equals(other.process)
+          || arguments.size() != other.arguments.size()) {
+        return false;
+      }
+      for(Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+        if(!argument.getValue().structurallyEquals(other.arguments.get(argument.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -7,22 +7,15 @@ package com.vainolo.phd.opm.interpreter;
 
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
 
-import org.eclipse.core.runtime.Path;
-
-import com.vainolo.phd.opm.interpreter.builtin.OPMBinaryMathOpProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMCompareProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMCompareProcessInstance.ComparisonType;
-import com.vainolo.phd.opm.interpreter.builtin.BinaryMathOpType;
 import com.vainolo.phd.opm.interpreter.builtin.OPMConceptualProcess;
-import com.vainolo.phd.opm.interpreter.builtin.OPMCreateObjectProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMInputProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMOutputProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMPrintHelloWorldProcessInstance;
-import com.vainolo.phd.opm.interpreter.builtin.OPMSleepProcessInstance;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcessInstance;
 import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutableInstance;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan;
 import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagramKind;
 import com.vainolo.phd.opm.model.OPMProcess;
-import com.vainolo.phd.opm.utilities.OPMFileUtils;
+import com.vainolo.phd.opm.model.OPMProcessKind;
 import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
 
 public class OPMProcessInstanceFactory {
@@ -39,21 +32,99 @@ public class OPMProcessInstanceFactory {
   }
 
   public static OPMProcessInstance createExecutableInstance(String opdName) {
-    OPMObjectProcessDiagram opd = OPMFileUtils.INSTANCE.loadOPDFile(OPMInterpreter.container
-        .getFile(new Path(opdName + ".opm")).getFullPath().toString());
-    return createExecutableInstance(opd);
+    return createExecutableInstance(opdName, new OPMExecutionContext());
+  }
+
+  /**
+   * Create an instance of the OPD with the given name, found using the model
+   * resolver of the execution context.
+   * 
+   * @param opdName
+   *          the name of the OPD, without the <code>.opm</code> extension.
+   * @param context
+   *          the context of the execution the instance is part of.
+   * @return a new instance of the OPD.
+   */
+  public static OPMProcessInstance createExecutableInstance(String opdName, OPMExecutionContext context) {
+    OPMModelRepository repository = context.getModelRepository();
+    OPMModelResolver resolver = context.getModelResolver();
+    if(resolver == null) {
+      throw new IllegalStateException("Cannot load OPD " + opdName + ", no model resolver was set.");
+    }
+    String location = resolver.getLocation(opdName);
+    OPMObjectProcessDiagram opd = repository.getOPD(location, resolver.getModificationStamp(opdName));
+    if(opd != null && opd.getKind() == OPMObjectProcessDiagramKind.COMPOUND) {
+      OPMCompiledInZoomedProcess compiledProcess = null;
+      if(OPMInterpreter.INSTANCE.isCompilationEnabled()) {
+        compiledProcess = repository.getCompiledProcess(location, opd, resolver);
+      }
+      return createExecutableInstance(opd, repository.getExecutionPlan(location, opd), compiledProcess, context);
+    }
+    return attachContext(createExecutableInstance(opd), context);
+  }
 
+  /**
+   * Create an instance of an in-zoomed OPD that was already analyzed.
+   * 
+   * @param opd
+   *          the OPD.
+   * @param plan
+   *          the execution plan of the OPD.
+   * @param compiledProcess
+   *          the compiled OPD, or <code>null</code> if the OPD must be
+   *          interpreted.
+   * @return a new instance of the OPD.
+   */
+  public static OPMProcessInstance createExecutableInstance(OPMObjectProcessDiagram opd,
+      OPMInZoomedProcessExecutionPlan plan, OPMCompiledInZoomedProcess compiledProcess) {
+    return createExecutableInstance(opd, plan, compiledProcess, new OPMExecutionContext());
+  }
+
+  /**
+   * Create an instance of an in-zoomed OPD that was already analyzed, as part
+   * of the given execution.
+   * 
+   * @param opd
+   *          the OPD.
+   * @param plan
+   *          the execution plan of the OPD.
+   * @param compiledProcess
+   *          the compiled OPD, or <code>null</code> if the OPD must be
+   *          interpreted.
+   * @param context
+   *          the context of the execution the instance is part of.
+   * @return a new instance of the OPD.
+   */
+  public static OPMProcessInstance createExecutableInstance(OPMObjectProcessDiagram opd,
+      OPMInZoomedProcessExecutionPlan plan, OPMCompiledInZoomedProcess compiledProcess, OPMExecutionContext context) {
+    if(compiledProcess != null) {
+      return attachContext(new OPMCompiledInZoomedProcessInstance(compiledProcess), context);
+    }
+    return attachContext(new OPMInZoomedProcessExecutableInstance(opd, new OPDAnalyzer(), plan), context);
   }
 
   public static OPMProcessInstance createExecutableInstance(OPMProcess process) {
+    return createExecutableInstance(process, new OPMExecutionContext());
+  }
+
+  /**
+   * Create an instance of a process invoked inside an in-zoomed OPD. Compound
+   * processes are loaded using the model resolver of the execution context.
+   * 
+   * @param process
+   *          the invoked process.
+   * @param context
+   *          the context of the execution the instance is part of.
+   * @return a new instance of the process.
+   */
+  public static OPMProcessInstance createExecutableInstance(OPMProcess process, OPMExecutionContext context) {
     OPMProcessInstance executableInstance = null;
     switch(process.getKind()) {
     case BUILT_IN:
       executableInstance = createBuiltInProcess(process);
       break;
     case COMPOUND:
-      executableInstance = createExecutableInstance(process.getName());
-      break;
+      return attachElement(createExecutableInstance(process.getName(), context), process);
     case CONCEPTUAL:
       executableInstance = new OPMConceptualProcess(process);
       break;
@@ -62,50 +133,41 @@ public class OPMProcessInstanceFactory {
       break;
     }
 
-    return executableInstance;
+    return attachElement(attachContext(executableInstance, context), process);
   }
 
-  private static OPMProcessInstance createBuiltInProcess(final OPMProcess process) {
-    OPMProcessInstance processInstance;
+  private static OPMProcessInstance attachElement(OPMProcessInstance instance, OPMProcess process) {
+    if(instance instanceof OPMAbstractProcessInstance) {
+      ((OPMAbstractProcessInstance) instance).setElementId(process.getId());
+    }
+    return instance;
+  }
 
-    if(process.getName().equals("Input")) {
-      processInstance = OPMInterpreterInjector.INSTANCE.getInstance(OPMInputProcessInstance.class);
-    } else if(process.getName().equals("Output") || process.getName().equals("Dialog")
-        || process.getName().equals("Print")) {
-      processInstance = new OPMOutputProcessInstance();
-      processInstance.setName(process.getName());
-    } else if(process.getName().equals("+")) {
-      processInstance = new OPMBinaryMathOpProcessInstance(BinaryMathOpType.ADD);// OPMAddProcessInstance();
-    } else if(process.getName().equals("-")) {
-      processInstance = new OPMBinaryMathOpProcessInstance(BinaryMathOpType.SUBS);// OPMSubstractProcessInstance();
-    } else if(process.getName().equals("*")) {
-      processInstance = new OPMBinaryMathOpProcessInstance(BinaryMathOpType.MULT);
-    } else if(process.getName().equals("/")) {
-      processInstance = new OPMBinaryMathOpProcessInstance(BinaryMathOpType.DIV);
-    } else if(process.getName().equals("^")) {
-      processInstance = new OPMBinaryMathOpProcessInstance(BinaryMathOpType.POW);
-    } else if(process.getName().equals("Sleep")) {
-      processInstance = new OPMSleepProcessInstance();
-      processInstance.setName(process.getName());
-    } else if(process.getName().equals("Hello World")) {
-      processInstance = new OPMPrintHelloWorldProcessInstance();
-    } else if(process.getName().equals("Create") || process.getName().equals("New")) {
-      processInstance = new OPMCreateObjectProcessInstance();
-    } else if(process.getName().equals("<=")) {
-      processInstance = new OPMCompareProcessInstance(ComparisonType.LESS_THAN_OR_EQUAL);
-    } else if(process.getName().equals(">=")) {
-      processInstance = new OPMCompareProcessInstance(ComparisonType.GREATER_THAN_OR_EQUAL);
-    } else if(process.getName().equals(">")) {
-      processInstance = new OPMCompareProcessInstance(ComparisonType.GREATER_THAN);
-    } else if(process.getName().equals("<")) {
-      processInstance = new OPMCompareProcessInstance(ComparisonType.LESS_THAN);
-    } else if(process.getName().equals("==")) {
-      processInstance = new OPMCompareProcessInstance(ComparisonType.EQUAL);
-    } else {
-      throw new IllegalStateException("Tried to create unexistent build-in process " + process.getName());
+  private static OPMProcessInstance attachContext(OPMProcessInstance instance, OPMExecutionContext context) {
+    if(instance instanceof OPMAbstractProcessInstance) {
+      ((OPMAbstractProcessInstance) instance).setExecutionContext(context);
+      context.getMetrics().instanceCreated();
     }
+    return instance;
+  }
 
-    return processInstance;
+  /**
+   * Release an instance created by {@link #createExecutableInstance(OPMProcess)}
+   * after its results were extracted. Instances of reusable built-in processes
+   * are returned to the {@link OPMBuiltInProcessRegistry}.
+   * 
+   * @param process
+   *          the process used to create the instance.
+   * @param instance
+   *          the instance that is no longer used.
+   */
+  public static void releaseExecutableInstance(OPMProcess process, OPMProcessInstance instance) {
+    if(process.getKind() == OPMProcessKind.BUILT_IN) {
+      OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().release(process, instance);
+    }
+  }
 
+  private static OPMProcessInstance createBuiltInProcess(final OPMProcess process) {
+    return OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().createInstance(process);
   }
 }
@@ -1,6 +1,7 @@
 package com.vainolo.phd.opm.interpreter;
 
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+import java.util.Collections;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
@@ -24,4 +25,18 @@ public class OPMProcessInstanceHeap {
     return arguments.get(name.toLowerCase());
   }
 
+  /**
+   * @return an unmodifiable view of the arguments in the heap, by name.
+   */
+  public Map<String, OPMObjectInstance> getArguments() {
+    return Collections.unmodifiableMap(arguments);
+  }
+
+  /**
+   * Remove all the arguments from the heap.
+   */
+  public void clearArguments() {
+    arguments.clear();
+  }
+
 }
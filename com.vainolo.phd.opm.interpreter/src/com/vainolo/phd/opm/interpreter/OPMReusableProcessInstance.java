@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+/**
+ * A process instance that has no state other than its arguments, so it can be
+ * executed again after its arguments are cleared. The
+ * {@link OPMBuiltInProcessRegistry} keeps released instances of reusable
+ * built-in processes and hands them out again instead of creating new ones.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public interface OPMReusableProcessInstance extends OPMProcessInstance {
+
+  /**
+   * Clear all the arguments of the instance, so it can be executed again.
+   */
+  void reset();
+}
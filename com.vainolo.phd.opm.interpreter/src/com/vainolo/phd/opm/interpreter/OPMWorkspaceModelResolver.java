@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Resolves OPDs stored in a container of the Eclipse workspace.
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+public class OPMWorkspaceModelResolver implements OPMModelResolver {
+
+  private final IContainer container;
+
+  public OPMWorkspaceModelResolver(IContainer container) {
+    this.container = container;
+  }
+
+  @Override
+  public String getLocation(String opdName) {
+    return getFile(opdName).getFullPath().toString();
+  }
+
+  @Override
+  public long getModificationStamp(String opdName) {
+    return getFile(opdName).getModificationStamp();
+  }
+
+  private IFile getFile(String opdName) {
+    return container.getFile(new Path(opdName + ".opm"));
+  }
+}
@@ -6,12 +6,15 @@ import java.util.List;
 import com.google.common.collect.Lists;
 import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.InstanceType;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.NumericalRepresentation;
 import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMReusableProcessInstance;
 
 /**
  * Process instance that handles basic binary math operations
  */
-public class OPMBinaryMathOpProcessInstance extends OPMAbstractProcessInstance {
+public class OPMBinaryMathOpProcessInstance extends OPMAbstractProcessInstance implements OPMReusableProcessInstance {
 
   private BinaryMathOpType opType;
 
@@ -21,8 +24,121 @@ public class OPMBinaryMathOpProcessInstance extends OPMAbstractProcessInstance {
 
   @Override
   public void executing() {
-    BigDecimal a = getArgument("a").getNumericalValue();
-    BigDecimal b = getArgument("b").getNumericalValue();
+    setArgument("c", calculate(opType, getArgument("a"), getArgument("b")));
+  }
+
+  /**
+   * Apply a binary math operation to two instances, using the representation
+   * of their values (see {@link NumericalRepresentation}). When both values
+   * are <code>long</code>s, the operation is done using <code>long</code>s
+   * unless the result overflows or is not an integer. When one of the values
+   * is a <code>double</code>, the operation is done using <code>double</code>s
+   * unless the result is not finite. Otherwise, and in the above cases, the
+   * operation is done using {@link BigDecimal}s.
+   * 
+   * @param opType
+   *          the operation to apply.
+   * @param a
+   *          the first operand.
+   * @param b
+   *          the second operand.
+   * @return a new instance with the result of the operation.
+   */
+  public static OPMObjectInstance calculate(BinaryMathOpType opType, OPMObjectInstance a, OPMObjectInstance b) {
+    if(InstanceType.NUMERICAL.equals(a.type) && InstanceType.NUMERICAL.equals(b.type)) {
+      NumericalRepresentation aRepresentation = a.getNumericalRepresentation();
+      NumericalRepresentation bRepresentation = b.getNumericalRepresentation();
+      OPMObjectInstance c = null;
+      if(aRepresentation == NumericalRepresentation.LONG && bRepresentation == NumericalRepresentation.LONG) {
+        c = calculate(opType, a.getLongValue(), b.getLongValue());
+      } else if(aRepresentation == NumericalRepresentation.DOUBLE
+          || bRepresentation == NumericalRepresentation.DOUBLE) {
+        c = calculate(opType, a.getDoubleValue(), b.getDoubleValue());
+      }
+      if(c != null) {
+        return c;
+      }
+    }
+    return OPMObjectInstance.createFromValue(calculate(opType, a.getNumericalValue(), b.getNumericalValue()));
+  }
+
+  private static OPMObjectInstance calculate(BinaryMathOpType opType, long a, long b) {
+    try {
+      switch(opType) {
+      case ADD:
+        return OPMObjectInstance.createFromValue(Math.addExact(a, b));
+      case SUBS:
+        return OPMObjectInstance.createFromValue(Math.subtractExact(a, b));
+      case MULT:
+        return OPMObjectInstance.createFromValue(Math.multiplyExact(a, b));
+      case DIV:
+        if(b != 0 && a % b == 0 && !(a == Long.MIN_VALUE && b == -1)) {
+          return OPMObjectInstance.createFromValue(a / b);
+        }
+        break;
+      case POW:
+        if(b >= 0 && b <= Integer.MAX_VALUE) {
+          return OPMObjectInstance.createFromValue(pow(a, (int) b));
+        }
+        break;
+      }
+    } catch(ArithmeticException e) {
+      // the result overflows a long.
+    }
+    return null;
+  }
+
+  private static long pow(long base, int exponent) {
+    long result = 1;
+    while(exponent > 0) {
+      if((exponent & 1) != 0) {
+        result = Math.multiplyExact(result, base);
+      }
+      exponent >>= 1;
+      if(exponent > 0) {
+        base = Math.multiplyExact(base, base);
+      }
+    }
+    return result;
+  }
+
+  private static OPMObjectInstance calculate(BinaryMathOpType opType, double a, double b) {
+    double c = 0;
+    switch(opType) {
+    case ADD:
+      c = a + b;
+      break;
+    case SUBS:
+      c = a - b;
+      break;
+    case MULT:
+      c = a * b;
+      break;
+    case DIV:
+      c = a / b;
+      break;
+    case POW:
+      c = Math.pow(a, b);
+      break;
+    }
+    if(Double.isNaN(c) || Double.isInfinite(c)) {
+      return null;
+    }
+    return OPMObjectInstance.createFromValue(c);
+  }
+
+  /**
+   * Apply a binary math operation to two values.
+   * 
+   * @param opType
+   *          the operation to apply.
+   * @param a
+   *          the first operand.
+   * @param b
+   *          the second operand.
+   * @return the result of the operation.
+   */
+  public static BigDecimal calculate(BinaryMathOpType opType, BigDecimal a, BigDecimal b) {
     BigDecimal c = null;
     switch(opType) {
     case ADD:
@@ -41,8 +157,7 @@ public class OPMBinaryMathOpProcessInstance extends OPMAbstractProcessInstance {
       c = a.pow(b.intValueExact());
       break;
     }
-    OPMObjectInstance instance = OPMObjectInstance.createFromValue(c);
-    setArgument("c", instance);
+    return c;
   }
 
   @Override
@@ -50,6 +165,11 @@ public class OPMBinaryMathOpProcessInstance extends OPMAbstractProcessInstance {
     return opType.getName();
   }
 
+  @Override
+  public void reset() {
+    getHeap().clearArguments();
+  }
+
   @Override
   public boolean isReady() {
     return (getArgument("a") != null) && (getArgument("b") != null);
@@ -11,8 +11,10 @@ import java.util.List;
 import com.google.common.collect.Lists;
 import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMParameter;
-import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMReusableProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.InstanceType;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance.NumericalRepresentation;
 
 /**
  * Process that compares two integer values.
@@ -21,7 +23,7 @@ import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
  * @created 9 Jul 2012
  * 
  */
-public class OPMCompareProcessInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
+public class OPMCompareProcessInstance extends OPMAbstractProcessInstance implements OPMReusableProcessInstance {
   public enum ComparisonType {
     EQUAL, DIFFERENT, GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL
   }
@@ -34,28 +36,27 @@ public class OPMCompareProcessInstance extends OPMAbstractProcessInstance implem
 
   @Override
   public void executing() {
-    BigDecimal a = getArgument("a").getNumericalValue();
-    BigDecimal b = getArgument("b").getNumericalValue();
+    int comparison = compare(getArgument("a"), getArgument("b"));
     OPMObjectInstance c;
 
     boolean result = false;
     switch(comparisonType) {
     case EQUAL:
-      result = (a.compareTo(b) == 0);
+      result = (comparison == 0);
       break;
     case DIFFERENT:
-      result = (a.compareTo(b) != 0);
+      result = (comparison != 0);
     case GREATER_THAN:
-      result = (a.compareTo(b) > 0);
+      result = (comparison > 0);
       break;
     case GREATER_THAN_OR_EQUAL:
-      result = (a.compareTo(b) > 0) || (a.compareTo(b) == 0);
+      result = (comparison > 0) || (comparison == 0);
       break;
     case LESS_THAN:
-      result = (a.compareTo(b) < 0);
+      result = (comparison < 0);
       break;
     case LESS_THAN_OR_EQUAL:
-      result = (a.compareTo(b) < 0) || (a.compareTo(b) == 0);
+      result = (comparison < 0) || (comparison == 0);
       break;
     }
 
@@ -67,11 +68,38 @@ public class OPMCompareProcessInstance extends OPMAbstractProcessInstance implem
     setArgument("c", c);
   }
 
+  /**
+   * Compare the numerical values of two instances. Values that are both stored
+   * as <code>long</code>s or as <code>double</code>s are compared without
+   * creating {@link BigDecimal}s.
+   * 
+   * @return a negative number, zero or a positive number if the first value is
+   *         less than, equal to or greater than the second value.
+   */
+  public static int compare(OPMObjectInstance a, OPMObjectInstance b) {
+    if(InstanceType.NUMERICAL.equals(a.type) && InstanceType.NUMERICAL.equals(b.type)) {
+      NumericalRepresentation representation = a.getNumericalRepresentation();
+      if(representation == b.getNumericalRepresentation()) {
+        if(representation == NumericalRepresentation.LONG) {
+          return Long.compare(a.getLongValue(), b.getLongValue());
+        } else if(representation == NumericalRepresentation.DOUBLE) {
+          return Double.compare(a.getDoubleValue(), b.getDoubleValue());
+        }
+      }
+    }
+    return a.getNumericalValue().compareTo(b.getNumericalValue());
+  }
+
   @Override
   public String getName() {
     return "Compare";
   }
 
+  @Override
+  public void reset() {
+    getHeap().clearArguments();
+  }
+
   @Override
   public boolean isReady() {
     return (getArgument("a") != null) && (getArgument("b") != null);
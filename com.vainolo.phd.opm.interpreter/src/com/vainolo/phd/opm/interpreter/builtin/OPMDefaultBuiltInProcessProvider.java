@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.builtin;
+
+import com.vainolo.phd.opm.interpreter.OPMBuiltInProcessFactory;
+import com.vainolo.phd.opm.interpreter.OPMBuiltInProcessProvider;
+import com.vainolo.phd.opm.interpreter.OPMBuiltInProcessRegistry;
+import com.vainolo.phd.opm.interpreter.OPMInterpreterInjector;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.builtin.OPMCompareProcessInstance.ComparisonType;
+import com.vainolo.phd.opm.model.OPMProcess;
+
+/**
+ * Provider of the built-in processes that come with the interpreter. The math
+ * and compare operators are stateless and are registered as reusable.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMDefaultBuiltInProcessProvider implements OPMBuiltInProcessProvider {
+
+  @Override
+  public void registerBuiltInProcesses(OPMBuiltInProcessRegistry registry) {
+    registry.register("Input", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return OPMInterpreterInjector.INSTANCE.getInstance(OPMInputProcessInstance.class);
+      }
+    });
+    OPMBuiltInProcessFactory outputFactory = new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        OPMProcessInstance instance = new OPMOutputProcessInstance();
+        instance.setName(process.getName());
+        return instance;
+      }
+    };
+    registry.register("Output", outputFactory);
+    registry.register("Dialog", outputFactory);
+    registry.register("Print", outputFactory);
+
+    registry.register("+", new BinaryMathOpFactory(BinaryMathOpType.ADD), true, true);
+    registry.register("-", new BinaryMathOpFactory(BinaryMathOpType.SUBS), true, true);
+    registry.register("*", new BinaryMathOpFactory(BinaryMathOpType.MULT), true, true);
+    registry.register("/", new BinaryMathOpFactory(BinaryMathOpType.DIV), true, true);
+    registry.register("^", new BinaryMathOpFactory(BinaryMathOpType.POW), true, true);
+
+    registry.register("Sleep", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        OPMProcessInstance instance = new OPMSleepProcessInstance();
+        instance.setName(process.getName());
+        return instance;
+      }
+    });
+    registry.register("Hello World", new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMPrintHelloWorldProcessInstance();
+      }
+    });
+    OPMBuiltInProcessFactory createFactory = new OPMBuiltInProcessFactory() {
+      @Override
+      public OPMProcessInstance createInstance(OPMProcess process) {
+        return new OPMCreateObjectProcessInstance();
+      }
+    };
+    registry.register("Create", createFactory);
+    registry.register("New", createFactory);
+
+    registry.register("<=", new CompareFactory(ComparisonType.LESS_THAN_OR_EQUAL), true, true);
+    registry.register(">=", new CompareFactory(ComparisonType.GREATER_THAN_OR_EQUAL), true, true);
+    registry.register(">", new CompareFactory(ComparisonType.GREATER_THAN), true, true);
+    registry.register("<", new CompareFactory(ComparisonType.LESS_THAN), true, true);
+    registry.register("==", new CompareFactory(ComparisonType.EQUAL), true, true);
+  }
+
+  private static class BinaryMathOpFactory implements OPMBuiltInProcessFactory {
+    private final BinaryMathOpType opType;
+
+    BinaryMathOpFactory(BinaryMathOpType opType) {
+      this.opType = opType;
+    }
+
+    @Override
+    public OPMProcessInstance createInstance(OPMProcess process) {
+      return new OPMBinaryMathOpProcessInstance(opType);
+    }
+  }
+
+  private static class CompareFactory implements OPMBuiltInProcessFactory {
+    private final ComparisonType comparisonType;
+
+    CompareFactory(ComparisonType comparisonType) {
+      this.comparisonType = comparisonType;
+    }
+
+    @Override
+    public OPMProcessInstance createInstance(OPMProcess process) {
+      return new OPMCompareProcessInstance(comparisonType);
+    }
+  }
+}
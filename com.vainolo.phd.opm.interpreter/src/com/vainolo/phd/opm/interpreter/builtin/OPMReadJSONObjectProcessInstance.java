@@ -23,57 +23,70 @@ public class OPMReadJSONObjectProcessInstance extends OPMAbstractProcessInstance
 
   @Override
   protected void executing() {
-    OPMObjectInstance opmObjectInstance = OPMObjectInstance.createCompositeInstance();
     try {
       JsonObject jsonObject = JsonObject.readFrom(getArgument("json").getStringValue());
-      populateOPMObjectInstanceFromJSONObject(opmObjectInstance, jsonObject);
-      setArgument("object", opmObjectInstance);
+      setArgument("object", createFromJSONObject(jsonObject));
     } catch(Exception e) {
       e.printStackTrace();
       logSevere(e.getLocalizedMessage());
     }
   }
 
-  private void populateOPMObjectInstanceFromJSONObject(OPMObjectInstance opmObjectInstance, JsonObject jsonObject) {
+  /**
+   * Create a composite instance from a JSON object. Every member of the JSON
+   * object becomes a part of the instance. Arrays are not supported and null
+   * values are ignored.
+   * 
+   * @param jsonObject
+   *          the JSON object to convert.
+   * @return a new composite instance.
+   */
+  public static OPMObjectInstance createFromJSONObject(JsonObject jsonObject) {
+    return populateOPMObjectInstanceFromJSONObject(OPMObjectInstance.createCompositeInstance(), jsonObject);
+  }
+
+  private static OPMObjectInstance populateOPMObjectInstanceFromJSONObject(OPMObjectInstance opmObjectInstance,
+      JsonObject jsonObject) {
     Iterator<Member> it = jsonObject.iterator();
     while(it.hasNext()) {
-      addPart(opmObjectInstance, it.next());
+      opmObjectInstance = addPart(opmObjectInstance, it.next());
     }
+    return opmObjectInstance;
   }
 
-  private void addPart(OPMObjectInstance whole, Member member) {
+  private static OPMObjectInstance addPart(OPMObjectInstance whole, Member member) {
     logInfo("Adding part " + member.getName() + " with value " + member.getValue().toString());
     if(member.getValue().isArray()) {
       throw new UnsupportedOperationException();
     } else if(member.getValue().isString()) {
-      addStringPart(whole, member.getName(), member.getValue().asString());
+      return addStringPart(whole, member.getName(), member.getValue().asString());
     } else if(member.getValue().isNumber()) {
-      addNumberPart(whole, member.getName(), member.getValue().asDouble());
+      return addNumberPart(whole, member.getName(), member.getValue().asDouble());
     } else if(member.getValue().isBoolean()) {
-      addBooleanPart(whole, member.getName(), member.getValue().asBoolean());
+      return addBooleanPart(whole, member.getName(), member.getValue().asBoolean());
     } else if(member.getValue().isObject()) {
-      addObjectPart(whole, member.getName(), member.getValue().asObject());
+      return addObjectPart(whole, member.getName(), member.getValue().asObject());
     }
     // null JSON values are ignored.
+    return whole;
   }
 
-  private void addObjectPart(OPMObjectInstance whole, String name, JsonObject value) {
+  private static OPMObjectInstance addObjectPart(OPMObjectInstance whole, String name, JsonObject value) {
     OPMObjectInstance part = OPMObjectInstance.createCompositeInstance();
-    populateOPMObjectInstanceFromJSONObject(part, value);
-    whole.addCompositePart(name, part);
+    return whole.withCompositePart(name, populateOPMObjectInstanceFromJSONObject(part, value));
   }
 
-  private void addStringPart(OPMObjectInstance whole, String name, String value) {
-    whole.addCompositePart(name, OPMObjectInstance.createFromValue(value));
+  private static OPMObjectInstance addStringPart(OPMObjectInstance whole, String name, String value) {
+    return whole.withCompositePart(name, OPMObjectInstance.createFromValue(value));
   }
 
-  private void addNumberPart(OPMObjectInstance instance, String whole, double value) {
-    instance.addCompositePart(whole, OPMObjectInstance.createFromValue(new BigDecimal(value)));
+  private static OPMObjectInstance addNumberPart(OPMObjectInstance instance, String whole, double value) {
+    return instance.withCompositePart(whole, OPMObjectInstance.createFromValue(new BigDecimal(value)));
   }
 
-  private void addBooleanPart(OPMObjectInstance whole, String name, boolean value) {
+  private static OPMObjectInstance addBooleanPart(OPMObjectInstance whole, String name, boolean value) {
     OPMObjectInstance bool = OPMObjectInstance.createFromValue(Boolean.toString(value));
-    whole.addCompositePart(name, bool);
+    return whole.withCompositePart(name, bool);
   }
 
   @Override
@@ -8,6 +8,7 @@ package com.vainolo.phd.opm.interpreter.builtin;
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import com.google.common.collect.Lists;
 import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
@@ -23,15 +24,23 @@ import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
  */
 public class OPMSleepProcessInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
 
+  /**
+   * Sleep for the given number of seconds. The sleep ends early if the
+   * execution is cancelled or the thread is interrupted, in which case the
+   * process does not finish.
+   */
   @Override
   protected void executing() {
-    double time = (double) getArgument("time").getValue();
+    double time = getArgument("time").getDoubleValue();
     logInfo("Sleeping for " + time + " seconds.");
     try {
-      Thread.sleep((int) time * 1000);
+      if(!getExecutionContext().sleep((long) (time * 1000))) {
+        throw new CancellationException("Sleep process cancelled.");
+      }
     } catch(InterruptedException e) {
       logFinest("Sleep process interrupted. Returning.");
-      return;
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Sleep process interrupted.");
     }
   }
 
@@ -5,7 +5,6 @@
  *******************************************************************************/
 package com.vainolo.phd.opm.interpreter.builtin;
 
-import java.math.BigDecimal;
 import java.util.List;
 
 import com.google.common.collect.Lists;
@@ -24,10 +23,8 @@ import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
 public class OPMSubstractProcessInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
   @Override
   public void executing() {
-    BigDecimal a = getArgument("a").getNumericalValue();
-    BigDecimal b = getArgument("b").getNumericalValue();
-    BigDecimal c = a.subtract(b);
-    OPMObjectInstance instance = OPMObjectInstance.createFromValue(c);
+    OPMObjectInstance instance = OPMBinaryMathOpProcessInstance.calculate(BinaryMathOpType.SUBS, getArgument("a"),
+        getArgument("b"));
     setArgument("c", instance);
   }
 
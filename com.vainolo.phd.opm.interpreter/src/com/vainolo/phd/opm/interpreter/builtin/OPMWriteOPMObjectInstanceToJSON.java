@@ -48,7 +48,7 @@ public class OPMWriteOPMObjectInstanceToJSON extends OPMAbstractProcessInstance
     if(opmObject.type == InstanceType.STRING) {
       jsonObject.add(name, opmObject.getStringValue());
     } else if(opmObject.type == InstanceType.NUMERICAL) {
-      jsonObject.add(name, opmObject.getNumericalValue().doubleValue());
+      jsonObject.add(name, opmObject.getDoubleValue());
     } else if(opmObject.type == InstanceType.COMPOSITE) {
       jsonObject.add(name, populateJSONFromOPMObjectInstance(opmObject));
     } else {
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import com.eclipsesource.json.JsonObject;
+import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.OPMDirectoryModelResolver;
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMInterpreter;
+import com.vainolo.phd.opm.interpreter.OPMMetricsRegistry;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
+import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstanceFactory;
+import com.vainolo.phd.opm.interpreter.builtin.OPMReadJSONObjectProcessInstance;
+import com.vainolo.phd.opm.model.OPMPackage;
+import com.vainolo.phd.opm.utilities.OPMLogger;
+
+/**
+ * <p>
+ * Runs an OPD from the command line, without OSGi or the Eclipse workspace.
+ * OPDs (including the compound processes they invoke) are loaded from a
+ * directory of <code>.opm</code> files. The values of the outgoing parameters
+ * are written to the standard output, one <code>name = value</code> line per
+ * parameter, and timing information and metrics are written to the standard
+ * error.
+ * </p>
+ *
+ * <p>
+ * The runner exits with status 0 only if every run of the OPD finished and
+ * all the outgoing parameters received a value. Otherwise the problem is
+ * written to the standard error and the exit status is 1 (or 2 if the
+ * command line is invalid).
+ * </p>
+ *
+ * <pre>
+ * OPMCommandLineRunner [options] opdName [name=value ...]
+ *   -d, --directory dir    directory containing the OPD files (default: .)
+ *   -a, --arguments file   JSON file with the arguments, {"name": value, ...}
+ *   -r, --repeat n         execute the OPD n times (default: 1)
+ *   -t, --timing           print startup and execution times
+ *   -m, --metrics          print the metrics of the runs
+ *   -v, --verbose          print the interpreter log
+ * </pre>
+ *
+ * <p>
+ * Command line arguments are parsed like literals in an OPD (numbers, quoted
+ * strings and collections), and override the arguments in the JSON file.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMCommandLineRunner {
+
+  private static final String USAGE = "Usage: OPMCommandLineRunner [-d dir] [-a arguments.json] [-r n] [-t] [-m] "
+      + "[-v] opdName [name=value ...]";
+
+  private File directory = new File(".");
+  private File argumentsFile = null;
+  private int repeat = 1;
+  private boolean timing = false;
+  private boolean metrics = false;
+  private boolean verbose = false;
+  private String opdName = null;
+  private OPMExecutionContext context = null;
+  private final Map<String, String> commandLineArguments = Maps.newLinkedHashMap();
+
+  public static void main(String[] args) {
+    long startTime = System.nanoTime();
+    OPMCommandLineRunner runner = new OPMCommandLineRunner();
+    try {
+      runner.parseCommandLine(args);
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+    int status;
+    try {
+      status = runner.run(startTime, System.out, System.err);
+    } catch(Exception e) {
+      System.err.println("Execution of " + runner.opdName + " failed: " + e);
+      status = 1;
+    } finally {
+      OPMInterpreter.INSTANCE.shutdown();
+    }
+    System.exit(status);
+  }
+
+  void parseCommandLine(String[] args) {
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if(arg.equals("-d") || arg.equals("--directory")) {
+        directory = new File(getOptionValue(args, ++i, arg));
+      } else if(arg.equals("-a") || arg.equals("--arguments")) {
+        argumentsFile = new File(getOptionValue(args, ++i, arg));
+      } else if(arg.equals("-r") || arg.equals("--repeat")) {
+        try {
+          repeat = Integer.parseInt(getOptionValue(args, ++i, arg));
+        } catch(NumberFormatException e) {
+          throw new IllegalArgumentException("Repeat count must be a number.");
+        }
+        if(repeat <= 0) {
+          throw new IllegalArgumentException("Repeat count must be positive.");
+        }
+      } else if(arg.equals("-t") || arg.equals("--timing")) {
+        timing = true;
+      } else if(arg.equals("-m") || arg.equals("--metrics")) {
+        metrics = true;
+      } else if(arg.equals("-v") || arg.equals("--verbose")) {
+        verbose = true;
+      } else if(arg.startsWith("-")) {
+        throw new IllegalArgumentException("Unknown option " + arg + ".");
+      } else if(opdName == null) {
+        opdName = arg;
+      } else {
+        int separator = arg.indexOf('=');
+        if(separator <= 0 || separator == arg.length() - 1) {
+          throw new IllegalArgumentException("Arguments must be given as name=value, found " + arg + ".");
+        }
+        commandLineArguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+      }
+    }
+    if(opdName == null) {
+      throw new IllegalArgumentException("Missing OPD name.");
+    }
+  }
+
+  String getOPDName() {
+    return opdName;
+  }
+
+  int getRepeat() {
+    return repeat;
+  }
+
+  Map<String, String> getCommandLineArguments() {
+    return commandLineArguments;
+  }
+
+  private static String getOptionValue(String[] args, int index, String option) {
+    if(index >= args.length) {
+      throw new IllegalArgumentException("Missing value for option " + option + ".");
+    }
+    return args[index];
+  }
+
+  /**
+   * Execute the OPD and print its results.
+   *
+   * @return the exit status of the runner: 0 if all the runs finished and
+   *         all the outgoing parameters have a value, 1 otherwise.
+   */
+  int run(long startTime, PrintStream out, PrintStream err) throws Exception {
+    OPMLogger.setLevel(verbose ? Level.INFO : Level.WARNING);
+    OPMPackage.eINSTANCE.getClass();
+    context = new OPMExecutionContext(new OPMDirectoryModelResolver(directory));
+    OPMMetricsRegistry metricsRegistry = new OPMMetricsRegistry();
+    metricsRegistry.setEnabled(metrics);
+    context.setMetricsRegistry(metricsRegistry);
+    Map<String, OPMObjectInstance> arguments = readArguments();
+
+    long loadStart = System.nanoTime();
+    OPMProcessInstance instance = createInstance();
+    long loadTime = System.nanoTime() - loadStart;
+    if(timing) {
+      err.println(String.format("Startup: %.3f ms (model loading %.3f ms)", (loadStart - startTime) / 1e6,
+          loadTime / 1e6));
+    }
+
+    long executionStart = System.nanoTime();
+    for(int i = 0; i < repeat; i++) {
+      if(i > 0) {
+        instance = createInstance();
+      }
+      for(Entry<String, OPMObjectInstance> argument : arguments.entrySet()) {
+        instance.setArgument(argument.getKey(), argument.getValue());
+      }
+      if(!instance.isReady()) {
+        err.println("OPD " + opdName + " cannot be executed, some of its incoming parameters have no value.");
+        return 1;
+      }
+      OPMProcessExecutionResult result = instance.call();
+      if(result.getResultType() != OPMProcessExecutionResultType.FINISHED) {
+        err.println("Execution of " + opdName + " did not finish, result is " + result.getResultType() + ".");
+        return 1;
+      }
+    }
+    long executionTime = System.nanoTime() - executionStart;
+
+    int status = 0;
+    for(OPMParameter parameter : instance.getOutgoingParameterNames()) {
+      OPMObjectInstance value = instance.getArgument(parameter.getName());
+      if(value == null) {
+        // the process that sets the parameter never became ready.
+        err.println("Outgoing parameter " + parameter.getName() + " of " + opdName + " received no value.");
+        status = 1;
+      } else {
+        out.println(parameter.getName() + " = " + value);
+      }
+    }
+    if(timing) {
+      err.println(String.format("Execution: %d runs in %.3f ms, %.3f ms/run, %.1f runs/s", repeat,
+          executionTime / 1e6, executionTime / 1e6 / repeat, repeat / (executionTime / 1e9)));
+    }
+    if(metrics) {
+      metricsRegistry.dump(err);
+    }
+    return status;
+  }
+
+  private OPMProcessInstance createInstance() {
+    OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(opdName, context);
+    if(instance == null) {
+      throw new IllegalArgumentException("OPD " + opdName + " could not be loaded from " + directory + ".");
+    }
+    return instance;
+  }
+
+  private Map<String, OPMObjectInstance> readArguments() throws IOException {
+    Map<String, OPMObjectInstance> arguments = Maps.newLinkedHashMap();
+    if(argumentsFile != null) {
+      Reader reader = new InputStreamReader(new FileInputStream(argumentsFile), StandardCharsets.UTF_8);
+      try {
+        OPMObjectInstance jsonArguments = OPMReadJSONObjectProcessInstance.createFromJSONObject(JsonObject
+            .readFrom(reader));
+        for(Entry<String, OPMObjectInstance> argument : jsonArguments.getCompositeParts()) {
+          arguments.put(argument.getKey(), argument.getValue());
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    OPMObjectInstanceValueAnalyzer valueAnalyzer = new OPMObjectInstanceValueAnalyzer();
+    for(Entry<String, String> argument : commandLineArguments.entrySet()) {
+      arguments.put(argument.getKey(), valueAnalyzer.calculateOPMObjectValue(argument.getValue()));
+    }
+    return arguments;
+  }
+}
@@ -0,0 +1,311 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.builtin.BinaryMathOpType;
+import com.vainolo.phd.opm.interpreter.builtin.OPMBinaryMathOpProcessInstance;
+import com.vainolo.phd.opm.model.OPMObject;
+
+/**
+ * <p>
+ * An in-zoomed process compiled by the {@link OPMInZoomedProcessCompiler}.
+ * The objects of the process are stored in an array of slots (indexed by
+ * their id in the {@link OPMInZoomedProcessExecutionPlan}) and the processes
+ * are executed as a fixed sequence of steps in the order of the execution
+ * DAG, so no scheduler, heap or argument maps are needed at run time.
+ * </p>
+ *
+ * <p>
+ * Compound sub-processes that were inlined by the compiler have their own
+ * slots after the slots of the process, and their steps are placed between a
+ * step that copies the arguments into their slots and a step that copies their
+ * results back.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and can be shared by concurrent executions, each of
+ * which uses its own slots.
+ * </p>
+ *
+ * @author Arieh "Vainolo" Bibliowicz
+ *
+ */
+public class OPMCompiledInZoomedProcess {
+
+  private final String name;
+  private final int slotCount;
+  private final List<OPMObject> incomingParameters;
+  private final List<OPMObject> outgoingParameters;
+  private final List<OPMObject> parameters;
+  private final int[] parameterSlots;
+  private final OPMObjectInstance[] literalValues;
+  private final List<OPMCompiledStep> steps;
+  private final boolean pure;
+
+  OPMCompiledInZoomedProcess(String name, OPMInZoomedProcessExecutionPlan plan, List<OPMCompiledStep> steps,
+      List<OPMObjectInstance> inlinedLiteralValues) {
+    this.name = name;
+    this.slotCount = plan.getObjectCount() + inlinedLiteralValues.size();
+    this.incomingParameters = ImmutableList.copyOf(plan.getIncomingParameters());
+    this.outgoingParameters = ImmutableList.copyOf(plan.getOutgoingParameters());
+    this.parameters = ImmutableList.copyOf(plan.getParameters());
+    this.parameterSlots = new int[parameters.size()];
+    for(int i = 0; i < parameterSlots.length; i++) {
+      parameterSlots[i] = plan.getObjectId(parameters.get(i));
+    }
+    this.literalValues = new OPMObjectInstance[slotCount];
+    for(int i = 0; i < plan.getObjectCount(); i++) {
+      literalValues[i] = plan.getLiteralValues().get(plan.getObject(i));
+    }
+    for(int i = 0; i < inlinedLiteralValues.size(); i++) {
+      literalValues[plan.getObjectCount() + i] = inlinedLiteralValues.get(i);
+    }
+    this.steps = ImmutableList.copyOf(steps);
+    this.pure = plan.isPure();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<OPMObject> getIncomingParameters() {
+    return incomingParameters;
+  }
+
+  public List<OPMObject> getOutgoingParameters() {
+    return outgoingParameters;
+  }
+
+  public List<OPMObject> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * @see OPMInZoomedProcessExecutionPlan#isPure()
+   */
+  public boolean isPure() {
+    return pure;
+  }
+
+  /**
+   * Get the number of compiled steps (one for every process of the in-zoomed
+   * process, and two more for every inlined compound sub-process).
+   */
+  public int getStepCount() {
+    return steps.size();
+  }
+
+  OPMCompiledStep getStep(int index) {
+    return steps.get(index);
+  }
+
+  int getSlotCount() {
+    return slotCount;
+  }
+
+  /**
+   * Get the slot where the value of a parameter is stored.
+   *
+   * @param parameterName
+   *          the name of the parameter.
+   * @return the slot of the parameter, or -1 if there is no such parameter.
+   */
+  int getParameterSlot(String parameterName) {
+    for(int i = 0; i < parameters.size(); i++) {
+      if(parameters.get(i).getName().equals(parameterName)) {
+        return parameterSlots[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Create the slots for a new execution, with all the literal objects
+   * initialized.
+   *
+   * @return a new array of slots.
+   */
+  OPMObjectInstance[] createSlots() {
+    return literalValues.clone();
+  }
+
+  /**
+   * Get the slot where the value of a parameter is stored.
+   *
+   * @param parameterIndex
+   *          index of the parameter in {@link #getParameters()}.
+   */
+  int getParameterSlot(int parameterIndex) {
+    return parameterSlots[parameterIndex];
+  }
+
+  /**
+   * Execute all the steps of the process. A step is skipped if one of its
+   * operands has no value or if one of the steps that precede it in the DAG
+   * was skipped, which is what the interpreter does with processes that never
+   * become ready.
+   *
+   * @param slots
+   *          the slots of this execution.
+   */
+  void execute(OPMObjectInstance[] slots) {
+    boolean[] executed = new boolean[steps.size()];
+    for(int i = 0; i < executed.length; i++) {
+      executed[i] = steps.get(i).execute(slots, executed);
+    }
+  }
+
+  /**
+   * A compiled process of the in-zoomed process.
+   */
+  static abstract class OPMCompiledStep {
+    private final int[] predecessors;
+
+    OPMCompiledStep(int[] predecessors) {
+      this.predecessors = predecessors;
+    }
+
+    /**
+     * Get the predecessors of a copy of this step that is inlined in another
+     * process.
+     *
+     * @param stepOffset
+     *          the index of the first step of the inlined process.
+     * @param entryStep
+     *          the step that copies the arguments of the inlined process, used
+     *          as predecessor of the steps that had no predecessors.
+     */
+    int[] relocatePredecessors(int stepOffset, int entryStep) {
+      if(predecessors.length == 0) {
+        return new int[] { entryStep };
+      }
+      int[] relocated = new int[predecessors.length];
+      for(int i = 0; i < predecessors.length; i++) {
+        relocated[i] = predecessors[i] + stepOffset;
+      }
+      return relocated;
+    }
+
+    /**
+     * Create a copy of this step for a process that inlines the process of
+     * this step.
+     *
+     * @param slotOffset
+     *          the slot of the inlining process where the slots of the
+     *          inlined process start.
+     * @param stepOffset
+     *          the index of the first step of the inlined process.
+     * @param entryStep
+     *          the step that copies the arguments of the inlined process.
+     */
+    abstract OPMCompiledStep relocate(int slotOffset, int stepOffset, int entryStep);
+
+    boolean execute(OPMObjectInstance[] slots, boolean[] executed) {
+      for(int predecessor : predecessors) {
+        if(!executed[predecessor]) {
+          return false;
+        }
+      }
+      return doExecute(slots);
+    }
+
+    /**
+     * Execute the step.
+     *
+     * @return <code>true</code> if the step was executed, <code>false</code>
+     *         if it could not be executed.
+     */
+    abstract boolean doExecute(OPMObjectInstance[] slots);
+  }
+
+  /**
+   * A binary math operation executed inline on the slots, instead of creating
+   * an {@link OPMBinaryMathOpProcessInstance}.
+   */
+  static class OPMCompiledBinaryMathOp extends OPMCompiledStep {
+    private final BinaryMathOpType opType;
+    private final int a;
+    private final int b;
+    private final int[] results;
+
+    OPMCompiledBinaryMathOp(int[] predecessors, BinaryMathOpType opType, int a, int b, int[] results) {
+      super(predecessors);
+      this.opType = opType;
+      this.a = a;
+      this.b = b;
+      this.results = results;
+    }
+
+    @Override
+    OPMCompiledStep relocate(int slotOffset, int stepOffset, int entryStep) {
+      return new OPMCompiledBinaryMathOp(relocatePredecessors(stepOffset, entryStep), opType, a + slotOffset,
+          b + slotOffset, relocateSlots(results, slotOffset));
+    }
+
+    @Override
+    boolean doExecute(OPMObjectInstance[] slots) {
+      if(slots[a] == null || slots[b] == null) {
+        return false;
+      }
+      OPMObjectInstance c = OPMBinaryMathOpProcessInstance.calculate(opType, slots[a], slots[b]);
+      for(int result : results) {
+        slots[result] = c;
+      }
+      return true;
+    }
+  }
+
+  static int[] relocateSlots(int[] slots, int slotOffset) {
+    int[] relocated = new int[slots.length];
+    for(int i = 0; i < slots.length; i++) {
+      relocated[i] = slots[i] + slotOffset;
+    }
+    return relocated;
+  }
+
+  /**
+   * Copies values between slots. Used to pass the arguments of an inlined
+   * compound sub-process into its slots and to pass its results back.
+   */
+  static class OPMCompiledSlotCopy extends OPMCompiledStep {
+    private final int[] sources;
+    private final int[] targets;
+    private final boolean valuesRequired;
+
+    /**
+     * @param valuesRequired
+     *          if <code>true</code>, the step is not executed when one of the
+     *          sources has no value, which is what the interpreter does with a
+     *          sub-process whose incoming links are not ready.
+     */
+    OPMCompiledSlotCopy(int[] predecessors, int[] sources, int[] targets, boolean valuesRequired) {
+      super(predecessors);
+      this.sources = sources;
+      this.targets = targets;
+      this.valuesRequired = valuesRequired;
+    }
+
+    @Override
+    OPMCompiledStep relocate(int slotOffset, int stepOffset, int entryStep) {
+      return new OPMCompiledSlotCopy(relocatePredecessors(stepOffset, entryStep), relocateSlots(sources, slotOffset),
+          relocateSlots(targets, slotOffset), valuesRequired);
+    }
+
+    @Override
+    boolean doExecute(OPMObjectInstance[] slots) {
+      if(valuesRequired) {
+        for(int source : sources) {
+          if(slots[source] == null) {
+            return false;
+          }
+        }
+      }
+      for(int i = 0; i < sources.length; i++) {
+        slots[targets[i]] = slots[sources[i]];
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.model.OPMObject;
+
+/**
+ * Executable instance of an {@link OPMCompiledInZoomedProcess}. The instance
+ * has the same parameters as the {@link OPMInZoomedProcessExecutableInstance}
+ * of the process, so both can be used interchangeably.
+ *
+ * @author Arieh "Vainolo" Bibliowicz
+ *
+ */
+public class OPMCompiledInZoomedProcessInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
+
+  private final OPMCompiledInZoomedProcess compiledProcess;
+
+  public OPMCompiledInZoomedProcessInstance(OPMCompiledInZoomedProcess compiledProcess) {
+    this.compiledProcess = compiledProcess;
+  }
+
+  @Override
+  protected void executing() throws Exception {
+    OPMObjectInstance[] slots = compiledProcess.createSlots();
+    List<OPMObject> parameters = compiledProcess.getParameters();
+    for(int i = 0; i < parameters.size(); i++) {
+      OPMObjectInstance argument = getHeap().getArgument(parameters.get(i).getName());
+      if(argument != null) {
+        slots[compiledProcess.getParameterSlot(i)] = OPMObjectInstance.createFromExistingInstance(argument);
+      }
+    }
+
+    compiledProcess.execute(slots);
+
+    for(int i = 0; i < parameters.size(); i++) {
+      OPMObjectInstance value = slots[compiledProcess.getParameterSlot(i)];
+      if(value != null) {
+        getHeap().addArgument(parameters.get(i).getName(), OPMObjectInstance.createFromExistingInstance(value));
+      }
+    }
+  }
+
+  @Override
+  public boolean isReady() {
+    for(OPMObject object : compiledProcess.getIncomingParameters()) {
+      if(getArgument(object.getName()) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public List<OPMParameter> getIncomingParameterNames() {
+    List<OPMParameter> incomingParameters = Lists.newArrayList();
+    for(OPMObject object : compiledProcess.getIncomingParameters()) {
+      incomingParameters.add(new OPMParameter(object.getName(), object.isCollection()));
+    }
+    return incomingParameters;
+  }
+
+  @Override
+  public List<OPMParameter> getOutgoingParameterNames() {
+    List<OPMParameter> outgoingParameters = Lists.newArrayList();
+    for(OPMObject object : compiledProcess.getOutgoingParameters()) {
+      outgoingParameters.add(new OPMParameter(object.getName(), object.isCollection()));
+    }
+    return outgoingParameters;
+  }
+
+  @Override
+  public String getName() {
+    return compiledProcess.getName();
+  }
+
+  @Override
+  public Object getMemoizationIdentity() {
+    return compiledProcess.isPure() ? compiledProcess : null;
+  }
+
+  /**
+   * @deprecated This function should not be called for this kind of instance.
+   *             Calling it will throw an exception
+   */
+  @Deprecated
+  @Override
+  public void setName(String name) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,52 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMProceduralLink;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * A data transfer link between two {@link OPMObject}s, with the references in
+ * its center decoration already parsed. A transfer can have no references (the
+ * whole value is transferred), one reference (an element of the source
+ * collection is copied to the target, or the source value is put in the target
+ * collection) or two references (an element of the source collection is put in
+ * the target collection).
+ * 
+ * @author Arieh 'Vainolo' Bibliowicz
+ * 
+ */
+class OPMDataTransfer {
+
+  enum OPMDataTransferKind {
+    NO_REFERENCE, ONE_REFERENCE, TWO_REFERENCES;
+  }
+
+  final OPMObject target;
+  final OPMDataTransferKind kind;
+  final String sourceReference;
+  final String targetReference;
+
+  private OPMDataTransfer(OPMObject target, OPMDataTransferKind kind, String sourceReference, String targetReference) {
+    this.target = target;
+    this.kind = kind;
+    this.sourceReference = sourceReference;
+    this.targetReference = targetReference;
+  }
+
+  /**
+   * Parse a data transfer link. The link must have an object (or a state of an
+   * object) as target.
+   */
+  static OPMDataTransfer create(OPMProceduralLink link, OPDAnalyzer analyzer) {
+    OPMObject target = analyzer.getTargetObject(link);
+    String centerDecoration = link.getCenterDecoration();
+    if(centerDecoration == null || "".equals(centerDecoration)) {
+      return new OPMDataTransfer(target, OPMDataTransferKind.NO_REFERENCE, null, null);
+    } else if(!centerDecoration.contains(",")) {
+      return new OPMDataTransfer(target, OPMDataTransferKind.ONE_REFERENCE, centerDecoration, centerDecoration);
+    } else {
+      String[] refs = centerDecoration.split(",");
+      return new OPMDataTransfer(target, OPMDataTransferKind.TWO_REFERENCES, refs[0], refs.length > 1 ? refs[1] : null);
+    }
+  }
+}
@@ -3,6 +3,8 @@ package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
 import static com.vainolo.phd.opm.utilities.OPMLogger.logFine;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -10,10 +12,13 @@ import java.util.Map;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
 import com.vainolo.phd.opm.interpreter.OPMParameter;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecordType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
 import com.vainolo.phd.opm.model.OPMLink;
 import com.vainolo.phd.opm.model.OPMObject;
 import com.vainolo.phd.opm.model.OPMProcess;
@@ -23,6 +28,8 @@ public class OPMInZoomedProcessArgumentHandler {
   private OPDAnalyzer analyzer = new OPDAnalyzer();
   private OPMObjectInstanceValueAnalyzer valueAnalyzer;
   private OPMInZoomedProcessInstanceHeap heap;
+  private OPMTraceRecorder traceRecorder = null;
+  private int traceInstanceId = 0;
 
   public OPMInZoomedProcessArgumentHandler(OPDAnalyzer analyzer, OPMInZoomedProcessInstanceHeap heap) {
     this.analyzer = analyzer;
@@ -30,32 +37,35 @@ public class OPMInZoomedProcessArgumentHandler {
     this.valueAnalyzer = new OPMObjectInstanceValueAnalyzer();
   }
 
+  /**
+   * Record every argument that is loaded in the given trace.
+   * 
+   * @param traceRecorder
+   *          the recorder, or <code>null</code> to stop recording.
+   * @param traceInstanceId
+   *          the id of the instance that loads the arguments in the trace.
+   */
+  void setTraceRecorder(OPMTraceRecorder traceRecorder, int traceInstanceId) {
+    this.traceRecorder = traceRecorder;
+    this.traceInstanceId = traceInstanceId;
+  }
+
   public void loadInstanceArguments(OPMProcess process, OPMProcessInstance instance) {
-    Map<String, OPMArgument> namedArguments = Maps.newHashMap();
-    List<OPMArgument> anonymousArguments = Lists.newArrayList();
+    loadInstanceArguments(createArguments(analyzer.findIncomingDataLinks(process), analyzer, valueAnalyzer), instance);
+  }
 
-    for(OPMLink incomingDataLink : analyzer.findIncomingDataLinks(process)) {
-      OPMArgument argument = new OPMArgument(analyzer.getObject(incomingDataLink));
-      if(incomingDataLink.getCenterDecoration() == null || "".equals(incomingDataLink.getCenterDecoration())) {
-        anonymousArguments.add(argument);
-      } else if(incomingDataLink.getCenterDecoration().contains(",")) {
-        argument.isCollectionElement = true;
-        String argName = incomingDataLink.getCenterDecoration().split(",")[0];
-        String collectionReference = incomingDataLink.getCenterDecoration().split(",")[1];
-        if(valueAnalyzer.isNumericalLiteral(collectionReference)) {
-          argument.collectionElementIndex = valueAnalyzer.parseNumericalLiteral(collectionReference);
-        } else {
-          argument.collectionElementName = collectionReference;
-        }
-        if("".equals(argName)) {
-          anonymousArguments.add(argument);
-        } else {
-          namedArguments.put(argName, argument);
-        }
-      } else {
-        namedArguments.put(incomingDataLink.getCenterDecoration(), argument);
-      }
-    }
+  /**
+   * Load the arguments of a process instance using pre-calculated argument
+   * bindings.
+   * 
+   * @param arguments
+   *          the bindings of the incoming data links of the process.
+   * @param instance
+   *          the instance where the arguments are loaded.
+   */
+  public void loadInstanceArguments(OPMProcessArguments arguments, OPMProcessInstance instance) {
+    Map<String, OPMArgument> namedArguments = arguments.namedArguments;
+    List<OPMArgument> anonymousArguments = Lists.newArrayList(arguments.anonymousArguments);
 
     logFine("Found {0} anonymous arguments and {1} named arguments.", anonymousArguments.size(), namedArguments.size());
 
@@ -72,9 +82,50 @@ public class OPMInZoomedProcessArgumentHandler {
     loadAnonymousArguments(instance, anonymousArguments, availableParametersNames);
   }
 
+  /**
+   * Parse the center decorations of a set of data links into argument
+   * bindings. A center decoration can be empty (anonymous argument), a name,
+   * or a name followed by a collection element reference (
+   * <code>name,index</code> or <code>name,elementName</code>).
+   * 
+   * @param dataLinks
+   *          the data links to parse.
+   * @return the argument bindings of the links.
+   */
+  static OPMProcessArguments createArguments(Collection<? extends OPMLink> dataLinks, OPDAnalyzer analyzer,
+      OPMObjectInstanceValueAnalyzer valueAnalyzer) {
+    Map<String, OPMArgument> namedArguments = Maps.newHashMap();
+    List<OPMArgument> anonymousArguments = Lists.newArrayList();
+
+    for(OPMLink dataLink : dataLinks) {
+      OPMObject object = analyzer.getObject(dataLink);
+      String centerDecoration = dataLink.getCenterDecoration();
+      if(centerDecoration == null || "".equals(centerDecoration)) {
+        anonymousArguments.add(new OPMArgument(object));
+      } else if(centerDecoration.contains(",")) {
+        String argName = centerDecoration.split(",")[0];
+        String collectionReference = centerDecoration.split(",")[1];
+        OPMArgument argument;
+        if(valueAnalyzer.isNumericalLiteral(collectionReference)) {
+          argument = new OPMArgument(object, valueAnalyzer.parseNumericalLiteral(collectionReference), null);
+        } else {
+          argument = new OPMArgument(object, null, collectionReference);
+        }
+        if("".equals(argName)) {
+          anonymousArguments.add(argument);
+        } else {
+          namedArguments.put(argName, argument);
+        }
+      } else {
+        namedArguments.put(centerDecoration, new OPMArgument(object));
+      }
+    }
+    return new OPMProcessArguments(namedArguments, anonymousArguments);
+  }
+
   private void loadNamedArguments(OPMProcessInstance instance, Map<String, OPMArgument> namedArguments) {
     for(String parameterName : namedArguments.keySet()) {
-      instance.setArgument(parameterName, getValue(namedArguments.get(parameterName)));
+      bindArgument(instance, parameterName, namedArguments.get(parameterName));
     }
   }
 
@@ -86,8 +137,7 @@ public class OPMInZoomedProcessArgumentHandler {
     while(availableParametersIterator.hasNext()) {
       String parameterName = availableParametersIterator.next();
       if(arguments.contains(parameterName)) {
-        OPMObjectInstance argument = getValue(arguments.get(arguments.indexOf(parameterName)));
-        instance.setArgument(parameterName, argument);
+        bindArgument(instance, parameterName, arguments.get(arguments.indexOf(parameterName)));
         arguments.remove(parameterName);
         availableParametersIterator.remove();
       }
@@ -97,7 +147,7 @@ public class OPMInZoomedProcessArgumentHandler {
     availableParametersIterator = availableParameters.iterator();
     while(availableParametersIterator.hasNext()) {
       String parameterName = availableParametersIterator.next();
-      instance.setArgument(parameterName, getValue(arguments.remove(0)));
+      bindArgument(instance, parameterName, arguments.remove(0));
       availableParametersIterator.remove();
     }
 
@@ -106,38 +156,29 @@ public class OPMInZoomedProcessArgumentHandler {
     if(arguments.size() > 0) {
       int argNumber = 0;
       for(OPMArgument argument : arguments) {
-        instance.setArgument("arg" + argNumber, getValue(argument));
+        bindArgument(instance, "arg" + argNumber, argument);
         argNumber++;
       }
     }
   }
 
   public void extractResultsToVariables(OPMProcess process, OPMProcessInstance instance) {
-    Map<String, OPMArgument> namedResults = Maps.newHashMap();
-    List<OPMArgument> anonymousResult = Lists.newArrayList();
-
-    for(OPMLink resultLink : analyzer.findOutgoingDataLinks(process)) {
-      OPMArgument argument = new OPMArgument(analyzer.getObject(resultLink));
-      if(resultLink.getCenterDecoration() == null || "".equals(resultLink.getCenterDecoration())) {
-        anonymousResult.add(argument);
-      } else if(resultLink.getCenterDecoration().contains(",")) {
-        argument.isCollectionElement = true;
-        String argName = resultLink.getCenterDecoration().split(",")[0];
-        String collectionReference = resultLink.getCenterDecoration().split(",")[1];
-        if(valueAnalyzer.isNumericalLiteral(collectionReference)) {
-          argument.collectionElementIndex = valueAnalyzer.parseNumericalLiteral(collectionReference);
-        } else {
-          argument.collectionElementName = collectionReference;
-        }
-        if("".equals(argName)) {
-          anonymousResult.add(argument);
-        } else {
-          namedResults.put(argName, argument);
-        }
-      } else {
-        namedResults.put(resultLink.getCenterDecoration(), argument);
-      }
-    }
+    extractResultsToVariables(createArguments(analyzer.findOutgoingDataLinks(process), analyzer, valueAnalyzer),
+        instance);
+  }
+
+  /**
+   * Store the results of a process instance in the heap using pre-calculated
+   * result bindings.
+   * 
+   * @param results
+   *          the bindings of the outgoing data links of the process.
+   * @param instance
+   *          the instance that produced the results.
+   */
+  public void extractResultsToVariables(OPMProcessArguments results, OPMProcessInstance instance) {
+    Map<String, OPMArgument> namedResults = results.namedArguments;
+    List<OPMArgument> anonymousResult = Lists.newArrayList(results.anonymousArguments);
 
     logFine("Found {0} anonymous results and {1} named results.", anonymousResult.size(), namedResults.size());
 
@@ -196,16 +237,27 @@ public class OPMInZoomedProcessArgumentHandler {
     }
     if(argument.isCollectionElement) {
       if(argument.collectionElementName != null) {
-        currentValue.putCollectionElement(argument.collectionElementName, value);
+        currentValue = currentValue.withCollectionElement(argument.collectionElementName, value);
       } else if(argument.collectionElementIndex != null) {
-        currentValue.putCollectionElementAtIndex(argument.collectionElementIndex.intValue(), value);
+        currentValue = currentValue.withCollectionElementAtIndex(argument.collectionElementIndex.intValue(), value);
       }
     } else {
-      currentValue.appendCollectionElement(value);
+      currentValue = currentValue.withAppendedCollectionElement(value);
     }
     heap.setVariable(argument.object, currentValue);
   }
 
+  private void bindArgument(OPMProcessInstance instance, String parameterName, OPMArgument argument) {
+    OPMObjectInstance value = getValue(argument);
+    instance.setArgument(parameterName, value);
+    if(traceRecorder != null) {
+      long elementId = instance instanceof OPMAbstractProcessInstance ? ((OPMAbstractProcessInstance) instance)
+          .getElementId() : 0;
+      traceRecorder.record(OPMTraceRecordType.ARGUMENT_BOUND, traceInstanceId, elementId, argument.object.getId(),
+          value);
+    }
+  }
+
   private OPMObjectInstance getValue(OPMArgument argument) {
     if(!argument.isCollectionElement) {
       return heap.getVariable(argument.object);
@@ -221,14 +273,54 @@ public class OPMInZoomedProcessArgumentHandler {
     }
   }
 
-  class OPMArgument {
-    public BigDecimal collectionElementIndex;
-    public String collectionElementName;
-    private OPMObject object;
-    private boolean isCollectionElement = false;
+  static class OPMArgument {
+    public final BigDecimal collectionElementIndex;
+    public final String collectionElementName;
+    private final OPMObject object;
+    private final boolean isCollectionElement;
 
     public OPMArgument(OPMObject object) {
       this.object = object;
+      this.collectionElementIndex = null;
+      this.collectionElementName = null;
+      this.isCollectionElement = false;
+    }
+
+    public OPMArgument(OPMObject object, BigDecimal collectionElementIndex, String collectionElementName) {
+      this.object = object;
+      this.collectionElementIndex = collectionElementIndex;
+      this.collectionElementName = collectionElementName;
+      this.isCollectionElement = true;
+    }
+
+    OPMObject getObject() {
+      return object;
+    }
+
+    boolean isCollectionElement() {
+      return isCollectionElement;
+    }
+  }
+
+  /**
+   * The argument bindings of all the incoming (or outgoing) data links of a
+   * process. Instances are immutable.
+   */
+  static class OPMProcessArguments {
+    private final Map<String, OPMArgument> namedArguments;
+    private final List<OPMArgument> anonymousArguments;
+
+    OPMProcessArguments(Map<String, OPMArgument> namedArguments, List<OPMArgument> anonymousArguments) {
+      this.namedArguments = Collections.unmodifiableMap(namedArguments);
+      this.anonymousArguments = Collections.unmodifiableList(anonymousArguments);
+    }
+
+    Map<String, OPMArgument> getNamedArguments() {
+      return namedArguments;
+    }
+
+    List<OPMArgument> getAnonymousArguments() {
+      return anonymousArguments;
     }
   }
 }
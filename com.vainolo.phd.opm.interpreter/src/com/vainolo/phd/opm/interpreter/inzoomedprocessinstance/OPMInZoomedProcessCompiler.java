@@ -0,0 +1,401 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.builtin.BinaryMathOpType;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess.OPMCompiledBinaryMathOp;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess.OPMCompiledSlotCopy;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMCompiledInZoomedProcess.OPMCompiledStep;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessArgumentHandler.OPMArgument;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessArgumentHandler.OPMProcessArguments;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan.OPMPlannedLink;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMProcessKind;
+
+/**
+ * <p>
+ * Compiles the {@link OPMInZoomedProcessExecutionPlan} of an in-zoomed process
+ * into an {@link OPMCompiledInZoomedProcess}.
+ * </p>
+ *
+ * <p>
+ * Only in-zoomed processes whose execution is fully determined by the
+ * execution DAG can be compiled: all the sub-processes must be built-in binary
+ * math operations or inlined compound processes, and there can be no event
+ * links, conditional links, state links, data links between objects, or
+ * composite and collection objects. Other processes are not compiled and are
+ * executed by the {@link OPMInZoomedProcessExecutableInstance}.
+ * </p>
+ *
+ * <p>
+ * A compound sub-process is inlined when its OPD can be found and compiled,
+ * it has at most {@value #MAX_INLINED_STEPS} steps and it does not invoke
+ * (directly or through other processes) the process that inlines it. The
+ * steps of an inlined process are spliced into the steps of the inlining
+ * process and its objects get slots after the objects of the inlining
+ * process, so invoking it needs no instance, heap, argument copies or
+ * scheduling.
+ * </p>
+ *
+ * @author Arieh "Vainolo" Bibliowicz
+ *
+ */
+public class OPMInZoomedProcessCompiler {
+
+  private static final Map<String, BinaryMathOpType> MATH_OPERATIONS = ImmutableMap.of("+", BinaryMathOpType.ADD, "-",
+      BinaryMathOpType.SUBS, "*", BinaryMathOpType.MULT, "/", BinaryMathOpType.DIV, "^", BinaryMathOpType.POW);
+
+  private static final String[] MATH_INCOMING_PARAMETERS = { "a", "b" };
+  private static final String MATH_OUTGOING_PARAMETER = "c";
+
+  static final int MAX_INLINED_STEPS = 16;
+
+  private OPMInZoomedProcessCompiler() {
+  }
+
+  /**
+   * Compile an in-zoomed process without inlining compound sub-processes.
+   *
+   * @param plan
+   *          the execution plan of the in-zoomed process.
+   * @return the compiled process, or <code>null</code> if the process cannot
+   *         be compiled.
+   */
+  public static OPMCompiledInZoomedProcess compile(OPMInZoomedProcessExecutionPlan plan) {
+    return compile(plan, null);
+  }
+
+  /**
+   * Compile an in-zoomed process, inlining the compound sub-processes it
+   * invokes.
+   *
+   * @param plan
+   *          the execution plan of the in-zoomed process.
+   * @param planLoader
+   *          used to find the plans of the compound sub-processes, or
+   *          <code>null</code> if compound sub-processes must not be inlined.
+   * @return the compiled process, or <code>null</code> if the process cannot
+   *         be compiled.
+   */
+  public static OPMCompiledInZoomedProcess compile(OPMInZoomedProcessExecutionPlan plan,
+      OPMInZoomedProcessPlanLoader planLoader) {
+    return compile(plan, planLoader, Sets.<String> newHashSet());
+  }
+
+  private static OPMCompiledInZoomedProcess compile(OPMInZoomedProcessExecutionPlan plan,
+      OPMInZoomedProcessPlanLoader planLoader, Set<String> inliningProcesses) {
+    String name = plan.getOpd().getName();
+    for(int objectId = 0; objectId < plan.getObjectCount(); objectId++) {
+      if(plan.getParentObject(objectId) >= 0 || plan.isComposite(objectId) || plan.isCollection(objectId)) {
+        logFine("Process {0} cannot be compiled, it has composite or collection objects.", name);
+        return null;
+      }
+      if(!plan.getOutgoingDataTransfers(objectId).isEmpty() || !plan.getEventSubscriptions(objectId).isEmpty()) {
+        logFine("Process {0} cannot be compiled, it has data links between objects or event links.", name);
+        return null;
+      }
+    }
+
+    inliningProcesses.add(name);
+    try {
+      List<OPMCompiledStep> steps = Lists.newArrayList();
+      List<OPMObjectInstance> inlinedLiteralValues = Lists.newArrayList();
+      int[] processSteps = new int[plan.getProcessCount()];
+      for(int processIndex = 0; processIndex < plan.getProcessCount(); processIndex++) {
+        int[] predecessors = findPredecessorSteps(plan, processIndex, processSteps);
+        OPMProcess process = plan.getProcess(processIndex);
+        boolean compiled;
+        if(predecessors == null) {
+          compiled = false;
+        } else if(process.getKind() == OPMProcessKind.COMPOUND) {
+          compiled = inlineProcess(plan, processIndex, predecessors, steps, inlinedLiteralValues, planLoader,
+              inliningProcesses);
+        } else {
+          OPMCompiledStep step = compileMathOperation(plan, processIndex, predecessors);
+          compiled = step != null;
+          if(compiled) {
+            steps.add(step);
+          }
+        }
+        if(!compiled) {
+          logFine("Process {0} cannot be compiled, sub-process {1} is not supported.", name, process.getName());
+          return null;
+        }
+        processSteps[processIndex] = steps.size() - 1;
+      }
+      logInfo("Compiled process {0} into {1} steps.", name, steps.size());
+      return new OPMCompiledInZoomedProcess(name, plan, steps, inlinedLiteralValues);
+    } finally {
+      inliningProcesses.remove(name);
+    }
+  }
+
+  /**
+   * Find the steps that must be executed before the step of a process: the
+   * last steps of its predecessors in the DAG.
+   *
+   * @return the predecessor steps, or <code>null</code> if the process has
+   *         predecessors that are not compiled before it, or has incoming
+   *         links that cannot be compiled.
+   */
+  private static int[] findPredecessorSteps(OPMInZoomedProcessExecutionPlan plan, int processIndex,
+      int[] processSteps) {
+    int[] predecessors = plan.getPredecessors(processIndex);
+    int[] predecessorSteps = new int[predecessors.length];
+    for(int i = 0; i < predecessors.length; i++) {
+      if(predecessors[i] >= processIndex) {
+        return null;
+      }
+      predecessorSteps[i] = processSteps[predecessors[i]];
+    }
+    for(OPMPlannedLink link : plan.getIncomingLinks(processIndex)) {
+      if(link.conditional || link.sourceObject < 0 || link.sourceState >= 0) {
+        return null;
+      }
+    }
+    return predecessorSteps;
+  }
+
+  private static OPMCompiledStep compileMathOperation(OPMInZoomedProcessExecutionPlan plan, int processIndex,
+      int[] predecessors) {
+    OPMProcess process = plan.getProcess(processIndex);
+    if(process.getKind() != OPMProcessKind.BUILT_IN || !MATH_OPERATIONS.containsKey(process.getName())) {
+      return null;
+    }
+
+    Map<String, Integer> incoming = bindIncomingArguments(plan, plan.getIncomingArguments(processIndex));
+    int[] results = bindOutgoingArguments(plan, plan.getOutgoingArguments(processIndex));
+    if(incoming == null || results == null || incoming.size() != MATH_INCOMING_PARAMETERS.length) {
+      return null;
+    }
+    return new OPMCompiledBinaryMathOp(predecessors, MATH_OPERATIONS.get(process.getName()),
+        incoming.get(MATH_INCOMING_PARAMETERS[0]), incoming.get(MATH_INCOMING_PARAMETERS[1]), results);
+  }
+
+  /**
+   * Inline a compound sub-process: add a step that copies the arguments into
+   * the slots of the sub-process, the relocated steps of the compiled
+   * sub-process, and a step that copies the results back.
+   *
+   * @return <code>true</code> if the sub-process was inlined.
+   */
+  private static boolean inlineProcess(OPMInZoomedProcessExecutionPlan plan, int processIndex, int[] predecessors,
+      List<OPMCompiledStep> steps, List<OPMObjectInstance> inlinedLiteralValues,
+      OPMInZoomedProcessPlanLoader planLoader, Set<String> inliningProcesses) {
+    String subprocessName = plan.getProcess(processIndex).getName();
+    if(planLoader == null) {
+      return false;
+    }
+    if(inliningProcesses.contains(subprocessName)) {
+      logFine("Process {0} is recursive and cannot be inlined.", subprocessName);
+      return false;
+    }
+    OPMInZoomedProcessExecutionPlan subprocessPlan = planLoader.loadExecutionPlan(subprocessName);
+    if(subprocessPlan == null || inliningProcesses.contains(subprocessPlan.getOpd().getName())) {
+      return false;
+    }
+    OPMCompiledInZoomedProcess subprocess = compile(subprocessPlan, planLoader, inliningProcesses);
+    if(subprocess == null || subprocess.getStepCount() > MAX_INLINED_STEPS) {
+      logFine("Process {0} cannot be inlined.", subprocessName);
+      return false;
+    }
+
+    int slotOffset = plan.getObjectCount() + inlinedLiteralValues.size();
+    int entryStep = steps.size();
+    OPMCompiledStep argumentCopy = bindSubprocessArguments(plan, plan.getIncomingArguments(processIndex),
+        subprocess, slotOffset, predecessors);
+    OPMCompiledStep resultCopy = bindSubprocessResults(plan, plan.getOutgoingArguments(processIndex), subprocess,
+        slotOffset, entryStep);
+    if(argumentCopy == null || resultCopy == null) {
+      return false;
+    }
+    steps.add(argumentCopy);
+    for(int i = 0; i < subprocess.getStepCount(); i++) {
+      steps.add(subprocess.getStep(i).relocate(slotOffset, entryStep + 1, entryStep));
+    }
+    steps.add(resultCopy);
+    inlinedLiteralValues.addAll(Arrays.asList(subprocess.createSlots()));
+    logFine("Inlined process {0} in {1}.", subprocessName, plan.getOpd().getName());
+    return true;
+  }
+
+  /**
+   * Bind the arguments of an inlined sub-process to its slots in the same way
+   * as {@link OPMInZoomedProcessArgumentHandler#loadInstanceArguments(
+   * OPMProcessArguments, OPMProcessInstance)}: first the named arguments, and
+   * then the anonymous arguments in order for the incoming parameters that
+   * were not named.
+   *
+   * @return the step that copies the arguments, or <code>null</code> if the
+   *         arguments cannot be bound.
+   */
+  private static OPMCompiledStep bindSubprocessArguments(OPMInZoomedProcessExecutionPlan plan,
+      OPMProcessArguments arguments, OPMCompiledInZoomedProcess subprocess, int slotOffset, int[] predecessors) {
+    List<Integer> sources = Lists.newArrayList();
+    List<Integer> targets = Lists.newArrayList();
+    for(Map.Entry<String, OPMArgument> namedArgument : arguments.getNamedArguments().entrySet()) {
+      int target = subprocess.getParameterSlot(namedArgument.getKey());
+      if(target < 0) {
+        continue;
+      }
+      int source = getSlot(plan, namedArgument.getValue());
+      if(source < 0) {
+        return null;
+      }
+      sources.add(source);
+      targets.add(target + slotOffset);
+    }
+
+    List<OPMArgument> anonymousArguments = arguments.getAnonymousArguments();
+    List<String> availableParameters = Lists.newArrayList();
+    for(OPMObject parameter : subprocess.getIncomingParameters()) {
+      if(!arguments.getNamedArguments().containsKey(parameter.getName())) {
+        availableParameters.add(parameter.getName());
+      }
+    }
+    if(anonymousArguments.size() != availableParameters.size()) {
+      return null;
+    }
+    for(int i = 0; i < availableParameters.size(); i++) {
+      int source = getSlot(plan, anonymousArguments.get(i));
+      if(source < 0) {
+        return null;
+      }
+      sources.add(source);
+      targets.add(subprocess.getParameterSlot(availableParameters.get(i)) + slotOffset);
+    }
+    return new OPMCompiledSlotCopy(predecessors, Ints.toArray(sources), Ints.toArray(targets), true);
+  }
+
+  /**
+   * Bind the results of an inlined sub-process in the same way as
+   * {@link OPMInZoomedProcessArgumentHandler#extractResultsToVariables(
+   * OPMProcessArguments, OPMProcessInstance)}: first the named results, and
+   * then the outgoing parameters that were not named to the anonymous results,
+   * in order.
+   *
+   * @return the step that copies the results, or <code>null</code> if the
+   *         results cannot be bound.
+   */
+  private static OPMCompiledStep bindSubprocessResults(OPMInZoomedProcessExecutionPlan plan,
+      OPMProcessArguments results, OPMCompiledInZoomedProcess subprocess, int slotOffset, int entryStep) {
+    List<Integer> sources = Lists.newArrayList();
+    List<Integer> targets = Lists.newArrayList();
+    List<String> remainingParameters = Lists.newArrayList();
+    for(OPMObject parameter : subprocess.getOutgoingParameters()) {
+      remainingParameters.add(parameter.getName());
+    }
+    for(Map.Entry<String, OPMArgument> namedResult : results.getNamedArguments().entrySet()) {
+      int source = subprocess.getParameterSlot(namedResult.getKey());
+      int target = getSlot(plan, namedResult.getValue());
+      if(source < 0 || target < 0) {
+        return null;
+      }
+      sources.add(source + slotOffset);
+      targets.add(target);
+      remainingParameters.remove(namedResult.getKey());
+    }
+
+    List<OPMArgument> anonymousResults = results.getAnonymousArguments();
+    for(int i = 0; i < Math.min(remainingParameters.size(), anonymousResults.size()); i++) {
+      int target = getSlot(plan, anonymousResults.get(i));
+      if(target < 0) {
+        return null;
+      }
+      sources.add(subprocess.getParameterSlot(remainingParameters.get(i)) + slotOffset);
+      targets.add(target);
+    }
+    return new OPMCompiledSlotCopy(new int[] { entryStep }, Ints.toArray(sources), Ints.toArray(targets), false);
+  }
+
+  /**
+   * Bind the arguments of a math operation to slots in the same way as
+   * {@link OPMInZoomedProcessArgumentHandler#loadInstanceArguments(
+   * OPMProcessArguments, OPMProcessInstance)}: first the named arguments, and
+   * then the anonymous arguments in order for the parameters that were not
+   * named.
+   *
+   * @return the slot of every parameter, or <code>null</code> if the arguments
+   *         cannot be bound.
+   */
+  private static Map<String, Integer> bindIncomingArguments(OPMInZoomedProcessExecutionPlan plan,
+      OPMProcessArguments arguments) {
+    Map<String, Integer> slots = Maps.newHashMap();
+    List<String> availableParameters = Lists.newArrayList(MATH_INCOMING_PARAMETERS);
+    for(Map.Entry<String, OPMArgument> namedArgument : arguments.getNamedArguments().entrySet()) {
+      String parameterName = namedArgument.getKey().toLowerCase();
+      if(!availableParameters.contains(parameterName)) {
+        continue;
+      }
+      int slot = getSlot(plan, namedArgument.getValue());
+      if(slot < 0) {
+        return null;
+      }
+      slots.put(parameterName, slot);
+    }
+    availableParameters.removeAll(arguments.getNamedArguments().keySet());
+
+    List<OPMArgument> anonymousArguments = arguments.getAnonymousArguments();
+    if(anonymousArguments.size() < availableParameters.size()) {
+      return null;
+    }
+    for(int i = 0; i < availableParameters.size(); i++) {
+      int slot = getSlot(plan, anonymousArguments.get(i));
+      if(slot < 0) {
+        return null;
+      }
+      slots.put(availableParameters.get(i), slot);
+    }
+    return slots;
+  }
+
+  /**
+   * Bind the result of a math operation to slots in the same way as
+   * {@link OPMInZoomedProcessArgumentHandler#extractResultsToVariables(
+   * OPMProcessArguments, OPMProcessInstance)}: the objects named with the
+   * result parameter, or the first anonymous object if the result parameter
+   * was not named.
+   *
+   * @return the slots that receive the result, or <code>null</code> if the
+   *         results cannot be bound.
+   */
+  private static int[] bindOutgoingArguments(OPMInZoomedProcessExecutionPlan plan, OPMProcessArguments results) {
+    List<Integer> slots = Lists.newArrayList();
+    for(Map.Entry<String, OPMArgument> namedResult : results.getNamedArguments().entrySet()) {
+      int slot = getSlot(plan, namedResult.getValue());
+      if(!namedResult.getKey().equalsIgnoreCase(MATH_OUTGOING_PARAMETER) || slot < 0) {
+        return null;
+      }
+      slots.add(slot);
+    }
+    if(!results.getNamedArguments().containsKey(MATH_OUTGOING_PARAMETER)
+        && !results.getAnonymousArguments().isEmpty()) {
+      int slot = getSlot(plan, results.getAnonymousArguments().get(0));
+      if(slot < 0) {
+        return null;
+      }
+      slots.add(slot);
+    }
+    return Ints.toArray(slots);
+  }
+
+  private static int getSlot(OPMInZoomedProcessExecutionPlan plan, OPMArgument argument) {
+    if(argument.isCollectionElement()) {
+      return -1;
+    }
+    return plan.getObjectId(argument.getObject());
+  }
+}
@@ -1,50 +1,69 @@
 package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
 
 import static com.vainolo.phd.opm.utilities.OPMLogger.*;
-import static com.vainolo.phd.opm.utilities.OPMStrings.*;
-import static com.google.common.base.Preconditions.*;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
-import org.jgrapht.graph.DefaultEdge;
-
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Collections2;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.vainolo.phd.opm.interpreter.OPMAbstractProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMInterpreter;
 import com.vainolo.phd.opm.interpreter.OPMInterpreterInjector;
+import com.vainolo.phd.opm.interpreter.OPMMetricsRegistry;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
 import com.vainolo.phd.opm.interpreter.OPMParameter;
+import com.vainolo.phd.opm.interpreter.OPMProcessCallCache;
+import com.vainolo.phd.opm.interpreter.OPMProcessCallCache.OPMProcessCall;
 import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstanceFactory;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstanceHeap;
+import com.vainolo.phd.opm.interpreter.OPMReusableProcessInstance;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan.OPMPlannedLink;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessInstanceHeap.OPMHeapChange;
 import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessInstanceHeap.OPMHeapObserver;
-import com.vainolo.phd.opm.interpreter.utils.OPDExecutionAnalyzer;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecordType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
 import com.vainolo.phd.opm.model.OPMObject;
 import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
-import com.vainolo.phd.opm.model.OPMProceduralLink;
 import com.vainolo.phd.opm.model.OPMProcess;
-import com.vainolo.phd.opm.model.OPMState;
-import com.vainolo.phd.opm.utilities.OPMConstants;
+import com.vainolo.phd.opm.model.OPMProcessKind;
 import com.vainolo.phd.opm.utilities.OPMStrings;
 import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
 
 /**
+ * <p>
  * Executable instance used for a {@link OPMObjectProcessDiagram} containing an
  * in-zoomed process.
+ * </p>
+ * 
+ * <p>
+ * When speculative execution is enabled in the execution context, pure
+ * built-in processes that are guarded by conditional links are started while
+ * their predecessors are still executing, as soon as all their links are
+ * ready. The speculative instance receives a snapshot of its arguments and its
+ * results are kept in the instance, outside of the heap. When the scheduler
+ * later marks the process as ready, the speculation is used if no process has
+ * written its arguments since it started; otherwise it is discarded and the
+ * process is executed again.
+ * </p>
+ * 
+ * <p>
+ * When the execution context has an {@link OPMProcessCallCache}, the calls to
+ * pure built-in processes and pure compound processes are looked up in the
+ * cache before they are executed. On a hit, the cached results are used as if
+ * the process had been executed; on a miss, the results of the process are
+ * stored in the cache when it finishes.
+ * </p>
  * 
  * @author Arieh "Vainolo" Bibliowicz
  * 
@@ -52,19 +71,25 @@ import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
 public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInstance implements OPMProcessInstance {
 
   private final OPMObjectProcessDiagram opd;
-  private DirectedAcyclicGraph<OPMProcess, DefaultEdge> opdDag;
   private OPDAnalyzer analyzer;
   private OPMInZoomedProcessInstanceHeap heap;
   private OPMObjectInstanceValueAnalyzer valueAnalyzer;
   private OPMInZoomedProcessArgumentHandler argumentHandler;
-  private OPMProcess inZoomedProcess;
-  private OPDExecutionAnalyzer executionAnalyzer;
+  private final OPMInZoomedProcessExecutionPlan cachedPlan;
+  private OPMInZoomedProcessExecutionPlan plan;
   private OPMHeapObserver heapObserver;
-  private IsProcessReady isReadyPred;
-  private mustSkipProcess mustSkipPred;
-  private Predicate<OPMProcess> notReadyAndNotSkipPred;
-  private Predicate<OPMProcess> isReadyAndNotSkipPred;
-  private ExecutorCompletionService<OPMProcessExecutionResult> completionService;
+  private ExecutorService executorService = null;
+  private OPMInZoomedProcessExecutionDriver driver;
+  private OPMInZoomedProcessExecutableInstance parent;
+  private OPMInZoomedProcessScheduler scheduler;
+  private Map<OPMProcessInstance, Integer> mapping;
+  private OPMProcessInstance[] loopInstances;
+  private Map<Integer, OPMSpeculation> speculations;
+  private Map<OPMProcessInstance, OPMSpeculation> speculativeInstances;
+  private Map<OPMProcessInstance, OPMProcessCall> memoizedCalls;
+  private boolean executionFinished = false;
+  private OPMTraceRecorder traceRecorder = null;
+  private int traceInstanceId = 0;
 
   /**
    * Create a new instance.
@@ -73,9 +98,23 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
    *          the {@link OPMObjectProcessDiagram} for this instance.
    */
   public OPMInZoomedProcessExecutableInstance(OPMObjectProcessDiagram opd, OPDAnalyzer analyzer) {
+    this(opd, analyzer, null);
+  }
+
+  /**
+   * Create a new instance that uses a pre-calculated execution plan.
+   * 
+   * @param opd
+   *          the {@link OPMObjectProcessDiagram} for this instance.
+   * @param plan
+   *          the execution plan of the OPD, or <code>null</code> to analyze
+   *          the OPD on every execution.
+   */
+  public OPMInZoomedProcessExecutableInstance(OPMObjectProcessDiagram opd, OPDAnalyzer analyzer,
+      OPMInZoomedProcessExecutionPlan plan) {
     this.opd = opd;
     this.analyzer = analyzer;
-    this.executionAnalyzer = new OPDExecutionAnalyzer();
+    this.cachedPlan = plan;
     this.heap = OPMInterpreterInjector.INSTANCE.getInstance(OPMInZoomedProcessInstanceHeap.class);
     this.valueAnalyzer = new OPMObjectInstanceValueAnalyzer();
     this.argumentHandler = new OPMInZoomedProcessArgumentHandler(analyzer, heap);
@@ -83,144 +122,407 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
     // executionState, heap);
     this.heapObserver = new OPMHeapObserver();
     this.heap.addObserver(heapObserver);
-    this.isReadyPred = new IsProcessReady();
-    this.mustSkipPred = new mustSkipProcess();
-    this.notReadyAndNotSkipPred = Predicates.and(Predicates.not(isReadyPred), Predicates.not(mustSkipPred));
-    this.isReadyAndNotSkipPred = Predicates.and(isReadyPred, Predicates.not(mustSkipPred));
-    this.completionService = new ExecutorCompletionService<>(Executors.newCachedThreadPool());
   }
 
   @Override
   protected void preExecution() {
+    traceRecorder = getExecutionContext().getTraceRecorder();
+    traceInstanceId = traceRecorder != null ? traceRecorder.createInstanceId() : 0;
+    heap.setTraceRecorder(traceRecorder, traceInstanceId);
+    argumentHandler.setTraceRecorder(traceRecorder, traceInstanceId);
+    heap.setMetricsRegistry(getExecutionContext().getMetricsRegistry());
     super.preExecution();
-    inZoomedProcess = analyzer.getInZoomedProcess(getOpd());
-    opdDag = executionAnalyzer.createExecutionDAG(getInZoomedProcess());
-    heap.initializeVariablesWithArgumentValues(getOpd());
+    plan = cachedPlan != null ? cachedPlan : OPMInZoomedProcessExecutionPlan.create(getOpd(), analyzer);
+    heap.setExecutionPlan(plan);
+    heap.initializeVariablesWithArgumentValues(plan.getParameters(), plan.getLiteralValues());
   }
 
   @Override
   protected void postExecution() {
     super.postExecution();
-    heap.exportVariableValuesToArguments(getOpd());
+    heap.exportVariableValuesToArguments(plan.getParameters());
   }
 
   @Override
   protected void executing() throws Exception {
-    logInfo(OPMStrings.STARTING_EXECUTION, getName());
-    final Map<OPMProcessInstance, OPMProcess> mapping = Maps.newHashMap();
-    heap.initializeVariablesWithLiterals(analyzer.getInZoomedProcess(getOpd()));
+    new OPMInZoomedProcessExecutionDriver(executorService, getExecutionContext()).execute(this);
+  }
 
-    Set<OPMProcess> P_init = executionAnalyzer.findInitialProcesses(opdDag);
-    Set<OPMProcess> P_waiting = Sets.newHashSet(Sets.filter(P_init, notReadyAndNotSkipPred));
-    Set<OPMProcess> P_ready = Sets.newHashSet(Sets.union(Sets.filter(P_init, isReadyAndNotSkipPred),
-        findInvokedProcesses()));
-    Set<OPMProcessInstance> P_executing = Sets.newHashSet();
+  /**
+   * Execute this instance without blocking the calling thread. The instance
+   * and its sub-processes are executed on the executor of this instance, and
+   * no thread waits for the execution to finish.
+   * 
+   * @return a future that is completed with this instance when the execution
+   *         finishes, or completed exceptionally with the error that stopped
+   *         the execution.
+   */
+  public CompletableFuture<OPMProcessInstance> callAsync() {
+    final CompletableFuture<OPMProcessInstance> result = new CompletableFuture<OPMProcessInstance>();
+    new OPMInZoomedProcessExecutionDriver(executorService, getExecutionContext()).executeAsync(this)
+        .whenComplete(new BiConsumer<Void, Throwable>() {
+          @Override
+          public void accept(Void ignored, Throwable error) {
+            if(error != null) {
+              result.completeExceptionally(error);
+              return;
+            }
+            try {
+              postExecution();
+              result.complete(OPMInZoomedProcessExecutableInstance.this);
+            } catch(Throwable e) {
+              result.completeExceptionally(e);
+            }
+          }
+        });
+    return result;
+  }
 
-    if(P_waiting.size() == 0 && P_ready.size() == 0) {
+  /**
+   * Start executing this instance using the given driver. When the instance is
+   * a sub-process of another in-zoomed instance, its pre-execution is also done
+   * here and the parent is resumed when this instance finishes.
+   * 
+   * @param driver
+   *          the driver that executes this instance.
+   * @param parent
+   *          the in-zoomed instance that invoked this instance, or
+   *          <code>null</code> if this is the instance being executed by the
+   *          driver.
+   */
+  void startExecution(OPMInZoomedProcessExecutionDriver driver, OPMInZoomedProcessExecutableInstance parent) {
+    this.driver = driver;
+    this.parent = parent;
+    this.executionFinished = false;
+    if(parent != null) {
+      preExecution();
+    }
+    logInfo(OPMStrings.STARTING_EXECUTION, getName());
+    mapping = Maps.newHashMap();
+    loopInstances = new OPMProcessInstance[plan.getProcessCount()];
+    speculations = Maps.newHashMap();
+    speculativeInstances = Maps.newHashMap();
+    memoizedCalls = Maps.newHashMap();
+    heap.initializeVariablesWithLiterals(plan.getLocalObjects(), plan.getLiteralValues());
+
+    scheduler = new OPMInZoomedProcessScheduler(plan, heap, valueAnalyzer);
+    scheduler.setTraceRecorder(traceRecorder, traceInstanceId);
+    scheduler.start(heapObserver.getObjectsWithNewValue());
+
+    if(scheduler.getWaitingCount() == 0 && scheduler.getReadyCount() == 0) {
       logInfo("Could not find anything to execute in process {0}. Exiting.", getName());
+      finishExecution();
+      return;
+    }
+    submitReadyProcesses();
+  }
+
+  /**
+   * Resume the execution of this instance after one of its sub-processes has
+   * finished.
+   * 
+   * @param instance
+   *          the sub-process instance that finished.
+   */
+  void subprocessFinished(OPMProcessInstance instance) {
+    if(speculativeInstances != null && speculativeInstances.containsKey(instance)
+        && !speculationFinished(speculativeInstances.get(instance))) {
+      return;
+    }
+    Integer processIndex = mapping != null ? mapping.remove(instance) : null;
+    if(processIndex == null) {
+      // a speculation that finished after this instance finished executing
       return;
     }
+    heapObserver.clear();
+    memoizeResults(instance);
+    OPMMetricsRegistry metrics = getExecutionContext().getMetricsRegistry();
+    long extractionStart = metrics.isEnabled() ? System.nanoTime() : 0;
+    argumentHandler.extractResultsToVariables(plan.getOutgoingArguments(processIndex), instance);
+    if(extractionStart != 0) {
+      metrics.resultsExtracted(System.nanoTime() - extractionStart);
+    }
+    invalidateSpeculations(heapObserver.getChanges());
+    if(isInlineLoopInstance(processIndex, instance) && loopInstances[processIndex] == null) {
+      ((OPMReusableProcessInstance) instance).reset();
+      loopInstances[processIndex] = instance;
+    } else {
+      OPMProcessInstanceFactory.releaseExecutableInstance(plan.getProcess(processIndex), instance);
+    }
+    scheduler.processFinished(processIndex, heapObserver.getObjectsWithNewValue());
+    logInfo("Finished execution loop, {0} waiting, {1} ready, and {2} executing.", scheduler.getWaitingCount(),
+        scheduler.getReadyCount(), scheduler.getExecutingCount());
+    submitReadyProcesses();
+  }
+
+  boolean isExecutionFinished() {
+    return executionFinished;
+  }
 
-    while(Sets.union(P_ready, P_executing).size() > 0) {
-      logInfo("Starting execution loop, {0} waiting, {1} ready, and {2} executing .", P_waiting.size(), P_ready.size(),
-          P_executing.size());
-      heapObserver.clear();
-      for(OPMProcess readyProcess : P_ready) {
-        OPMProcessInstance readyInstance = OPMProcessInstanceFactory.createExecutableInstance(readyProcess);
-        argumentHandler.loadInstanceArguments(readyProcess, readyInstance);
-        mapping.put(readyInstance, readyProcess);
-        completionService.submit(readyInstance);
-        P_executing.add(readyInstance);
+  private void submitReadyProcesses() {
+    if(!scheduler.hasWork()) {
+      finishExecution();
+      return;
+    }
+    logInfo("Starting execution loop, {0} waiting, {1} ready, and {2} executing .", scheduler.getWaitingCount(),
+        scheduler.getReadyCount(), scheduler.getExecutingCount());
+    getExecutionContext().getMetricsRegistry().schedulerIteration(scheduler.getWaitingCount(),
+        scheduler.getReadyCount(), scheduler.getExecutingCount());
+    for(int processIndex : scheduler.takeReadyProcesses()) {
+      if(traceRecorder != null) {
+        traceRecorder.record(OPMTraceRecordType.PROCESS_SCHEDULED, traceInstanceId, plan.getProcess(processIndex)
+            .getId(), 0, null);
       }
+      if(adoptSpeculation(processIndex)) {
+        continue;
+      }
+      executeProcess(processIndex);
+    }
+    if(getExecutionContext().isSpeculativeExecution()) {
+      startSpeculations();
+    }
+  }
 
-      Future<OPMProcessExecutionResult> executionResult = completionService.take();
-      OPMProcessInstance instance = executionResult.get().getInstance();
-      P_executing.remove(instance);
-      argumentHandler.extractResultsToVariables(mapping.get(instance), instance);
+  private void executeProcess(int processIndex) {
+    OPMProcessInstance readyInstance = loopInstances[processIndex];
+    loopInstances[processIndex] = null;
+    if(readyInstance == null) {
+      readyInstance = OPMProcessInstanceFactory.createExecutableInstance(plan.getProcess(processIndex),
+          getExecutionContext());
+    }
+    OPMMetricsRegistry metrics = getExecutionContext().getMetricsRegistry();
+    long loadingStart = metrics.isEnabled() ? System.nanoTime() : 0;
+    argumentHandler.loadInstanceArguments(plan.getIncomingArguments(processIndex), readyInstance);
+    if(loadingStart != 0) {
+      metrics.argumentsLoaded(System.nanoTime() - loadingStart);
+    }
+    mapping.put(readyInstance, processIndex);
+    if(findMemoizedResults(processIndex, readyInstance)) {
+      driver.resume(readyInstance, this);
+    } else if(readyInstance instanceof OPMInZoomedProcessExecutableInstance) {
+      driver.startSubprocess((OPMInZoomedProcessExecutableInstance) readyInstance, this);
+    } else if(isInlineLoopInstance(processIndex, readyInstance)) {
+      driver.runInline(readyInstance, this);
+    } else {
+      driver.submit(readyInstance, this);
+    }
+  }
 
-      Set<OPMProcess> P_executingProcesses = Sets.newHashSet(Collections2.transform(P_executing,
-          new Function<OPMProcessInstance, OPMProcess>() {
-            @Override
-            public OPMProcess apply(OPMProcessInstance input) {
-              return mapping.get(input);
-            }
-          }));
-      P_waiting = calculateNewWaitingProcessesSet(mapping.get(instance), P_waiting, P_executingProcesses);
-      P_ready = Sets.newHashSet(Sets.union(Sets.filter(P_waiting, isReadyPred), findInvokedProcesses()));
-      P_waiting = Sets.newHashSet(Sets.difference(P_waiting, P_ready));
-      logInfo("Finished execution loop, {0} waiting, {1} ready, and {2} executing.", P_waiting.size(), P_ready.size(),
-          P_executing.size());
-      mapping.remove(instance);
+  /**
+   * Look up the call to a process in the call cache of the execution context.
+   * On a hit, the cached results are set as the arguments of the instance. On
+   * a miss, the call is kept so that its results are stored when the instance
+   * finishes.
+   * 
+   * @return <code>true</code> if the results of the call were found and the
+   *         process must not be executed.
+   */
+  private boolean findMemoizedResults(int processIndex, OPMProcessInstance instance) {
+    OPMProcessCallCache cache = getExecutionContext().getProcessCallCache();
+    if(cache == null || !(instance instanceof OPMAbstractProcessInstance)) {
+      return false;
+    }
+    OPMAbstractProcessInstance abstractInstance = (OPMAbstractProcessInstance) instance;
+    Object identity = getMemoizationIdentity(plan.getProcess(processIndex), abstractInstance);
+    if(identity == null) {
+      return false;
     }
+    OPMProcessCall call = OPMProcessCallCache.createCall(identity, abstractInstance.getArguments());
+    Map<String, OPMObjectInstance> results = cache.getResults(call);
+    if(results == null) {
+      memoizedCalls.put(instance, call);
+      return false;
+    }
+    logInfo("Using memoized results of process {0}.", plan.getProcess(processIndex).getName());
+    for(Entry<String, OPMObjectInstance> result : results.entrySet()) {
+      instance.setArgument(result.getKey(), result.getValue());
+    }
+    return true;
+  }
 
-    if(P_waiting.size() > 0) {
-      logInfo("Finished execution of {0} with waiting processes.", getName());
+  /**
+   * Store the results of an instance in the call cache, if its call was not
+   * found there when it was executed.
+   */
+  private void memoizeResults(OPMProcessInstance instance) {
+    OPMProcessCall call = memoizedCalls.remove(instance);
+    OPMProcessCallCache cache = getExecutionContext().getProcessCallCache();
+    if(call != null && cache != null) {
+      cache.putResults(call, ((OPMAbstractProcessInstance) instance).getArguments());
     }
+  }
 
+  /**
+   * Built-in processes are identified by their name, if they were registered
+   * as pure. Compound processes provide their own identity.
+   */
+  private Object getMemoizationIdentity(OPMProcess process, OPMAbstractProcessInstance instance) {
+    if(process.getKind() == OPMProcessKind.BUILT_IN) {
+      return OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().isPure(process.getName()) ? process.getName() : null;
+    }
+    if(process.getKind() == OPMProcessKind.COMPOUND) {
+      return instance.getMemoizationIdentity();
+    }
+    return null;
   }
 
-  private Set<OPMProcess> calculateNewWaitingProcessesSet(OPMProcess process, Set<OPMProcess> P_waiting,
-      Set<OPMProcess> P_executing) {
-    Set<OPMProcess> successors = executionAnalyzer.findFollowingProcesses(opdDag, process);
-    Set<OPMProcess> P_waitingLocal = Sets.newHashSet(P_waiting);
-    while(successors.size() > 0) {
-      for(OPMProcess succ : Sets.filter(successors, Predicates.not(mustSkipPred))) {
-        Set<OPMProcess> pred = executionAnalyzer.findRequiredProcesses(opdDag, succ);
-        if(Sets.intersection(Sets.union(P_waiting, P_executing), pred).size() == 0) {
-          P_waitingLocal.add(succ);
-        }
+  /**
+   * Start a speculative execution of every pure built-in process that the
+   * scheduler allows to speculate and that is not already being speculated.
+   */
+  private void startSpeculations() {
+    for(int processIndex = 0; processIndex < plan.getProcessCount(); processIndex++) {
+      OPMProcess process = plan.getProcess(processIndex);
+      if(process.getKind() != OPMProcessKind.BUILT_IN || plan.isLoopProcess(processIndex)
+          || speculations.containsKey(processIndex)
+          || !OPMInterpreter.INSTANCE.getBuiltInProcessRegistry().isPure(process.getName())
+          || !scheduler.canSpeculate(processIndex)) {
+        continue;
       }
+      OPMProcessInstance instance = OPMProcessInstanceFactory.createExecutableInstance(process, getExecutionContext());
+      argumentHandler.loadInstanceArguments(plan.getIncomingArguments(processIndex), instance);
+      OPMSpeculation speculation = new OPMSpeculation(processIndex, instance, plan.getIncomingLinks(processIndex));
+      speculations.put(processIndex, speculation);
+      speculativeInstances.put(instance, speculation);
+      logInfo("Speculatively executing process {0}.", process.getName());
+      driver.submit(speculation, this);
+    }
+  }
 
-      Set<OPMProcess> newSuccessors = Sets.newHashSet();
-      for(OPMProcess skippedSucc : Sets.filter(successors, mustSkipPred)) {
-        Set<OPMProcess> pred = executionAnalyzer.findRequiredProcesses(opdDag, skippedSucc);
-        if(Sets.intersection(Sets.union(P_waiting, P_executing), pred).size() == 0) {
-          newSuccessors.addAll(executionAnalyzer.findFollowingProcesses(opdDag, skippedSucc));
-        }
+  /**
+   * Use the speculative execution of a process that is now ready, if there is
+   * one and its arguments are still the same.
+   * 
+   * @return <code>true</code> if the speculation is used, <code>false</code>
+   *         if the process must be executed.
+   */
+  private boolean adoptSpeculation(int processIndex) {
+    OPMSpeculation speculation = speculations.remove(processIndex);
+    if(speculation == null) {
+      return false;
+    }
+    if(speculation.failed || !speculation.isValid()) {
+      logInfo("Discarding speculative execution of process {0}.", plan.getProcess(processIndex).getName());
+      discardSpeculation(speculation);
+      return false;
+    }
+    logInfo("Using speculative execution of process {0}.", plan.getProcess(processIndex).getName());
+    speculation.adopted = true;
+    if(speculation.finished) {
+      speculativeInstances.remove(speculation.instance);
+      mapping.put(speculation.instance, processIndex);
+      driver.resume(speculation.instance, this);
+    }
+    return true;
+  }
+
+  /**
+   * Handle the end of a speculative execution.
+   * 
+   * @return <code>true</code> if the speculation was used and its results
+   *         should be handled like those of any other process instance.
+   */
+  private boolean speculationFinished(OPMSpeculation speculation) {
+    speculation.finished = true;
+    if(!speculation.adopted) {
+      if(speculation.discarded) {
+        discardSpeculation(speculation);
       }
-      successors = newSuccessors;
+      return false;
+    }
+    speculativeInstances.remove(speculation.instance);
+    if(speculation.failed) {
+      logInfo("Speculative execution of process {0} failed, executing it again.",
+          plan.getProcess(speculation.processIndex).getName());
+      OPMProcessInstanceFactory.releaseExecutableInstance(plan.getProcess(speculation.processIndex),
+          speculation.instance);
+      executeProcess(speculation.processIndex);
+      return false;
     }
-    return P_waitingLocal;
+    mapping.put(speculation.instance, speculation.processIndex);
+    return true;
   }
 
-  private Set<OPMProcess> findInvokedProcesses() {
-    Set<OPMProcess> invokedProcesses = Sets.newHashSet();
-    for(OPMObject changedObject : heapObserver.getObjectsWithNewValue()) {
-      invokedProcesses.addAll(findProcessesToInvokeAfterObjectHasChanged(changedObject));
+  private void discardSpeculation(OPMSpeculation speculation) {
+    speculation.discarded = true;
+    if(speculation.finished) {
+      speculativeInstances.remove(speculation.instance);
+      OPMProcessInstanceFactory.releaseExecutableInstance(plan.getProcess(speculation.processIndex),
+          speculation.instance);
     }
-    invokedProcesses = Sets.filter(invokedProcesses, isReadyAndNotSkipPred);
-    logInfo("Found {0} invoked processes.", invokedProcesses.size());
-    return invokedProcesses;
   }
 
-  private Set<OPMProcess> findProcessesToInvokeAfterObjectHasChanged(OPMObject object) {
-    OPMObjectInstance value = heap.getVariable(object);
-    checkNotNull(value, "Changed object cannot be null.");
-    Set<OPMProcess> ret = Sets.newHashSet();
-    Collection<OPMProceduralLink> outgoingEventLinks = analyzer.findOutgoingEventLinks(object);
-    for(OPMProceduralLink eventLink : outgoingEventLinks) {
-      if(objectValueTriggersEvent(eventLink, value)) {
-        ret.add(analyzer.getProcess(eventLink));
+  /**
+   * Mark the speculations whose arguments were written by the given heap
+   * changes as invalid.
+   */
+  private void invalidateSpeculations(List<OPMHeapChange> changes) {
+    if(speculations.isEmpty()) {
+      return;
+    }
+    for(OPMHeapChange change : changes) {
+      for(OPMSpeculation speculation : speculations.values()) {
+        speculation.invalidate(change.object);
       }
     }
-    return ret;
   }
 
-  private boolean objectValueTriggersEvent(OPMProceduralLink link, OPMObjectInstance objectInstance) {
-    if(OPMObject.class.isInstance(link.getSource())) {
-      return true;
-    } else if(OPMState.class.isInstance(link.getSource())) {
-      OPMState state = OPMState.class.cast(link.getSource());
-      if(valueAnalyzer.isObjectInstanceInState(objectInstance, state)) {
-        return true;
+  /**
+   * Check if an instance is run inline by the driver and kept for the next
+   * iteration. Only instances of loop processes that can be reset are, since
+   * they have no state other than their arguments, and running them on the
+   * driver's thread does not change the results of the loop.
+   */
+  private boolean isInlineLoopInstance(int processIndex, OPMProcessInstance instance) {
+    return plan.isLoopProcess(processIndex) && instance instanceof OPMReusableProcessInstance;
+  }
+
+  private void finishExecution() {
+    if(scheduler.getWaitingCount() > 0) {
+      logInfo("Finished execution of {0} with waiting processes.", getName());
+    }
+    for(int processIndex = 0; processIndex < loopInstances.length; processIndex++) {
+      if(loopInstances[processIndex] != null) {
+        OPMProcessInstanceFactory.releaseExecutableInstance(plan.getProcess(processIndex),
+            loopInstances[processIndex]);
+      }
+    }
+    loopInstances = null;
+    for(OPMSpeculation speculation : speculativeInstances.values()) {
+      if(speculation.finished) {
+        OPMProcessInstanceFactory.releaseExecutableInstance(plan.getProcess(speculation.processIndex),
+            speculation.instance);
       }
     }
-    return false;
+    speculations = null;
+    speculativeInstances = null;
+    memoizedCalls = null;
+    executionFinished = true;
+    if(parent != null) {
+      postExecution();
+      driver.subprocessFinished(this, parent);
+    }
+    mapping = null;
+    driver = null;
+    parent = null;
+  }
+
+  /**
+   * Set the executor used to execute the sub-processes of this instance. When
+   * not set (or set to <code>null</code>), the executor of the execution
+   * context is used. Compound sub-processes are executed by the driver of this
+   * instance, so they use the same executor.
+   * 
+   * @param executorService
+   *          the executor for the sub-processes of this instance.
+   */
+  public void setExecutorService(ExecutorService executorService) {
+    this.executorService = executorService;
   }
 
   @Override
   public boolean isReady() {
-    Collection<OPMObject> parameters = analyzer.findIncomingParameters(getOpd());
+    Collection<OPMObject> parameters = findIncomingParameters();
     for(OPMObject object : parameters) {
       if(getArgument(object.getName()) == null) {
         return false;
@@ -229,14 +531,18 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
     return true;
   }
 
-  /**
-   * Get the main in-zoomed {@link OPMProcess} of the
-   * {@link OPMObjectProcessDiagram}
-   * 
-   * @return the main {@link OPMProcess} of this {@link OPMObjectProcessDiagram}
-   */
-  private OPMProcess getInZoomedProcess() {
-    return inZoomedProcess;
+  private Collection<OPMObject> findIncomingParameters() {
+    if(cachedPlan != null) {
+      return cachedPlan.getIncomingParameters();
+    }
+    return analyzer.findIncomingParameters(getOpd());
+  }
+
+  private Collection<OPMObject> findOutgoingParameters() {
+    if(cachedPlan != null) {
+      return cachedPlan.getOutgoingParameters();
+    }
+    return analyzer.findOutgoingParameters(getOpd());
   }
 
   /**
@@ -251,7 +557,7 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
   @Override
   public List<OPMParameter> getIncomingParameterNames() {
     List<OPMParameter> incomingParameters = Lists.newArrayList();
-    Collection<OPMObject> parameters = analyzer.findIncomingParameters(getOpd());
+    Collection<OPMObject> parameters = findIncomingParameters();
     for(OPMObject object : parameters) {
       incomingParameters.add(new OPMParameter(object.getName(), object.isCollection()));
     }
@@ -261,7 +567,7 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
   @Override
   public List<OPMParameter> getOutgoingParameterNames() {
     List<OPMParameter> outgoingParameters = Lists.newArrayList();
-    Collection<OPMObject> parameters = analyzer.findOutgoingParameters(getOpd());
+    Collection<OPMObject> parameters = findOutgoingParameters();
     for(OPMObject object : parameters) {
       outgoingParameters.add(new OPMParameter(object.getName(), object.isCollection()));
     }
@@ -287,62 +593,80 @@ public class OPMInZoomedProcessExecutableInstance extends OPMAbstractProcessInst
     return heap;
   }
 
-  class IsProcessReady extends ExecutablePredicateCommons implements Predicate<OPMProcess> {
-    @Override
-    public boolean apply(OPMProcess process) {
-      for(OPMProceduralLink link : analyzer.findIncomingProceduralLinks(process)) {
-        if(!isLinkSourceReady(link)) {
-          // TODO: need to take into account object that have no name.
-          logFine(PROCESS_NOT_READY, process.getName(), analyzer.getSourceObject(link).getName());
-          return false;
-        }
+  /**
+   * Instances that use a pre-calculated execution plan of a pure OPD are
+   * identified by the plan, which changes when the OPD is modified.
+   */
+  @Override
+  public Object getMemoizationIdentity() {
+    return cachedPlan != null && cachedPlan.isPure() ? cachedPlan : null;
+  }
+
+  @Override
+  protected int getTraceInstanceId() {
+    return traceInstanceId;
+  }
+
+  /**
+   * A speculative execution of a process instance. The values of the objects
+   * linked to the process are kept when the execution starts, so that it can
+   * be checked that they did not change when the process is found to be ready.
+   */
+  private class OPMSpeculation implements Callable<OPMProcessExecutionResult> {
+    private final int processIndex;
+    private final OPMProcessInstance instance;
+    private final OPMObject[] inputObjects;
+    private final OPMObjectInstance[] inputValues;
+    private volatile boolean failed = false;
+    private boolean finished = false;
+    private boolean adopted = false;
+    private boolean discarded = false;
+    private boolean invalid = false;
+
+    OPMSpeculation(int processIndex, OPMProcessInstance instance, List<OPMPlannedLink> links) {
+      this.processIndex = processIndex;
+      this.instance = instance;
+      this.inputObjects = new OPMObject[links.size()];
+      this.inputValues = new OPMObjectInstance[links.size()];
+      for(int i = 0; i < inputObjects.length; i++) {
+        inputObjects[i] = plan.getObject(links.get(i).sourceObject);
+        inputValues[i] = heap.getVariable(inputObjects[i]);
       }
-      return true;
     }
-  }
 
-  class mustSkipProcess extends ExecutablePredicateCommons implements Predicate<OPMProcess> {
     @Override
-    public boolean apply(OPMProcess process) {
-      for(OPMProceduralLink link : analyzer.findIncomingProceduralLinks(process)) {
-        if(link.getSubKinds().contains(OPMConstants.OPM_CONDITIONAL_LINK_SUBKIND) && !isLinkSourceReady(link)) {
-          return true;
+    public OPMProcessExecutionResult call() {
+      try {
+        OPMProcessExecutionResult result = instance.call();
+        if(result.getResultType() != OPMProcessExecutionResultType.FINISHED) {
+          failed = true;
         }
+      } catch(Exception e) {
+        logFine("Speculative execution of process {0} failed: {1}.", instance.getName(), e);
+        failed = true;
       }
-      return false;
+      return new OPMProcessExecutionResult(instance, failed ? OPMProcessExecutionResultType.UNABLE_TO_FINISH
+          : OPMProcessExecutionResultType.FINISHED);
     }
-  }
 
-  class ExecutablePredicateCommons {
-    public boolean isObjectReady(OPMObject object) {
-      OPMObjectInstance variable = heap.getVariable(object);
-      if(variable == null) {
-        return false;
-      } else {
-        return true;
+    void invalidate(OPMObject object) {
+      for(OPMObject inputObject : inputObjects) {
+        if(inputObject == object) {
+          invalid = true;
+        }
       }
     }
 
-    public boolean isObjectInState(OPMState state) {
-      OPMObject sourceObject = analyzer.getObject(state);
-      OPMObjectInstance variable = heap.getVariable(sourceObject);
-      if(!valueAnalyzer.isObjectInstanceInState(variable, state)) {
+    boolean isValid() {
+      if(invalid) {
         return false;
-      } else {
-        return true;
       }
-
-    }
-
-    public boolean isLinkSourceReady(OPMProceduralLink link) {
-      if(analyzer.isSourceObject(link)) {
-        return isObjectReady(analyzer.getSourceObject(link));
-      } else if(analyzer.isSourceState(link)) {
-        return isObjectInState(analyzer.getSourceState(link));
-      } else {
-        throw new IllegalStateException("Process has incoming links with a source that is not an object.");
+      for(int i = 0; i < inputObjects.length; i++) {
+        if(heap.getVariable(inputObjects[i]) != inputValues[i]) {
+          return false;
+        }
       }
+      return true;
     }
   }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,423 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMInterpreter;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult;
+import com.vainolo.phd.opm.interpreter.OPMProcessExecutionResult.OPMProcessExecutionResultType;
+import com.vainolo.phd.opm.interpreter.OPMProcessInstance;
+import com.vainolo.phd.opm.interpreter.OPMRuntimeException;
+
+/**
+ * <p>
+ * Drives the execution of an in-zoomed process and of all the compound
+ * sub-processes it invokes (recursively). Compound sub-processes are not
+ * submitted to the executor as blocking calls. Instead they are executed as
+ * continuations: the sub-process is started on the driver's thread, it submits
+ * its own sub-processes to the same completion service, and when it finishes
+ * the parent is resumed with the result. This way only one thread waits for
+ * the whole tree of compound processes, regardless of the nesting depth.
+ * </p>
+ * 
+ * <p>
+ * Unless the driver is given its own executor, process instances are
+ * submitted through {@link OPMExecutionContext#execute(Runnable)}, so an
+ * execution keeps running when the interpreter replaces its shared executor
+ * (see {@link OPMInterpreter#setParallelism(int)}).
+ * </p>
+ * 
+ * <p>
+ * All the continuations are run on the thread that called
+ * {@link #execute(OPMInZoomedProcessExecutableInstance)}, so the state of the
+ * in-zoomed instances is never accessed concurrently.
+ * </p>
+ * 
+ * <p>
+ * When started with {@link #executeAsync(OPMInZoomedProcessExecutableInstance)}
+ * no thread waits for the execution. Every process instance that finishes
+ * schedules a drain task on the executor, which runs the continuations of the
+ * finished instances. At most one drain task runs at a time, so the state of
+ * the in-zoomed instances is still never accessed concurrently.
+ * </p>
+ * 
+ * <p>
+ * Processes that are part of a loop (see
+ * {@link OPMInZoomedProcessExecutionPlan#isLoopProcess(int)}) are run inline as
+ * continuations, without going through the executor and the completion
+ * service, so that every iteration of the loop costs a method call instead of
+ * a task submission and a thread hand-off.
+ * </p>
+ * 
+ * <p>
+ * Speculative executions of pure built-in processes (see
+ * {@link OPMExecutionContext#setSpeculativeExecution(boolean)}) are submitted
+ * like any other process instance. The owner decides when it is resumed if the
+ * result of the speculation is used or discarded.
+ * </p>
+ * 
+ * <p>
+ * When the {@link OPMExecutionContext} of the execution is cancelled, all the
+ * pending process instances are cancelled and the driver stops with a
+ * {@link CancellationException}.
+ * </p>
+ * 
+ * @author Arieh "Vainolo" Bibliowicz
+ * 
+ */
+class OPMInZoomedProcessExecutionDriver {
+
+  private final Map<Future<OPMProcessExecutionResult>, OPMInZoomedProcessExecutableInstance> pending = Maps
+      .newConcurrentMap();
+  private final Deque<Runnable> continuations = new ArrayDeque<Runnable>();
+  private final OPMExecutionContext context;
+  private final ExecutorService executorService;
+  private final BlockingQueue<Future<OPMProcessExecutionResult>> completed =
+      new LinkedBlockingQueue<Future<OPMProcessExecutionResult>>();
+  private final AtomicBoolean draining = new AtomicBoolean(false);
+  private OPMInZoomedProcessExecutableInstance root = null;
+  private CompletableFuture<Void> asyncResult = null;
+  private final Runnable cancellationListener = new Runnable() {
+    @Override
+    public void run() {
+      cancelPending();
+    }
+  };
+
+  /**
+   * Create a new driver.
+   * 
+   * @param executorService
+   *          the executor of the process instances, or <code>null</code> to
+   *          use the executor of the context.
+   * @param context
+   *          the context of the execution.
+   */
+  OPMInZoomedProcessExecutionDriver(ExecutorService executorService, OPMExecutionContext context) {
+    this.executorService = executorService;
+    this.context = context;
+  }
+
+  /**
+   * Execute the given in-zoomed instance until it and all its compound
+   * sub-processes have finished.
+   * 
+   * @param root
+   *          the instance to execute. Its pre-execution must have been done.
+   */
+  void execute(OPMInZoomedProcessExecutableInstance root) throws Exception {
+    this.root = root;
+    context.addCancellationListener(cancellationListener);
+    try {
+      checkCancelled(root);
+      root.startExecution(this, null);
+      runContinuations();
+      while(!root.isExecutionFinished()) {
+        checkCancelled(root);
+        if(pending.isEmpty()) {
+          throw new IllegalStateException("Execution of " + root.getName()
+              + " has not finished but there are no pending processes.");
+        }
+        Future<OPMProcessExecutionResult> executionResult = takeCompleted();
+        checkCancelled(root);
+        OPMInZoomedProcessExecutableInstance owner = pending.remove(executionResult);
+        owner.subprocessFinished(executionResult.get().getInstance());
+        context.getMetrics().instanceExecuted();
+        runContinuations();
+      }
+    } finally {
+      context.removeCancellationListener(cancellationListener);
+      cancelPending();
+      pending.clear();
+      continuations.clear();
+    }
+  }
+
+  /**
+   * Execute the given in-zoomed instance without blocking the calling thread.
+   * The pre-execution of the instance and all the continuations are run on
+   * the executor.
+   * 
+   * @param root
+   *          the instance to execute.
+   * @return a future that is completed when the instance and all its compound
+   *         sub-processes have finished, or completed exceptionally with the
+   *         error that stopped the execution.
+   */
+  CompletableFuture<Void> executeAsync(final OPMInZoomedProcessExecutableInstance root) {
+    this.root = root;
+    asyncResult = new CompletableFuture<Void>();
+    context.addCancellationListener(cancellationListener);
+    draining.set(true);
+    try {
+      executeTask(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            checkCancelled(root);
+            root.preExecution();
+            root.startExecution(OPMInZoomedProcessExecutionDriver.this, null);
+            runContinuations();
+          } catch(Throwable e) {
+            finishAsync(e);
+          }
+          drain();
+        }
+      });
+    } catch(Throwable e) {
+      finishAsync(e);
+    }
+    return asyncResult;
+  }
+
+  /**
+   * Resume the owners of the finished process instances. Runs until there are
+   * no more finished instances, and then releases the drain so that the next
+   * instance that finishes schedules a new drain task.
+   */
+  private void drain() {
+    do {
+      try {
+        Future<OPMProcessExecutionResult> executionResult;
+        while(!asyncResult.isDone() && (executionResult = completed.poll()) != null) {
+          checkCancelled(root);
+          OPMInZoomedProcessExecutableInstance owner = pending.remove(executionResult);
+          owner.subprocessFinished(executionResult.get().getInstance());
+          context.getMetrics().instanceExecuted();
+          runContinuations();
+        }
+        if(!asyncResult.isDone()) {
+          if(root.isExecutionFinished()) {
+            finishAsync(null);
+          } else if(pending.isEmpty()) {
+            throw new IllegalStateException("Execution of " + root.getName()
+                + " has not finished but there are no pending processes.");
+          }
+        }
+      } catch(ExecutionException e) {
+        finishAsync(e.getCause());
+      } catch(Throwable e) {
+        finishAsync(e);
+      }
+      draining.set(false);
+    } while(!asyncResult.isDone() && !completed.isEmpty() && draining.compareAndSet(false, true));
+  }
+
+  private void scheduleDrain() {
+    if(draining.compareAndSet(false, true)) {
+      try {
+        executeTask(new Runnable() {
+          @Override
+          public void run() {
+            drain();
+          }
+        });
+      } catch(Throwable e) {
+        draining.set(false);
+        finishAsync(e);
+      }
+    }
+  }
+
+  private void finishAsync(Throwable error) {
+    if(asyncResult.isDone()) {
+      return;
+    }
+    context.removeCancellationListener(cancellationListener);
+    cancelPending();
+    continuations.clear();
+    if(error == null) {
+      asyncResult.complete(null);
+    } else {
+      asyncResult.completeExceptionally(error);
+    }
+  }
+
+  private void checkCancelled(OPMInZoomedProcessExecutableInstance root) {
+    if(context.isCancelled()) {
+      throw new CancellationException("Execution of " + root.getName() + " was cancelled, result is "
+          + context.getCancellationResultType() + ".");
+    }
+  }
+
+  /**
+   * Cancel all the pending process instances. Called from the thread that
+   * cancels the execution context, so the cancelled futures are the ones that
+   * wake up the driver.
+   */
+  private void cancelPending() {
+    for(Future<OPMProcessExecutionResult> future : pending.keySet()) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Submit a (non compound) process instance, or a speculative execution of
+   * one, to the executor.
+   * 
+   * @param execution
+   *          the execution to submit. Its result contains the instance that
+   *          was executed.
+   * @param owner
+   *          the in-zoomed instance that is resumed when the instance finishes.
+   */
+  void submit(Callable<OPMProcessExecutionResult> execution, OPMInZoomedProcessExecutableInstance owner) {
+    FutureTask<OPMProcessExecutionResult> task = new FutureTask<OPMProcessExecutionResult>(execution) {
+      @Override
+      protected void done() {
+        completed.add(this);
+        if(asyncResult != null) {
+          scheduleDrain();
+        }
+      }
+    };
+    pending.put(task, owner);
+    try {
+      executeTask(task);
+    } catch(RejectedExecutionException e) {
+      pending.remove(task);
+      throw e;
+    }
+  }
+
+  private void executeTask(Runnable task) {
+    if(executorService != null) {
+      executorService.execute(task);
+    } else {
+      context.execute(task);
+    }
+  }
+
+  /**
+   * Run a (non compound) process instance as a continuation, on the driver's
+   * thread. Used for the processes of loops, which are short and run one
+   * iteration after the other, so submitting them to the executor costs more
+   * than running them.
+   * 
+   * @param instance
+   *          the instance to execute.
+   * @param owner
+   *          the in-zoomed instance that is resumed when the instance finishes.
+   */
+  void runInline(final OPMProcessInstance instance, final OPMInZoomedProcessExecutableInstance owner) {
+    continuations.add(new Runnable() {
+      @Override
+      public void run() {
+        OPMProcessExecutionResult result;
+        try {
+          result = instance.call();
+        } catch(Exception e) {
+          throw new OPMRuntimeException(e);
+        }
+        if(result.getResultType() != OPMProcessExecutionResultType.FINISHED) {
+          checkCancelled(root);
+        }
+        context.getMetrics().instanceExecuted();
+        owner.subprocessFinished(instance);
+      }
+    });
+  }
+
+  /**
+   * Resume the owner of a process instance that has already finished, as a
+   * continuation. Used when the result of a speculative execution is used.
+   * 
+   * @param instance
+   *          the instance that finished.
+   * @param owner
+   *          the in-zoomed instance that is resumed.
+   */
+  void resume(final OPMProcessInstance instance, final OPMInZoomedProcessExecutableInstance owner) {
+    continuations.add(new Runnable() {
+      @Override
+      public void run() {
+        owner.subprocessFinished(instance);
+      }
+    });
+  }
+
+  /**
+   * Start a compound sub-process as a continuation of its parent.
+   */
+  void startSubprocess(final OPMInZoomedProcessExecutableInstance subprocess,
+      final OPMInZoomedProcessExecutableInstance parent) {
+    continuations.add(new Runnable() {
+      @Override
+      public void run() {
+        subprocess.startExecution(OPMInZoomedProcessExecutionDriver.this, parent);
+      }
+    });
+  }
+
+  /**
+   * Resume the parent of a compound sub-process that has finished.
+   */
+  void subprocessFinished(final OPMInZoomedProcessExecutableInstance subprocess,
+      final OPMInZoomedProcessExecutableInstance parent) {
+    continuations.add(new Runnable() {
+      @Override
+      public void run() {
+        parent.subprocessFinished(subprocess);
+      }
+    });
+  }
+
+  private void runContinuations() {
+    while(!continuations.isEmpty()) {
+      checkCancelled(root);
+      continuations.poll().run();
+    }
+  }
+
+  /**
+   * Wait for the next process instance to finish. The wait is done as a
+   * {@link ForkJoinPool.ManagedBlocker} so that the shared executor can
+   * compensate for the blocked thread when the driver itself runs inside the
+   * executor.
+   */
+  private Future<OPMProcessExecutionResult> takeCompleted() throws InterruptedException {
+    CompletionBlocker blocker = new CompletionBlocker(completed);
+    ForkJoinPool.managedBlock(blocker);
+    return blocker.result;
+  }
+
+  private static class CompletionBlocker implements ForkJoinPool.ManagedBlocker {
+    private final BlockingQueue<Future<OPMProcessExecutionResult>> completed;
+    private Future<OPMProcessExecutionResult> result = null;
+
+    CompletionBlocker(BlockingQueue<Future<OPMProcessExecutionResult>> completed) {
+      this.completed = completed;
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      if(result == null) {
+        result = completed.take();
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      if(result == null) {
+        result = completed.poll();
+      }
+      return result != null;
+    }
+  }
+}
@@ -0,0 +1,571 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessArgumentHandler.OPMArgument;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessArgumentHandler.OPMProcessArguments;
+import com.vainolo.phd.opm.interpreter.utils.OPDExecutionAnalyzer;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+import com.vainolo.phd.opm.model.OPMProceduralLink;
+import com.vainolo.phd.opm.model.OPMProcess;
+import com.vainolo.phd.opm.model.OPMState;
+import com.vainolo.phd.opm.utilities.OPMConstants;
+import com.vainolo.phd.opm.utilities.analysis.OPDAnalyzer;
+
+/**
+ * <p>
+ * Pre-analyzed execution plan of an in-zoomed {@link OPMObjectProcessDiagram}.
+ * The plan contains everything that can be calculated from the structure of
+ * the OPD: the execution DAG, the processes that start the execution, the
+ * predecessors and successors of every process (by index), the incoming links
+ * of every process, the processes invoked by every object, the literal values
+ * of the objects, the argument bindings of every process and the processes
+ * that can invoke themselves again through event links.
+ * </p>
+ *
+ * <p>
+ * The plan is the runtime representation of the OPD used by the scheduler and
+ * the heap: processes, objects and states have integer ids, link sources
+ * are classified, data transfer links are parsed, and adjacency is stored in
+ * arrays. The EMF model stays the source of truth for editing, and
+ * the plan keeps references to the model elements only to be able to report
+ * names and to be used as heap keys.
+ * </p>
+ *
+ * <p>
+ * The plan is immutable and can be shared by all the executions of the same
+ * version of the OPD. Literal values are immutable
+ * {@link OPMObjectInstance}s, so the heaps of all the executions store and
+ * share the same instances without copying them.
+ * </p>
+ *
+ * <p>
+ * An OPD is declared pure by writing {@value #PURE_MARKER} in the description
+ * of its in-zoomed process. The calls to a pure OPD can be memoized by an
+ * {@link com.vainolo.phd.opm.interpreter.OPMProcessCallCache}.
+ * </p>
+ *
+ * @author Arieh "Vainolo" Bibliowicz
+ *
+ */
+public class OPMInZoomedProcessExecutionPlan {
+
+  public static final String PURE_MARKER = "@pure";
+  private static final Pattern purePattern = Pattern.compile("(^|\\s)" + PURE_MARKER + "(\\s|$)");
+
+  private final OPMObjectProcessDiagram opd;
+  private final OPMProcess inZoomedProcess;
+  private final DirectedAcyclicGraph<OPMProcess, DefaultEdge> executionDAG;
+  private final List<OPMProcess> processes;
+  private final Map<OPMProcess, Integer> processIndexes;
+  private final int[] initialProcesses;
+  private final int[][] predecessors;
+  private final int[][] successors;
+  private final List<List<OPMPlannedLink>> incomingLinks;
+  private final List<OPMProcessArguments> incomingArguments;
+  private final List<OPMProcessArguments> outgoingArguments;
+  private final List<OPMObject> objects;
+  private final Map<OPMObject, Integer> objectIds;
+  private final int[] objectParents;
+  private final int[] rootObjects;
+  private final boolean[] compositeObjects;
+  private final boolean[] collectionObjects;
+  private final List<List<OPMDataTransfer>> outgoingDataTransfers;
+  private final List<List<OPMEventSubscription>> eventSubscriptions;
+  private final List<OPMState> states;
+  private final Map<OPMState, Integer> stateIds;
+  private final List<OPMObject> parameters;
+  private final List<OPMObject> incomingParameters;
+  private final List<OPMObject> outgoingParameters;
+  private final List<OPMObject> localObjects;
+  private final Map<OPMObject, OPMObjectInstance> literalValues;
+  private final boolean[] loopProcesses;
+  private final boolean pure;
+
+  private OPMInZoomedProcessExecutionPlan(OPMObjectProcessDiagram opd, OPDAnalyzer analyzer) {
+    OPDExecutionAnalyzer executionAnalyzer = new OPDExecutionAnalyzer();
+    OPMObjectInstanceValueAnalyzer valueAnalyzer = new OPMObjectInstanceValueAnalyzer();
+
+    this.opd = opd;
+    this.inZoomedProcess = analyzer.getInZoomedProcess(opd);
+    this.executionDAG = executionAnalyzer.createExecutionDAG(inZoomedProcess);
+
+    this.parameters = ImmutableList.copyOf(analyzer.findParameters(opd));
+    this.incomingParameters = ImmutableList.copyOf(analyzer.findIncomingParameters(opd));
+    this.outgoingParameters = ImmutableList.copyOf(analyzer.findOutgoingParameters(opd));
+    this.localObjects = ImmutableList.copyOf(analyzer.findObjects(inZoomedProcess));
+
+    Set<OPMObject> allObjects = Sets.newLinkedHashSet(analyzer.findObjects(opd));
+    allObjects.addAll(localObjects);
+    this.objects = ImmutableList.copyOf(allObjects);
+    Map<OPMObject, Integer> ids = Maps.newHashMap();
+    for(int i = 0; i < objects.size(); i++) {
+      ids.put(objects.get(i), i);
+    }
+    this.objectIds = Collections.unmodifiableMap(ids);
+
+    int objectCount = objects.size();
+    Map<OPMObject, OPMObjectInstance> literals = Maps.newHashMap();
+    List<OPMState> stateList = Lists.newArrayList();
+    Map<OPMState, Integer> stateIdMap = Maps.newHashMap();
+    List<List<OPMDataTransfer>> transfers = Lists.newArrayListWithCapacity(objectCount);
+    this.objectParents = new int[objectCount];
+    this.compositeObjects = new boolean[objectCount];
+    this.collectionObjects = new boolean[objectCount];
+    for(int i = 0; i < objectCount; i++) {
+      OPMObject object = objects.get(i);
+      OPMObjectInstance literal = valueAnalyzer.calculateOPMObjectValue(object, analyzer);
+      if(literal != null) {
+        literals.put(object, literal);
+      }
+      objectParents[i] = getObjectId(analyzer.findParent(object));
+      compositeObjects[i] = analyzer.isObjectComposite(object);
+      collectionObjects[i] = analyzer.isObjectCollection(object);
+      for(OPMState state : analyzer.findStates(object)) {
+        stateIdMap.put(state, stateList.size());
+        stateList.add(state);
+      }
+      List<OPMDataTransfer> objectTransfers = Lists.newArrayList();
+      for(OPMProceduralLink link : analyzer.findOutgoingDataLinks(object)) {
+        if(!analyzer.isTargetProcess(link)) {
+          objectTransfers.add(OPMDataTransfer.create(link, analyzer));
+        }
+      }
+      transfers.add(ImmutableList.copyOf(objectTransfers));
+    }
+    this.rootObjects = new int[objectCount];
+    for(int i = 0; i < objectCount; i++) {
+      int root = i;
+      while(objectParents[root] >= 0) {
+        root = objectParents[root];
+      }
+      rootObjects[i] = root;
+    }
+    this.literalValues = Collections.unmodifiableMap(literals);
+    this.states = ImmutableList.copyOf(stateList);
+    this.stateIds = Collections.unmodifiableMap(stateIdMap);
+    this.outgoingDataTransfers = ImmutableList.copyOf(transfers);
+
+    // Processes in the DAG first, then processes that are only reachable
+    // through event links.
+    List<OPMProcess> processList = Lists.newArrayList(executionDAG.vertexSet());
+    Map<OPMProcess, Integer> indexes = Maps.newHashMap();
+    for(int i = 0; i < processList.size(); i++) {
+      indexes.put(processList.get(i), i);
+    }
+    List<List<OPMEventSubscription>> subscriptions = Lists.newArrayListWithCapacity(objectCount);
+    for(OPMObject object : objects) {
+      List<OPMEventSubscription> objectSubscriptions = Lists.newArrayList();
+      for(OPMProceduralLink eventLink : analyzer.findOutgoingEventLinks(object)) {
+        OPMProcess process = analyzer.getProcess(eventLink);
+        if(!indexes.containsKey(process)) {
+          indexes.put(process, processList.size());
+          processList.add(process);
+        }
+        int stateId = OPMState.class.isInstance(eventLink.getSource()) ? getStateId(OPMState.class.cast(eventLink
+            .getSource())) : -1;
+        boolean alwaysTriggers = OPMObject.class.isInstance(eventLink.getSource());
+        objectSubscriptions.add(new OPMEventSubscription(eventLink, indexes.get(process), stateId, alwaysTriggers));
+      }
+      subscriptions.add(ImmutableList.copyOf(objectSubscriptions));
+    }
+    this.eventSubscriptions = ImmutableList.copyOf(subscriptions);
+    this.processes = ImmutableList.copyOf(processList);
+    this.processIndexes = Collections.unmodifiableMap(indexes);
+
+    int processCount = processes.size();
+    this.predecessors = new int[processCount][];
+    this.successors = new int[processCount][];
+    List<List<OPMPlannedLink>> processLinks = Lists.newArrayListWithCapacity(processCount);
+    List<OPMProcessArguments> incomingBindings = Lists.newArrayListWithCapacity(processCount);
+    List<OPMProcessArguments> outgoingBindings = Lists.newArrayListWithCapacity(processCount);
+    List<Integer> initial = Lists.newArrayList();
+    for(int i = 0; i < processCount; i++) {
+      OPMProcess process = processes.get(i);
+      if(executionDAG.containsVertex(process)) {
+        predecessors[i] = toIndexes(executionAnalyzer.findRequiredProcesses(executionDAG, process));
+        successors[i] = toIndexes(executionAnalyzer.findFollowingProcesses(executionDAG, process));
+        if(predecessors[i].length == 0) {
+          initial.add(i);
+        }
+      } else {
+        predecessors[i] = new int[0];
+        successors[i] = new int[0];
+      }
+
+      List<OPMPlannedLink> incoming = Lists.newArrayList();
+      for(OPMProceduralLink link : analyzer.findIncomingProceduralLinks(process)) {
+        incoming.add(createPlannedLink(link, analyzer));
+      }
+      processLinks.add(ImmutableList.copyOf(incoming));
+      incomingBindings.add(OPMInZoomedProcessArgumentHandler.createArguments(analyzer.findIncomingDataLinks(process),
+          analyzer, valueAnalyzer));
+      outgoingBindings.add(OPMInZoomedProcessArgumentHandler.createArguments(analyzer.findOutgoingDataLinks(process),
+          analyzer, valueAnalyzer));
+    }
+    this.incomingLinks = ImmutableList.copyOf(processLinks);
+    this.incomingArguments = ImmutableList.copyOf(incomingBindings);
+    this.outgoingArguments = ImmutableList.copyOf(outgoingBindings);
+    this.initialProcesses = new int[initial.size()];
+    for(int i = 0; i < initialProcesses.length; i++) {
+      initialProcesses[i] = initial.get(i);
+    }
+    this.loopProcesses = findLoopProcesses();
+    this.pure = inZoomedProcess.getDescription() != null
+        && purePattern.matcher(inZoomedProcess.getDescription()).find();
+  }
+
+  /**
+   * Analyze an in-zoomed {@link OPMObjectProcessDiagram} and create its
+   * execution plan.
+   *
+   * @param opd
+   *          the OPD to analyze.
+   * @param analyzer
+   *          used to analyze the OPD.
+   * @return the execution plan of the OPD.
+   */
+  public static OPMInZoomedProcessExecutionPlan create(OPMObjectProcessDiagram opd, OPDAnalyzer analyzer) {
+    return new OPMInZoomedProcessExecutionPlan(opd, analyzer);
+  }
+
+  public OPMObjectProcessDiagram getOpd() {
+    return opd;
+  }
+
+  public OPMProcess getInZoomedProcess() {
+    return inZoomedProcess;
+  }
+
+  /**
+   * Check if the OPD was declared pure: its results depend only on its
+   * arguments and executing it has no side effects.
+   */
+  public boolean isPure() {
+    return pure;
+  }
+
+  /**
+   * Get the execution DAG of the in-zoomed process. The DAG is shared by all
+   * the users of the plan and must not be modified.
+   */
+  public DirectedAcyclicGraph<OPMProcess, DefaultEdge> getExecutionDAG() {
+    return executionDAG;
+  }
+
+  /**
+   * Get the number of processes in the plan. These are the processes of the
+   * execution DAG and the processes invoked by event links.
+   */
+  public int getProcessCount() {
+    return processes.size();
+  }
+
+  public OPMProcess getProcess(int index) {
+    return processes.get(index);
+  }
+
+  /**
+   * Get the index of a process in the plan.
+   *
+   * @return the index of the process, or -1 if the process is not in the plan.
+   */
+  public int getProcessIndex(OPMProcess process) {
+    Integer index = processIndexes.get(process);
+    return index == null ? -1 : index;
+  }
+
+  public int[] getInitialProcesses() {
+    return initialProcesses.clone();
+  }
+
+  int[] getPredecessors(int processIndex) {
+    return predecessors[processIndex];
+  }
+
+  int[] getSuccessors(int processIndex) {
+    return successors[processIndex];
+  }
+
+  List<OPMPlannedLink> getIncomingLinks(int processIndex) {
+    return incomingLinks.get(processIndex);
+  }
+
+  OPMProcessArguments getIncomingArguments(int processIndex) {
+    return incomingArguments.get(processIndex);
+  }
+
+  OPMProcessArguments getOutgoingArguments(int processIndex) {
+    return outgoingArguments.get(processIndex);
+  }
+
+  public int getObjectCount() {
+    return objects.size();
+  }
+
+  public OPMObject getObject(int objectId) {
+    return objects.get(objectId);
+  }
+
+  /**
+   * Get the id of an object in the plan.
+   *
+   * @return the id of the object, or -1 if the object is not in the plan.
+   */
+  public int getObjectId(OPMObject object) {
+    Integer id = objectIds.get(object);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the id of the aggregate parent of an object.
+   *
+   * @return the id of the parent, or -1 if the object is not part of another
+   *         object.
+   */
+  public int getParentObject(int objectId) {
+    return objectParents[objectId];
+  }
+
+  /**
+   * Get the id of the top-most object that contains the given object, or the
+   * id of the object itself if it is not part of another object.
+   */
+  public int getRootObject(int objectId) {
+    return rootObjects[objectId];
+  }
+
+  public boolean isComposite(int objectId) {
+    return compositeObjects[objectId];
+  }
+
+  public boolean isCollection(int objectId) {
+    return collectionObjects[objectId];
+  }
+
+  /**
+   * Get the data transfer links from an object to other objects.
+   */
+  List<OPMDataTransfer> getOutgoingDataTransfers(int objectId) {
+    return outgoingDataTransfers.get(objectId);
+  }
+
+  /**
+   * Get the event links that start at an object (or at one of its states).
+   */
+  List<OPMEventSubscription> getEventSubscriptions(int objectId) {
+    return eventSubscriptions.get(objectId);
+  }
+
+  public OPMState getState(int stateId) {
+    return states.get(stateId);
+  }
+
+  /**
+   * Get the id of a state in the plan.
+   *
+   * @return the id of the state, or -1 if the state is not in the plan.
+   */
+  public int getStateId(OPMState state) {
+    Integer id = stateIds.get(state);
+    return id == null ? -1 : id;
+  }
+
+  public List<OPMObject> getParameters() {
+    return parameters;
+  }
+
+  public List<OPMObject> getIncomingParameters() {
+    return incomingParameters;
+  }
+
+  public List<OPMObject> getOutgoingParameters() {
+    return outgoingParameters;
+  }
+
+  public List<OPMObject> getLocalObjects() {
+    return localObjects;
+  }
+
+  Map<OPMObject, OPMObjectInstance> getLiteralValues() {
+    return literalValues;
+  }
+
+  /**
+   * Check if a process is part of a loop: the objects it writes invoke, through
+   * event links and following processes, the same process again.
+   */
+  boolean isLoopProcess(int processIndex) {
+    return loopProcesses[processIndex];
+  }
+
+  /**
+   * Find the processes that are part of a loop. A process is followed by its
+   * successors in the DAG and by the processes invoked by the objects it
+   * writes. Objects are handled together with all the objects of their
+   * aggregate and with the objects they transfer data to, so the analysis may
+   * find loops that never happen at runtime but never misses one.
+   */
+  private boolean[] findLoopProcesses() {
+    int processCount = processes.size();
+    List<Set<Integer>> invokedByRoot = Lists.newArrayListWithCapacity(objects.size());
+    for(int i = 0; i < objects.size(); i++) {
+      invokedByRoot.add(null);
+    }
+    int[][] following = new int[processCount][];
+    for(int i = 0; i < processCount; i++) {
+      Set<Integer> followingProcesses = Sets.newLinkedHashSet(Ints.asList(successors[i]));
+      for(int objectId : findWrittenObjects(i)) {
+        followingProcesses.addAll(findInvokedProcesses(rootObjects[objectId], invokedByRoot));
+      }
+      following[i] = Ints.toArray(followingProcesses);
+    }
+
+    boolean[] loops = new boolean[processCount];
+    for(int i = 0; i < processCount; i++) {
+      boolean[] visited = new boolean[processCount];
+      Deque<Integer> toVisit = new ArrayDeque<Integer>(Ints.asList(following[i]));
+      while(!toVisit.isEmpty() && !loops[i]) {
+        int current = toVisit.pop();
+        if(current == i) {
+          loops[i] = true;
+        } else if(!visited[current]) {
+          visited[current] = true;
+          toVisit.addAll(Ints.asList(following[current]));
+        }
+      }
+    }
+    return loops;
+  }
+
+  private Set<Integer> findWrittenObjects(int processIndex) {
+    OPMProcessArguments arguments = outgoingArguments.get(processIndex);
+    Set<Integer> written = Sets.newLinkedHashSet();
+    for(OPMArgument argument : arguments.getNamedArguments().values()) {
+      addObjectId(written, argument.getObject());
+    }
+    for(OPMArgument argument : arguments.getAnonymousArguments()) {
+      addObjectId(written, argument.getObject());
+    }
+    return written;
+  }
+
+  private void addObjectId(Set<Integer> objectIdSet, OPMObject object) {
+    int objectId = getObjectId(object);
+    if(objectId >= 0) {
+      objectIdSet.add(objectId);
+    }
+  }
+
+  /**
+   * Find the processes invoked by event links when an aggregate changes,
+   * including the aggregates that receive the change through data transfers.
+   */
+  private Set<Integer> findInvokedProcesses(int rootObject, List<Set<Integer>> invokedByRoot) {
+    Set<Integer> invoked = invokedByRoot.get(rootObject);
+    if(invoked != null) {
+      return invoked;
+    }
+    invoked = Sets.newLinkedHashSet();
+    Set<Integer> visitedRoots = Sets.newHashSet(rootObject);
+    Deque<Integer> toVisit = new ArrayDeque<Integer>(visitedRoots);
+    while(!toVisit.isEmpty()) {
+      int root = toVisit.pop();
+      for(int objectId = 0; objectId < objects.size(); objectId++) {
+        if(rootObjects[objectId] != root) {
+          continue;
+        }
+        for(OPMEventSubscription subscription : eventSubscriptions.get(objectId)) {
+          invoked.add(subscription.processIndex);
+        }
+        for(OPMDataTransfer transfer : outgoingDataTransfers.get(objectId)) {
+          int targetId = getObjectId(transfer.target);
+          if(targetId >= 0 && visitedRoots.add(rootObjects[targetId])) {
+            toVisit.push(rootObjects[targetId]);
+          }
+        }
+      }
+    }
+    invokedByRoot.set(rootObject, invoked);
+    return invoked;
+  }
+
+  private int[] toIndexes(Collection<OPMProcess> processCollection) {
+    int[] indexes = new int[processCollection.size()];
+    int i = 0;
+    for(OPMProcess process : processCollection) {
+      indexes[i++] = processIndexes.get(process);
+    }
+    return indexes;
+  }
+
+  private OPMPlannedLink createPlannedLink(OPMProceduralLink link, OPDAnalyzer analyzer) {
+    boolean conditional = link.getSubKinds().contains(OPMConstants.OPM_CONDITIONAL_LINK_SUBKIND);
+    int sourceObject = -1;
+    int sourceState = -1;
+    if(analyzer.isSourceObject(link)) {
+      sourceObject = getObjectId(analyzer.getSourceObject(link));
+    } else if(analyzer.isSourceState(link)) {
+      OPMState state = analyzer.getSourceState(link);
+      sourceObject = getObjectId(analyzer.getObject(state));
+      sourceState = getStateId(state);
+    }
+    int rootObject = sourceObject >= 0 ? rootObjects[sourceObject] : -1;
+    return new OPMPlannedLink(sourceObject, sourceState, rootObject, conditional);
+  }
+
+  /**
+   * An incoming procedural link of a process, with its source already
+   * classified. The source object is -1 when the source of the link is
+   * neither an object nor a state (or is not in the plan), and the source
+   * state is -1 when the source of the link is not a state.
+   */
+  static class OPMPlannedLink {
+    final int sourceObject;
+    final int sourceState;
+    final int rootObject;
+    final boolean conditional;
+
+    OPMPlannedLink(int sourceObject, int sourceState, int rootObject, boolean conditional) {
+      this.sourceObject = sourceObject;
+      this.sourceState = sourceState;
+      this.rootObject = rootObject;
+      this.conditional = conditional;
+    }
+  }
+
+  /**
+   * An event link from an object (or one of its states) to a process.
+   */
+  static class OPMEventSubscription {
+    final OPMProceduralLink link;
+    final int processIndex;
+    final int state;
+    final boolean alwaysTriggers;
+
+    OPMEventSubscription(OPMProceduralLink link, int processIndex, int state, boolean alwaysTriggers) {
+      this.link = link;
+      this.processIndex = processIndex;
+      this.state = state;
+      this.alwaysTriggers = alwaysTriggers;
+    }
+  }
+}
@@ -17,9 +17,12 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.vainolo.phd.opm.interpreter.OPMMetricsRegistry;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
 import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
 import com.vainolo.phd.opm.interpreter.OPMProcessInstanceHeap;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecordType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
 import com.vainolo.phd.opm.model.OPMObject;
 import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
 import com.vainolo.phd.opm.model.OPMProceduralLink;
@@ -32,6 +35,10 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
   private final Map<OPMObject, OPMObjectInstance> variables;
   private OPMObjectInstanceValueAnalyzer valueAnalyzer;
   private Observable observable;
+  private OPMInZoomedProcessExecutionPlan plan = null;
+  private OPMTraceRecorder traceRecorder = null;
+  private int traceInstanceId = 0;
+  private OPMMetricsRegistry metricsRegistry = null;
 
   @Inject
   OPMInZoomedProcessInstanceHeap(OPMObjectInstanceValueAnalyzer valueAnalyzer, OPDAnalyzer analyzer) {
@@ -41,6 +48,44 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
     this.observable = new OPMHeapObservable();
   }
 
+  /**
+   * Set the execution plan of the process that owns this heap. When a plan is
+   * set, the structure of the objects (parents, composition, collections and
+   * data transfer links) is taken from the plan instead of being analyzed on
+   * every access. Objects that are not in the plan are analyzed as usual.
+   * 
+   * @param plan
+   *          the execution plan, or <code>null</code> to analyze the objects
+   *          on every access.
+   */
+  public void setExecutionPlan(OPMInZoomedProcessExecutionPlan plan) {
+    this.plan = plan;
+  }
+
+  /**
+   * Record every variable that is set in the given trace.
+   * 
+   * @param traceRecorder
+   *          the recorder, or <code>null</code> to stop recording.
+   * @param traceInstanceId
+   *          the id of the instance that owns this heap in the trace.
+   */
+  void setTraceRecorder(OPMTraceRecorder traceRecorder, int traceInstanceId) {
+    this.traceRecorder = traceRecorder;
+    this.traceInstanceId = traceInstanceId;
+  }
+
+  /**
+   * Count every variable that is set in the given metrics registry.
+   * 
+   * @param metricsRegistry
+   *          the registry of the execution, or <code>null</code> to stop
+   *          counting.
+   */
+  void setMetricsRegistry(OPMMetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
   /**
    * <p>
    * Set the value in an {@link OPMObject}.
@@ -65,36 +110,60 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
   public void setVariable(OPMObject object, OPMObjectInstance value) {
     logFiner("Setting value of object {0} with value {1}.", object.getName(), value.toString());
     checkArgument(value != null, "Value cannot be null");
-    if(analyzer.isObjectComposite(object)) {
+    if(isObjectComposite(object)) {
       checkInstanceArgumentIsComposite(value, "The value of a composite object must be a composite instance.");
     } else {
       checkInstanceArgumentIsNotComposite(value, "The value of a simple object cannot be a composite instance.");
     }
 
-    if(analyzer.isObjectCollection(object)) {
+    if(isObjectCollection(object)) {
       checkInstanceArgumentIsCollection(value, "The value of a collection object must be a collection instance.");
     } else {
       checkInstanceArgumentIsNotCollection(value, "The value of a simple object cannot be a collection instance.");
     }
 
-    if(analyzer.isObjectPartOfAnotherObject(object)) {
-      OPMObject parentObject = analyzer.findParent(object);
+    OPMObject parentObject = findParent(object);
+    if(parentObject != null) {
       OPMObjectInstance parentValue = getVariable(parentObject);
       if(parentValue == null) {
         parentValue = OPMObjectInstance.createCompositeInstance();
       }
       setVariable(parentObject, parentValue);
-      parentValue = getVariable(parentObject);
-      parentValue.addCompositePart(object.getName(), OPMObjectInstance.createFromExistingInstance(value));
-      observable.notifyObservers(new OPMHeapChange(parentObject, parentValue, object, getVariable(object)));
+      replaceVariable(object, value);
+      observable.notifyObservers(new OPMHeapChange(parentObject, getVariable(parentObject), object, value));
+      recordVariableSet(object, value);
     } else {
-      OPMObjectInstance objectValue = OPMObjectInstance.createFromExistingInstance(value);
-      variables.put(object, objectValue);
-      observable.notifyObservers(new OPMHeapChange(object, objectValue));
+      variables.put(object, value);
+      observable.notifyObservers(new OPMHeapChange(object, value));
+      recordVariableSet(object, value);
+    }
+    if(metricsRegistry != null) {
+      metricsRegistry.heapVariableSet();
     }
     transferDataFromObject(object);
   }
 
+  /**
+   * Store the value of an {@link OPMObject} without notifying the observers or
+   * transferring it. Since instances are immutable, if the object is a part of
+   * another object, the values of the parent objects are replaced by new
+   * values that have the new part.
+   */
+  private void replaceVariable(OPMObject object, OPMObjectInstance value) {
+    OPMObject parentObject = findParent(object);
+    if(parentObject != null) {
+      replaceVariable(parentObject, getVariable(parentObject).withCompositePart(object.getName(), value));
+    } else {
+      variables.put(object, value);
+    }
+  }
+
+  private void recordVariableSet(OPMObject object, OPMObjectInstance value) {
+    if(traceRecorder != null) {
+      traceRecorder.record(OPMTraceRecordType.VARIABLE_SET, traceInstanceId, object.getId(), 0, value);
+    }
+  }
+
   /**
    * Return the value stored in the {@link OPMObject}. If the {@link OPMObject}
    * is part of another {@link OPMObject}, the value if fetched from the parent
@@ -106,8 +175,9 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
    *         value has been assigned.
    */
   public OPMObjectInstance getVariable(OPMObject object) {
-    if(analyzer.isObjectPartOfAnotherObject(object)) {
-      OPMObjectInstance parent = getVariable(analyzer.findParent(object));
+    OPMObject parentObject = findParent(object);
+    if(parentObject != null) {
+      OPMObjectInstance parent = getVariable(parentObject);
       if(parent == null) {
         logSevere("Tried to get the value of {0} which is part of another object, but parent object doesn't exist.",
             object.getName());
@@ -130,22 +200,60 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
    * @param source
    */
   private void transferDataFromObject(OPMObject source) {
-    Collection<OPMProceduralLink> dataTransferLinks = analyzer.findOutgoingDataLinks(source);
-    for(OPMProceduralLink link : dataTransferLinks) {
-      if(analyzer.isTargetProcess(link))
-        continue;
-      OPMObject target = analyzer.getTargetObject(link);
-
-      if((link.getCenterDecoration() == null) || (link.getCenterDecoration().equals(""))) {
-        transferDataWithNoReferences(source, target);
-      } else if(!link.getCenterDecoration().contains(",")) {
-        transferDataWithOneReference(source, link, target);
-      } else { // link.getCenterDecoration().contains(",")
-        transferDataWithTwoReferences(source, link, target);
+    for(OPMDataTransfer transfer : findOutgoingDataTransfers(source)) {
+      switch(transfer.kind) {
+      case NO_REFERENCE:
+        transferDataWithNoReferences(source, transfer.target);
+        break;
+      case ONE_REFERENCE:
+        transferDataWithOneReference(source, transfer.sourceReference, transfer.target);
+        break;
+      case TWO_REFERENCES:
+        transferDataWithTwoReferences(source, transfer.sourceReference, transfer.targetReference, transfer.target);
+        break;
       }
     }
   }
 
+  private Collection<OPMDataTransfer> findOutgoingDataTransfers(OPMObject source) {
+    int objectId = plan != null ? plan.getObjectId(source) : -1;
+    if(objectId >= 0) {
+      return plan.getOutgoingDataTransfers(objectId);
+    }
+    List<OPMDataTransfer> transfers = Lists.newArrayList();
+    for(OPMProceduralLink link : analyzer.findOutgoingDataLinks(source)) {
+      if(!analyzer.isTargetProcess(link)) {
+        transfers.add(OPMDataTransfer.create(link, analyzer));
+      }
+    }
+    return transfers;
+  }
+
+  private OPMObject findParent(OPMObject object) {
+    int objectId = plan != null ? plan.getObjectId(object) : -1;
+    if(objectId >= 0) {
+      int parentId = plan.getParentObject(objectId);
+      return parentId >= 0 ? plan.getObject(parentId) : null;
+    }
+    return analyzer.findParent(object);
+  }
+
+  private boolean isObjectComposite(OPMObject object) {
+    int objectId = plan != null ? plan.getObjectId(object) : -1;
+    if(objectId >= 0) {
+      return plan.isComposite(objectId);
+    }
+    return analyzer.isObjectComposite(object);
+  }
+
+  private boolean isObjectCollection(OPMObject object) {
+    int objectId = plan != null ? plan.getObjectId(object) : -1;
+    if(objectId >= 0) {
+      return plan.isCollection(objectId);
+    }
+    return analyzer.isObjectCollection(object);
+  }
+
   private void transferDataWithNoReferences(OPMObject source, OPMObject target) {
     if((source.isCollection() && target.isCollection()) || (!source.isCollection() && !target.isCollection())) {
       setVariable(target, getVariable(source));
@@ -156,31 +264,29 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
       if(targetValue == null) {
         targetValue = OPMObjectInstance.createCollectionInstace();
       }
-      targetValue.appendCollectionElement(getVariable(source));
-      setVariable(target, targetValue);
+      setVariable(target, targetValue.withAppendedCollectionElement(getVariable(source)));
     }
   }
 
-  private void transferDataWithOneReference(OPMObject source, OPMProceduralLink link, OPMObject target) {
+  private void transferDataWithOneReference(OPMObject source, String reference, OPMObject target) {
     if(source.isCollection() && !target.isCollection()) {
-      setVariable(target, getCollectionValueUsingReference(source, link.getCenterDecoration()));
+      setVariable(target, getCollectionValueUsingReference(source, reference));
     } else if(!source.isCollection() && target.isCollection()) {
-      OPMObjectInstance targetValue = putValueInCollectionUsingReference(getVariable(source),
-          link.getCenterDecoration(), target);
+      OPMObjectInstance targetValue = putValueInCollectionUsingReference(getVariable(source), reference, target);
       setVariable(target, targetValue);
     } else {
       throw new IllegalStateException("Invalid reference state in data transfer link.");
     }
   }
 
-  private void transferDataWithTwoReferences(OPMObject source, OPMProceduralLink link, OPMObject target) {
+  private void transferDataWithTwoReferences(OPMObject source, String sourceReference, String targetReference,
+      OPMObject target) {
     if(source.isCollection() && target.isCollection()) {
-      String[] refs = link.getCenterDecoration().split(",");
-      if(refs[0].equals("") || refs[0].equals("")) {
+      if(sourceReference.equals("") || targetReference == null || targetReference.equals("")) {
         throw new IllegalStateException("Invalid reference state in data transfer link.");
       }
-      OPMObjectInstance sourceValue = getCollectionValueUsingReference(source, refs[0]);
-      OPMObjectInstance targetValue = putValueInCollectionUsingReference(sourceValue, refs[1], target);
+      OPMObjectInstance sourceValue = getCollectionValueUsingReference(source, sourceReference);
+      OPMObjectInstance targetValue = putValueInCollectionUsingReference(sourceValue, targetReference, target);
       setVariable(target, targetValue);
     } else {
       throw new IllegalStateException("Invalid reference state in data transfer link.");
@@ -206,11 +312,10 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
     }
     if(valueAnalyzer.isNumericalLiteral(reference)) {
       int targetIndex = valueAnalyzer.parseNumericalLiteral(reference).intValue();
-      targetValue.putCollectionElementAtIndex(targetIndex, value);
+      return targetValue.withCollectionElementAtIndex(targetIndex, value);
     } else {
-      targetValue.putCollectionElement(reference, value);
+      return targetValue.withCollectionElement(reference, value);
     }
-    return targetValue;
   }
 
   /**
@@ -238,6 +343,25 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
     }
   }
 
+  /**
+   * Initialize local variables from pre-calculated literal values.
+   * 
+   * @param objects
+   *          the local objects of the executed process.
+   * @param literalValues
+   *          the literal values of the objects that have one.
+   */
+  public void initializeVariablesWithLiterals(Collection<OPMObject> objects,
+      Map<OPMObject, OPMObjectInstance> literalValues) {
+    for(OPMObject object : objects) {
+      OPMObjectInstance literalValue = literalValues.get(object);
+      if(literalValue != null)
+        setVariable(object, literalValue);
+      if(getVariable(object) != null)
+        transferDataFromObject(object);
+    }
+  }
+
   /**
    * Create a variable for all of the arguments that were passed to the process,
    * or for arguments that contain literal values.
@@ -254,6 +378,27 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
     }
   }
 
+  /**
+   * Create a variable for all of the arguments that were passed to the process,
+   * or for arguments that contain pre-calculated literal values.
+   * 
+   * @param parameters
+   *          the parameters of the executed process.
+   * @param literalValues
+   *          the literal values of the objects that have one.
+   */
+  public void initializeVariablesWithArgumentValues(Collection<OPMObject> parameters,
+      Map<OPMObject, OPMObjectInstance> literalValues) {
+    for(OPMObject object : parameters) {
+      if(getArgument(object.getName()) != null) {
+        setVariable(object, getArgument(object.getName()));
+      } else if(literalValues.get(object) != null) {
+        setVariable(object, literalValues.get(object));
+      }
+      transferDataFromObject(object);
+    }
+  }
+
   /**
    * Initialize variables of the process instance. Variables are initialized
    * from two sources: arguments and literals.
@@ -275,8 +420,18 @@ public class OPMInZoomedProcessInstanceHeap extends OPMProcessInstanceHeap {
    *          arguments.
    */
   public void exportVariableValuesToArguments(OPMObjectProcessDiagram opd) {
-    Collection<OPMObject> objectArguments = analyzer.findParameters(opd);
-    for(OPMObject object : objectArguments) {
+    exportVariableValuesToArguments(analyzer.findParameters(opd));
+  }
+
+  /**
+   * Copy the value stored in variables matching process arguments to the
+   * external arguments.
+   * 
+   * @param parameters
+   *          the parameters of the executed process.
+   */
+  public void exportVariableValuesToArguments(Collection<OPMObject> parameters) {
+    for(OPMObject object : parameters) {
       if(getVariable(object) != null) {
         addArgument(object.getName(), getVariable(object));
       }
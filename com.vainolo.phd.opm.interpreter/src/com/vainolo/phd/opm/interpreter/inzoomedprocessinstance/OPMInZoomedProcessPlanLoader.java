@@ -0,0 +1,22 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+/**
+ * Finds the execution plans of the compound processes invoked by an in-zoomed
+ * process, so that the {@link OPMInZoomedProcessCompiler} can inline them.
+ * 
+ * @author Arieh "Vainolo" Bibliowicz
+ * 
+ */
+public interface OPMInZoomedProcessPlanLoader {
+
+  /**
+   * Get the execution plan of the in-zoomed OPD with the given name.
+   * 
+   * @param opdName
+   *          the name of the OPD, which is the name of the compound process
+   *          that invokes it.
+   * @return the execution plan of the OPD, or <code>null</code> if the OPD
+   *         cannot be found or is not an in-zoomed OPD.
+   */
+  OPMInZoomedProcessExecutionPlan loadExecutionPlan(String opdName);
+}
@@ -0,0 +1,413 @@
+package com.vainolo.phd.opm.interpreter.inzoomedprocessinstance;
+
+import static com.vainolo.phd.opm.utilities.OPMLogger.*;
+import static com.vainolo.phd.opm.utilities.OPMStrings.*;
+import static com.google.common.base.Preconditions.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstanceValueAnalyzer;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan.OPMEventSubscription;
+import com.vainolo.phd.opm.interpreter.inzoomedprocessinstance.OPMInZoomedProcessExecutionPlan.OPMPlannedLink;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecordType;
+import com.vainolo.phd.opm.interpreter.trace.OPMTraceRecorder;
+import com.vainolo.phd.opm.model.OPMObject;
+
+/**
+ * <p>
+ * Event driven scheduler for the processes of an in-zoomed process.
+ * Instead of recalculating the waiting and ready sets on every iteration, the
+ * scheduler keeps for every process a counter of active predecessors (waiting,
+ * ready or executing) and a counter of incoming links whose source is not
+ * ready. The counters are only updated when a process finishes or when an
+ * object in the heap changes, and a waiting process is moved to the ready set
+ * as soon as its counter of not-ready links reaches zero. Processes are
+ * identified by their index in the {@link OPMInZoomedProcessExecutionPlan}.
+ * </p>
+ *
+ * <p>
+ * Link readiness is only tracked for waiting processes. Other processes have
+ * their links evaluated when they are reached (as initial, following or invoked
+ * processes), which is when the previous implementation evaluated them.
+ * </p>
+ *
+ * @author Arieh "Vainolo" Bibliowicz
+ *
+ */
+public class OPMInZoomedProcessScheduler {
+
+  private final OPMInZoomedProcessExecutionPlan plan;
+  private final OPMInZoomedProcessInstanceHeap heap;
+  private final OPMObjectInstanceValueAnalyzer valueAnalyzer;
+
+  private final ProcessNode[] nodes;
+  private final List<List<LinkNode>> linksByRootObject;
+  private final Set<ProcessNode> ready = Sets.newLinkedHashSet();
+  private int waitingCount = 0;
+  private int executingCount = 0;
+  private OPMTraceRecorder traceRecorder = null;
+  private int traceInstanceId = 0;
+
+  public OPMInZoomedProcessScheduler(OPMInZoomedProcessExecutionPlan plan, OPMInZoomedProcessInstanceHeap heap,
+      OPMObjectInstanceValueAnalyzer valueAnalyzer) {
+    this.plan = plan;
+    this.heap = heap;
+    this.valueAnalyzer = valueAnalyzer;
+    this.nodes = new ProcessNode[plan.getProcessCount()];
+    this.linksByRootObject = Lists.newArrayListWithCapacity(plan.getObjectCount());
+    for(int i = 0; i < plan.getObjectCount(); i++) {
+      linksByRootObject.add(null);
+    }
+    for(int i = 0; i < nodes.length; i++) {
+      nodes[i] = new ProcessNode(i);
+    }
+    for(int i = 0; i < nodes.length; i++) {
+      int[] successors = plan.getSuccessors(i);
+      nodes[i].successors = new ProcessNode[successors.length];
+      for(int j = 0; j < successors.length; j++) {
+        nodes[i].successors[j] = nodes[successors[j]];
+      }
+    }
+  }
+
+  /**
+   * Record the events that invoke processes in the given trace.
+   *
+   * @param traceRecorder
+   *          the recorder, or <code>null</code> to stop recording.
+   * @param traceInstanceId
+   *          the id of the instance that owns this scheduler in the trace.
+   */
+  public void setTraceRecorder(OPMTraceRecorder traceRecorder, int traceInstanceId) {
+    this.traceRecorder = traceRecorder;
+    this.traceInstanceId = traceInstanceId;
+  }
+
+  /**
+   * Start scheduling. The initial processes of the DAG are either marked as
+   * ready, as waiting or skipped, and the processes invoked by the objects that
+   * were initialized before the execution started are marked as ready.
+   *
+   * @param changedObjects
+   *          objects that received a value before the execution started.
+   */
+  public void start(Collection<OPMObject> changedObjects) {
+    for(int processIndex : plan.getInitialProcesses()) {
+      ProcessNode node = nodes[processIndex];
+      evaluateLinks(node);
+      if(node.unreadyConditionalLinks == 0) {
+        markWaiting(node);
+      }
+    }
+    markInvokedProcesses(changedObjects);
+  }
+
+  /**
+   * Take all the processes that are ready for execution. The returned
+   * processes are considered as executing until
+   * {@link #processFinished(int, Collection)} is called for them.
+   *
+   * @return the plan indexes of the processes that are ready for execution.
+   */
+  public int[] takeReadyProcesses() {
+    int[] readyProcesses = new int[ready.size()];
+    int i = 0;
+    for(ProcessNode node : ready) {
+      node.ready = false;
+      node.executing++;
+      executingCount++;
+      readyProcesses[i++] = node.index;
+    }
+    ready.clear();
+    return readyProcesses;
+  }
+
+  /**
+   * Notify the scheduler that an execution of a process has finished and that
+   * its results were stored in the heap.
+   *
+   * @param processIndex
+   *          the plan index of the process that finished.
+   * @param changedObjects
+   *          the objects that received a new value since the process was
+   *          submitted.
+   */
+  public void processFinished(int processIndex, Collection<OPMObject> changedObjects) {
+    ProcessNode node = nodes[processIndex];
+    boolean wasActive = node.isActive();
+    node.executing--;
+    executingCount--;
+    updateActivity(node, wasActive);
+
+    refreshLinks(changedObjects);
+    markFollowingProcesses(node);
+    markInvokedProcesses(changedObjects);
+  }
+
+  public boolean hasWork() {
+    return ready.size() > 0 || executingCount > 0;
+  }
+
+  /**
+   * Check if a process can be executed speculatively: it has conditional
+   * links, it is held back only because some of its predecessors are still
+   * active, and all its incoming links are ready with the current values in
+   * the heap. The scheduler is not changed; the process is still marked as
+   * ready (or skipped) when its predecessors finish.
+   *
+   * @param processIndex
+   *          the plan index of the process.
+   * @return <code>true</code> if the process can be executed speculatively.
+   */
+  public boolean canSpeculate(int processIndex) {
+    ProcessNode node = nodes[processIndex];
+    if(node.isActive() || node.activePredecessors == 0) {
+      return false;
+    }
+    boolean conditional = false;
+    for(OPMPlannedLink link : plan.getIncomingLinks(processIndex)) {
+      if(link.sourceObject < 0) {
+        return false;
+      }
+      conditional |= link.conditional;
+    }
+    if(!conditional) {
+      return false;
+    }
+    evaluateLinks(node);
+    return node.unreadyLinks == 0;
+  }
+
+  public int getWaitingCount() {
+    return waitingCount;
+  }
+
+  public int getReadyCount() {
+    return ready.size();
+  }
+
+  public int getExecutingCount() {
+    return executingCount;
+  }
+
+  /**
+   * Walk the successors of a finished process. Successors with no active
+   * predecessors become waiting, unless a conditional link prevents them from
+   * executing, in which case they are skipped and their own successors are
+   * walked.
+   */
+  private void markFollowingProcesses(ProcessNode finished) {
+    Collection<ProcessNode> successors = Arrays.asList(finished.successors);
+    while(successors.size() > 0) {
+      Set<ProcessNode> skippedSuccessors = Sets.newLinkedHashSet();
+      for(ProcessNode successor : successors) {
+        if(successor.activePredecessors > 0) {
+          continue;
+        }
+        evaluateLinks(successor);
+        if(successor.unreadyConditionalLinks == 0) {
+          markWaiting(successor);
+        } else {
+          skippedSuccessors.addAll(Arrays.asList(successor.successors));
+        }
+      }
+      successors = skippedSuccessors;
+    }
+  }
+
+  private void markInvokedProcesses(Collection<OPMObject> changedObjects) {
+    int invoked = 0;
+    for(OPMObject changedObject : changedObjects) {
+      OPMObjectInstance value = checkNotNull(heap.getVariable(changedObject), "Changed object cannot be null.");
+      int objectId = plan.getObjectId(changedObject);
+      if(objectId < 0) {
+        continue;
+      }
+      for(OPMEventSubscription subscription : plan.getEventSubscriptions(objectId)) {
+        if(objectValueTriggersEvent(subscription, value)) {
+          if(traceRecorder != null) {
+            traceRecorder.record(OPMTraceRecordType.EVENT_FIRED, traceInstanceId,
+                plan.getProcess(subscription.processIndex).getId(), subscription.link.getId(), null);
+          }
+          ProcessNode node = nodes[subscription.processIndex];
+          if(!node.waiting) {
+            evaluateLinks(node);
+          }
+          if(node.unreadyLinks == 0) {
+            markReady(node);
+            invoked++;
+          }
+        }
+      }
+    }
+    logInfo("Found {0} invoked processes.", invoked);
+  }
+
+  private void markWaiting(ProcessNode node) {
+    if(node.waiting || node.ready) {
+      return;
+    }
+    boolean wasActive = node.isActive();
+    node.waiting = true;
+    waitingCount++;
+    updateActivity(node, wasActive);
+    if(node.unreadyLinks == 0) {
+      markReady(node);
+    }
+  }
+
+  private void markReady(ProcessNode node) {
+    boolean wasActive = node.isActive();
+    if(node.waiting) {
+      node.waiting = false;
+      waitingCount--;
+    }
+    if(!node.ready) {
+      node.ready = true;
+      ready.add(node);
+    }
+    updateActivity(node, wasActive);
+  }
+
+  private void updateActivity(ProcessNode node, boolean wasActive) {
+    boolean isActive = node.isActive();
+    if(wasActive == isActive) {
+      return;
+    }
+    int delta = isActive ? 1 : -1;
+    for(ProcessNode successor : node.successors) {
+      successor.activePredecessors += delta;
+    }
+  }
+
+  /**
+   * Update the readiness flags of the links whose source is one of the changed
+   * objects (or a part of them). Only links of waiting processes are updated.
+   */
+  private void refreshLinks(Collection<OPMObject> changedObjects) {
+    Set<Integer> roots = Sets.newHashSet();
+    for(OPMObject object : changedObjects) {
+      int objectId = plan.getObjectId(object);
+      if(objectId >= 0) {
+        roots.add(plan.getRootObject(objectId));
+      }
+    }
+    for(int root : roots) {
+      List<LinkNode> links = linksByRootObject.get(root);
+      if(links == null) {
+        continue;
+      }
+      for(LinkNode link : links) {
+        if(link.target.waiting) {
+          setLinkReady(link, isLinkSourceReady(link.plannedLink));
+          if(link.target.unreadyLinks == 0) {
+            markReady(link.target);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Evaluate all the incoming links of a process against the current heap.
+   */
+  private void evaluateLinks(ProcessNode node) {
+    if(node.incomingLinks == null) {
+      List<OPMPlannedLink> plannedLinks = plan.getIncomingLinks(node.index);
+      node.incomingLinks = new LinkNode[plannedLinks.size()];
+      for(int i = 0; i < node.incomingLinks.length; i++) {
+        LinkNode linkNode = new LinkNode(plannedLinks.get(i), node);
+        node.incomingLinks[i] = linkNode;
+        if(linkNode.plannedLink.rootObject >= 0) {
+          List<LinkNode> rootLinks = linksByRootObject.get(linkNode.plannedLink.rootObject);
+          if(rootLinks == null) {
+            rootLinks = Lists.newArrayList();
+            linksByRootObject.set(linkNode.plannedLink.rootObject, rootLinks);
+          }
+          rootLinks.add(linkNode);
+        }
+        node.unreadyLinks++;
+        if(linkNode.plannedLink.conditional) {
+          node.unreadyConditionalLinks++;
+        }
+      }
+    }
+    for(LinkNode link : node.incomingLinks) {
+      boolean linkReady = isLinkSourceReady(link.plannedLink);
+      if(!linkReady) {
+        logFine(PROCESS_NOT_READY, plan.getProcess(node.index).getName(), plan.getObject(link.plannedLink.sourceObject)
+            .getName());
+      }
+      setLinkReady(link, linkReady);
+    }
+  }
+
+  private void setLinkReady(LinkNode link, boolean linkReady) {
+    if(link.ready == linkReady) {
+      return;
+    }
+    link.ready = linkReady;
+    int delta = linkReady ? -1 : 1;
+    link.target.unreadyLinks += delta;
+    if(link.plannedLink.conditional) {
+      link.target.unreadyConditionalLinks += delta;
+    }
+  }
+
+  private boolean objectValueTriggersEvent(OPMEventSubscription subscription, OPMObjectInstance objectInstance) {
+    if(subscription.alwaysTriggers) {
+      return true;
+    } else if(subscription.state >= 0) {
+      return valueAnalyzer.isObjectInstanceInState(objectInstance, plan.getState(subscription.state));
+    }
+    return false;
+  }
+
+  private boolean isLinkSourceReady(OPMPlannedLink link) {
+    if(link.sourceObject < 0) {
+      throw new IllegalStateException("Process has incoming links with a source that is not an object.");
+    } else if(link.sourceState < 0) {
+      return heap.getVariable(plan.getObject(link.sourceObject)) != null;
+    } else {
+      return valueAnalyzer.isObjectInstanceInState(heap.getVariable(plan.getObject(link.sourceObject)),
+          plan.getState(link.sourceState));
+    }
+  }
+
+  private static class ProcessNode {
+    private final int index;
+    private ProcessNode[] successors;
+    private LinkNode[] incomingLinks = null;
+    private int activePredecessors = 0;
+    private int unreadyLinks = 0;
+    private int unreadyConditionalLinks = 0;
+    private boolean waiting = false;
+    private boolean ready = false;
+    private int executing = 0;
+
+    ProcessNode(int index) {
+      this.index = index;
+    }
+
+    boolean isActive() {
+      return waiting || ready || executing > 0;
+    }
+  }
+
+  private static class LinkNode {
+    private final OPMPlannedLink plannedLink;
+    private final ProcessNode target;
+    private boolean ready = false;
+
+    LinkNode(OPMPlannedLink plannedLink, ProcessNode target) {
+      this.plannedLink = plannedLink;
+      this.target = target;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.trace;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.model.OPMContainer;
+import com.vainolo.phd.opm.model.OPMElementWithID;
+import com.vainolo.phd.opm.model.OPMLink;
+import com.vainolo.phd.opm.model.OPMNode;
+import com.vainolo.phd.opm.model.OPMObject;
+import com.vainolo.phd.opm.model.OPMObjectProcessDiagram;
+
+/**
+ * <p>
+ * Reads the records of an {@link OPMTraceRecorder} and replays them against
+ * the model of the execution. The records are read once, when the reader is
+ * created, so the reader is not affected by records written later.
+ * </p>
+ *
+ * <p>
+ * Replaying the {@link OPMTraceRecordType#VARIABLE_SET} records of an
+ * in-zoomed instance in sequence order gives the contents of its heap at any
+ * point of the execution (see
+ * {@link #reconstructHeap(OPMObjectProcessDiagram, int, long)}).
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMTraceReader {
+
+  private final List<OPMTraceRecord> records;
+
+  public OPMTraceReader(OPMTraceRecorder recorder) {
+    this.records = Collections.unmodifiableList(recorder.readRecords());
+  }
+
+  /**
+   * @return the records of the trace, oldest first.
+   */
+  public List<OPMTraceRecord> getRecords() {
+    return records;
+  }
+
+  /**
+   * Find the element of an OPD that a record refers to.
+   *
+   * @param opd
+   *          the OPD that was executed.
+   * @param elementId
+   *          the id of the element.
+   * @return the element with the given id, or <code>null</code> if the OPD
+   *         has no such element.
+   */
+  public OPMElementWithID findElement(OPMObjectProcessDiagram opd, long elementId) {
+    return indexElements(opd).get(elementId);
+  }
+
+  /**
+   * Reconstruct the heap of an in-zoomed instance by replaying the variables
+   * it set, up to and including the given record.
+   *
+   * @param opd
+   *          the OPD executed by the instance.
+   * @param instanceId
+   *          the id of the instance, as found in its records.
+   * @param sequence
+   *          the sequence number of the last record to replay.
+   * @return the value of every object of the OPD that was set up to the given
+   *         record.
+   */
+  public Map<OPMObject, OPMObjectInstance> reconstructHeap(OPMObjectProcessDiagram opd, int instanceId,
+      long sequence) {
+    Map<Long, OPMElementWithID> elements = indexElements(opd);
+    Map<OPMObject, OPMObjectInstance> heap = Maps.newLinkedHashMap();
+    for(OPMTraceRecord record : records) {
+      if(record.getSequence() > sequence) {
+        break;
+      }
+      if(record.getType() != OPMTraceRecordType.VARIABLE_SET || record.getInstanceId() != instanceId) {
+        continue;
+      }
+      OPMElementWithID element = elements.get(record.getElementId());
+      if(element instanceof OPMObject) {
+        heap.put((OPMObject) element, record.getValue());
+      }
+    }
+    return heap;
+  }
+
+  private Map<Long, OPMElementWithID> indexElements(OPMObjectProcessDiagram opd) {
+    Map<Long, OPMElementWithID> elements = Maps.newHashMap();
+    elements.put(opd.getId(), opd);
+    indexNodes(opd, elements);
+    for(OPMLink link : opd.getLinks()) {
+      elements.put(link.getId(), link);
+    }
+    return elements;
+  }
+
+  private void indexNodes(OPMContainer container, Map<Long, OPMElementWithID> elements) {
+    for(OPMNode node : container.getNodes()) {
+      elements.put(node.getId(), node);
+      if(node instanceof OPMContainer) {
+        indexNodes((OPMContainer) node, elements);
+      }
+    }
+  }
+}
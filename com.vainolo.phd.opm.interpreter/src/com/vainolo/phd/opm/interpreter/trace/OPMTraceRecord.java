@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.trace;
+
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+import com.vainolo.phd.opm.model.OPMElementWithID;
+
+/**
+ * A record of an execution trace, as read by the {@link OPMTraceReader}.
+ * Elements are identified by their {@link OPMElementWithID} id.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMTraceRecord {
+  private final long sequence;
+  private final long timestamp;
+  private final long threadId;
+  private final OPMTraceRecordType type;
+  private final int instanceId;
+  private final long elementId;
+  private final long secondaryElementId;
+  private final OPMObjectInstance value;
+
+  OPMTraceRecord(long sequence, long timestamp, long threadId, OPMTraceRecordType type, int instanceId,
+      long elementId, long secondaryElementId, OPMObjectInstance value) {
+    this.sequence = sequence;
+    this.timestamp = timestamp;
+    this.threadId = threadId;
+    this.type = type;
+    this.instanceId = instanceId;
+    this.elementId = elementId;
+    this.secondaryElementId = secondaryElementId;
+    this.value = value;
+  }
+
+  /**
+   * @return the position of the record in the trace, starting from 0.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the time of the record, as given by {@link System#nanoTime()}.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return the id of the thread that wrote the record.
+   */
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public OPMTraceRecordType getType() {
+    return type;
+  }
+
+  /**
+   * @return the id of the in-zoomed process instance the record belongs to, or
+   *         0 if the record was written by a process instance that is not
+   *         in-zoomed.
+   */
+  public int getInstanceId() {
+    return instanceId;
+  }
+
+  public long getElementId() {
+    return elementId;
+  }
+
+  public long getSecondaryElementId() {
+    return secondaryElementId;
+  }
+
+  /**
+   * @return the value of a {@link OPMTraceRecordType#VARIABLE_SET} or
+   *         {@link OPMTraceRecordType#ARGUMENT_BOUND} record, or
+   *         <code>null</code> for other records.
+   */
+  public OPMObjectInstance getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return sequence + ": " + type + " " + instanceId + "/" + elementId + "/" + secondaryElementId + " on thread "
+        + threadId + (value != null ? " = " + value : "");
+  }
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.trace;
+
+/**
+ * The kinds of records written by the {@link OPMTraceRecorder}.
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public enum OPMTraceRecordType {
+  /**
+   * A process of an in-zoomed process was found ready and handed to the
+   * executor. The element is the process.
+   */
+  PROCESS_SCHEDULED,
+  /**
+   * A process instance started executing. The element is the process.
+   */
+  PROCESS_STARTED,
+  /**
+   * A process instance finished executing. The element is the process.
+   */
+  PROCESS_FINISHED,
+  /**
+   * A variable in the heap of an in-zoomed process was set. The element is the
+   * object and the value is its new value.
+   */
+  VARIABLE_SET,
+  /**
+   * An event link invoked a process. The element is the process and the
+   * secondary element is the link.
+   */
+  EVENT_FIRED,
+  /**
+   * A value was passed as an argument to a process instance. The element is the
+   * process, the secondary element is the object whose value was passed and the
+   * value is the argument.
+   */
+  ARGUMENT_BOUND;
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.trace;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.Lists;
+import com.vainolo.phd.opm.interpreter.OPMExecutionContext;
+import com.vainolo.phd.opm.interpreter.OPMObjectInstance;
+
+/**
+ * <p>
+ * Records a binary trace of an execution in a preallocated ring buffer. A
+ * recorder is attached to an execution using
+ * {@link OPMExecutionContext#setTraceRecorder(OPMTraceRecorder)}, and the
+ * process instances of the execution write a record when a process is
+ * scheduled, started and finished, when a variable is set, when an event link
+ * fires and when an argument is bound (see {@link OPMTraceRecordType}).
+ * </p>
+ *
+ * <p>
+ * Every record has a fixed size of {@value #RECORD_SIZE} bytes: a timestamp,
+ * the id of the writing thread, the record type, the id of the in-zoomed
+ * instance that wrote it and the ids of the model elements involved. Writing a
+ * record does not allocate and does not lock: a writer claims the next
+ * sequence number and writes the record in its slot of the buffer. When the
+ * buffer is full the oldest records are overwritten.
+ * </p>
+ *
+ * <p>
+ * The sequence number of the record in every slot is kept in a separate
+ * {@link AtomicLongArray}, which works as a sequence lock. A writer marks the
+ * slot as being written (-1), writes the record and then publishes its
+ * sequence number. A reader reads the sequence number before and after reading
+ * the record and keeps the record only if both are its sequence number. A
+ * writer that wraps around the buffer waits until the previous record in its
+ * slot is complete, so two writers never write the same slot at once.
+ * </p>
+ *
+ * <p>
+ * The values of variables and arguments are kept by reference in a parallel
+ * array, without copying them. Since {@link OPMObjectInstance}s are immutable
+ * (updating a collection or a composite creates a new instance), a recorded
+ * value is an exact snapshot of the value at the time it was recorded. This is
+ * what lets {@link OPMTraceReader#reconstructHeap} rebuild the heap as it was
+ * at any record of the trace.
+ * </p>
+ *
+ * <p>
+ * The trace is read using an {@link OPMTraceReader}, normally after the
+ * execution finished. Records that are overwritten or still being written while
+ * the reader is created are skipped.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ */
+public class OPMTraceRecorder {
+
+  static final int RECORD_SIZE = 40;
+  private static final int TIMESTAMP_OFFSET = 0;
+  private static final int THREAD_OFFSET = 8;
+  private static final int ELEMENT_OFFSET = 16;
+  private static final int SECONDARY_ELEMENT_OFFSET = 24;
+  private static final int TYPE_OFFSET = 32;
+  private static final int INSTANCE_OFFSET = 36;
+  private static final long WRITING = -1;
+  private static final OPMTraceRecordType[] RECORD_TYPES = OPMTraceRecordType.values();
+
+  private final ByteBuffer buffer;
+  private final AtomicLongArray sequences;
+  private final OPMObjectInstance[] values;
+  private final int mask;
+  private final AtomicLong nextSequence = new AtomicLong();
+  private final AtomicInteger nextInstanceId = new AtomicInteger();
+
+  /**
+   * Create a new recorder.
+   *
+   * @param capacity
+   *          the number of records kept by the recorder. It is rounded up to
+   *          the next power of two.
+   */
+  public OPMTraceRecorder(int capacity) {
+    if(capacity <= 0 || capacity > (1 << 30) / RECORD_SIZE) {
+      throw new IllegalArgumentException("Invalid trace capacity " + capacity + ".");
+    }
+    int slots = Integer.highestOneBit(capacity);
+    if(slots < capacity) {
+      slots <<= 1;
+    }
+    this.buffer = ByteBuffer.allocateDirect(slots * RECORD_SIZE);
+    this.sequences = new AtomicLongArray(slots);
+    this.values = new OPMObjectInstance[slots];
+    this.mask = slots - 1;
+    clear();
+  }
+
+  /**
+   * @return a new id for an in-zoomed process instance, used to tell apart the
+   *         records of different executions of the same OPD.
+   */
+  public int createInstanceId() {
+    return nextInstanceId.incrementAndGet();
+  }
+
+  /**
+   * Write a record. The record is written in the slot of its sequence number
+   * using absolute puts, which do not change the state of the buffer. The
+   * writer first waits until the record previously written in the slot is
+   * complete and marks the slot as being written. The sequence number is
+   * published last and marks the record as complete.
+   *
+   * @param type
+   *          the type of the record.
+   * @param instanceId
+   *          the id of the in-zoomed instance writing the record, or 0.
+   * @param elementId
+   *          the id of the main element of the record.
+   * @param secondaryElementId
+   *          the id of the secondary element of the record, or 0.
+   * @param value
+   *          the value of the record, or <code>null</code>.
+   */
+  public void record(OPMTraceRecordType type, int instanceId, long elementId, long secondaryElementId,
+      OPMObjectInstance value) {
+    long sequence = nextSequence.getAndIncrement();
+    int slot = (int) (sequence & mask);
+    int offset = slot * RECORD_SIZE;
+    // the previous record in the slot has sequence - capacity
+    while(!sequences.compareAndSet(slot, sequence - values.length, WRITING)) {
+      Thread.yield();
+    }
+    buffer.putLong(offset + TIMESTAMP_OFFSET, System.nanoTime());
+    buffer.putLong(offset + THREAD_OFFSET, Thread.currentThread().getId());
+    buffer.putLong(offset + ELEMENT_OFFSET, elementId);
+    buffer.putLong(offset + SECONDARY_ELEMENT_OFFSET, secondaryElementId);
+    buffer.putInt(offset + TYPE_OFFSET, type.ordinal());
+    buffer.putInt(offset + INSTANCE_OFFSET, instanceId);
+    values[slot] = value;
+    sequences.lazySet(slot, sequence);
+  }
+
+  /**
+   * @return the number of records written since the recorder was created,
+   *         including the ones that were overwritten.
+   */
+  public long getRecordCount() {
+    return nextSequence.get();
+  }
+
+  /**
+   * @return the number of records kept by the recorder.
+   */
+  public int getCapacity() {
+    return values.length;
+  }
+
+  /**
+   * Remove all the records. Must not be called while records are written.
+   */
+  public void clear() {
+    for(int slot = 0; slot < values.length; slot++) {
+      values[slot] = null;
+      // as if the slot had the record before the first one that uses it
+      sequences.set(slot, slot - values.length);
+    }
+    nextSequence.set(0);
+  }
+
+  /**
+   * Read the complete records that are still in the buffer, oldest first.
+   */
+  List<OPMTraceRecord> readRecords() {
+    long end = nextSequence.get();
+    long start = Math.max(0, end - values.length);
+    List<OPMTraceRecord> records = Lists.newArrayListWithCapacity((int) (end - start));
+    for(long sequence = start; sequence < end; sequence++) {
+      int slot = (int) (sequence & mask);
+      int offset = slot * RECORD_SIZE;
+      if(sequences.get(slot) != sequence) {
+        continue;
+      }
+      OPMTraceRecord record = new OPMTraceRecord(sequence, buffer.getLong(offset + TIMESTAMP_OFFSET),
+          buffer.getLong(offset + THREAD_OFFSET), RECORD_TYPES[buffer.getInt(offset + TYPE_OFFSET)],
+          buffer.getInt(offset + INSTANCE_OFFSET), buffer.getLong(offset + ELEMENT_OFFSET),
+          buffer.getLong(offset + SECONDARY_ELEMENT_OFFSET), values[slot]);
+      if(sequences.get(slot) == sequence) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+}
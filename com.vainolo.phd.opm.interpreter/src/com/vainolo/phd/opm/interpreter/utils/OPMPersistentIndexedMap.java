@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * An immutable map from integer indexes to values, sorted by index, that is
+ * used to store the elements of collections.
+ * </p>
+ *
+ * <p>
+ * While the indexes of the map are <code>1..size</code>, which is the case
+ * when the values are only appended or replaced, the values are stored densely
+ * in an {@link OPMPersistentVector}. When a value is put in an index that
+ * leaves a gap, or a value that is not the last is removed, the map changes
+ * (once) to a sparse representation that stores the values in an
+ * {@link OPMPersistentSortedMap}.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ * @param <V>
+ *          the type of the values.
+ */
+public final class OPMPersistentIndexedMap<V> {
+
+  @SuppressWarnings("rawtypes")
+  private static final OPMPersistentIndexedMap EMPTY = new OPMPersistentIndexedMap<Object>(
+      OPMPersistentVector.empty(), null);
+
+  private final OPMPersistentVector<V> dense;
+  private final OPMPersistentSortedMap<Integer, V> sparse;
+  private Map<Integer, V> mapView = null;
+
+  private OPMPersistentIndexedMap(OPMPersistentVector<V> dense, OPMPersistentSortedMap<Integer, V> sparse) {
+    this.dense = dense;
+    this.sparse = sparse;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <V> OPMPersistentIndexedMap<V> empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Check if the values are stored densely, in indexes <code>1..size</code>.
+   */
+  public boolean isDense() {
+    return dense != null;
+  }
+
+  public int size() {
+    return isDense() ? dense.size() : sparse.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public V get(int index) {
+    if(isDense()) {
+      return (index >= 1 && index <= dense.size()) ? dense.get(index - 1) : null;
+    }
+    return sparse.get(index);
+  }
+
+  public boolean containsKey(int index) {
+    return get(index) != null;
+  }
+
+  public int firstKey() {
+    if(isDense()) {
+      if(dense.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return 1;
+    }
+    return sparse.firstKey();
+  }
+
+  public int lastKey() {
+    if(isDense()) {
+      if(dense.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return dense.size();
+    }
+    return sparse.lastKey();
+  }
+
+  /**
+   * Put a value in an index, replacing the existing value in the index.
+   *
+   * @return a new map with the value.
+   */
+  public OPMPersistentIndexedMap<V> put(int index, V value) {
+    if(value == null) {
+      throw new NullPointerException("Values cannot be null.");
+    }
+    if(isDense()) {
+      if(index >= 1 && index <= dense.size() + 1) {
+        return new OPMPersistentIndexedMap<V>(dense.set(index - 1, value), null);
+      }
+      return new OPMPersistentIndexedMap<V>(null, toSparse().put(index, value));
+    }
+    return new OPMPersistentIndexedMap<V>(null, sparse.put(index, value));
+  }
+
+  /**
+   * Put a value after the last value of the map.
+   *
+   * @return a new map with the value.
+   */
+  public OPMPersistentIndexedMap<V> append(V value) {
+    return put(isEmpty() ? 1 : lastKey() + 1, value);
+  }
+
+  /**
+   * Remove the value in an index.
+   *
+   * @return a new map without the value, or this map if it doesn't have a
+   *         value in the index.
+   */
+  public OPMPersistentIndexedMap<V> remove(int index) {
+    if(!containsKey(index)) {
+      return this;
+    }
+    if(isDense()) {
+      if(index == dense.size()) {
+        return new OPMPersistentIndexedMap<V>(dense.removeLast(), null);
+      }
+      return new OPMPersistentIndexedMap<V>(null, toSparse().remove(index));
+    }
+    return new OPMPersistentIndexedMap<V>(null, sparse.remove(index));
+  }
+
+  /**
+   * Check if this map and another map share the same values. Like
+   * {@link OPMPersistentSortedMap#isSameAs(OPMPersistentSortedMap)}, this
+   * doesn't compare the values.
+   */
+  public boolean isSameAs(OPMPersistentIndexedMap<V> other) {
+    if(isDense()) {
+      return dense == other.dense;
+    }
+    return other.sparse != null && sparse.isSameAs(other.sparse);
+  }
+
+  /**
+   * Get the values of the map, sorted by index.
+   */
+  public Collection<V> values() {
+    return isDense() ? dense.asList() : sparse.asMap().values();
+  }
+
+  /**
+   * Get an unmodifiable {@link Map} view of this map, iterated in index order.
+   */
+  public Map<Integer, V> asMap() {
+    if(!isDense()) {
+      return sparse.asMap();
+    }
+    if(mapView == null) {
+      mapView = new DenseMapView();
+    }
+    return mapView;
+  }
+
+  private OPMPersistentSortedMap<Integer, V> toSparse() {
+    OPMPersistentSortedMap<Integer, V> map = OPMPersistentSortedMap.empty();
+    int index = 1;
+    for(V value : dense.asList()) {
+      map = map.put(index++, value);
+    }
+    return map;
+  }
+
+  private final class DenseMapView extends AbstractMap<Integer, V> {
+    @Override
+    public Set<Map.Entry<Integer, V>> entrySet() {
+      return new AbstractSet<Map.Entry<Integer, V>>() {
+        @Override
+        public Iterator<Map.Entry<Integer, V>> iterator() {
+          final Iterator<V> values = dense.asList().iterator();
+          return new Iterator<Map.Entry<Integer, V>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+              return values.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Integer, V> next() {
+              V value = values.next();
+              return new SimpleImmutableEntry<Integer, V>(++index, value);
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return dense.size();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return dense.size();
+    }
+
+    @Override
+    public V get(Object key) {
+      return (key instanceof Integer) ? OPMPersistentIndexedMap.this.get((Integer) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+  }
+}
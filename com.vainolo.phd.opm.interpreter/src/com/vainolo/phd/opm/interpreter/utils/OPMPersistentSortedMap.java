@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * An immutable sorted map. Updating the map does not change it but returns a
+ * new map that shares with it all the entries that were not changed, so a map
+ * can be "copied" by keeping a reference to it and updated in
+ * <code>O(log n)</code> time and space.
+ * </p>
+ *
+ * <p>
+ * The map is an AVL tree whose nodes are never modified. An update copies only
+ * the nodes in the path from the root to the updated entry.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ * @param <K>
+ *          the type of the keys.
+ * @param <V>
+ *          the type of the values.
+ */
+public final class OPMPersistentSortedMap<K extends Comparable<? super K>, V> {
+
+  @SuppressWarnings("rawtypes")
+  private static final OPMPersistentSortedMap EMPTY = new OPMPersistentSortedMap<String, Object>(null);
+
+  private final Node<K, V> root;
+  private Map<K, V> mapView = null;
+
+  private OPMPersistentSortedMap(Node<K, V> root) {
+    this.root = root;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K extends Comparable<? super K>, V> OPMPersistentSortedMap<K, V> empty() {
+    return EMPTY;
+  }
+
+  public int size() {
+    return size(root);
+  }
+
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  public V get(K key) {
+    Node<K, V> node = root;
+    while(node != null) {
+      int comparison = key.compareTo(node.key);
+      if(comparison == 0) {
+        return node.value;
+      }
+      node = comparison < 0 ? node.left : node.right;
+    }
+    return null;
+  }
+
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  public K firstKey() {
+    if(root == null) {
+      throw new NoSuchElementException();
+    }
+    Node<K, V> node = root;
+    while(node.left != null) {
+      node = node.left;
+    }
+    return node.key;
+  }
+
+  public K lastKey() {
+    if(root == null) {
+      throw new NoSuchElementException();
+    }
+    Node<K, V> node = root;
+    while(node.right != null) {
+      node = node.right;
+    }
+    return node.key;
+  }
+
+  /**
+   * Associate a value with a key.
+   *
+   * @param key
+   *          cannot be <code>null</code>.
+   * @param value
+   *          cannot be <code>null</code>.
+   * @return a map with the new association, that shares all other entries
+   *         with this map.
+   */
+  public OPMPersistentSortedMap<K, V> put(K key, V value) {
+    if(key == null || value == null) {
+      throw new NullPointerException("Keys and values cannot be null.");
+    }
+    Node<K, V> newRoot = put(root, key, value);
+    return newRoot == root ? this : new OPMPersistentSortedMap<K, V>(newRoot);
+  }
+
+  /**
+   * Remove the value associated with a key.
+   *
+   * @param key
+   *          the key to remove.
+   * @return a map without the key, or this map if it doesn't have the key.
+   */
+  public OPMPersistentSortedMap<K, V> remove(K key) {
+    Node<K, V> newRoot = remove(root, key);
+    return newRoot == root ? this : new OPMPersistentSortedMap<K, V>(newRoot);
+  }
+
+  /**
+   * Check if this map and another map share the same entries. This is a fast
+   * check that doesn't compare the entries, so maps with equal entries that
+   * were created separately are not considered the same.
+   */
+  public boolean isSameAs(OPMPersistentSortedMap<K, V> other) {
+    return root == other.root;
+  }
+
+  /**
+   * Get an unmodifiable {@link Map} view of this map, iterated in key order.
+   */
+  public Map<K, V> asMap() {
+    if(mapView == null) {
+      mapView = new MapView();
+    }
+    return mapView;
+  }
+
+  private static int size(Node<?, ?> node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static int height(Node<?, ?> node) {
+    return node == null ? 0 : node.height;
+  }
+
+  private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+    if(node == null) {
+      return new Node<K, V>(key, value, null, null);
+    }
+    int comparison = key.compareTo(node.key);
+    if(comparison == 0) {
+      return node.value == value ? node : new Node<K, V>(key, value, node.left, node.right);
+    } else if(comparison < 0) {
+      Node<K, V> left = put(node.left, key, value);
+      return left == node.left ? node : balance(node.key, node.value, left, node.right);
+    } else {
+      Node<K, V> right = put(node.right, key, value);
+      return right == node.right ? node : balance(node.key, node.value, node.left, right);
+    }
+  }
+
+  private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+    if(node == null) {
+      return null;
+    }
+    int comparison = key.compareTo(node.key);
+    if(comparison < 0) {
+      Node<K, V> left = remove(node.left, key);
+      return left == node.left ? node : balance(node.key, node.value, left, node.right);
+    } else if(comparison > 0) {
+      Node<K, V> right = remove(node.right, key);
+      return right == node.right ? node : balance(node.key, node.value, node.left, right);
+    } else if(node.left == null) {
+      return node.right;
+    } else if(node.right == null) {
+      return node.left;
+    } else {
+      Node<K, V> successor = node.right;
+      while(successor.left != null) {
+        successor = successor.left;
+      }
+      return balance(successor.key, successor.value, node.left, remove(node.right, successor.key));
+    }
+  }
+
+  private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+    int difference = height(left) - height(right);
+    if(difference > 1) {
+      if(height(left.left) < height(left.right)) {
+        left = rotateLeft(left.key, left.value, left.left, left.right);
+      }
+      return rotateRight(key, value, left, right);
+    } else if(difference < -1) {
+      if(height(right.right) < height(right.left)) {
+        right = rotateRight(right.key, right.value, right.left, right.right);
+      }
+      return rotateLeft(key, value, left, right);
+    }
+    return new Node<K, V>(key, value, left, right);
+  }
+
+  private static <K, V> Node<K, V> rotateLeft(K key, V value, Node<K, V> left, Node<K, V> right) {
+    return new Node<K, V>(right.key, right.value, new Node<K, V>(key, value, left, right.left), right.right);
+  }
+
+  private static <K, V> Node<K, V> rotateRight(K key, V value, Node<K, V> left, Node<K, V> right) {
+    return new Node<K, V>(left.key, left.value, left.left, new Node<K, V>(key, value, left.right, right));
+  }
+
+  private static final class Node<K, V> implements Map.Entry<K, V> {
+    private final K key;
+    private final V value;
+    private final Node<K, V> left;
+    private final Node<K, V> right;
+    private final int height;
+    private final int size;
+
+    private Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+      this.key = key;
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(height(left), height(right)) + 1;
+      this.size = size(left) + size(right) + 1;
+    }
+
+    @Override
+    public K getKey() {
+      return key;
+    }
+
+    @Override
+    public V getValue() {
+      return value;
+    }
+
+    @Override
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(!(obj instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+      return key.equals(other.getKey()) && value.equals(other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * In-order iterator over the nodes of the tree.
+   */
+  private static final class NodeIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+    private final Deque<Node<K, V>> path = new ArrayDeque<Node<K, V>>();
+
+    private NodeIterator(Node<K, V> root) {
+      pushLeftPath(root);
+    }
+
+    private void pushLeftPath(Node<K, V> node) {
+      while(node != null) {
+        path.push(node);
+        node = node.left;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !path.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if(path.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      Node<K, V> node = path.pop();
+      pushLeftPath(node.right);
+      return node;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class MapView extends AbstractMap<K, V> {
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          return new NodeIterator<K, V>(root);
+        }
+
+        @Override
+        public int size() {
+          return OPMPersistentSortedMap.this.size();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return OPMPersistentSortedMap.this.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      return key == null ? null : OPMPersistentSortedMap.this.get((K) key);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return key != null && OPMPersistentSortedMap.this.containsKey((K) key);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Arieh 'Vainolo' Bibliowicz
+ * You can use this code for educational purposes. For any other uses
+ * please contact me: vainolo@gmail.com
+ *******************************************************************************/
+package com.vainolo.phd.opm.interpreter.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * An immutable list of values, stored in arrays. Like the
+ * {@link OPMPersistentSortedMap}, updating the vector returns a new vector that
+ * shares most of its arrays with the original vector.
+ * </p>
+ *
+ * <p>
+ * The values are stored in a tree of arrays of {@value #WIDTH} elements whose
+ * leaves hold the values, plus a tail array that holds the last (up to
+ * {@value #WIDTH}) values. Getting and setting a value take
+ * <code>O(log32 n)</code> time, and appending a value usually only copies the
+ * tail array. Each value costs a little more than one array slot.
+ * </p>
+ *
+ * @author Arieh 'Vainolo' Bibliowicz
+ *
+ * @param <V>
+ *          the type of the values.
+ */
+public final class OPMPersistentVector<V> {
+
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final Object[] EMPTY_NODE = new Object[WIDTH];
+  private static final Object[] EMPTY_TAIL = new Object[0];
+
+  @SuppressWarnings("rawtypes")
+  private static final OPMPersistentVector EMPTY = new OPMPersistentVector<Object>(0, BITS, EMPTY_NODE, EMPTY_TAIL);
+
+  private final int size;
+  private final int shift;
+  private final Object[] root;
+  private final Object[] tail;
+
+  private OPMPersistentVector(int size, int shift, Object[] root, Object[] tail) {
+    this.size = size;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <V> OPMPersistentVector<V> empty() {
+    return EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Get a value.
+   *
+   * @param index
+   *          the position of the value, starting from 0.
+   * @return the value in the position.
+   * @throws IndexOutOfBoundsException
+   *           if the position is not in the vector.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int index) {
+    return (V) arrayFor(index)[index & MASK];
+  }
+
+  /**
+   * Add a value after the last value of the vector.
+   *
+   * @return a new vector with the value.
+   */
+  public OPMPersistentVector<V> append(V value) {
+    if(size - tailOffset() < WIDTH) {
+      Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = value;
+      return new OPMPersistentVector<V>(size + 1, shift, root, newTail);
+    }
+    Object[] newRoot;
+    int newShift = shift;
+    if((size >>> BITS) > (1 << shift)) {
+      newRoot = new Object[WIDTH];
+      newRoot[0] = root;
+      newRoot[1] = newPath(shift, tail);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root, tail);
+    }
+    return new OPMPersistentVector<V>(size + 1, newShift, newRoot, new Object[] { value });
+  }
+
+  /**
+   * Replace a value. Setting the value after the last value appends it.
+   *
+   * @param index
+   *          the position of the value, starting from 0.
+   * @return a new vector with the value.
+   * @throws IndexOutOfBoundsException
+   *           if the position is not in the vector and is not the position
+   *           after the last value.
+   */
+  public OPMPersistentVector<V> set(int index, V value) {
+    if(index == size) {
+      return append(value);
+    }
+    checkIndex(index);
+    if(index >= tailOffset()) {
+      Object[] newTail = tail.clone();
+      newTail[index & MASK] = value;
+      return new OPMPersistentVector<V>(size, shift, root, newTail);
+    }
+    return new OPMPersistentVector<V>(size, shift, set(shift, root, index, value), tail);
+  }
+
+  /**
+   * Remove the last value of the vector.
+   *
+   * @return a new vector without the last value.
+   * @throws NoSuchElementException
+   *           if the vector is empty.
+   */
+  public OPMPersistentVector<V> removeLast() {
+    if(size == 0) {
+      throw new NoSuchElementException();
+    }
+    if(size == 1) {
+      return empty();
+    }
+    if(size - tailOffset() > 1) {
+      return new OPMPersistentVector<V>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+    }
+    Object[] newTail = arrayFor(size - 2);
+    Object[] newRoot = removeLastLeaf(shift, root);
+    int newShift = shift;
+    if(newRoot == null) {
+      newRoot = EMPTY_NODE;
+    }
+    if(shift > BITS && newRoot[1] == null) {
+      newRoot = (Object[]) newRoot[0];
+      newShift -= BITS;
+    }
+    return new OPMPersistentVector<V>(size - 1, newShift, newRoot, newTail);
+  }
+
+  /**
+   * Get an unmodifiable {@link List} view of this vector.
+   */
+  public List<V> asList() {
+    return new AbstractList<V>() {
+      @Override
+      public V get(int index) {
+        return OPMPersistentVector.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<V> iterator() {
+        return new ValueIterator();
+      }
+    };
+  }
+
+  private int tailOffset() {
+    return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+  }
+
+  private void checkIndex(int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private Object[] arrayFor(int index) {
+    checkIndex(index);
+    if(index >= tailOffset()) {
+      return tail;
+    }
+    Object[] node = root;
+    for(int level = shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & MASK];
+    }
+    return node;
+  }
+
+  private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+    int childIndex = ((size - 1) >>> level) & MASK;
+    Object[] newParent = parent.clone();
+    Object[] child;
+    if(level == BITS) {
+      child = tailNode;
+    } else if(parent[childIndex] != null) {
+      child = pushTail(level - BITS, (Object[]) parent[childIndex], tailNode);
+    } else {
+      child = newPath(level - BITS, tailNode);
+    }
+    newParent[childIndex] = child;
+    return newParent;
+  }
+
+  private static Object[] newPath(int level, Object[] node) {
+    if(level == 0) {
+      return node;
+    }
+    Object[] path = new Object[WIDTH];
+    path[0] = newPath(level - BITS, node);
+    return path;
+  }
+
+  private static Object[] set(int level, Object[] node, int index, Object value) {
+    Object[] newNode = node.clone();
+    if(level == 0) {
+      newNode[index & MASK] = value;
+    } else {
+      int childIndex = (index >>> level) & MASK;
+      newNode[childIndex] = set(level - BITS, (Object[]) node[childIndex], index, value);
+    }
+    return newNode;
+  }
+
+  private Object[] removeLastLeaf(int level, Object[] node) {
+    int childIndex = ((size - 2) >>> level) & MASK;
+    if(level > BITS) {
+      Object[] newChild = removeLastLeaf(level - BITS, (Object[]) node[childIndex]);
+      if(newChild == null && childIndex == 0) {
+        return null;
+      }
+      Object[] newNode = node.clone();
+      newNode[childIndex] = newChild;
+      return newNode;
+    } else if(childIndex == 0) {
+      return null;
+    } else {
+      Object[] newNode = node.clone();
+      newNode[childIndex] = null;
+      return newNode;
+    }
+  }
+
+  /**
+   * Iterates over the values one leaf array at a time.
+   */
+  private final class ValueIterator implements Iterator<V> {
+    private int index = 0;
+    private Object[] leaf = null;
+
+    @Override
+    public boolean hasNext() {
+      return index < size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V next() {
+      if(index >= size) {
+        throw new NoSuchElementException();
+      }
+      if((index & MASK) == 0 || leaf == null) {
+        leaf = arrayFor(index);
+      }
+      return (V) leaf[index++ & MASK];
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}